@@ -29,7 +29,6 @@ package newance.mzjava.mol.modification.unimod;
 
 
 import com.google.common.base.Optional;
-import newance.mzjava.mol.Weighable;
 import newance.mzjava.mol.modification.Modification;
 import newance.mzjava.mol.modification.Tolerance;
 import newance.mzjava.mol.modification.unimod.jaxb.UnimodT;
@@ -59,6 +58,7 @@ public class UnimodManager {
     private final Map<String, UnimodMod> psiNameToModMap = new HashMap<String, UnimodMod>();
     private final Map<String, UnimodMod> interimNameToModMap = new HashMap<String, UnimodMod>();
     private final List<UnimodMod> modificationList = new ArrayList<UnimodMod>();
+    private UnimodMassIndex massIndex;
 
 
     private UnimodManager(){
@@ -128,6 +128,8 @@ public class UnimodManager {
                 return Double.compare(o1.getMolecularMass(), o2.getMolecularMass());
             }
         });
+
+        massIndex = new UnimodMassIndex(modificationList);
     }
 
 
@@ -157,22 +159,7 @@ public class UnimodManager {
 
     public static List<Modification> getModifications(final double mass, final Tolerance tolerance, final Set<String> aminoAcids) {
 
-        List<Modification> modifs = getInstance().doGetModifications(mass, tolerance);
-
-        List<Modification> matchedModifs = new ArrayList<>();
-        for (Modification modif : modifs) {
-            UnimodMod uniMod = (UnimodMod) modif;
-
-
-            for (String aa : aminoAcids) {
-                if (uniMod.getSites().contains(aa)) {
-                    matchedModifs.add(modif);
-                    break;
-                }
-            }
-        }
-
-        return matchedModifs;
+        return getInstance().massIndex.getModifications(mass, tolerance, aminoAcids);
     }
 
     /**
@@ -184,39 +171,7 @@ public class UnimodManager {
      */
     private List<Modification> doGetModifications(final double mass, final Tolerance tolerance) {
 
-        List<Modification> modifications = new ArrayList<Modification>();
-
-        Weighable key = new Weighable(){
-            @Override
-            public double getMolecularMass() {
-
-                return tolerance.getMin(mass);
-            }
-        };
-
-        int index = Collections.binarySearch(modificationList, key, new Comparator<Weighable>() {
-            @Override
-            public int compare(Weighable o1, Weighable o2) {
-
-                return Double.compare(o1.getMolecularMass(), o2.getMolecularMass());
-            }
-        });
-
-        if (index < 0) index = -1 * (index + 1);
-
-        for(; index < modificationList.size(); index++) {
-
-            Modification mod = modificationList.get(index);
-
-            Tolerance.Location location = tolerance.check(mass, mod.getMolecularMass());
-            if(location == Tolerance.Location.WITHIN) {
-                modifications.add(mod);
-            }
-            else if(location == Tolerance.Location.LARGER) break;
-            else throw new IllegalStateException("Have bug in code");
-        }
-
-        return modifications;
+        return massIndex.getModifications(mass, tolerance);
     }
 
     public String toString() {
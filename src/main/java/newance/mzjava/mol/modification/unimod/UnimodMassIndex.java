@@ -0,0 +1,169 @@
+/*
+Copyright (C) SIB - Swiss Institute of Bioinformatics, Lausanne, Switzerland
+Copyright (C) LICR - Ludwig Institute of Cancer Research, Lausanne, Switzerland
+This program is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation, either version 2 of the License, or (at your option) any later version.
+This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+You should have received a copy of the GNU General Public License along with this program. If not, see https://www.gnu.org/licenses/.
+*/
+
+package newance.mzjava.mol.modification.unimod;
+
+import newance.mzjava.mol.modification.Modification;
+import newance.mzjava.mol.modification.Tolerance;
+
+import java.util.*;
+
+/**
+ * Mass index of Unimod modifications. The masses are held in a sorted double array and mass range queries are answered
+ * by binary search. For each modification site (amino acid or terminus) a separate index of the modifications with
+ * this site is built, so that site specific queries do not filter the modifications of all sites.
+ *
+ * @author Markus Müller
+ */
+
+public class UnimodMassIndex {
+
+    private final UnimodMod[] modifications; // sorted by mass
+    private final double[] masses;
+    private final Map<String, SiteIndex> siteIndexes;
+
+    public UnimodMassIndex(Collection<UnimodMod> mods) {
+
+        List<UnimodMod> sorted = new ArrayList<>(mods);
+        Collections.sort(sorted, new Comparator<Modification>() {
+            @Override
+            public int compare(Modification o1, Modification o2) {
+
+                return Double.compare(o1.getMolecularMass(), o2.getMolecularMass());
+            }
+        });
+
+        modifications = sorted.toArray(new UnimodMod[sorted.size()]);
+        masses = new double[modifications.length];
+        for (int i = 0; i < modifications.length; i++) masses[i] = modifications[i].getMolecularMass();
+
+        Map<String, List<Integer>> siteMap = new HashMap<>();
+        for (int i = 0; i < modifications.length; i++) {
+
+            for (String site : new HashSet<>(modifications[i].getSites())) {
+
+                List<Integer> indexes = siteMap.get(site);
+                if (indexes == null) {
+                    indexes = new ArrayList<>();
+                    siteMap.put(site, indexes);
+                }
+                indexes.add(i);
+            }
+        }
+
+        siteIndexes = new HashMap<>();
+        for (Map.Entry<String, List<Integer>> entry : siteMap.entrySet()) {
+            siteIndexes.put(entry.getKey(), new SiteIndex(entry.getValue(), masses));
+        }
+    }
+
+    /**
+     * Get all modifications at the given mass.
+     *
+     * @param mass      the modification mass.
+     * @param tolerance the precision of the mass.
+     * @return the modifications with the given mass sorted by mass.
+     */
+    public List<Modification> getModifications(double mass, Tolerance tolerance) {
+
+        List<Modification> matches = new ArrayList<>();
+
+        for (int i = lowerBound(masses, mass, tolerance); i < masses.length; i++) {
+
+            Tolerance.Location location = tolerance.check(mass, masses[i]);
+            if (location == Tolerance.Location.WITHIN) matches.add(modifications[i]);
+            else if (location == Tolerance.Location.LARGER) break;
+        }
+
+        return matches;
+    }
+
+    /**
+     * Get all modifications at the given mass, which have at least one of the sites.
+     *
+     * @param mass      the modification mass.
+     * @param tolerance the precision of the mass.
+     * @param sites     the modification sites (e.g. amino acid symbols)
+     * @return the modifications with the given mass and sites sorted by mass.
+     */
+    public List<Modification> getModifications(double mass, Tolerance tolerance, Set<String> sites) {
+
+        int[] matches = new int[4];
+        int nrMatches = 0;
+
+        for (String site : sites) {
+
+            SiteIndex siteIndex = siteIndexes.get(site);
+            if (siteIndex == null) continue;
+
+            for (int i = lowerBound(siteIndex.masses, mass, tolerance); i < siteIndex.masses.length; i++) {
+
+                Tolerance.Location location = tolerance.check(mass, siteIndex.masses[i]);
+                if (location == Tolerance.Location.WITHIN) {
+                    if (nrMatches == matches.length) matches = Arrays.copyOf(matches, 2 * nrMatches);
+                    matches[nrMatches++] = siteIndex.indexes[i];
+                }
+                else if (location == Tolerance.Location.LARGER) break;
+            }
+        }
+
+        // the sites can share modifications, the global indexes restore the mass order
+        Arrays.sort(matches, 0, nrMatches);
+        List<Modification> modifs = new ArrayList<>(nrMatches);
+        for (int i = 0; i < nrMatches; i++) {
+            if (i == 0 || matches[i] != matches[i - 1]) modifs.add(modifications[matches[i]]);
+        }
+
+        return modifs;
+    }
+
+    public int size() {
+
+        return modifications.length;
+    }
+
+    /**
+     * @return index of the first mass, which is not smaller than the tolerance interval around mass
+     */
+    private static int lowerBound(double[] masses, double mass, Tolerance tolerance) {
+
+        double minMass = tolerance.getMin(mass);
+
+        int low = 0;
+        int high = masses.length;
+        while (low < high) {
+
+            int mid = (low + high) >>> 1;
+            if (masses[mid] < minMass) low = mid + 1;
+            else high = mid;
+        }
+
+        // Tolerance.check may round the masses (e.g. AbsoluteTolerance), which can include masses just below minMass
+        while (low > 0 && tolerance.check(mass, masses[low - 1]) != Tolerance.Location.SMALLER) low--;
+
+        return low;
+    }
+
+    private static class SiteIndex {
+
+        private final int[] indexes; // indexes into modifications
+        private final double[] masses;
+
+        private SiteIndex(List<Integer> indexList, double[] allMasses) {
+
+            indexes = new int[indexList.size()];
+            masses = new double[indexList.size()];
+            for (int i = 0; i < indexes.length; i++) {
+                indexes[i] = indexList.get(i);
+                masses[i] = allMasses[indexes[i]];
+            }
+        }
+    }
+}
@@ -16,8 +16,6 @@ public class SequenceVariant {
     final private String info;
     private VariantType type;
 
-    private int variantPos;
-
     // for simple variants
     public SequenceVariant(String proteinID, int proteinLength, int position, String mutatedSequence, String info) {
 
@@ -118,10 +116,6 @@ public class SequenceVariant {
         return proteinLength;
     }
 
-    public int getPosAfterVariant() {
-        return variantPos;
-    }
-
     public String toString() {
         return type +":" + String.format("%d,%d,%s,%s",startWT, endWT, mutatedSequence,info);
     }
@@ -168,57 +162,50 @@ public class SequenceVariant {
 
     public boolean match(String variantStr, int start) {
 
-        variantPos = -1;
+        return matchEnd(variantStr, start) >= 0;
+    }
 
-        if (length==0) {
-            variantPos = start;
-            return true;
-        }
+    /**
+     * Matches the variant to variantStr at position start. The variant keeps no state of the match, since the same
+     * variant is matched concurrently by the PSM annotation threads.
+     *
+     * @return position in variantStr after the variant, -1 if the variant does not match
+     */
+    public int matchEnd(String variantStr, int start) {
+
+        if (length==0) return start;
 
         int len2 = variantStr.length();
 
         if (type==VariantType.STOP) { // variantSeq must stop
-            if (len2 - start > length) return false; // variantSeq too long to match
+            if (len2 - start > length) return -1; // variantSeq too long to match
             else if (start > 0) {
-                boolean match = mutatedSequence.startsWith(variantStr.substring(start));
-                if (match) variantPos = len2;
-                return match; // variantSeq has to be at start
+                return mutatedSequence.startsWith(variantStr.substring(start))?len2:-1; // variantSeq has to be at start
             }
             else {
-                boolean match = mutatedSequence.contains(variantStr);
-                if (match) variantPos = len2;
-                return match; // variantSeq can be anywhere
+                return mutatedSequence.contains(variantStr)?len2:-1; // variantSeq can be anywhere
             }
         } else { // variantSeq can go on
             if (start == 0) return containsWithoutStop(variantStr); // variantSeq can start anywhere
             else {
                 int len1 = mutatedSequence.length();
-                variantPos = (len2-start<len1)?len2:start+len1;
-                if (mutatedSequence.startsWith(variantStr.substring(start, variantPos))) {
-                    return true;
-                } else {
-                    variantPos = -1;
-                    return false;
-                }
+                int end = (len2-start<len1)?len2:start+len1;
+                return mutatedSequence.startsWith(variantStr.substring(start, end))?end:-1;
             }
         }
     }
 
-    private boolean containsWithoutStop(String variantStr) {
+    private int containsWithoutStop(String variantStr) {
 
         int len1 = mutatedSequence.length();
         int len2 = variantStr.length();
         for (int i=0; i < mutatedSequence.length(); i++) {
             int end1 = (i+len2>len1)?len1:i+len2;
-            variantPos = (len1-i>len2)?len2:len1-i;
-            if (mutatedSequence.substring(i,end1).equals(variantStr.substring(0,variantPos))) {
-                return true;
-            } else {
-                variantPos = -1;
-            }
+            int end2 = (len1-i>len2)?len2:len1-i;
+            if (mutatedSequence.substring(i,end1).equals(variantStr.substring(0,end2))) return end2;
         }
 
-        return false;
+        return -1;
     }
 
 /*
@@ -0,0 +1,63 @@
+/*
+Copyright (C) SIB - Swiss Institute of Bioinformatics, Lausanne, Switzerland
+Copyright (C) LICR - Ludwig Institute of Cancer Research, Lausanne, Switzerland
+This program is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation, either version 2 of the License, or (at your option) any later version.
+This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+You should have received a copy of the GNU General Public License along with this program. If not, see https://www.gnu.org/licenses/.
+*/
+
+
+package newance.proteinmatch;
+
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of matching a variant peptide to a VariantProtein. The protein itself keeps no match state, so the same
+ * protein can be matched from several threads at once.
+ *
+ * @author Markus Müller
+ */
+
+public class VariantMatch {
+
+    private final int peptideStart;
+    private final int peptideEnd;
+    private final List<SequenceVariant> variants;
+
+    public VariantMatch(int peptideStart, int peptideEnd, List<SequenceVariant> variants) {
+
+        this.peptideStart = peptideStart;
+        this.peptideEnd = peptideEnd;
+        this.variants = Collections.unmodifiableList(variants);
+    }
+
+    /**
+     * @return start of the matched stretch in the wild type protein sequence, -1 if the peptide did not match
+     */
+    public int getPeptideStart() {
+        return peptideStart;
+    }
+
+    /**
+     * @return end (exclusive) of the matched stretch in the wild type protein sequence, -1 if the peptide did not match
+     */
+    public int getPeptideEnd() {
+        return peptideEnd;
+    }
+
+    public List<SequenceVariant> getVariants() {
+        return variants;
+    }
+
+    public boolean isMatch() {
+        return peptideStart >= 0;
+    }
+
+    public boolean hasVariants() {
+        return !variants.isEmpty();
+    }
+}
@@ -24,17 +24,12 @@ import java.util.List;
 public class VariantProtein extends FastaProtein {
     protected final VariantInfo variantInfo;
     protected int[][] variantPos;
-    protected final List<SequenceVariant> variants;
-    protected int peptideStart;
-    protected int peptideEnd;
 
 
     public VariantProtein(VariantInfo variantInfo, String sequence) {
         super(variantInfo.getProteinID(), sequence);
         this.variantInfo = variantInfo;
         this.variantPos = new int[this.sequence.length][];
-        this.variants = new ArrayList<>();
-        this.peptideStart = -1;
 
         setVariantPos();
     }
@@ -42,8 +37,6 @@ public class VariantProtein extends FastaProtein {
     public VariantProtein(VariantInfo variantInfo) {
         super(variantInfo.getProteinID());
         this.variantInfo = variantInfo;
-        this.variants = new ArrayList<>();
-        this.peptideStart = -1;
     }
 
     public String toString() {
@@ -58,14 +51,6 @@ public class VariantProtein extends FastaProtein {
         return variantInfo.hasVariants();
     }
 
-    public int getPeptideStart() {
-        return peptideStart;
-    }
-
-    public int getPeptideEnd() {
-        return peptideEnd;
-    }
-
     public void setSequence(String sequence) {
         super.setSequence(sequence);
         this.variantPos = new int[this.sequence.length+1][]; // insertion can be at end of sequence
@@ -96,30 +81,44 @@ public class VariantProtein extends FastaProtein {
 
     public List<SequenceVariant>  matchWithVariant(String variantSeq) {
 
-        if (variantSeq.isEmpty()) return null;
+        VariantMatch match = matchVariant(variantSeq);
 
-        variants.clear();
+        return (match == null) ? null : match.getVariants();
+    }
+
+    /**
+     * Matches a peptide to this protein, allowing for the sequence variants of the protein. The protein keeps no
+     * state of the match, so this method can be called concurrently for the same protein.
+     *
+     * @param variantSeq peptide sequence
+     * @return match with start, end and variants, null if variantSeq is empty
+     */
+    public VariantMatch matchVariant(String variantSeq) {
 
-        String s = new String(sequence);
-        if (matchMS(variantSeq)>=0) return variants;
+        if (variantSeq.isEmpty()) return null;
+
+        int start = matchMS(variantSeq);
+        if (start>=0) return new VariantMatch(start, start+variantSeq.length(), new ArrayList<>());
 
         char startCh = variantSeq.charAt(0);
         char[] variantChars = variantSeq.toCharArray();
+        int[] peptideEnd = new int[1];
 
         for (int i=0;i<variantPos.length;i++) {
             if (variantPos[i] == null && i < sequence.length && sequence[i] != startCh) continue;
 
-            if (matchWithVariant(variantChars, variantSeq, i, 0)) {
-                peptideStart = i;
-                return variants;
+            List<SequenceVariant> variants = new ArrayList<>();
+            if (matchWithVariant(variantChars, variantSeq, i, 0, variants, peptideEnd)) {
+                return new VariantMatch(i, peptideEnd[0], variants);
             }
 
         }
 
-        return variants;
+        return new VariantMatch(-1, -1, new ArrayList<>());
     }
 
-    private boolean matchWithVariant(char[] variantChars, String variantSeq, int proteinPos, int peptidePos) {
+    private boolean matchWithVariant(char[] variantChars, String variantSeq, int proteinPos, int peptidePos,
+                                     List<SequenceVariant> variants, int[] peptideEnd) {
 
         if (proteinPos >= sequence.length) return false;
 
@@ -135,10 +134,12 @@ public class VariantProtein extends FastaProtein {
 
                     variant = variantInfo.get(variantPos[si][k]);
 
-                    if (variant.match(variantSeq, vi)) {
+                    int posAfterVariant = variant.matchEnd(variantSeq, vi);
+
+                    if (posAfterVariant >= 0) {
 
                         if (matchWithVariant(variantChars, variantSeq, variant.getEndWT(),
-                                variant.getPosAfterVariant())) {
+                                posAfterVariant, variants, peptideEnd)) {
                             variants.add(variant);
                             return true; // only look for first variant that matches
                         }
@@ -154,13 +155,13 @@ public class VariantProtein extends FastaProtein {
             si++;
         }
 
-        peptideEnd = si;
+        peptideEnd[0] = si;
         return vi == variantChars.length;
     }
 
-    public String getWTSequence() {
+    public String getWTSequence(VariantMatch match) {
 
-        return String.copyValueOf(sequence, peptideStart, peptideEnd-peptideStart);
+        return String.copyValueOf(sequence, match.getPeptideStart(), match.getPeptideEnd()-match.getPeptideStart());
     }
 
 
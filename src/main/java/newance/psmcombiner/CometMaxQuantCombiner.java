@@ -12,6 +12,7 @@ package newance.psmcombiner;
 
 import newance.proteinmatch.VariantProtDB;
 import newance.psmconverter.PeptideSpectrumMatch;
+import newance.psmconverter.PsmStore;
 import newance.util.*;
 import org.apache.commons.cli.*;
 import newance.proteinmatch.OccamRazorSpectrumCounter;
@@ -125,23 +126,25 @@ public class CometMaxQuantCombiner extends ExecutableOptions {
         String sumFileName = params.getOutputDir() +File.separator+params.getOutputTag()+"_SummaryReport.txt";
         SummaryReportWriter summaryReportWriter = new SummaryReportWriter(sumFileName, true);
 
-        for (String group : cometGroupedFDRCalculator.getGroups()) {
+        PsmStore cometStore = cometGroupedFDRCalculator.makePsmStore(cometPSMs);
+        PsmStore maxQuantStore = maxquantGroupedFDRCalculator.makePsmStore(maxQuantPSMs);
 
-            ConcurrentHashMap<String, List<PeptideSpectrumMatch>> filteredCometPsms =
-                    cometGroupedFDRCalculator.filterPsms(cometPSMs, cometlFDRThreshold, group);
+        PsmStore.GroupSelection cometSelections = cometStore.selectGroups(cometGrplFDRThresholdMap);
+        PsmStore.GroupSelection maxQuantSelections = maxQuantStore.selectGroups(maxquantGrplFDRThresholdMap);
 
-            ConcurrentHashMap<String, List<PeptideSpectrumMatch>> filteredMaxQuantPsms =
-                    maxquantGroupedFDRCalculator.filterPsms(maxQuantPSMs, maxquantlFDRThreshold, group);
+        for (String group : cometGroupedFDRCalculator.getGroups()) {
 
+            BitSet cometSelection = cometSelections.get(group);
+            BitSet maxQuantSelection = maxQuantSelections.get(group);
 
-            combinedPSMs = combine(filteredCometPsms,filteredMaxQuantPsms);
+            combinedPSMs = combine(cometStore.toMap(cometSelection), maxQuantStore.toMap(maxQuantSelection));
 
             combinedPSMs.forEach(10000,spectrumAccumulator);
 
             writeToCombTabFile(group+"_"+params.getOutputTag()+"_NewAncePSMs.txt");
             System.out.println(combinedPSMs.size()+" spectra combined for group " + group);
 
-            summaryReportWriter.write(group, combinedPSMs, filteredCometPsms, filteredMaxQuantPsms);
+            summaryReportWriter.write(group, new PsmStore(combinedPSMs), cometStore, cometSelection, maxQuantStore, maxQuantSelection);
 
             System.out.println("Write data to summary report file.");
         }
@@ -161,23 +164,25 @@ public class CometMaxQuantCombiner extends ExecutableOptions {
         String sumFileName = params.getOutputDir() +File.separator+params.getOutputTag()+"_SummaryReport.txt";
         SummaryReportWriter summaryReportWriter = new SummaryReportWriter(sumFileName, true);
 
-        for (String group : cometGroupedFDRCalculator.getGroups()) {
+        PsmStore cometStore = cometGroupedFDRCalculator.makePsmStore(cometPSMs);
+        PsmStore maxQuantStore = maxquantGroupedFDRCalculator.makePsmStore(maxQuantPSMs);
 
-            ConcurrentHashMap<String, List<PeptideSpectrumMatch>> filteredCometPsms =
-                    cometGroupedFDRCalculator.filterPsms(cometPSMs, cometGrplFDRThresholdMap.get(group), group);
+        PsmStore.GroupSelection cometSelections = cometStore.selectGroups(cometGrplFDRThresholdMap);
+        PsmStore.GroupSelection maxQuantSelections = maxQuantStore.selectGroups(maxquantGrplFDRThresholdMap);
 
-            ConcurrentHashMap<String, List<PeptideSpectrumMatch>> filteredMaxQuantPsms =
-                    maxquantGroupedFDRCalculator.filterPsms(maxQuantPSMs, maxquantGrplFDRThresholdMap.get(group), group);
+        for (String group : cometGroupedFDRCalculator.getGroups()) {
 
+            BitSet cometSelection = cometSelections.get(group);
+            BitSet maxQuantSelection = maxQuantSelections.get(group);
 
-            combinedPSMs = combine(filteredCometPsms,filteredMaxQuantPsms);
+            combinedPSMs = combine(cometStore.toMap(cometSelection), maxQuantStore.toMap(maxQuantSelection));
 
             combinedPSMs.forEach(10000,spectrumAccumulator);
 
             writeToCombTabFile(group+"_"+params.getOutputTag()+"_NewAncePSMs.txt");
             System.out.println(combinedPSMs.size()+" spectra combined for group " + group);
 
-            summaryReportWriter.write(group, combinedPSMs, filteredCometPsms, filteredMaxQuantPsms);
+            summaryReportWriter.write(group, new PsmStore(combinedPSMs), cometStore, cometSelection, maxQuantStore, maxQuantSelection);
 
             System.out.println("Write data to summary report file.");
         }
@@ -221,6 +226,9 @@ public class CometMaxQuantCombiner extends ExecutableOptions {
         if (params.isReportHistos())
             groupedFDRCalculator.writeHistograms(params.getOutputDir()+File.separator+dir, params.getOutputTag());
 
+        if (params.isWriteFDRCurves())
+            groupedFDRCalculator.writeFDRCurves(params.getOutputDir(), params.getOutputTag());
+
     }
 
     protected void reportPSMs() {
@@ -358,6 +366,7 @@ public class CometMaxQuantCombiner extends ExecutableOptions {
         cmdLineOpts.addOption(Option.builder("mqFDR").required(false).hasArg().longOpt("maxquantFDR").desc("FDR for filtering MaxQuant PSMs before combination (default value 0.03)").build());
         cmdLineOpts.addOption(Option.builder("outD").required().hasArg().longOpt("outputDir").desc("Output directory for results (required)").build());
         cmdLineOpts.addOption(Option.builder("repH").required(false).hasArg(false).longOpt("reportHistogram").desc("Report histograms to text files").build());
+        cmdLineOpts.addOption(Option.builder("wFDRC").required(false).hasArg(false).longOpt("writeFDRCurves").desc("Write the global FDR, target and decoy counts as function of the lFDR threshold for each histogram to a text file").build());
         cmdLineOpts.addOption(Option.builder("rCoH").required(false).hasArg().longOpt("readCometHistograms").desc("Directory where Comet histograms files are placed.").build());
         cmdLineOpts.addOption(Option.builder("rMqH").required(false).hasArg().longOpt("readMaxQuantHistograms").desc("Directory where MaxQuant histograms files are placed.").build());
         cmdLineOpts.addOption(Option.builder("fH").required(false).hasArg(false).longOpt("forceHistograms").desc("Histograms are imported even if enough PSMs are available.").build());
@@ -380,6 +389,10 @@ public class CometMaxQuantCombiner extends ExecutableOptions {
         cmdLineOpts.addOption(Option.builder("maxL").required(false).hasArg().longOpt("maxLength").desc("Maximal length of peptide (default value: 25)").build());
         cmdLineOpts.addOption(Option.builder("nrTh").required(false).hasArg().longOpt("nrThreads").desc("Number of threads used by NewAnce (default value: nr of available processors - 2)").build());
         cmdLineOpts.addOption(Option.builder("smD").required(false).hasArg().longOpt("smoothDegree").desc("Degree of smoothing (0: no smoothing, n: n x smoothing) (default value 1)").build());
+        cmdLineOpts.addOption(Option.builder("smKW").required(false).hasArg().longOpt("smoothKernelWidth").desc("Half width of smoothing kernel along each score axis (default value 1)").build());
+        cmdLineOpts.addOption(Option.builder("lFDRE").required(false).hasArg().longOpt("lFDREstimator").desc("Estimator of target and decoy densities for lFDR: histogram or kde (default value histogram)").build());
+        cmdLineOpts.addOption(Option.builder("kdeBW").required(false).hasArg().longOpt("kdeBandwidth").desc("Standard deviation of Gaussian kernel in histogram bins for lFDREstimator kde (default value 1.0)").build());
+        cmdLineOpts.addOption(Option.builder("hFmt").required(false).hasArg().longOpt("histogramFormat").desc("Format of written histogram files: text or binary (default value text)").build());
         cmdLineOpts.addOption(Option.builder("outT").required(false).hasArg().longOpt("outputTag").desc("Tag inserted into output file names after prefix.").build());
         cmdLineOpts.addOption(Option.builder("minPH").required(false).hasArg().longOpt("minPsm4Histo").desc("Minimal number of psms to calculate local FDR in histogram (default value: 100000).").build());
         cmdLineOpts.addOption(Option.builder("fdrM").required(false).hasArg().longOpt("fdrControlMethod").desc("Method to control pFDR: combined or separate (default combined).").build());
@@ -407,6 +420,9 @@ public class CometMaxQuantCombiner extends ExecutableOptions {
         cmdLineOpts.addOption(Option.builder("minScorePSM").required(false).hasArg().longOpt("minScorePSM").desc("Minimal MaxQuant score for PSM (default value 10)").build());
         cmdLineOpts.addOption(Option.builder("minDSPSM").required(false).hasArg().longOpt("minDeltaScorePSM").desc("Minimal MaxQuant DeltaScore for PSM (default value 0)").build());
         cmdLineOpts.addOption(Option.builder("minPEPPSM").required(false).hasArg().longOpt("minPEPPSM").desc("Minimal MaxQuant PEP for PSM (default value 0)").build());
+        cmdLineOpts.addOption(Option.builder("pepXmlP").required(false).hasArg().longOpt("pepXmlParser").desc("Parser for Comet pep.xml files: stax or jaxb (default stax).").build());
+        cmdLineOpts.addOption(Option.builder("parPepXml").required(false).hasArg(false).longOpt("parallelPepXmlParsing").desc("Split large pep.xml files into chunks that are parsed in parallel.").build());
+        cmdLineOpts.addOption(Option.builder("psmCache").required(false).hasArg().longOpt("psmCacheDir").desc("Directory where parsed PSM files are cached. Reruns on unchanged input files read the cache (default: no caching).").build());
         cmdLineOpts.addOption(Option.builder("wP").required(false).hasArg(false).longOpt("write2ParamFile").desc("This option is set if parameters should be written to file.").build());
         cmdLineOpts.addOption(Option.builder("rP").required(false).hasArg().longOpt("readParamFile").desc("Name of file from which parameters should to read.").build());
         cmdLineOpts.addOption(Option.builder("d").required(false).hasArg(false).longOpt("debug").desc("Debug option").build());
@@ -429,6 +445,7 @@ public class CometMaxQuantCombiner extends ExecutableOptions {
         params.add("debug", getOptionString(line, "d"));
         params.add("forceHistos", getOptionString(line, "fH"));
         params.add("reportHistos", getOptionString(line, "repH"));
+        params.add("writeFDRCurves", getOptionString(line, "wFDRC"));
         params.add("alpha", getOptionString(line, "alpha"));
         params.add("readCometHistos", getOptionString(line, "rCoH"));
         params.add("readMaxQuantHistos", getOptionString(line, "rMqH"));
@@ -476,11 +493,18 @@ public class CometMaxQuantCombiner extends ExecutableOptions {
         params.add("minPEPPSM", getOptionString(line, "minPEPPSM"));
         params.add("nrThreads", getOptionString(line, "nrTh"));
         params.add("smoothDegree", getOptionString(line, "smD"));
+        params.add("smoothKernelWidth", getOptionString(line, "smKW"));
+        params.add("lFDREstimator", getOptionString(line, "lFDRE"));
+        params.add("kdeBandwidth", getOptionString(line, "kdeBW"));
+        params.add("histogramFormat", getOptionString(line, "hFmt"));
         params.add("fdrControlMethod", getOptionString(line, "fdrM"));
         params.add("groupingMethod", getOptionString(line, "groupM"));
         params.add("groupNames", getOptionString(line, "groupN"));
         params.add("groupRegExs", getOptionString(line, "groupRE"));
         params.add("reportAllPSM", getOptionString(line, "wAll"));
+        params.add("cometPepXmlParser", getOptionString(line, "pepXmlP"));
+        params.add("parallelPepXmlParsing", getOptionString(line, "parPepXml"));
+        params.add("psmCacheDir", getOptionString(line, "psmCache"));
 
         params.finalize();
 
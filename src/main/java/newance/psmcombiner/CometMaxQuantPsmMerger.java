@@ -10,8 +10,9 @@ You should have received a copy of the GNU General Public License along with thi
 
 package newance.psmcombiner;
 
-import gnu.trove.map.TObjectDoubleMap;
-import gnu.trove.map.hash.TObjectDoubleHashMap;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import newance.psmconverter.PackedSpectrumKey;
 import newance.psmconverter.PeptideSpectrumMatch;
 
 import java.util.*;
@@ -26,17 +27,26 @@ public class CometMaxQuantPsmMerger implements BiConsumer<String, List<PeptideSp
 
     private final ConcurrentHashMap<String, List<PeptideSpectrumMatch>> maxQuantPsmMap;
     private final ConcurrentHashMap<String, List<PeptideSpectrumMatch>> combinedPsmMap;
+    private final TLongObjectMap<List<PeptideSpectrumMatch>> maxQuantKeyMap;
 
     public CometMaxQuantPsmMerger(ConcurrentHashMap<String, List<PeptideSpectrumMatch>> maxQuantPsmMap,
                                   ConcurrentHashMap<String, List<PeptideSpectrumMatch>> combinedPsmMap) {
         this.maxQuantPsmMap = maxQuantPsmMap;
         this.combinedPsmMap = combinedPsmMap;
+
+        // spectrum ids of the form file.scan.scan.charge are joined by their packed key, others by their string
+        this.maxQuantKeyMap = new TLongObjectHashMap<>(maxQuantPsmMap.size());
+        for (Map.Entry<String, List<PeptideSpectrumMatch>> entry : maxQuantPsmMap.entrySet()) {
+            long key = PackedSpectrumKey.parse(entry.getKey());
+            if (key >= 0) maxQuantKeyMap.put(key, entry.getValue());
+        }
     }
 
     @Override
     public void accept(String specID, List<PeptideSpectrumMatch> cometPsms) {
 
-        List<PeptideSpectrumMatch> maxQuantPsms = maxQuantPsmMap.get(specID);
+        long key = PackedSpectrumKey.parse(specID);
+        List<PeptideSpectrumMatch> maxQuantPsms = (key >= 0) ? maxQuantKeyMap.get(key) : maxQuantPsmMap.get(specID);
 
         if (maxQuantPsms!=null) {
             List<PeptideSpectrumMatch> combined = combine(cometPsms,maxQuantPsms);
@@ -48,17 +58,14 @@ public class CometMaxQuantPsmMerger implements BiConsumer<String, List<PeptideSp
 
     private List<PeptideSpectrumMatch> combine(List<PeptideSpectrumMatch> cometPsms, List<PeptideSpectrumMatch> maxQuantPsms) {
 
-        List<String> maxQuantPeptides = new ArrayList<>();
-        maxQuantPsms.forEach(psm -> maxQuantPeptides.add(psm.getPeptide().toString()));
         List<PeptideSpectrumMatch> combined = null;
 
         for (PeptideSpectrumMatch cometPsm : cometPsms) {
-            String cometPeptide = cometPsm.getPeptide().toString();
 
-            for (int i=0;i<maxQuantPeptides.size();i++) {
-                if (cometPeptide.equals(maxQuantPeptides.get(i))) {
+            for (PeptideSpectrumMatch maxQuantPsm : maxQuantPsms) {
+                if (isSamePeptide(cometPsm, maxQuantPsm)) {
                     if (combined==null) combined =Collections.synchronizedList(new ArrayList<>());
-                    combined.add(merge(cometPsm, maxQuantPsms.get(i)));
+                    combined.add(merge(cometPsm, maxQuantPsm));
                     break;
                 }
             }
@@ -67,9 +74,16 @@ public class CometMaxQuantPsmMerger implements BiConsumer<String, List<PeptideSp
         return combined;
     }
 
+    private boolean isSamePeptide(PeptideSpectrumMatch cometPsm, PeptideSpectrumMatch maxQuantPsm) {
+
+        // equal peptide ids imply equal strings, different ids can still print the same
+        return cometPsm.getPeptideId() == maxQuantPsm.getPeptideId() ||
+                cometPsm.toPeptideString().equals(maxQuantPsm.toPeptideString());
+    }
+
     private PeptideSpectrumMatch merge(PeptideSpectrumMatch cometPsm, PeptideSpectrumMatch maxQuantPsm) {
 
-        cometPsm.addScores(maxQuantPsm.getScoreMap());
+        cometPsm.addScores(maxQuantPsm);
 
         return cometPsm;
 
@@ -15,6 +15,7 @@ import newance.mzjava.mol.modification.ModAttachment;
 import newance.mzjava.mol.modification.Modification;
 import newance.proteinmatch.SequenceVariant;
 import newance.psmconverter.PeptideSpectrumMatch;
+import newance.psmconverter.ScoreSchema;
 
 import java.util.Arrays;
 import java.util.List;
@@ -83,14 +84,14 @@ public class CometPsm2PsqlStringFunction extends Psm2StringFunction {
 
         float lfdr = groupedFDRCalculator.getLocalFDR(psm);
         String lfdrStr = (groupedFDRCalculator ==null)?"":String.format("%.5f",lfdr);
-        String expectStr = String.format("%.5f",psm.getScore("expect"));
-        String mdStr = String.format("%.5f",psm.getScore("mass_diff"));
+        String expectStr = String.format("%.5f",psm.getScore(ScoreSchema.EXPECT));
+        String mdStr = String.format("%.5f",psm.getScore(ScoreSchema.MASS_DIFF));
         String pass = "NA";
         if (grpThresholdMap!=null) pass = (lfdr<=grpThresholdMap.get(psm.getGroup()))?"true":"false";
 
-        return  psm.getScore("xcorr")+"\t"+psm.getScore("deltacn")+"\t"+
-                psm.getScore("spscore")+"\t"+expectStr+"\t+"+mdStr+"\t"+
-                (int)psm.getScore("tot_num_ions")+"\t"+(int)psm.getScore("matched_num_ions")+"\t"+
+        return  psm.getScore(ScoreSchema.XCORR)+"\t"+psm.getScore(ScoreSchema.DELTACN)+"\t"+
+                psm.getScore(ScoreSchema.SPSCORE)+"\t"+expectStr+"\t+"+mdStr+"\t"+
+                (int)psm.getScore(ScoreSchema.TOT_NUM_IONS)+"\t"+(int)psm.getScore(ScoreSchema.MATCHED_NUM_IONS)+"\t"+
                 lfdrStr+"\t"+pass;
     }
 
@@ -112,7 +113,7 @@ public class CometPsm2PsqlStringFunction extends Psm2StringFunction {
         String modifString = getModifString(peptide);
         String variantString = getVariantString(psm);
 
-        return  peptide.toString()+"\t"+peptide.toSymbolString()+"\t"+pepMass+"\t"+modifString+"\t"+protACs+"\t"+
+        return  psm.toPeptideString()+"\t"+psm.toSymbolString()+"\t"+pepMass+"\t"+modifString+"\t"+protACs+"\t"+
                 variantString+"\t"+psm.isDecoy()+"\t"+ rank+"\t"+ psm.getGroup();
 
     }
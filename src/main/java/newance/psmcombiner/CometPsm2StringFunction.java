@@ -14,6 +14,7 @@ import newance.mzjava.mol.Peptide;
 import newance.mzjava.mol.modification.ModAttachment;
 import newance.mzjava.mol.modification.Modification;
 import newance.psmconverter.PeptideSpectrumMatch;
+import newance.psmconverter.ScoreSchema;
 
 import java.util.List;
 import java.util.Map;
@@ -45,12 +46,12 @@ public class CometPsm2StringFunction extends Psm2StringFunction {
 
             if (grpThresholdMap!=null) pass = (lfdr<=grpThresholdMap.get(psm.getGroup()))?"true":"false";
         }
-        String expectStr = String.format("%.5f",psm.getScore("expect"));
-        String mdStr = String.format("%.5f",psm.getScore("mass_diff"));
+        String expectStr = String.format("%.5f",psm.getScore(ScoreSchema.EXPECT));
+        String mdStr = String.format("%.5f",psm.getScore(ScoreSchema.MASS_DIFF));
 
-        return  psm.getScore("xcorr")+"\t"+psm.getScore("deltacn")+"\t"+
-                psm.getScore("spscore")+"\t"+expectStr+"\t+"+mdStr+"\t"+
-                (int)psm.getScore("tot_num_ions")+"\t"+(int)psm.getScore("matched_num_ions")+"\t"+
+        return  psm.getScore(ScoreSchema.XCORR)+"\t"+psm.getScore(ScoreSchema.DELTACN)+"\t"+
+                psm.getScore(ScoreSchema.SPSCORE)+"\t"+expectStr+"\t+"+mdStr+"\t"+
+                (int)psm.getScore(ScoreSchema.TOT_NUM_IONS)+"\t"+(int)psm.getScore(ScoreSchema.MATCHED_NUM_IONS)+"\t"+
                 lfdrStr+"\t"+pass;
     }
 
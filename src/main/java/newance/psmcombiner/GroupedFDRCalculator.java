@@ -15,12 +15,17 @@ import newance.proteinmatch.VariantProtDB;
 import newance.psmconverter.AddVariantIDs2Psm;
 import newance.psmconverter.AddUniProtIDs2Psm;
 import newance.psmconverter.PeptideSpectrumMatch;
+import newance.psmconverter.PsmStore;
 import newance.util.NewAnceParams;
 import newance.util.PsmGrouper;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
 
 /**
  * @author Markus Müller
@@ -121,8 +126,7 @@ public class GroupedFDRCalculator {
 
             if (!node.getScoreHistogram().canCalculateFDR()) {
 
-                String filename = outputDir+File.separatorChar+fileprefix+"_"+label+".txt";
-                node.setScoreHistogram(ScoreHistogram3D.read(new File(filename)));
+                node.setScoreHistogram(ScoreHistogram3D.read(ScoreHistogram3D.getHistogramFile(outputDir, fileprefix+"_"+label)));
             }
         }
     }
@@ -131,8 +135,7 @@ public class GroupedFDRCalculator {
     public void addAll(ConcurrentHashMap<String,List<PeptideSpectrumMatch>> psms) {
 
         for (String specID : psms.keySet()) {
-            if (addUniProtIDs2Psm !=null) addUniProtIDs2Psm.accept(specID, psms.get(specID));
-            if (addVariantIDs2Psm !=null) addVariantIDs2Psm.accept(specID, psms.get(specID));
+            addProteinIDs(specID, psms.get(specID));
 
             for (PeptideSpectrumMatch psm : psms.get(specID)) {
                 add(psm);
@@ -140,6 +143,32 @@ public class GroupedFDRCalculator {
         }
     }
 
+    protected void addProteinIDs(String specID, List<PeptideSpectrumMatch> psms) {
+
+        if (addUniProtIDs2Psm !=null) addUniProtIDs2Psm.accept(specID, psms);
+        if (addVariantIDs2Psm !=null) addVariantIDs2Psm.accept(specID, psms);
+    }
+
+    /**
+     * @return a new empty shard of the histograms of this calculator, which can be filled by one thread
+     */
+    public HistogramShard newShard() {
+
+        return new HistogramShard(this);
+    }
+
+    /**
+     * Adds the counts of the shards to the histograms of this calculator. The nodes are merged in parallel.
+     */
+    public void merge(final Collection<HistogramShard> shards) {
+
+        histogramMap.entrySet().parallelStream().forEach(entry -> {
+            for (HistogramShard shard : shards) {
+                entry.getValue().getScoreHistogram().addCounts(shard.getScoreHistogram(entry.getKey()));
+            }
+        });
+    }
+
 
     protected void add(PeptideSpectrumMatch peptideSpectrumMatch) {
 
@@ -180,6 +209,11 @@ public class GroupedFDRCalculator {
         histogramTreeRoot.smoothHistogram(degree);
     }
 
+    public void estimateDensity() {
+
+        histogramTreeRoot.estimateDensity();
+    }
+
     public void writeHistograms(String outputDir, String filePrefix) {
         try {
             File dir = new File(outputDir);
@@ -202,6 +236,37 @@ public class GroupedFDRCalculator {
         histogramTreeRoot.writeHistogram(outputDir, filePrefix, level);
     }
 
+    /**
+     * Writes the FDR curve of each node to outputDir/filePrefix_searchTool_FDRCurves.txt. The columns are node id,
+     * group, lFDR threshold, global FDR, target count and decoy count, so that the lFDR threshold for any global FDR
+     * can be chosen without rerunning NewAnce. Has to be called after process().
+     */
+    public void writeFDRCurves(String outputDir, String filePrefix) {
+        try {
+            File dir = new File(outputDir);
+            if (!dir.exists()) dir.mkdirs();
+        } catch (SecurityException e) {
+            System.out.println("Cannot create directory "+outputDir);
+        }
+
+        File file = new File(outputDir+File.separatorChar+filePrefix+"_"+searchTool+"_FDRCurves.txt");
+
+        List<String> ids = new ArrayList<>(histogramMap.keySet());
+        Collections.sort(ids);
+
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+
+            writer.write("Node\tGroup\tlFDR\tGlobalFDR\tTargets\tDecoys\n");
+            for (String id : ids) {
+
+                HistogramTree node = histogramMap.get(id);
+                node.getScoreHistogram().getLocalFDRCurve().write(writer, id+"\t"+node.getGroup()+"\t");
+            }
+        } catch (IOException e) {
+            System.out.println("Cannot write FDR curves to file "+file+".");
+        }
+    }
+
     public void setCanCalculateFDR(int minNrPsms) {
 
         histogramTreeRoot.setCanCalculateFDR(minNrPsms);
@@ -226,6 +291,9 @@ public class GroupedFDRCalculator {
         }
     }
 
+    /**
+     * @return local FDR of the PSM's histogram bin, calculated from the scores of this calculator's search tool
+     */
     public float getLocalFDR(PeptideSpectrumMatch peptideSpectrumMatch) {
 
         String id = getNodeID(peptideSpectrumMatch);
@@ -270,13 +338,11 @@ public class GroupedFDRCalculator {
         float decoySum = 0;
         float targetSum = 0;
 
-        for (HistogramTree node : histogramMap.values()) {
+        for (HistogramTree node : getGlobalFDRNodes(group)) {
 
-            if (node.isLeaf() && (group.isEmpty()) || node.getGroup().equals(group)) {
-                float[] values = node.getTargetDecoyCounts(lFDR);
-                decoySum += values[0];
-                targetSum += values[1];
-            }
+            float[] values = node.getTargetDecoyCounts(lFDR);
+            decoySum += values[0];
+            targetSum += values[1];
         }
 
         return (decoySum+targetSum>0)?2*decoySum/(decoySum+targetSum):0f;
@@ -291,100 +357,52 @@ public class GroupedFDRCalculator {
        return calcLocalFDRThreshold(pFDR, "");
     }
 
+    /**
+     * Calculates the largest lFDR threshold, for which the global FDR of group does not exceed pFDR for this threshold
+     * or any smaller threshold. The bins of the group nodes are merged into one LocalFDRCurve, whose cumulative counts
+     * yield the threshold by binary search.
+     */
     public float calcLocalFDRThreshold(float pFDR, String group) {
 
         if (pFDR==0) return 0;
 
-        float pfdr = 0;
-        float lfdr = 0;
-        float pfdrP = 0;
-        float lfdrP = 0;
-
-        // find lfdr interval where pfdr becomes larger than pFDR
-        for (int i=0;i<=10;i++) {
-            lfdr = i*0.1f;
-            pfdr = calcGlobalFDR(lfdr, group);
-            if (pfdr>=pFDR) break;
-
-            pfdrP = pfdr;
-            lfdrP = lfdr;
+        List<LocalFDRCurve> curves = new ArrayList<>();
+        for (HistogramTree node : getGlobalFDRNodes(group)) {
+            curves.add(node.getScoreHistogram().getLocalFDRCurve());
         }
 
-        float eps = Math.abs(pfdr-pFDR);
-        if (eps<0.0001) return lfdr;
-
-        if (pfdr<pFDR) return 1f;
-
-        // refine search
-        return calcLocalFDRThreshold(lfdrP, pfdrP, lfdr, pfdr, pFDR, eps, group);
-    }
-
-    private float calcLocalFDRThreshold(float lFDRLeft, float pFDRLeft, float lFDRRight, float pFDRRight, float pFDR, float eps, String group) {
-
-        float f = (pFDR-pFDRLeft)/(pFDRRight-pFDRLeft);
-        float lfdr = lFDRLeft + f*(lFDRRight-lFDRLeft);
-
-        float pfdr = calcGlobalFDR(lfdr, group);
-        float epsN = Math.abs(pfdr-pFDR);
-
-        if (epsN<0.0001 || epsN >= eps) return lfdr;
-
-        float lfdrN = 0;
-        if (pfdr<pFDR)
-            lfdrN = calcLocalFDRThreshold(lfdr, pfdr, lFDRRight, pFDRRight, pFDR, epsN, group);
-        else
-            lfdrN = calcLocalFDRThreshold(lFDRLeft, pFDRLeft, lfdr, pfdr, pFDR, epsN, group);
-
-        return lfdrN;
+        return LocalFDRCurve.merge(curves).calcLocalFDRThreshold(pFDR);
     }
 
-    public ConcurrentHashMap<String, List<PeptideSpectrumMatch>> filterPsms(ConcurrentHashMap<String, List<PeptideSpectrumMatch>>  psms, float lFDRThreshold, String group) {
+    private List<HistogramTree> getGlobalFDRNodes(String group) {
 
-        ConcurrentHashMap<String, List<PeptideSpectrumMatch>> filteredPsms = new ConcurrentHashMap<>();
-
-        // do parallel later
-        for (String specID : psms.keySet()) {
-            for (PeptideSpectrumMatch psm : psms.get(specID)) {
-
-                String grp = psmGrouper.apply(specID,psm);
-
-                if (!grp.equals(group)) continue;
-
-                String label = getNodeID(psm);
-                HistogramTree node = histogramMap.get(label);
-                float lFDR = node.getScoreHistogram().getLocalFDR(psm);
+        List<HistogramTree> nodes = new ArrayList<>();
+        for (HistogramTree node : histogramMap.values()) {
 
-                if (lFDR <= lFDRThreshold) {
-                    filteredPsms.putIfAbsent(specID, Collections.synchronizedList(new ArrayList<>()));
-                    filteredPsms.get(specID).add(psm);
-                }
-            }
+            if (node.isLeaf() && (group.isEmpty()) || node.getGroup().equals(group)) nodes.add(node);
         }
 
-        return filteredPsms;
+        return nodes;
     }
 
+    /**
+     * Builds a PsmStore of psms with the group ids of psmGrouper and the local FDRs of this calculator, so that the
+     * PSMs of all groups can be selected without recalculating groups and local FDRs. The local FDRs are held by the
+     * store and not by the PSMs, since a PSM merged from Comet and MaxQuant has a different local FDR for each
+     * calculator. Has to be called after process() and again if the histograms change.
+     */
+    public PsmStore makePsmStore(ConcurrentHashMap<String, List<PeptideSpectrumMatch>> psms) {
 
-    public ConcurrentHashMap<String, List<PeptideSpectrumMatch>> filterPsms(ConcurrentHashMap<String, List<PeptideSpectrumMatch>> psms, float lFDRThreshold) {
-
-        ConcurrentHashMap<String, List<PeptideSpectrumMatch>> filteredPsms = new ConcurrentHashMap<>();
+        PsmStore psmStore = new PsmStore(psms, psmGrouper);
 
-        // do parallel later
-        for (String specID : psms.keySet()) {
-            for (PeptideSpectrumMatch psm : psms.get(specID)) {
+        // calculate missing lFDRs before the parallel pass, since getLocalFDR() calculates them lazily
+        for (HistogramTree node : histogramMap.values()) node.getScoreHistogram().getLocalFDRCurve();
 
-                String label = getNodeID(psm);
-                HistogramTree node = histogramMap.get(label);
-                float lFDR = node.getScoreHistogram().getLocalFDR(psm);
-
-                if (lFDR <= lFDRThreshold) {
-                    filteredPsms.putIfAbsent(specID, Collections.synchronizedList(new ArrayList<>()));
-                    filteredPsms.get(specID).add(psm);
-                }
-            }
-        }
+        float[] localFDRs = new float[psmStore.size()];
+        IntStream.range(0, localFDRs.length).parallel().forEach(i -> localFDRs[i] = getLocalFDR(psmStore.getPsm(i)));
+        psmStore.setLocalFDRs(localFDRs);
 
-        return filteredPsms;
+        return psmStore;
     }
 
     public Set<String> getGroups() {
@@ -418,7 +436,8 @@ public class GroupedFDRCalculator {
         calcClassProbs();
         importPriorHistos();
 //        calcLocalFDR();
-        smoothHistogram(smoothDegree);
+        if (NewAnceParams.getInstance().getlFDREstimator().equals("kde")) estimateDensity();
+        else smoothHistogram(smoothDegree);
         calcLocalFDR();
     }
 
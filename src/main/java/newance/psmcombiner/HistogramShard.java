@@ -0,0 +1,77 @@
+/*
+Copyright (C) SIB - Swiss Institute of Bioinformatics, Lausanne, Switzerland
+Copyright (C) LICR - Ludwig Institute of Cancer Research, Lausanne, Switzerland
+This program is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation, either version 2 of the License, or (at your option) any later version.
+This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+You should have received a copy of the GNU General Public License along with this program. If not, see https://www.gnu.org/licenses/.
+*/
+
+package newance.psmcombiner;
+
+import newance.psmconverter.PeptideSpectrumMatch;
+
+import java.util.*;
+
+/**
+ * Private copy of the histograms of a GroupedFDRCalculator, which is filled by a single thread without locking. The
+ * shards of all threads are summed into the histogram tree by GroupedFDRCalculator.merge(). The histograms hold counts,
+ * therefore the merged histograms are identical to the ones obtained by adding all PSMs to the tree directly.
+ *
+ * @author Markus Müller
+ */
+
+public class HistogramShard {
+
+    private final GroupedFDRCalculator groupedFDRCalculator;
+    private final Map<String, ScoreHistogram> histogramMap;
+    // histograms of the node and all its ancestors
+    private final Map<String, ScoreHistogram[]> pathMap;
+
+    HistogramShard(GroupedFDRCalculator groupedFDRCalculator) {
+
+        this.groupedFDRCalculator = groupedFDRCalculator;
+        this.histogramMap = new HashMap<>();
+        this.pathMap = new HashMap<>();
+
+        for (Map.Entry<String, HistogramTree> entry : groupedFDRCalculator.histogramMap.entrySet()) {
+            histogramMap.put(entry.getKey(), entry.getValue().getScoreHistogram().emptyCopy());
+        }
+
+        for (Map.Entry<String, HistogramTree> entry : groupedFDRCalculator.histogramMap.entrySet()) {
+
+            List<ScoreHistogram> path = new ArrayList<>();
+            for (HistogramTree node = entry.getValue(); node != null; node = node.getParent()) {
+                path.add(histogramMap.get(node.getId()));
+            }
+
+            pathMap.put(entry.getKey(), path.toArray(new ScoreHistogram[path.size()]));
+        }
+    }
+
+    public void addAll(Map<String,List<PeptideSpectrumMatch>> psms) {
+
+        for (Map.Entry<String,List<PeptideSpectrumMatch>> entry : psms.entrySet()) {
+
+            groupedFDRCalculator.addProteinIDs(entry.getKey(), entry.getValue());
+
+            for (PeptideSpectrumMatch psm : entry.getValue()) {
+                add(psm);
+            }
+        }
+    }
+
+    public void add(PeptideSpectrumMatch peptideSpectrumMatch) {
+
+        ScoreHistogram[] path = pathMap.get(groupedFDRCalculator.getNodeID(peptideSpectrumMatch));
+        if (path == null) return;
+
+        for (ScoreHistogram scoreHistogram : path) scoreHistogram.add(peptideSpectrumMatch);
+    }
+
+    ScoreHistogram getScoreHistogram(String id) {
+
+        return histogramMap.get(id);
+    }
+}
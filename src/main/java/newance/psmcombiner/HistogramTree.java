@@ -206,15 +206,16 @@ public class HistogramTree {
         // import histos from files if provided
         if (!histoDir.isEmpty() && (!scoreHistogram.canCalculateFDR() || params.isForceHistos())) {
 
-            File histoFile = new File(histoDir + File.separatorChar + "prior_histo_" + id + ".txt");
+            // binary prior histograms are preferred over text files
+            File histoFile = ScoreHistogram3D.getHistogramFile(histoDir, "prior_histo_" + id);
 
             if (!histoFile.exists()) {
 
                 if (!id.equals("root") && !id.equals("Z1") && !id.equals("Z2") && !id.equals("Z3")) {
-                    histoFile = new File(histoDir + File.separatorChar + "prior_histo_Z3.txt");
+                    histoFile = ScoreHistogram3D.getHistogramFile(histoDir, "prior_histo_Z3");
                     if (histoFile.exists()) {
                         System.out.println("WARNING: histogram file " + histoDir + File.separatorChar + "prior_histo_" +
-                                id + ".txt does not exist. Taking prior_histo_Z3.txt instead.");
+                                id + ".txt does not exist. Taking " + histoFile.getName() + " instead.");
                     } else {
                         System.out.println("ERROR: histogram file " + histoFile.getAbsolutePath() + " does not exist.  " +
                                 "Abort.");
@@ -259,6 +260,15 @@ public class HistogramTree {
         }
     }
 
+    public void estimateDensity() {
+
+        scoreHistogram.estimateDensityHistogram();
+
+        for (HistogramTree node : children) {
+            node.estimateDensity();
+        }
+    }
+
 
     public void calcLocalFDR() {
 
@@ -0,0 +1,239 @@
+/*
+Copyright (C) SIB - Swiss Institute of Bioinformatics, Lausanne, Switzerland
+Copyright (C) LICR - Ludwig Institute of Cancer Research, Lausanne, Switzerland
+This program is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation, either version 2 of the License, or (at your option) any later version.
+This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+You should have received a copy of the GNU General Public License along with this program. If not, see https://www.gnu.org/licenses/.
+*/
+
+package newance.psmcombiner;
+
+import java.util.stream.IntStream;
+
+/**
+ * Binned Gaussian kernel density estimate on the grid of a score histogram. The Gaussian kernel is a product of 1D
+ * kernels, therefore the grid is convolved by one pass along each axis. Each line of an axis is convolved by FFT with
+ * zero padding, and the lines are processed in parallel. The kernel is symmetric and its FFT is real, so two lines are
+ * convolved by one complex FFT (one in the real and one in the imaginary part). The kernel is truncated at 4
+ * bandwidths. Bins close to the border of the grid are divided by the kernel weight inside the grid, which removes the
+ * bias of the density towards zero at the border. This correction does not conserve the total counts of the grid, so
+ * callers that need the totals have to rescale the result.
+ *
+ * @author Markus Müller
+ */
+
+public class KernelDensityEstimator {
+
+    private final int[] nrBins;
+    private final int totNrBins;
+    private final double bandwidth;
+    private final int radius;
+    // per axis: FFT of the kernel (real) and kernel weight inside the grid for each position
+    private final double[][] kernelFFT;
+    private final double[][] borderWeights;
+    private final int[] fftSizes;
+    // per axis: cos and sin of the FFT twiddle factors
+    private final double[][] cosTables;
+    private final double[][] sinTables;
+
+    /**
+     * @param nrBins number of bins of each axis. Axis 0 has stride 1 in the grid.
+     * @param bandwidth standard deviation of the Gaussian kernel in bins
+     */
+    public KernelDensityEstimator(int[] nrBins, double bandwidth) {
+
+        if (bandwidth <= 0) throw new IllegalArgumentException("KDE bandwidth has to be positive: "+bandwidth);
+
+        this.nrBins = nrBins;
+        this.bandwidth = bandwidth;
+        this.radius = (int) Math.ceil(4*bandwidth);
+
+        int cnt = 1;
+        for (int n : nrBins) cnt *= n;
+        this.totNrBins = cnt;
+
+        double[] kernel = new double[2*radius+1];
+        double sum = 0;
+        for (int d = -radius; d <= radius; d++) {
+            kernel[d+radius] = Math.exp(-0.5*d*d/(bandwidth*bandwidth));
+            sum += kernel[d+radius];
+        }
+        for (int i = 0; i < kernel.length; i++) kernel[i] /= sum;
+
+        int dimension = nrBins.length;
+        kernelFFT = new double[dimension][];
+        borderWeights = new double[dimension][];
+        fftSizes = new int[dimension];
+        cosTables = new double[dimension][];
+        sinTables = new double[dimension][];
+
+        for (int axis = 0; axis < dimension; axis++) {
+
+            int n = nrBins[axis];
+            int m = Integer.highestOneBit(n+2*radius-1) << 1;
+            if (m/2 >= n+2*radius) m /= 2;
+            fftSizes[axis] = m;
+            cosTables[axis] = cosTable(m);
+            sinTables[axis] = sinTable(m);
+
+            // kernel centered at 0 with wrap around, the zero padding of the lines avoids cyclic overlap
+            double[] re = new double[m];
+            double[] im = new double[m];
+            for (int d = -radius; d <= radius; d++) re[(d+m)%m] = kernel[d+radius];
+            fft(re, im, false, cosTables[axis], sinTables[axis]);
+            kernelFFT[axis] = re;
+
+            borderWeights[axis] = new double[n];
+            for (int i = 0; i < n; i++) {
+                for (int d = -radius; d <= radius; d++) {
+                    if (i+d >= 0 && i+d < n) borderWeights[axis][i] += kernel[d+radius];
+                }
+            }
+        }
+    }
+
+    /**
+     * @param grid counts indexed by bin
+     * @return smoothed counts indexed by bin
+     */
+    public float[] smooth(float[] grid) {
+
+        if (grid.length != totNrBins)
+            throw new IllegalArgumentException("Grid has "+grid.length+" bins instead of "+totNrBins);
+
+        final float[] result = grid.clone();
+
+        int stride = 1;
+        for (int axis = 0; axis < nrBins.length; axis++) {
+
+            final int a = axis;
+            final int n = nrBins[axis];
+            final int axisStride = stride;
+            final int m = fftSizes[axis];
+
+            final int nrLines = totNrBins/n;
+
+            // a line of this axis starts at bin lineStart and has step axisStride. Lines 2*pair and 2*pair+1 are
+            // convolved together.
+            IntStream.range(0, (nrLines+1)/2).parallel().forEach(pair -> {
+
+                int line1 = 2*pair;
+                int line2 = 2*pair+1;
+                int start1 = (line1/axisStride)*axisStride*n + line1%axisStride;
+                int start2 = (line2<nrLines) ? (line2/axisStride)*axisStride*n + line2%axisStride : -1;
+
+                double[] re = new double[m];
+                double[] im = new double[m];
+                boolean empty = true;
+                for (int i = 0; i < n; i++) {
+                    re[i] = result[start1+i*axisStride];
+                    if (start2 >= 0) im[i] = result[start2+i*axisStride];
+                    if (re[i] != 0 || im[i] != 0) empty = false;
+                }
+                if (empty) return;
+
+                fft(re, im, false, cosTables[a], sinTables[a]);
+                for (int k = 0; k < m; k++) {
+                    re[k] *= kernelFFT[a][k];
+                    im[k] *= kernelFFT[a][k];
+                }
+                fft(re, im, true, cosTables[a], sinTables[a]);
+
+                for (int i = 0; i < n; i++) {
+                    result[start1+i*axisStride] = (float) (re[i]/borderWeights[a][i]);
+                    if (start2 >= 0) result[start2+i*axisStride] = (float) (im[i]/borderWeights[a][i]);
+                }
+            });
+
+            stride *= n;
+        }
+
+        return result;
+    }
+
+    public double getBandwidth() {
+
+        return bandwidth;
+    }
+
+    /**
+     * @return number of bins from the center to the end of the truncated kernel
+     */
+    public int getRadius() {
+
+        return radius;
+    }
+
+    /**
+     * In place radix 2 FFT. The length of re and im has to be a power of 2. The inverse transform is scaled by 1/length.
+     */
+    static void fft(double[] re, double[] im, boolean inverse) {
+
+        fft(re, im, inverse, cosTable(re.length), sinTable(re.length));
+    }
+
+    private static double[] cosTable(int n) {
+
+        double[] table = new double[n/2];
+        for (int k = 0; k < n/2; k++) table[k] = Math.cos(2*Math.PI*k/n);
+
+        return table;
+    }
+
+    private static double[] sinTable(int n) {
+
+        double[] table = new double[n/2];
+        for (int k = 0; k < n/2; k++) table[k] = Math.sin(2*Math.PI*k/n);
+
+        return table;
+    }
+
+    /**
+     * @param cos cos(2*pi*k/n) for k < n/2
+     * @param sin sin(2*pi*k/n) for k < n/2
+     */
+    private static void fft(double[] re, double[] im, boolean inverse, double[] cos, double[] sin) {
+
+        int n = re.length;
+
+        for (int i = 1, j = 0; i < n; i++) {
+            int bit = n >> 1;
+            for (; (j & bit) != 0; bit >>= 1) j ^= bit;
+            j ^= bit;
+            if (i < j) {
+                double t = re[i]; re[i] = re[j]; re[j] = t;
+                t = im[i]; im[i] = im[j]; im[j] = t;
+            }
+        }
+
+        double sign = inverse ? 1 : -1;
+        for (int len = 2; len <= n; len <<= 1) {
+
+            int step = n/len;
+            for (int i = 0; i < n; i += len) {
+                for (int j = 0; j < len/2; j++) {
+
+                    double wRe = cos[j*step];
+                    double wIm = sign*sin[j*step];
+                    int p = i+j;
+                    int q = i+j+len/2;
+                    double vRe = re[q]*wRe - im[q]*wIm;
+                    double vIm = re[q]*wIm + im[q]*wRe;
+                    re[q] = re[p] - vRe;
+                    im[q] = im[p] - vIm;
+                    re[p] += vRe;
+                    im[p] += vIm;
+                }
+            }
+        }
+
+        if (inverse) {
+            for (int i = 0; i < n; i++) {
+                re[i] /= n;
+                im[i] /= n;
+            }
+        }
+    }
+}
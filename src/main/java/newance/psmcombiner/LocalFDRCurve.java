@@ -0,0 +1,223 @@
+/*
+Copyright (C) SIB - Swiss Institute of Bioinformatics, Lausanne, Switzerland
+Copyright (C) LICR - Ludwig Institute of Cancer Research, Lausanne, Switzerland
+This program is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation, either version 2 of the License, or (at your option) any later version.
+This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+You should have received a copy of the GNU General Public License along with this program. If not, see https://www.gnu.org/licenses/.
+*/
+
+package newance.psmcombiner;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Target and decoy counts of the bins of one or several histograms as a function of the local FDR threshold. The bins
+ * are sorted by local FDR and the counts are accumulated, so that the number of target and decoy PSMs with local FDR
+ * less or equal to a threshold are obtained by a binary search. The global FDR 2*D/(D+T) of each prefix and its running
+ * maximum are precomputed as well, which makes the local FDR threshold for a global FDR an exact binary search.
+ *
+ * @author Markus Müller
+ */
+
+public class LocalFDRCurve {
+
+    private final float[] lFDRs;        // sorted ascending
+    private final float[] decoyCnts;
+    private final float[] targetCnts;
+    private final double[] decoySums;   // decoy count of bins 0..i
+    private final double[] targetSums;  // target count of bins 0..i
+    private final double[] maxGlobalFDRs; // maximal global FDR of thresholds lFDRs[0]..lFDRs[i]
+
+    /**
+     * @param lFDRs local FDR of each bin, sorted ascending
+     * @param decoyCnts decoy count of each bin
+     * @param targetCnts target count of each bin
+     */
+    public LocalFDRCurve(float[] lFDRs, float[] decoyCnts, float[] targetCnts) {
+
+        int n = lFDRs.length;
+        this.lFDRs = lFDRs;
+        this.decoyCnts = decoyCnts;
+        this.targetCnts = targetCnts;
+        this.decoySums = new double[n];
+        this.targetSums = new double[n];
+        this.maxGlobalFDRs = new double[n];
+
+        double decoySum = 0;
+        double targetSum = 0;
+        double maxGlobalFDR = 0;
+        for (int i = 0; i < n; i++) {
+
+            decoySum += decoyCnts[i];
+            targetSum += targetCnts[i];
+            decoySums[i] = decoySum;
+            targetSums[i] = targetSum;
+
+            // thresholds are only placed between bins with different lFDR
+            if (i+1 == n || lFDRs[i+1] != lFDRs[i]) {
+                maxGlobalFDR = Math.max(maxGlobalFDR, calcGlobalFDR(decoySum, targetSum));
+            }
+            maxGlobalFDRs[i] = maxGlobalFDR;
+        }
+    }
+
+    /**
+     * @return curve of the bins of all curves
+     */
+    public static LocalFDRCurve merge(Collection<LocalFDRCurve> curves) {
+
+        int n = 0;
+        for (LocalFDRCurve curve : curves) n += curve.size();
+
+        // sort the bins of all curves by packing lFDR and bin index into a long
+        float[] allLFDRs = new float[n];
+        float[] allDecoyCnts = new float[n];
+        float[] allTargetCnts = new float[n];
+        long[] keys = new long[n];
+
+        int k = 0;
+        for (LocalFDRCurve curve : curves) {
+            for (int i = 0; i < curve.size(); i++) {
+
+                allLFDRs[k] = curve.lFDRs[i];
+                allDecoyCnts[k] = curve.decoyCnts[i];
+                allTargetCnts[k] = curve.targetCnts[i];
+
+                int bits = Float.floatToIntBits(allLFDRs[k]);
+                bits ^= (bits >> 31) & 0x7fffffff;
+                keys[k] = ((long) bits << 32) | k;
+                k++;
+            }
+        }
+
+        Arrays.sort(keys);
+
+        float[] lFDRs = new float[n];
+        float[] decoyCnts = new float[n];
+        float[] targetCnts = new float[n];
+        for (int i = 0; i < n; i++) {
+            int idx = (int) keys[i];
+            lFDRs[i] = allLFDRs[idx];
+            decoyCnts[i] = allDecoyCnts[idx];
+            targetCnts[i] = allTargetCnts[idx];
+        }
+
+        return new LocalFDRCurve(lFDRs, decoyCnts, targetCnts);
+    }
+
+    /**
+     * @return decoy and target counts of the bins with local FDR less or equal to maxlFDR
+     */
+    public float[] getTargetDecoyCounts(float maxlFDR) {
+
+        int i = upperBound(maxlFDR) - 1;
+        if (i < 0) return new float[] {0f, 0f};
+
+        return new float[] {(float) decoySums[i], (float) targetSums[i]};
+    }
+
+    /**
+     * @return global FDR 2*D/(D+T) of the bins with local FDR less or equal to lFDR
+     */
+    public float calcGlobalFDR(float lFDR) {
+
+        int i = upperBound(lFDR) - 1;
+        if (i < 0) return 0f;
+
+        return (float) calcGlobalFDR(decoySums[i], targetSums[i]);
+    }
+
+    /**
+     * Calculates the largest local FDR threshold, for which the global FDR of this threshold and all smaller thresholds
+     * does not exceed pFDR.
+     *
+     * @return local FDR threshold, 0 if the bins with the smallest local FDR already exceed pFDR and 1 if no threshold
+     * exceeds pFDR
+     */
+    public float calcLocalFDRThreshold(float pFDR) {
+
+        if (pFDR == 0) return 0;
+
+        int n = lFDRs.length;
+        if (n == 0 || maxGlobalFDRs[n-1] <= pFDR) return 1f;
+
+        // first bin, where the maximal global FDR exceeds pFDR
+        int low = 0;
+        int high = n - 1;
+        while (low < high) {
+
+            int mid = (low + high) >>> 1;
+            if (maxGlobalFDRs[mid] <= pFDR) low = mid + 1;
+            else high = mid;
+        }
+
+        // the threshold has to exclude all bins with the lFDR of the first bin that exceeds pFDR
+        int i = lowerBound(lFDRs[low]) - 1;
+
+        return (i < 0) ? 0f : lFDRs[i];
+    }
+
+    /**
+     * Writes one tab separated line for each distinct lFDR: the lFDR threshold, the global FDR, the target count and
+     * the decoy count of the bins with local FDR less or equal to the threshold. Each line starts with linePrefix.
+     */
+    public void write(Writer writer, String linePrefix) throws IOException {
+
+        for (int i = 0; i < lFDRs.length; i++) {
+
+            if (i+1 < lFDRs.length && lFDRs[i+1] == lFDRs[i]) continue;
+
+            writer.write(linePrefix+String.format("%.6f\t%.6f\t%.3f\t%.3f\n", lFDRs[i],
+                    calcGlobalFDR(decoySums[i], targetSums[i]), targetSums[i], decoySums[i]));
+        }
+    }
+
+    public int size() {
+
+        return lFDRs.length;
+    }
+
+    private static double calcGlobalFDR(double decoySum, double targetSum) {
+
+        return (decoySum+targetSum>0) ? 2*decoySum/(decoySum+targetSum) : 0;
+    }
+
+    /**
+     * @return index of the first lFDR larger than lFDR
+     */
+    private int upperBound(float lFDR) {
+
+        int low = 0;
+        int high = lFDRs.length;
+        while (low < high) {
+
+            int mid = (low + high) >>> 1;
+            if (lFDRs[mid] <= lFDR) low = mid + 1;
+            else high = mid;
+        }
+
+        return low;
+    }
+
+    /**
+     * @return index of the first lFDR larger or equal to lFDR
+     */
+    private int lowerBound(float lFDR) {
+
+        int low = 0;
+        int high = lFDRs.length;
+        while (low < high) {
+
+            int mid = (low + high) >>> 1;
+            if (lFDRs[mid] < lFDR) low = mid + 1;
+            else high = mid;
+        }
+
+        return low;
+    }
+}
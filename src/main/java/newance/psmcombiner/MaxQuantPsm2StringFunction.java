@@ -11,6 +11,7 @@ You should have received a copy of the GNU General Public License along with thi
 package newance.psmcombiner;
 
 import newance.psmconverter.PeptideSpectrumMatch;
+import newance.psmconverter.ScoreSchema;
 
 import java.util.Map;
 
@@ -37,9 +38,9 @@ public class MaxQuantPsm2StringFunction extends Psm2StringFunction {
         String pass = "NA";
         if (grpThresholdMap!=null) pass = (lfdr<=grpThresholdMap.get(psm.getGroup()))?"true":"false";
 
-        return psm.getScore("Mass Error [ppm]")+"\t"+psm.getScore("Score")+"\t"+
-                psm.getScore("Delta score")+"\t"+psm.getScore("PEP")+"\t"+
-                psm.getScore("Localization prob")+"\t"+lfdrStr+"\t"+pass;
+        return psm.getScore(ScoreSchema.MASS_ERROR_PPM)+"\t"+psm.getScore(ScoreSchema.SCORE)+"\t"+
+                psm.getScore(ScoreSchema.DELTA_SCORE)+"\t"+psm.getScore(ScoreSchema.PEP)+"\t"+
+                psm.getScore(ScoreSchema.LOCALIZATION_PROB)+"\t"+lfdrStr+"\t"+pass;
     }
 
     @Override
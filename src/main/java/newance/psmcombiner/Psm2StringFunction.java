@@ -72,7 +72,7 @@ public abstract class Psm2StringFunction implements BiFunction<String, List<Pept
         String modifString = getModifString(peptide);
         String variantString = getVariantString(psm);
 
-        return  peptide.toString()+"\t"+peptide.toSymbolString()+"\t"+pepMass+"\t"+modifString+"\t"+protACs+"\t"+
+        return  psm.toPeptideString()+"\t"+psm.toSymbolString()+"\t"+pepMass+"\t"+modifString+"\t"+protACs+"\t"+
                 variantString+"\t"+psm.isDecoy()+"\t"+ rank+"\t"+ psm.getGroup();
 
     }
@@ -11,6 +11,10 @@ You should have received a copy of the GNU General Public License along with thi
 package newance.psmcombiner;
 
 
+import gnu.trove.list.array.TFloatArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.TIntIntHashMap;
 import newance.psmconverter.PeptideSpectrumMatch;
 
 import java.io.File;
@@ -18,19 +22,26 @@ import java.io.Serializable;
 import java.util.*;
 
 /**
+ * Sparse histogram over a grid of totNrBins bins. indexMap maps each grid bin to the index of its counts in targetCnts,
+ * decoyCnts, gamma and lFDR or to -1 if the bin is empty. indexMap is an open addressing hash map, which holds only the
+ * bins with counts, so that empty bins need no memory and histograms with 100-200 bins per axis are possible. All lists
+ * and maps hold primitive values.
+ *
  * @author Markus Müller
  */
 
 public abstract class ScoreHistogram implements Serializable {
 
-    protected final List<Float> gamma;
-    protected final List<Float> lFDR;
-    protected List<Integer> sortedIndexes;
-    protected final List<Float> pFDR;
-    protected List<Float> targetCnts;
-    protected List<Float> decoyCnts;
-    protected final List<Integer> indexMap;
-    protected List<Integer> psmBins;
+    protected final TFloatArrayList gamma;
+    protected final TFloatArrayList lFDR;
+    protected int[] sortedIndexes;
+    // cumulative counts of the bins sorted by lFDR. Built on first use and reset if counts or lFDR change.
+    protected LocalFDRCurve lFDRCurve;
+    protected final TFloatArrayList pFDR;
+    protected TFloatArrayList targetCnts;
+    protected TFloatArrayList decoyCnts;
+    protected final TIntIntHashMap indexMap;
+    protected TIntArrayList psmBins;
     protected float totTargetCnt;
     protected float totDecoyCnt;
     protected final int totNrBins;
@@ -51,15 +62,15 @@ public abstract class ScoreHistogram implements Serializable {
         for (int c : nrBins) cnt *= c;
         totNrBins = cnt;
 
-        targetCnts = new ArrayList<>();
-        decoyCnts = new ArrayList<>();
-        psmBins = new ArrayList<>();
-        gamma = new ArrayList<>();
-        lFDR = new ArrayList<>();
-        pFDR = new ArrayList<>();
+        targetCnts = new TFloatArrayList();
+        decoyCnts = new TFloatArrayList();
+        psmBins = new TIntArrayList();
+        gamma = new TFloatArrayList();
+        lFDR = new TFloatArrayList();
+        pFDR = new TFloatArrayList();
         sortedIndexes = null;
-        indexMap = new ArrayList<>(totNrBins);
-        for (int i=0;i<totNrBins;i++) indexMap.add(-1);
+        lFDRCurve = null;
+        indexMap = newIndexMap();
         currIndex = 0;
         canCalculateFDR = false;
         pi_0 = -1.0;
@@ -73,24 +84,34 @@ public abstract class ScoreHistogram implements Serializable {
         this.nrBins = scoreHistogram.nrBins;
         this.dimension = scoreHistogram.dimension;
         totNrBins = scoreHistogram.totNrBins;
-        targetCnts = new ArrayList<>(scoreHistogram.targetCnts);
-        decoyCnts = new ArrayList<>(scoreHistogram.decoyCnts);
-        psmBins = new ArrayList<>(scoreHistogram.psmBins);
-        gamma = new ArrayList<>(scoreHistogram.gamma);
-        lFDR = new ArrayList<>(scoreHistogram.lFDR);
-        pFDR = new ArrayList<>(scoreHistogram.pFDR);
+        targetCnts = new TFloatArrayList(scoreHistogram.targetCnts);
+        decoyCnts = new TFloatArrayList(scoreHistogram.decoyCnts);
+        psmBins = new TIntArrayList(scoreHistogram.psmBins);
+        gamma = new TFloatArrayList(scoreHistogram.gamma);
+        lFDR = new TFloatArrayList(scoreHistogram.lFDR);
+        pFDR = new TFloatArrayList(scoreHistogram.pFDR);
         if (scoreHistogram.sortedIndexes!=null)
-            sortedIndexes = new ArrayList<>(scoreHistogram.sortedIndexes);
+            sortedIndexes = scoreHistogram.sortedIndexes.clone();
         else
             sortedIndexes = null;
+        lFDRCurve = null;
 
-        indexMap = new ArrayList<>(scoreHistogram.indexMap);
+        indexMap = newIndexMap();
+        indexMap.putAll(scoreHistogram.indexMap);
         currIndex = scoreHistogram.currIndex;
         canCalculateFDR = scoreHistogram.canCalculateFDR;
         pi_0 = scoreHistogram.pi_0;
         pi_1 = scoreHistogram.pi_1;
     }
 
+    /**
+     * @return empty map from bin to index, which returns -1 for bins without counts
+     */
+    protected static TIntIntHashMap newIndexMap() {
+
+        return new TIntIntHashMap(16, 0.5f, -1, -1);
+    }
+
     public void add(List<PeptideSpectrumMatch> peptideSpectrumMatchList) {
 
         for (PeptideSpectrumMatch peptideSpectrumMatch : peptideSpectrumMatchList) {
@@ -104,7 +125,7 @@ public abstract class ScoreHistogram implements Serializable {
 
         int idx = indexMap.get(bin);
         if (idx<0) {
-            indexMap.set(bin,currIndex);
+            indexMap.put(bin,currIndex);
             psmBins.add(bin);
             currIndex++;
         }
@@ -121,6 +142,36 @@ public abstract class ScoreHistogram implements Serializable {
 
         if (isDecoy==0) totTargetCnt++;
         else totDecoyCnt++;
+
+        lFDRCurve = null;
+    }
+
+    /**
+     * Adds the target and decoy counts of other, which must have the same layout, to this histogram.
+     */
+    public void addCounts(ScoreHistogram other) {
+
+        for (int i=0;i<other.psmBins.size();i++) {
+
+            int bin = other.psmBins.get(i);
+            int otherIdx = other.indexMap.get(bin);
+
+            int idx = indexMap.get(bin);
+            if (idx<0) {
+                indexMap.put(bin,currIndex);
+                psmBins.add(bin);
+                currIndex++;
+                targetCnts.add(other.targetCnts.get(otherIdx));
+                decoyCnts.add(other.decoyCnts.get(otherIdx));
+            } else {
+                targetCnts.set(idx,targetCnts.get(idx)+other.targetCnts.get(otherIdx));
+                decoyCnts.set(idx,decoyCnts.get(idx)+other.decoyCnts.get(otherIdx));
+            }
+        }
+
+        totTargetCnt += other.totTargetCnt;
+        totDecoyCnt += other.totDecoyCnt;
+        lFDRCurve = null;
     }
 
     protected void calcClassProb() {
@@ -159,26 +210,27 @@ public abstract class ScoreHistogram implements Serializable {
         pi_1 = 1.0 - pi_0;
     }
 
-    protected List<Float> calcPValues() {
+    protected TFloatArrayList calcPValues() {
 
-        List<Float> d = new ArrayList<>();
-        List<Float> t = new ArrayList<>();
+        TFloatArrayList d = new TFloatArrayList();
+        TFloatArrayList t = new TFloatArrayList();
 
-        for (Float cnt: decoyCnts) {
+        for (int i=0;i<decoyCnts.size();i++) {
+            float cnt = decoyCnts.get(i);
             t.add(cnt);
             if (cnt>0) d.add(cnt);
         }
 
-        List<Integer> sortedIdxD = sortIndexes(d,false);
-        List<Integer> sortedIdxT = sortIndexes(t,false);
-        List<Float> pvalues = new ArrayList<>();
+        int[] sortedIdxD = sortIndexes(d);
+        int[] sortedIdxT = sortIndexes(t);
+        TFloatArrayList pvalues = new TFloatArrayList();
 
-        int n = sortedIdxD.size();
-        int m = sortedIdxT.size();
+        int n = sortedIdxD.length;
+        int m = sortedIdxT.length;
 
         for (int i=0,j=0;j<n;j++) {
 
-            while (i<m && t.get(sortedIdxT.get(i))<d.get(sortedIdxD.get(j))) {
+            while (i<m && t.get(sortedIdxT[i])<d.get(sortedIdxD[j])) {
                 i++;
                 pvalues.add(1.0f*j/n);
             }
@@ -251,7 +303,8 @@ public abstract class ScoreHistogram implements Serializable {
             lFDR.add((lfdr>1)?1f:lfdr);
         }
 
-        sortedIndexes = sortIndexes(lFDR,false);
+        sortedIndexes = sortIndexes(lFDR);
+        lFDRCurve = null;
     }
 
     public void calcLocalFDR(float p1_p0_ratio, ScoreHistogram parent) {
@@ -260,9 +313,9 @@ public abstract class ScoreHistogram implements Serializable {
 
         gamma.clear();
         lFDR.clear();
-        for (Integer bin : psmBins) {
+        for (int i=0;i<psmBins.size();i++) {
 
-            float g = parent.getGamma(bin);
+            float g = parent.getGamma(psmBins.get(i));
 
             gamma.add(g);
             float lfdr = 0;
@@ -272,39 +325,56 @@ public abstract class ScoreHistogram implements Serializable {
             lFDR.add((lfdr>1)?1f:lfdr);
         }
 
-        sortedIndexes = sortIndexes(lFDR,false);
+        sortedIndexes = sortIndexes(lFDR);
+        lFDRCurve = null;
     }
 
+    /**
+     * @return decoy and target counts of the bins with local FDR less or equal to maxlFDR
+     */
     public float[] getTargetDecoyCounts(float maxlFDR) {
 
+        return getLocalFDRCurve().getTargetDecoyCounts(maxlFDR);
+    }
+
+    /**
+     * @return counts of the bins sorted by local FDR. The curve is calculated on first use.
+     */
+    public LocalFDRCurve getLocalFDRCurve() {
+
         if (lFDR.isEmpty()) calcLocalFDR();
 
-        float decoySum = 0;
-        float targetSum = 0;
-        float decoySumP = 0;
-        float targetSumP = 0;
-        float fdrP = 0;
-
-        for (int i = 0; i < sortedIndexes.size(); i++) {
-            int idx = sortedIndexes.get(i);
-
-            float fdr = lFDR.get(idx);
-            if (fdr>maxlFDR) {
-                float f = (fdr-maxlFDR)/(fdr-fdrP);
-                decoySum = decoySum + f*(decoySumP-decoySum);
-                targetSum = targetSum + f*(targetSumP-targetSum);
-                break;
-            }
+        if (lFDRCurve == null) lFDRCurve = newLocalFDRCurve(targetCnts, decoyCnts, null);
 
-            decoySum += decoyCnts.get(idx);
-            targetSum += targetCnts.get(idx);
+        return lFDRCurve;
+    }
+
+    /**
+     * Builds the curve of the lFDR of this histogram with the counts tCounts and dCounts.
+     *
+     * @param idxMap maps the bins of this histogram to the indexes of tCounts and dCounts. If null, the counts have the
+     *               indexes of this histogram.
+     */
+    protected LocalFDRCurve newLocalFDRCurve(TFloatArrayList tCounts, TFloatArrayList dCounts, TIntIntMap idxMap) {
+
+        int n = sortedIndexes.length;
+        float[] lFDRs = new float[n];
+        float[] decoys = new float[n];
+        float[] targets = new float[n];
+
+        for (int i = 0; i < n; i++) {
 
-            fdrP = fdr;
-            decoySumP = decoySum;
-            targetSumP = targetSum;
+            int idx = sortedIndexes[i];
+            lFDRs[i] = lFDR.get(idx);
+
+            int cntIdx = (idxMap == null) ? idx : idxMap.get(psmBins.get(idx));
+            if (cntIdx >= 0) {
+                decoys[i] = dCounts.get(cntIdx);
+                targets[i] = tCounts.get(cntIdx);
+            }
         }
 
-        return new float[] {decoySum, targetSum};
+        return new LocalFDRCurve(lFDRs, decoys, targets);
     }
 
     protected static List<Integer> sortIndexes(List<Float> array, boolean reverse) {
@@ -330,6 +400,29 @@ public abstract class ScoreHistogram implements Serializable {
         return sortedIndexes;
     }
 
+    /**
+     * Stable ascending sort of the indexes of array, i.e. equal values keep the order of their indexes. The float values
+     * are mapped to ints with the order of Float.compare and packed with the index into a long, so that no boxing is
+     * required.
+     */
+    protected static int[] sortIndexes(TFloatArrayList array) {
+
+        int n = array.size();
+        long[] keys = new long[n];
+        for (int i=0; i < n; i++) {
+            int bits = Float.floatToIntBits(array.get(i));
+            bits ^= (bits >> 31) & 0x7fffffff;
+            keys[i] = ((long) bits << 32) | i;
+        }
+
+        Arrays.sort(keys);
+
+        int[] sortedIndexes = new int[n];
+        for (int i=0; i < n; i++) sortedIndexes[i] = (int) keys[i];
+
+        return sortedIndexes;
+    }
+
     public List<Float> calcMids(List<Float> breaks) {
         List<Float> mids = new ArrayList<>();
 
@@ -373,7 +466,9 @@ public abstract class ScoreHistogram implements Serializable {
     }
 
     protected abstract int index(PeptideSpectrumMatch peptideSpectrumMatch);
+    public abstract ScoreHistogram emptyCopy();
     protected abstract Set<Integer> getNeighbourIndex(int bin);
+    protected abstract int getNeighbourIndex(int bin, int[] neighbours);
     protected abstract void write(File outputFile);
     public abstract void write(String outputDir, String fileTag, String id);
     protected abstract List<Float> getMids(int bin);
@@ -410,35 +505,35 @@ public abstract class ScoreHistogram implements Serializable {
         return dimension;
     }
 
-    public List<Float> getGamma() {
+    public TFloatArrayList getGamma() {
         return gamma;
     }
 
-    public List<Float> getlFDR() {
+    public TFloatArrayList getlFDR() {
         return lFDR;
     }
 
-    public List<Integer> getSortedIndexes() {
+    public int[] getSortedIndexes() {
         return sortedIndexes;
     }
 
-    public List<Float> getpFDR() {
+    public TFloatArrayList getpFDR() {
         return pFDR;
     }
 
-    public List<Float> getTargetCnts() {
+    public TFloatArrayList getTargetCnts() {
         return targetCnts;
     }
 
-    public List<Float> getDecoyCnts() {
+    public TFloatArrayList getDecoyCnts() {
         return decoyCnts;
     }
 
-    public List<Integer> getIndexMap() {
+    public TIntIntMap getIndexMap() {
         return indexMap;
     }
 
-    public List<Integer> getPsmBins() {
+    public TIntArrayList getPsmBins() {
         return psmBins;
     }
 
@@ -452,7 +547,9 @@ public abstract class ScoreHistogram implements Serializable {
         lFDR.clear();
         pFDR.clear();
         sortedIndexes = null;
+        lFDRCurve = null;
         indexMap.clear();
+        currIndex = 0;
         pi_0 = -1.0;
         pi_1 = -1.0;
     }
@@ -11,9 +11,14 @@ You should have received a copy of the GNU General Public License along with thi
 package newance.psmcombiner;
 
 import newance.psmconverter.PeptideSpectrumMatch;
+import newance.psmconverter.ScoreSchema;
 import newance.util.NewAnceParams;
 
 import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
 /**
@@ -22,7 +27,10 @@ import java.util.*;
 
 public class ScoreHistogram3D extends SmoothedScoreHistogram {
 
-    protected static List<List<Integer>> nnIndexMap = null;
+    // binary histogram files start with "NAHB" followed by the format version
+    public static final int BINARY_MAGIC = 0x4E414842;
+    // version 1 had an additional lFDR array after the decoy counts, which was never read
+    public static final int BINARY_VERSION = 2;
 
     protected final double minScore1;
     protected final double maxScore1;
@@ -42,6 +50,9 @@ public class ScoreHistogram3D extends SmoothedScoreHistogram {
     protected final String score1;
     protected final String score2;
     protected final String score3;
+    protected final int score1Slot;
+    protected final int score2Slot;
+    protected final int score3Slot;
 
 
     public ScoreHistogram3D(ScoreHistogram3D scoreHistogram3D) {
@@ -50,6 +61,9 @@ public class ScoreHistogram3D extends SmoothedScoreHistogram {
         this.score1 = scoreHistogram3D.score1;
         this.score2 = scoreHistogram3D.score2;
         this.score3 = scoreHistogram3D.score3;
+        this.score1Slot = scoreHistogram3D.score1Slot;
+        this.score2Slot = scoreHistogram3D.score2Slot;
+        this.score3Slot = scoreHistogram3D.score3Slot;
 
         this.minScore1 = scoreHistogram3D.minScore1;
         this.maxScore1 = scoreHistogram3D.maxScore1;
@@ -69,7 +83,6 @@ public class ScoreHistogram3D extends SmoothedScoreHistogram {
         this.score2Mids = scoreHistogram3D.score2Mids;
         this.score3Mids = scoreHistogram3D.score3Mids;
 
-        if (nnIndexMap==null) nnIndexMap = initNNIndexMap();
         this.smoothedHistogram = null;
     }
 
@@ -82,6 +95,9 @@ public class ScoreHistogram3D extends SmoothedScoreHistogram {
         this.score1 = score1;
         this.score2 = score2;
         this.score3 = score3;
+        this.score1Slot = ScoreSchema.register(score1);
+        this.score2Slot = ScoreSchema.register(score2);
+        this.score3Slot = ScoreSchema.register(score3);
 
         this.minScore1 = minScore1;
         this.maxScore1 = maxScore1;
@@ -101,16 +117,25 @@ public class ScoreHistogram3D extends SmoothedScoreHistogram {
         this.score2Mids = calcMids(calcBreaks((float) minScore2,(float) maxScore2, nrScore2Bins));
         this.score3Mids = calcMids(calcBreaks((float) minScore3,(float) maxScore3, nrScore3Bins));
 
-        if (nnIndexMap==null) nnIndexMap = initNNIndexMap();
         this.smoothedHistogram = null;
     }
 
+    /**
+     * @return empty histogram with the same layout as this histogram
+     */
+    @Override
+    public ScoreHistogram3D emptyCopy() {
+
+        return new ScoreHistogram3D(nrBins, minScore1, maxScore1, nrScore1Bins, minScore2, maxScore2, nrScore2Bins,
+                minScore3, maxScore3, nrScore3Bins, score1, score2, score3);
+    }
+
     @Override
     protected int index(PeptideSpectrumMatch peptideSpectrumMatch) {
 
-        int score1Idx = get1DIndex(peptideSpectrumMatch.getScore(score1), minScore1, score1BinWidth, nrScore1Bins-1);
-        int score2Idx = get1DIndex(peptideSpectrumMatch.getScore(score2), minScore2, score2BinWidth, nrScore2Bins-1);
-        int score3Idx = get1DIndex(peptideSpectrumMatch.getScore(score3), minScore3, score3BinWidth, nrScore3Bins-1);
+        int score1Idx = get1DIndex(peptideSpectrumMatch.getScore(score1Slot), minScore1, score1BinWidth, nrScore1Bins-1);
+        int score2Idx = get1DIndex(peptideSpectrumMatch.getScore(score2Slot), minScore2, score2BinWidth, nrScore2Bins-1);
+        int score3Idx = get1DIndex(peptideSpectrumMatch.getScore(score3Slot), minScore3, score3BinWidth, nrScore3Bins-1);
 
         int index = nrScore1Bins *(nrScore2Bins *score3Idx + score2Idx) + score1Idx;
 
@@ -136,7 +161,7 @@ public class ScoreHistogram3D extends SmoothedScoreHistogram {
 
         int idx = indexMap.get(bin);
         if (idx<0) {
-            indexMap.set(bin,currIndex);
+            indexMap.put(bin,currIndex);
             psmBins.add(bin);
             currIndex++;
         }
@@ -164,12 +189,14 @@ public class ScoreHistogram3D extends SmoothedScoreHistogram {
         if (!hasSameLayout(other)) return false;
         if (alpha<0 || alpha>1) return false;
 
-        for (Integer bin : other.psmBins) {
+        for (int i=0;i<other.psmBins.size();i++) {
+
+            int bin = other.psmBins.get(i);
 
             int thisIdx = indexMap.get(bin);
             int otherIdx = other.indexMap.get(bin);
             if (thisIdx<0) {
-                indexMap.set(bin,currIndex);
+                indexMap.put(bin,currIndex);
                 psmBins.add(bin);
                 currIndex++;
             }
@@ -193,54 +220,97 @@ public class ScoreHistogram3D extends SmoothedScoreHistogram {
     @Override
     protected Set<Integer> getNeighbourIndex(int bin) {
 
-        List<Integer> scoreIdx = nnIndexMap.get(bin);
+        int[] neighbours = new int[6];
+        int nrNeighbours = getNeighbourIndex(bin, neighbours);
 
-        int score1Idx = scoreIdx.get(0);
-        int score2Idx = scoreIdx.get(1);
-        int score3Idx = scoreIdx.get(2);
+        Set<Integer> neighbourSet = new HashSet<>();
+        for (int i=0;i<nrNeighbours;i++) neighbourSet.add(neighbours[i]);
 
-        Set<Integer> neighbours = new HashSet<>();
-
-        if (score1Idx+1<nrScore1Bins) neighbours.add(nrScore1Bins *(nrScore2Bins *score3Idx + score2Idx) + score1Idx+1);
-        if (score1Idx-1>=0) neighbours.add(nrScore1Bins *(nrScore2Bins *score3Idx + score2Idx) + score1Idx-1);
-        if (score2Idx+1<nrScore2Bins) neighbours.add(nrScore1Bins *(nrScore2Bins *score3Idx + score2Idx+1) + score1Idx);
-        if (score2Idx-1>=0) neighbours.add(nrScore1Bins *(nrScore2Bins *score3Idx + score2Idx-1) + score1Idx);
-        if (score3Idx+1<nrScore3Bins) neighbours.add(nrScore1Bins *(nrScore2Bins *(score3Idx+1) + score2Idx) + score1Idx);
-        if (score3Idx-1>=0) neighbours.add(nrScore1Bins *(nrScore2Bins *(score3Idx-1) + score2Idx) + score1Idx);
-
-        return neighbours;
+        return neighbourSet;
     }
 
+    /**
+     * Writes the indexes of the direct neighbours of bin to neighbours, which must have length 6.
+     *
+     * @return the number of neighbours
+     */
+    @Override
+    protected int getNeighbourIndex(int bin, int[] neighbours) {
 
-    protected List<List<Integer>> initNNIndexMap(){
+        int score1Idx = bin%nrScore1Bins;
+        int score2Idx = (bin/nrScore1Bins)%nrScore2Bins;
+        int score3Idx = bin/(nrScore1Bins*nrScore2Bins);
 
-        List<List<Integer>> indexMap = new ArrayList<>(totNrBins);
-        for (int i=0;i<totNrBins;i++) indexMap.add(new ArrayList<>(3));
+        int score3Stride = nrScore1Bins*nrScore2Bins;
+        int cnt = 0;
 
-        for (int score3Idx = 0; score3Idx < nrScore3Bins; score3Idx++) {
-            for (int score2Idx = 0; score2Idx < nrScore2Bins; score2Idx++) {
-                for (int score1Idx = 0; score1Idx < nrScore1Bins; score1Idx++) {
-                    int index = nrScore1Bins *(nrScore2Bins *score3Idx + score2Idx) + score1Idx;
+        if (score1Idx+1<nrScore1Bins) neighbours[cnt++] = bin+1;
+        if (score1Idx-1>=0) neighbours[cnt++] = bin-1;
+        if (score2Idx+1<nrScore2Bins) neighbours[cnt++] = bin+nrScore1Bins;
+        if (score2Idx-1>=0) neighbours[cnt++] = bin-nrScore1Bins;
+        if (score3Idx+1<nrScore3Bins) neighbours[cnt++] = bin+score3Stride;
+        if (score3Idx-1>=0) neighbours[cnt++] = bin-score3Stride;
 
-                    List<Integer> indexes = indexMap.get(index);
-                    indexes.add(score1Idx);
-                    indexes.add(score2Idx);
-                    indexes.add(score3Idx);
-                }
-            }
-        }
-        return indexMap;
+        return cnt;
     }
 
     public void write(String outputDir, String fileTag, String id) {
 
+        boolean binary = NewAnceParams.getInstance().getHistogramFormat().equals("binary");
+        String ext = binary ? ".bin" : ".txt";
+
         if (smoothedHistogram!=null)
-            smoothedHistogram.write(new File(outputDir+File.separatorChar+fileTag+"_smoothed_"+id+".txt"));
+            ((ScoreHistogram3D) smoothedHistogram).write(new File(outputDir+File.separatorChar+fileTag+"_smoothed_"+id+ext), binary);
+
+        write(new File(outputDir+File.separatorChar+fileTag+"_"+id+ext), binary);
+    }
+
+    public void write(File outputFile, boolean binary) {
 
-        write(new File(outputDir+File.separatorChar+fileTag+"_"+id+".txt"));
+        if (binary) writeBinary(outputFile);
+        else write(outputFile);
     }
 
-    protected void write(File outputFile) {
+    /**
+     * Writes the histogram in the binary format: magic number and version, the 3 score names (length and UTF-8 bytes),
+     * min, max and number of bins of each score, the number of bins with counts and the arrays of their bin indexes,
+     * target counts and decoy counts. The lFDR is not stored, it is recalculated from the counts. Numbers are written
+     * big endian.
+     */
+    public void writeBinary(File outputFile) {
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outputFile)))) {
+
+            out.writeInt(BINARY_MAGIC);
+            out.writeInt(BINARY_VERSION);
+
+            for (String score : new String[]{score1, score2, score3}) {
+                byte[] bytes = score.getBytes(StandardCharsets.UTF_8);
+                out.writeShort(bytes.length);
+                out.write(bytes);
+            }
+
+            out.writeDouble(minScore1);
+            out.writeDouble(maxScore1);
+            out.writeInt(nrScore1Bins);
+            out.writeDouble(minScore2);
+            out.writeDouble(maxScore2);
+            out.writeInt(nrScore2Bins);
+            out.writeDouble(minScore3);
+            out.writeDouble(maxScore3);
+            out.writeInt(nrScore3Bins);
+
+            int nrCells = psmBins.size();
+            out.writeInt(nrCells);
+            for (int i=0;i<nrCells;i++) out.writeInt(psmBins.get(i));
+            for (int i=0;i<nrCells;i++) out.writeFloat(targetCnts.get(indexMap.get(psmBins.get(i))));
+            for (int i=0;i<nrCells;i++) out.writeFloat(decoyCnts.get(indexMap.get(psmBins.get(i))));
+        } catch (IOException e) {
+            System.out.println("Cannot write histogram to file "+outputFile+".");
+        }
+    }
+
+    public void write(File outputFile) {
 
         try {
             BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile));
@@ -248,7 +318,7 @@ public class ScoreHistogram3D extends SmoothedScoreHistogram {
                     minScore1, maxScore1, nrScore1Bins, minScore2, maxScore2, nrScore2Bins, minScore3, maxScore3, nrScore3Bins));
             writer.write(score1+"\t"+score2+"\t"+score3+"\tValue\tType\n");
 
-            for (int i=0;i<indexMap.size();i++) {
+            for (int i=0;i<totNrBins;i++) {
 
                 List<Float> mids = getMids(i);
                 String coords = "";
@@ -274,8 +344,25 @@ public class ScoreHistogram3D extends SmoothedScoreHistogram {
         }
     }
 
+    /**
+     * @return histogram dir/name.bin if this file exists, dir/name.txt otherwise
+     */
+    public static File getHistogramFile(String dir, String name) {
+
+        File binaryFile = new File(dir+File.separatorChar+name+".bin");
+        if (binaryFile.exists()) return binaryFile;
+
+        return new File(dir+File.separatorChar+name+".txt");
+    }
+
+    /**
+     * Reads a histogram written in the text or in the binary format. The format is recognized by the magic number of
+     * binary files.
+     */
     public static ScoreHistogram3D read(File inputFile) {
 
+        if (isBinary(inputFile)) return readBinary(inputFile);
+
         ScoreHistogram3D scoreHistogram3D = null;
         try {
             BufferedReader reader = new BufferedReader(new FileReader(inputFile));
@@ -316,6 +403,8 @@ public class ScoreHistogram3D extends SmoothedScoreHistogram {
                 if (line.trim().isEmpty()) continue;
 
                 fields = line.split("\t");
+                // lFDR lines are not counts
+                if (fields[4].equals("lFDR")) continue;
 
                 double score1 = Double.parseDouble(fields[0]);
                 double score2 = Double.parseDouble(fields[1]);
@@ -334,6 +423,99 @@ public class ScoreHistogram3D extends SmoothedScoreHistogram {
         return scoreHistogram3D;
     }
 
+    public static boolean isBinary(File inputFile) {
+
+        if (inputFile.length()<4) return false;
+
+        try (DataInputStream in = new DataInputStream(new FileInputStream(inputFile))) {
+            return in.readInt()==BINARY_MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads a histogram written by writeBinary(). The file is memory mapped and the arrays are copied in bulk. Files of
+     * version 1 are read as well, their lFDR array is ignored.
+     */
+    public static ScoreHistogram3D readBinary(File inputFile) {
+
+        try (FileChannel channel = FileChannel.open(inputFile.toPath(), StandardOpenOption.READ)) {
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.getInt()!=BINARY_MAGIC) {
+                System.out.println("Invalid histogram input file "+inputFile+". No binary histogram file.");
+                return null;
+            }
+            int version = buffer.getInt();
+            if (version!=1 && version!=BINARY_VERSION) {
+                System.out.println("Invalid histogram input file "+inputFile+". Unknown binary format version "+version+".");
+                return null;
+            }
+
+            String[] scores = new String[3];
+            for (int i=0;i<3;i++) {
+                byte[] bytes = new byte[buffer.getShort()];
+                buffer.get(bytes);
+                scores[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            double minScore1 = buffer.getDouble();
+            double maxScore1 = buffer.getDouble();
+            int nrScore1Bins = buffer.getInt();
+            double minScore2 = buffer.getDouble();
+            double maxScore2 = buffer.getDouble();
+            int nrScore2Bins = buffer.getInt();
+            double minScore3 = buffer.getDouble();
+            double maxScore3 = buffer.getDouble();
+            int nrScore3Bins = buffer.getInt();
+
+            int[] nrBins = new int[3];
+            nrBins[0] = nrScore1Bins;
+            nrBins[1] = nrScore2Bins;
+            nrBins[2] = nrScore3Bins;
+
+            ScoreHistogram3D scoreHistogram3D = new ScoreHistogram3D(nrBins, minScore1, maxScore1, nrScore1Bins,
+                    minScore2, maxScore2, nrScore2Bins, minScore3, maxScore3, nrScore3Bins,
+                    scores[0], scores[1], scores[2]);
+
+            int nrCells = buffer.getInt();
+            int[] bins = new int[nrCells];
+            float[] targets = new float[nrCells];
+            float[] decoys = new float[nrCells];
+            buffer.asIntBuffer().get(bins);
+            buffer.position(buffer.position()+4*nrCells);
+            buffer.asFloatBuffer().get(targets);
+            buffer.position(buffer.position()+4*nrCells);
+            buffer.asFloatBuffer().get(decoys);
+
+            for (int i=0;i<nrCells;i++) scoreHistogram3D.addBin(bins[i], targets[i], decoys[i]);
+
+            return scoreHistogram3D;
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Cannot read histogram file "+inputFile+": "+e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Adds target and decoy counts to a bin, which must not have counts yet.
+     */
+    protected void addBin(int bin, float targetCnt, float decoyCnt) {
+
+        if (targetCnt<=0 && decoyCnt<=0) return;
+
+        indexMap.put(bin,currIndex);
+        psmBins.add(bin);
+        currIndex++;
+
+        targetCnts.add(targetCnt);
+        decoyCnts.add(decoyCnt);
+        totTargetCnt += targetCnt;
+        totDecoyCnt += decoyCnt;
+    }
+
 
     protected List<Float> getMids(int bin) {
 
@@ -353,6 +535,7 @@ public class ScoreHistogram3D extends SmoothedScoreHistogram {
         }
 
         smoothedHistogram.removeSpikeNoise(adjustTotalCounts);
+        lFDRCurve = null;
     }
 
 
@@ -362,6 +545,16 @@ public class ScoreHistogram3D extends SmoothedScoreHistogram {
         }
 
         smoothedHistogram.smooth(adjustTotalCounts);
+        lFDRCurve = null;
+    }
+
+    public void estimateDensityHistogram() {
+        if (smoothedHistogram==null) {
+            smoothedHistogram = new ScoreHistogram3D(this);
+        }
+
+        smoothedHistogram.estimateDensity();
+        lFDRCurve = null;
     }
 
     public boolean hasSameLayout(ScoreHistogram3D that) {
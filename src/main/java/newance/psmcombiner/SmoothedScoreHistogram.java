@@ -10,11 +10,14 @@ You should have received a copy of the GNU General Public License along with thi
 
 package newance.psmcombiner;
 
+import gnu.trove.list.array.TFloatArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.set.hash.TIntHashSet;
 import newance.psmconverter.PeptideSpectrumMatch;
+import newance.util.NewAnceParams;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Set;
+import java.util.Arrays;
+import java.util.stream.IntStream;
 
 /**
  * @author Markus Müller
@@ -49,7 +52,7 @@ public abstract class SmoothedScoreHistogram extends ScoreHistogram {
             return super.getGamma(bin);
     }
 
-    public List<Float> getGamma() {
+    public TFloatArrayList getGamma() {
 
         if (smoothedHistogram!=null)
             return smoothedHistogram.getGamma();
@@ -60,7 +63,11 @@ public abstract class SmoothedScoreHistogram extends ScoreHistogram {
 
     public float getLocalFDR(PeptideSpectrumMatch psm) {
 
-        int bin = index(psm);
+        return getLocalFDR(index(psm));
+    }
+
+    @Override
+    public float getLocalFDR(int bin) {
 
         if (smoothedHistogram!=null)
             return smoothedHistogram.getLocalFDR(bin);
@@ -71,6 +78,7 @@ public abstract class SmoothedScoreHistogram extends ScoreHistogram {
 
     public abstract void removeSpikeNoiseHistogram(boolean adjustTotalCounts);
     public abstract void smoothHistogram(boolean adjustTotalCounts);
+    public abstract void estimateDensityHistogram();
 
     public void calcLocalFDR() {
         if (smoothedHistogram!=null)
@@ -86,82 +94,48 @@ public abstract class SmoothedScoreHistogram extends ScoreHistogram {
         super.calcLocalFDR(p1_p0_ratio,parent);
     }
 
+    /**
+     * @return lFDR of the smoothed histogram with the counts of this histogram, sorted by lFDR
+     */
     @Override
-    public float[] getTargetDecoyCounts(float maxlFDR) {
+    public LocalFDRCurve getLocalFDRCurve() {
 
-        if (smoothedHistogram!=null) {
+        if (smoothedHistogram==null) return super.getLocalFDRCurve();
 
-            if (smoothedHistogram.getlFDR().isEmpty()) smoothedHistogram.calcLocalFDR();
-            return smoothedHistogram.getTargetDecoyCounts(targetCnts,decoyCnts,indexMap,maxlFDR);
-        }
-        else {
-            return super.getTargetDecoyCounts(maxlFDR);
+        if (smoothedHistogram.getlFDR().isEmpty()) {
+            smoothedHistogram.calcLocalFDR();
+            lFDRCurve = null;
         }
 
+        if (lFDRCurve==null) lFDRCurve = smoothedHistogram.newLocalFDRCurve(targetCnts,decoyCnts,indexMap);
 
-    }
-
-    private float[] getTargetDecoyCounts(List<Float> tCounts, List<Float> dCounts, List<Integer> idxMap, float maxlFDR) {
-
-        float decoySum = 0;
-        float targetSum = 0;
-        float decoySumP = 0;
-        float targetSumP = 0;
-        float fdrP = 0;
-
-        for (int i : sortedIndexes) {
-
-            float fdr = lFDR.get(i);
-            if (fdr>maxlFDR) {
-                float f = (fdr-maxlFDR)/(fdr-fdrP);
-                decoySum = decoySum + f*(decoySumP-decoySum);
-                targetSum = targetSum + f*(targetSumP-targetSum);
-                break;
-            }
-
-            int idx = idxMap.get(psmBins.get(i));
-            if (idx>=0) {
-                decoySum += dCounts.get(idx);
-                targetSum += tCounts.get(idx);
-            }
-
-            fdrP = fdr;
-            decoySumP = decoySum;
-            targetSumP = targetSum;
-        }
-
-        return new float[] {decoySum, targetSum};
+        return lFDRCurve;
     }
 
 
     // remove cells that have no target counts within a neigborhood
     protected void removeSpikeNoise(boolean adjustTotalCounts) {
 
-        List<Float> newTargetCnts = new ArrayList<>();
-        List<Float> newDecoyCnts = new ArrayList<>();
-        List<Integer> newPsmBins = new ArrayList<>();
-        currIndex = 0;
+        int kernelWidth = NewAnceParams.getInstance().getSmoothKernelWidth();
+        float[] nnTargetSums = kernelSums(targetCnts, psmBins, kernelWidth, false);
 
-        for (Integer bin : psmBins) {
+        TFloatArrayList newTargetCnts = new TFloatArrayList();
+        TFloatArrayList newDecoyCnts = new TFloatArrayList();
+        TIntArrayList newPsmBins = new TIntArrayList();
+        currIndex = 0;
 
-            Set<Integer> neighbours = getNeighbourIndex(bin);
-            float targetCounts = 0;
-            for (Integer n : neighbours) {
-                int idxNN = indexMap.get(n);
-                if (idxNN>=0 && idxNN<targetCnts.size()) {
-                    targetCounts += targetCnts.get(idxNN);
-                }
-            }
+        for (int i=0;i<psmBins.size();i++) {
 
+            int bin = psmBins.get(i);
             int idx = indexMap.get(bin);
-            if (targetCounts>0) {
+            if (nnTargetSums[i]>0) {
                 newTargetCnts.add(targetCnts.get(idx));
                 newDecoyCnts.add(decoyCnts.get(idx));
                 newPsmBins.add(bin);
-                indexMap.set(bin,currIndex);
+                indexMap.put(bin,currIndex);
                 currIndex++;
             } else {
-                indexMap.set(bin,-1);
+                indexMap.remove(bin);
             }
         }
 
@@ -178,16 +152,14 @@ public abstract class SmoothedScoreHistogram extends ScoreHistogram {
 
     protected void adjustTotalCounts() {
 
-        tmpCnt = 0;
-        targetCnts.forEach(cnt -> tmpCnt += cnt);
+        tmpCnt = targetCnts.sum();
         if (tmpCnt>0) {
             for (int i=0;i<targetCnts.size();i++) targetCnts.set(i,targetCnts.get(i)*totTargetCnt/tmpCnt);
         } else {
             totTargetCnt = 0;
         }
 
-        tmpCnt = 0;
-        decoyCnts.forEach(cnt -> tmpCnt += cnt);
+        tmpCnt = decoyCnts.sum();
         if (tmpCnt>0) {
             for (int i=0;i<decoyCnts.size();i++) decoyCnts.set(i,decoyCnts.get(i)*totDecoyCnt/tmpCnt);
         } else {
@@ -197,81 +169,52 @@ public abstract class SmoothedScoreHistogram extends ScoreHistogram {
 
     protected void smooth(boolean adjustTotalCounts) {
 
-        List<Float> newTargetCnts = new ArrayList<>(targetCnts);
-        List<Float> newDecoyCnts = new ArrayList<>(decoyCnts);
-        List<Integer> newPsmBins = new ArrayList<>(psmBins);
-
-        List<Float> tmpTargetCnts = new ArrayList<>();
-        List<Float> tmpDecoyCnts = new ArrayList<>();
-        List<Integer> tmpPsmBins = new ArrayList<>();
-        List<Integer> nnPsmBins = new ArrayList<>();
-
-        for (Integer bin : psmBins) {
-
-            tmpTargetCnts.clear();
-            tmpDecoyCnts.clear();
-            tmpPsmBins.clear();
+        smooth(adjustTotalCounts, NewAnceParams.getInstance().getSmoothKernelWidth());
+    }
 
-            int idx = indexMap.get(bin);
-            float targetCounts = targetCnts.get(idx);
-            float decoyCounts = decoyCnts.get(idx);
-            int cnt = 1;
-
-            Set<Integer> neighbours = getNeighbourIndex(bin);
-            for (Integer n : neighbours) {
-                int idxNN = indexMap.get(n);
-                if (idxNN<0) {
-                    tmpTargetCnts.add(0f);
-                    tmpDecoyCnts.add(0f);
-                    tmpPsmBins.add(n);
-                    nnPsmBins.add(n);
-                } else  if (idxNN<targetCnts.size()) {
-                    targetCounts += targetCnts.get(idxNN);
-                    decoyCounts += decoyCnts.get(idxNN);
-                }
-                cnt++;
+    /**
+     * Replaces the counts of each bin by the average over the bin and the bins at distance 1 to kernelWidth along each
+     * score axis. Bins outside the histogram are not part of the average. For kernelWidth 1 these are the direct
+     * neighbours of the bin. Empty bins within the kernel of a bin with PSMs are added to the histogram. Only the bins
+     * with PSMs and their neighbours are visited, the empty part of the grid costs nothing.
+     *
+     * @param kernelWidth half width of the kernel along each axis
+     */
+    protected void smooth(boolean adjustTotalCounts, int kernelWidth) {
+
+        // empty bins within the kernel of bins with psms are added with 0 counts in ascending bin order
+        TIntHashSet emptyBins = new TIntHashSet();
+        int[] neighbours = new int[2*dimension*kernelWidth];
+        for (int i=0;i<psmBins.size();i++) {
+
+            int nrNeighbours = getKernelBins(psmBins.get(i), kernelWidth, neighbours);
+            for (int j=0;j<nrNeighbours;j++) {
+                if (indexMap.get(neighbours[j])<0) emptyBins.add(neighbours[j]);
             }
+        }
+        int[] newBins = emptyBins.toArray();
+        Arrays.sort(newBins);
 
-            targetCounts /= cnt;
-            decoyCounts /= cnt;
+        TIntArrayList newPsmBins = new TIntArrayList(psmBins);
+        newPsmBins.add(newBins);
 
-            newTargetCnts.addAll(tmpTargetCnts);
-            newDecoyCnts.addAll(tmpDecoyCnts);
-            newPsmBins.addAll(tmpPsmBins);
+        // the sums are calculated before the new bins are added to indexMap, so they only see the bins with psms
+        float[] targetSums = kernelSums(targetCnts, newPsmBins, kernelWidth, true);
+        float[] decoySums = kernelSums(decoyCnts, newPsmBins, kernelWidth, true);
 
-            for (Integer n : tmpPsmBins) {
-                indexMap.set(n,currIndex);
-                currIndex++;
-            }
-
-            newTargetCnts.set(idx,targetCounts);
-            newDecoyCnts.set(idx,decoyCounts);
+        for (int bin : newBins) {
+            indexMap.put(bin,currIndex);
+            currIndex++;
         }
 
-        // set counts for neighbours of cells with psms
-        for (Integer bin : nnPsmBins) {
-
-            Set<Integer> neighbours = getNeighbourIndex(bin);
-
-            int idx = indexMap.get(bin);
-            float targetCounts = 0;
-            float decoyCounts = 0;
-            int cnt = 1;
-
-            for (Integer n : neighbours) {
-                int idxNN = indexMap.get(n);
-                if (idxNN>=0 && idxNN<targetCnts.size()) {
-                    targetCounts += targetCnts.get(idxNN);
-                    decoyCounts += decoyCnts.get(idxNN);
-                }
-                cnt++;
-            }
+        TFloatArrayList newTargetCnts = new TFloatArrayList(newPsmBins.size());
+        TFloatArrayList newDecoyCnts = new TFloatArrayList(newPsmBins.size());
+        for (int i=0;i<newPsmBins.size();i++) {
 
-            targetCounts /= cnt;
-            decoyCounts /= cnt;
+            int cnt = kernelSize(newPsmBins.get(i), kernelWidth);
 
-            newTargetCnts.set(idx,targetCounts);
-            newDecoyCnts.set(idx,decoyCounts);
+            newTargetCnts.add(targetSums[i]/cnt);
+            newDecoyCnts.add(decoySums[i]/cnt);
         }
 
         targetCnts = newTargetCnts;
@@ -285,6 +228,127 @@ public abstract class SmoothedScoreHistogram extends ScoreHistogram {
         pFDR.clear();
     }
 
+    protected void estimateDensity() {
+
+        estimateDensity(NewAnceParams.getInstance().getKdeBandwidth());
+    }
+
+    /**
+     * Replaces the counts of each bin by the Gaussian kernel density estimate of the target and decoy counts at this
+     * bin. Only the bins with PSMs are kept, since the lFDR is only evaluated for them. The density spread to empty
+     * bins is dropped and the border correction of the estimator does not conserve mass, therefore the kept counts are
+     * rescaled to the total target and decoy counts like in smooth().
+     *
+     * @param bandwidth standard deviation of the Gaussian kernel in bins
+     */
+    protected void estimateDensity(double bandwidth) {
+
+        KernelDensityEstimator kde = new KernelDensityEstimator(nrBins, bandwidth);
+        float[] targetDensity = kde.smooth(toDenseGrid(targetCnts));
+        float[] decoyDensity = kde.smooth(toDenseGrid(decoyCnts));
+
+        for (int i=0;i<psmBins.size();i++) {
+
+            int bin = psmBins.get(i);
+            int idx = indexMap.get(bin);
+            // FFT round off can produce small negative values
+            targetCnts.set(idx,Math.max(0f,targetDensity[bin]));
+            decoyCnts.set(idx,Math.max(0f,decoyDensity[bin]));
+        }
+
+        adjustTotalCounts();
+
+        gamma.clear();
+        lFDR.clear();
+        pFDR.clear();
+    }
+
+    /**
+     * @return counts copied to an array indexed by bin
+     */
+    protected float[] toDenseGrid(TFloatArrayList counts) {
+
+        float[] grid = new float[totNrBins];
+        for (int i=0;i<psmBins.size();i++) {
+            int bin = psmBins.get(i);
+            grid[bin] = counts.get(indexMap.get(bin));
+        }
+
+        return grid;
+    }
+
+    /**
+     * Sums the counts of the bins at distance 1 to kernelWidth along each axis for each bin in bins. Counts are looked
+     * up in indexMap, bins without counts contribute 0. The bins are processed in parallel.
+     *
+     * @param includeCenter if true the count of the bin itself is added to its sum
+     * @return sums in the order of bins
+     */
+    protected float[] kernelSums(final TFloatArrayList counts, final TIntArrayList bins, final int kernelWidth,
+                                 final boolean includeCenter) {
+
+        final float[] sums = new float[bins.size()];
+
+        IntStream.range(0, bins.size()).parallel().forEach(i -> {
+
+            int bin = bins.get(i);
+            int[] neighbours = new int[2*dimension*kernelWidth];
+            int nrNeighbours = getKernelBins(bin, kernelWidth, neighbours);
+
+            float sum = includeCenter ? count(counts, bin) : 0f;
+            for (int j=0;j<nrNeighbours;j++) sum += count(counts, neighbours[j]);
+
+            sums[i] = sum;
+        });
+
+        return sums;
+    }
+
+    private float count(TFloatArrayList counts, int bin) {
+
+        int idx = indexMap.get(bin);
+        return (idx<0) ? 0f : counts.get(idx);
+    }
+
+    /**
+     * Writes the bins at distance 1 to kernelWidth from bin along each axis, which are within the histogram, to
+     * kernelBins. kernelBins must have length 2*dimension*kernelWidth.
+     *
+     * @return the number of kernel bins
+     */
+    protected int getKernelBins(int bin, int kernelWidth, int[] kernelBins) {
+
+        int cnt = 0;
+        int stride = 1;
+        for (int axis=0;axis<dimension;axis++) {
+
+            int i = (bin/stride)%nrBins[axis];
+            for (int d=1;d<=kernelWidth;d++) {
+                if (i+d<nrBins[axis]) kernelBins[cnt++] = bin+d*stride;
+                if (i-d>=0) kernelBins[cnt++] = bin-d*stride;
+            }
+            stride *= nrBins[axis];
+        }
+
+        return cnt;
+    }
+
+    /**
+     * @return number of bins within the histogram, which are in the kernel of bin (including bin itself)
+     */
+    protected int kernelSize(int bin, int kernelWidth) {
+
+        int size = 1;
+        for (int axis=0;axis<dimension;axis++) {
+
+            int i = bin%nrBins[axis];
+            bin /= nrBins[axis];
+            size += Math.min(kernelWidth, i) + Math.min(kernelWidth, nrBins[axis]-1-i);
+        }
+
+        return size;
+    }
+
     public boolean isSmoothed() {
         return smoothedHistogram!=null;
     }
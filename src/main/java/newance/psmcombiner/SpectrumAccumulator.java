@@ -42,7 +42,7 @@ public class SpectrumAccumulator implements BiConsumer<String, List<PeptideSpect
         if (peptideSpectrumMatchData.isEmpty()) return;
 
         for (PeptideSpectrumMatch psm : peptideSpectrumMatchData) {
-            String peptideSeq = psm.getPeptide().toSymbolString();
+            String peptideSeq = psm.toSymbolString();
 
             peptideProteinMap.putIfAbsent(peptideSeq,Collections.synchronizedSet(new HashSet<>()));
             peptidePSMMap.putIfAbsent(peptideSeq,Collections.synchronizedList(new ArrayList<>()));
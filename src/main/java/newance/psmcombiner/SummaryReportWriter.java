@@ -11,13 +11,13 @@ You should have received a copy of the GNU General Public License along with thi
 package newance.psmcombiner;
 
 import newance.psmconverter.PeptideSpectrumMatch;
-import newance.util.NewAnceParams;
-import newance.util.ProcessPsmUtils;
+import newance.psmconverter.PsmStore;
 
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.BitSet;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -56,16 +56,31 @@ public class SummaryReportWriter {
                       ConcurrentHashMap<String, List<PeptideSpectrumMatch>>  cometPsms,
                       ConcurrentHashMap<String, List<PeptideSpectrumMatch>>  maxQuantPsms) {
 
+        PsmStore cometStore = new PsmStore(cometPsms);
+        PsmStore maxQuantStore = new PsmStore(maxQuantPsms);
+
+        write(group, new PsmStore(combinedPsms), cometStore, cometStore.selectAll(), maxQuantStore, maxQuantStore.selectAll());
+    }
+
+    /**
+     * Writes the target PSM and peptide counts of the selected Comet and MaxQuant PSMs and of all combined PSMs.
+     */
+    public void write(String group, PsmStore combinedPsms,
+                      PsmStore cometPsms, BitSet cometSelection,
+                      PsmStore maxQuantPsms, BitSet maxQuantSelection) {
+
         if (reportWriter==null) return;
 
-        ConcurrentHashMap<String, List<PeptideSpectrumMatch>>  noDecoycombinedPsms = ProcessPsmUtils.removeDecoys(combinedPsms);
-        ConcurrentHashMap<String, List<PeptideSpectrumMatch>>  noDecoyCometPsms = ProcessPsmUtils.removeDecoys(cometPsms);
-        ConcurrentHashMap<String, List<PeptideSpectrumMatch>>  noDecoyMaxQuantPsms = ProcessPsmUtils.removeDecoys(maxQuantPsms);
+        BitSet combinedTargets = combinedPsms.selectTargets();
+        BitSet cometTargets = cometPsms.selectTargets();
+        cometTargets.and(cometSelection);
+        BitSet maxQuantTargets = maxQuantPsms.selectTargets();
+        maxQuantTargets.and(maxQuantSelection);
 
         try {
-            reportWriter.write(group+"\t"+ProcessPsmUtils.countPsms(noDecoyCometPsms)+"\t"+ ProcessPsmUtils.countPsms(noDecoyMaxQuantPsms)+"\t"+
-                    ProcessPsmUtils.countPsms(noDecoycombinedPsms)+"\t"+ProcessPsmUtils.countUniquePeptides(noDecoyCometPsms)+"\t"+
-                    ProcessPsmUtils.countUniquePeptides(noDecoyMaxQuantPsms)+"\t"+ ProcessPsmUtils.countUniquePeptides(noDecoycombinedPsms)+"\n");
+            reportWriter.write(group+"\t"+cometTargets.cardinality()+"\t"+ maxQuantTargets.cardinality()+"\t"+
+                    combinedTargets.cardinality()+"\t"+cometPsms.countUniquePeptides(cometTargets)+"\t"+
+                    maxQuantPsms.countUniquePeptides(maxQuantTargets)+"\t"+ combinedPsms.countUniquePeptides(combinedTargets)+"\n");
 
         } catch (IOException e) {
         }
@@ -74,10 +89,20 @@ public class SummaryReportWriter {
 
     public void write(String group, ConcurrentHashMap<String, List<PeptideSpectrumMatch>> cometPsms) {
 
-        ConcurrentHashMap<String, List<PeptideSpectrumMatch>>  noDecoyCometPsms = ProcessPsmUtils.removeDecoys(cometPsms);
+        PsmStore cometStore = new PsmStore(cometPsms);
+
+        write(group, cometStore, cometStore.selectAll());
+    }
+
+    public void write(String group, PsmStore cometPsms, BitSet cometSelection) {
+
+        if (reportWriter==null) return;
+
+        BitSet cometTargets = cometPsms.selectTargets();
+        cometTargets.and(cometSelection);
 
         try {
-            reportWriter.write(group+"\t"+ProcessPsmUtils.countPsms(noDecoyCometPsms)+"\t"+ProcessPsmUtils.countUniquePeptides(noDecoyCometPsms)+"\n");
+            reportWriter.write(group+"\t"+cometTargets.cardinality()+"\t"+cometPsms.countUniquePeptides(cometTargets)+"\n");
 
         } catch (IOException e) {
         }
@@ -30,7 +30,7 @@ public class AddVariantIDs2Psm implements BiConsumer<String,List<PeptideSpectrum
 
     public void add(PeptideSpectrumMatch psm) {
 
-        String seq = psm.getPeptide().toSymbolString();
+        String seq = psm.toSymbolString();
         String firstProtein = psm.getFirstProteinAC();
 
         if (psm.isDecoy()) {
@@ -47,13 +47,13 @@ public class AddVariantIDs2Psm implements BiConsumer<String,List<PeptideSpectrum
             firstProtein);
         else {
             if (psm.isVariant()) {
-                List<SequenceVariant> variants = protein.matchWithVariant(seq);
-                if (variants != null && !variants.isEmpty()) {
-                    psm.setSequenceVariants(variants);
-                    psm.setPeptideStart(protein.getPeptideStart());
+                VariantMatch match = protein.matchVariant(seq);
+                if (match != null && match.hasVariants()) {
+                    psm.setSequenceVariants(match.getVariants());
+                    psm.setPeptideStart(match.getPeptideStart());
                     psm.setWtSequence(protein.getWTSequence(psm.getPeptideStart(), seq.length(), 10));
                 } else {
-                    if (!psm.isDecoy()) System.out.println(psm.getPeptide().toSymbolString() + "(" + protein.toString() +
+                    if (!psm.isDecoy()) System.out.println(psm.toSymbolString() + "(" + protein.toString() +
                             ")" + " does not contain variants.");
                     psm.setVariant(false);
                 }
@@ -0,0 +1,106 @@
+/*
+Copyright (C) SIB - Swiss Institute of Bioinformatics, Lausanne, Switzerland
+Copyright (C) LICR - Ludwig Institute of Cancer Research, Lausanne, Switzerland
+This program is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation, either version 2 of the License, or (at your option) any later version.
+This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+You should have received a copy of the GNU General Public License along with this program. If not, see https://www.gnu.org/licenses/.
+*/
+
+package newance.psmconverter;
+
+import com.google.common.base.Optional;
+import newance.mzjava.mol.AminoAcid;
+import newance.mzjava.mol.modification.ModAttachment;
+import newance.mzjava.mol.modification.Modification;
+import newance.mzjava.mol.modification.ModificationMatch;
+import newance.mzjava.mol.modification.ModificationMatchResolver;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Memoizes the modifications resolved by another ModificationMatchResolver for each (mass shift, residue, attachment).
+ * A pep.xml file contains only a few hundred distinct modification masses, so the delegate is called once for each of
+ * them. The delegate is called under a lock and needs not be thread safe.
+ *
+ * @author Markus Müller
+ */
+
+public class CachedModMatchResolver implements ModificationMatchResolver {
+
+    private final ModificationMatchResolver resolver;
+    private final ConcurrentHashMap<Key, Optional<Modification>> cache;
+
+    public CachedModMatchResolver(ModificationMatchResolver resolver) {
+
+        this.resolver = resolver;
+        this.cache = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @return resolver if it is already a CachedModMatchResolver, a new CachedModMatchResolver otherwise
+     */
+    public static ModificationMatchResolver wrap(ModificationMatchResolver resolver) {
+
+        if (resolver == null || resolver instanceof CachedModMatchResolver) return resolver;
+
+        return new CachedModMatchResolver(resolver);
+    }
+
+    @Override
+    public Optional<Modification> resolve(ModificationMatch modMatch) {
+
+        Key key = new Key(modMatch.getMassShift(), modMatch.getResidue(), modMatch.getModAttachment());
+
+        Optional<Modification> modOpt = cache.get(key);
+        if (modOpt != null) return modOpt;
+
+        synchronized (resolver) {
+            modOpt = resolver.resolve(modMatch);
+        }
+        cache.putIfAbsent(key, modOpt);
+
+        return modOpt;
+    }
+
+    public int size() {
+
+        return cache.size();
+    }
+
+    private static final class Key {
+
+        private final long massBits;
+        private final AminoAcid residue;
+        private final ModAttachment modAttachment;
+        private final int hash;
+
+        private Key(double mass, AminoAcid residue, ModAttachment modAttachment) {
+
+            this.massBits = Double.doubleToLongBits(mass);
+            this.residue = residue;
+            this.modAttachment = modAttachment;
+
+            int h = (int) (massBits ^ (massBits >>> 32));
+            h = 31 * h + ((residue == null) ? 0 : residue.hashCode());
+            this.hash = 31 * h + ((modAttachment == null) ? 0 : modAttachment.hashCode());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+
+            Key key = (Key) o;
+            return massBits == key.massBits && residue == key.residue && modAttachment == key.modAttachment;
+        }
+
+        @Override
+        public int hashCode() {
+
+            return hash;
+        }
+    }
+}
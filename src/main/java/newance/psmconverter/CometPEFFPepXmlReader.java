@@ -24,6 +24,7 @@ import newance.psmconverter.pepxml_v120.ModInfoDataType;
 import newance.psmconverter.pepxml_v120.MsmsPipelineAnalysis;
 import newance.psmconverter.pepxml_v120.NameValueType;
 import newance.util.NewAnceParams;
+import newance.util.PsmPredicate;
 
 
 import javax.xml.bind.JAXBContext;
@@ -59,7 +60,7 @@ public class CometPEFFPepXmlReader {
                                  ModificationMatchResolver modMatchResolver) {
 
         this.discardAmbiguous = discardAmbiguousSequences;
-        this.modMatchResolver = modMatchResolver;
+        this.modMatchResolver = CachedModMatchResolver.wrap(modMatchResolver);
         this.groupedFDRCalculator = groupedFDRCalculator;
 
         UNKNOWN_AA.set('B');
@@ -89,11 +90,14 @@ public class CometPEFFPepXmlReader {
 
         JAXBContext jc = JAXBContext.newInstance(SpectrumQuery.class);
         Unmarshaller unmarshaller = jc.createUnmarshaller();
+        PsmPredicate psmPredicate = peptideSpectrumMatchList.getPsmPredicate();
 
         do {
 
             xsr.next();
-            if (xsr.isStartElement() && "spectrum_query".equals(xsr.getLocalName())) {
+            // spectrum queries with rejected charge are not unmarshalled, their child elements are skipped by the loop
+            if (xsr.isStartElement() && "spectrum_query".equals(xsr.getLocalName()) &&
+                    psmPredicate.checkCharge(Integer.parseInt(xsr.getAttributeValue(null, "assumed_charge")))) {
 
                 JAXBElement<MsmsPipelineAnalysis.MsmsRunSummary.SpectrumQuery> jb =
                         unmarshaller.unmarshal(xsr, MsmsPipelineAnalysis.MsmsRunSummary.SpectrumQuery.class);
@@ -132,12 +136,8 @@ public class CometPEFFPepXmlReader {
 
     protected void processSearchHit(PeptideSpectrumMatchList peptideSpectrumMatchList, SpectrumInfo spectrumInfo, SearchHit searchHit) {
 
-        if (!peptideSpectrumMatchList.isValidSpectrum(spectrumInfo)) return;
-
-        String peptideSequence = searchHit.getPeptide();
-
-        if(discardAmbiguous && containsUnknownAA(peptideSequence))
-            return;
+        if (!peptideSpectrumMatchList.getPsmPredicate().precheck((int) searchHit.getHitRank(), spectrumInfo.getCharge(),
+                searchHit.getPeptide().length())) return;
 
         List<String> proteins = new ArrayList<>();
         proteins.add(searchHit.getProtein());
@@ -146,15 +146,9 @@ public class CometPEFFPepXmlReader {
             proteins.add(altProtein.getProtein());
         }
 
-        if (!peptideSpectrumMatchList.isValidProtein(proteins)) return;
-
-        PeptideMatchDataWrapper peptideMatch = new PeptideMatchDataWrapper(peptideSequence);
-        peptideMatch.setRank((int) searchHit.getHitRank());
-        peptideMatch.setProteins(proteins);
-        peptideMatch.setLeadingProtein(searchHit.getProtein());
-
-        boolean isDecoy = containsOnlyProteinPattern(proteins, NewAnceParams.getInstance().getCometDecoyProtPrefix());
-        peptideMatch.setDecoy(isDecoy); // must be called before copyModInfo
+        PeptideMatchDataWrapper peptideMatch = newPeptideMatch(peptideSpectrumMatchList, spectrumInfo,
+                searchHit.getPeptide(), proteins, (int) searchHit.getHitRank());
+        if (peptideMatch == null) return;
 
         int numMissedCleavages = (searchHit.getNumMissedCleavages() != null) ? searchHit.getNumMissedCleavages().intValue() : null;
         peptideMatch.setNumMissedCleavages(numMissedCleavages);
@@ -169,13 +163,40 @@ public class CometPEFFPepXmlReader {
             peptideMatch.addScore(name, score);
         }
 
-        peptideMatch.addScore("mass_diff",searchHit.getMassdiff().doubleValue());
-        peptideMatch.addScore("tot_num_ions", searchHit.getTotNumIons().doubleValue());
-        peptideMatch.addScore("matched_num_ions", searchHit.getNumMatchedIons().doubleValue());
+        peptideMatch.addScore(ScoreSchema.MASS_DIFF,searchHit.getMassdiff().doubleValue());
+        peptideMatch.addScore(ScoreSchema.TOT_NUM_IONS, searchHit.getTotNumIons().doubleValue());
+        peptideMatch.addScore(ScoreSchema.MATCHED_NUM_IONS, searchHit.getNumMatchedIons().doubleValue());
 
         peptideSpectrumMatchList.resultRead(spectrumInfo, peptideMatch);
     }
 
+    /**
+     * Checks spectrum, sequence and proteins of a search hit and creates the PeptideMatchDataWrapper holding rank,
+     * proteins and decoy status. The first protein in the list is the leading protein.
+     *
+     * @return the new PeptideMatchDataWrapper or null if the search hit is not valid
+     */
+    protected PeptideMatchDataWrapper newPeptideMatch(PeptideSpectrumMatchList peptideSpectrumMatchList, SpectrumInfo spectrumInfo,
+                                                      String peptideSequence, List<String> proteins, int rank) {
+
+        if (!peptideSpectrumMatchList.isValidSpectrum(spectrumInfo)) return null;
+
+        if(discardAmbiguous && containsUnknownAA(peptideSequence))
+            return null;
+
+        if (!peptideSpectrumMatchList.isValidProtein(proteins)) return null;
+
+        PeptideMatchDataWrapper peptideMatch = new PeptideMatchDataWrapper(peptideSequence);
+        peptideMatch.setRank(rank);
+        peptideMatch.setProteins(proteins);
+        peptideMatch.setLeadingProtein(proteins.get(0));
+
+        boolean isDecoy = containsOnlyProteinPattern(proteins, NewAnceParams.getInstance().getCometDecoyProtPrefix());
+        peptideMatch.setDecoy(isDecoy); // must be called before copyModInfo
+
+        return peptideMatch;
+    }
+
     protected boolean containsUnknownAA(String peptideSequence) {
 
         for(int i = 0, size = peptideSequence.length(); i < size; i++){
@@ -194,24 +215,18 @@ public class CometPEFFPepXmlReader {
         if (modInfo.getModAminoacidMass() != null) {
             for (ModInfoDataType.ModAminoacidMass modAaMass : modInfo.getModAminoacidMass()) {
 
-                int position = modAaMass.getPosition().intValue() - 1;
-                AminoAcid residue = peptideMatch.getAminoAcid(position);
-                ModificationMatch modMatch = peptideMatch.addModificationMatch(position, adjustMass(modAaMass.getMass(), residue));
-                resolveMod(modMatch);
+                addModification(peptideMatch, modAaMass.getPosition().intValue() - 1, modAaMass.getMass());
             }
         }
 
         if (modInfo.getModNtermMass() != null) {
 
-            ModificationMatch modMatch = peptideMatch.addModificationMatch(ModAttachment.N_TERM, adjustMass(modInfo.getModNtermMass(), ModAttachment.N_TERM));
-            resolveMod(modMatch);
+            addModification(peptideMatch, ModAttachment.N_TERM, modInfo.getModNtermMass());
         }
 
         if (modInfo.getModCtermMass() != null) {
 
-            ModificationMatch modMatch = peptideMatch.addModificationMatch(ModAttachment.C_TERM,
-                    adjustMass(modInfo.getModCtermMass(), ModAttachment.C_TERM));
-            resolveMod(modMatch);
+            addModification(peptideMatch, ModAttachment.C_TERM, modInfo.getModCtermMass());
         }
 
         if (modInfo.getAminoacidSubstitution()!=null && !modInfo.getAminoacidSubstitution().isEmpty() &&
@@ -221,6 +236,19 @@ public class CometPEFFPepXmlReader {
         }
     }
 
+    protected void addModification(PeptideMatchDataWrapper peptideMatch, int position, double mass) {
+
+        AminoAcid residue = peptideMatch.getAminoAcid(position);
+        ModificationMatch modMatch = peptideMatch.addModificationMatch(position, adjustMass(mass, residue));
+        resolveMod(modMatch);
+    }
+
+    protected void addModification(PeptideMatchDataWrapper peptideMatch, ModAttachment modAttachment, double mass) {
+
+        ModificationMatch modMatch = peptideMatch.addModificationMatch(modAttachment, adjustMass(mass, modAttachment));
+        resolveMod(modMatch);
+    }
+
     protected void resolveMod(ModificationMatch modMatch) {
 
         Optional<Modification> modOpt = modMatchResolver.resolve(modMatch);
@@ -228,12 +256,12 @@ public class CometPEFFPepXmlReader {
             modMatch.addPotentialModification(modOpt.get());
     }
 
-    protected double adjustMass(Double mass, AminoAcid residue) {
+    protected double adjustMass(double mass, AminoAcid residue) {
 
         return mass - residue.getMassOfMonomer();
     }
 
-    protected double adjustMass(Double mass, ModAttachment modAttachment) {
+    protected double adjustMass(double mass, ModAttachment modAttachment) {
 
         switch (modAttachment) {
 
@@ -0,0 +1,234 @@
+/*
+Copyright (C) SIB - Swiss Institute of Bioinformatics, Lausanne, Switzerland
+Copyright (C) LICR - Ludwig Institute of Cancer Research, Lausanne, Switzerland
+This program is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation, either version 2 of the License, or (at your option) any later version.
+This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+You should have received a copy of the GNU General Public License along with this program. If not, see https://www.gnu.org/licenses/.
+*/
+
+package newance.psmconverter;
+
+import com.google.common.io.ByteStreams;
+import newance.mzjava.mol.modification.ModificationMatchResolver;
+import newance.psmcombiner.GroupedFDRCalculator;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Parses a large pep.xml file in parallel. The file is scanned once for the byte offsets of the spectrum_query
+ * elements and split into chunks at these offsets. Each chunk is parsed by the StAX reader into its own buffer and
+ * the buffers are added to the PeptideSpectrumMatchList in file order, so the result is identical to a sequential
+ * parse. Files smaller than minSplitSize or with more than one msms_run_summary are parsed sequentially.
+ *
+ * The chunks are parsed by the calling thread and by helper tasks submitted to the executor, which should be the pool
+ * that converts the files. A helper task queued behind the file tasks only runs once a thread of the pool is idle, so
+ * the chunk work uses the cores left idle once the file pool drains and no second pool is needed. The calling thread
+ * parses chunks itself until all chunks are taken, so it never waits on a task that has not started.
+ *
+ * @author Markus Müller
+ */
+public class CometPepXmlChunkedReader extends CometPepXmlStaxReader {
+
+    public static final long DEFAULT_MIN_SPLIT_SIZE = 64L * 1024 * 1024;
+
+    private static final byte[] QUERY_START = "<spectrum_query".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] QUERY_END = "</spectrum_query>".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] RUN_SUMMARY_START = "<msms_run_summary".getBytes(StandardCharsets.US_ASCII);
+    private static final int OVERLAP = 32;
+
+    private static final byte[] CHUNK_START = "<spectrum_queries>".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CHUNK_END = "</spectrum_queries>".getBytes(StandardCharsets.US_ASCII);
+
+    private final int nrChunks;
+    private final long minSplitSize;
+    private final Executor executor;
+
+    public CometPepXmlChunkedReader(GroupedFDRCalculator groupedFDRCalculator, boolean discardAmbiguousSequences,
+                                    ModificationMatchResolver modMatchResolver, int nrChunks, long minSplitSize) {
+
+        this(groupedFDRCalculator, discardAmbiguousSequences, modMatchResolver, nrChunks, minSplitSize, null);
+    }
+
+    /**
+     * @param executor pool whose idle threads help parsing the chunks. If null, the calling thread parses all chunks.
+     */
+    public CometPepXmlChunkedReader(GroupedFDRCalculator groupedFDRCalculator, boolean discardAmbiguousSequences,
+                                    ModificationMatchResolver modMatchResolver, int nrChunks, long minSplitSize,
+                                    Executor executor) {
+
+        super(groupedFDRCalculator, discardAmbiguousSequences, modMatchResolver);
+
+        this.nrChunks = nrChunks;
+        this.minSplitSize = minSplitSize;
+        this.executor = executor;
+    }
+
+    @Override
+    public void parse(File file, PeptideSpectrumMatchList peptideSpectrumMatchList) {
+
+        long[] offsets = null;
+        try {
+            if (nrChunks > 1 && file.length() >= minSplitSize) offsets = scanChunkOffsets(file, nrChunks);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        if (offsets == null || offsets.length < 3) {
+            super.parse(file, peptideSpectrumMatchList);
+            return;
+        }
+
+        System.out.println("Parsing " + file + " in " + (offsets.length - 1) + " chunks");
+
+        final int nrFileChunks = offsets.length - 1;
+        final long[] chunkOffsets = offsets;
+        final AtomicReferenceArray<Map<String, List<PeptideSpectrumMatch>>> results = new AtomicReferenceArray<>(nrFileChunks);
+        final AtomicInteger nextChunk = new AtomicInteger();
+        final CountDownLatch finished = new CountDownLatch(nrFileChunks);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+
+        Runnable chunkParser = () -> {
+            int i;
+            while ((i = nextChunk.getAndIncrement()) < nrFileChunks) {
+                try {
+                    results.set(i, parseChunk(file, chunkOffsets[i], chunkOffsets[i + 1], peptideSpectrumMatchList));
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                } finally {
+                    finished.countDown();
+                }
+            }
+        };
+
+        if (executor != null) {
+            for (int i = 1; i < nrFileChunks; i++) executor.execute(chunkParser);
+        }
+        chunkParser.run();
+
+        try {
+            finished.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+
+        if (error.get() != null) throw new IllegalStateException(error.get());
+
+        for (int i = 0; i < nrFileChunks; i++) peptideSpectrumMatchList.addAll(results.get(i));
+    }
+
+    private Map<String, List<PeptideSpectrumMatch>> parseChunk(File file, long start, long end,
+                                                               PeptideSpectrumMatchList peptideSpectrumMatchList) throws IOException {
+
+        Map<String, List<PeptideSpectrumMatch>> psmMap = new HashMap<>();
+
+        FileInputStream fileInputStream = new FileInputStream(file);
+        fileInputStream.getChannel().position(start);
+
+        List<InputStream> streams = Arrays.asList(new ByteArrayInputStream(CHUNK_START),
+                ByteStreams.limit(new BufferedInputStream(fileInputStream, 1 << 16), end - start),
+                new ByteArrayInputStream(CHUNK_END));
+
+        try (InputStream inputStream = new SequenceInputStream(Collections.enumeration(streams))) {
+
+            parse(inputStream, peptideSpectrumMatchList.newBuffer(psmMap));
+        } finally {
+            fileInputStream.close();
+        }
+
+        return psmMap;
+    }
+
+    /**
+     * Scans the file for spectrum_query elements and returns the start offsets of the chunks followed by the end
+     * offset of the last spectrum_query. Each chunk starts at the first spectrum_query after i*fileLength/nrChunks.
+     *
+     * @return the chunk offsets or null if the file cannot be split
+     */
+    protected static long[] scanChunkOffsets(File file, int nrChunks) throws IOException {
+
+        final long fileLength = file.length();
+        long[] offsets = new long[nrChunks + 1];
+        int nrOffsets = 0;
+        long lastQueryEnd = -1;
+        int nrRunSummaries = 0;
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+
+            ByteBuffer byteBuffer = ByteBuffer.allocate(1 << 22);
+            byte[] buffer = byteBuffer.array();
+            long bufferOffset = 0;
+            int nrKept = 0;
+            boolean eof = false;
+
+            while (!eof) {
+
+                byteBuffer.clear();
+                byteBuffer.position(nrKept);
+                while (byteBuffer.hasRemaining()) {
+                    if (channel.read(byteBuffer) < 0) {
+                        eof = true;
+                        break;
+                    }
+                }
+
+                int limit = byteBuffer.position();
+                int scanEnd = (eof) ? limit : limit - OVERLAP;
+
+                for (int i = 0; i < scanEnd; i++) {
+
+                    if (buffer[i] != '<') continue;
+
+                    if (matches(buffer, i, limit, QUERY_START, true)) {
+
+                        long pos = bufferOffset + i;
+                        if (nrOffsets == 0 || (nrOffsets < nrChunks && pos >= nrOffsets * fileLength / nrChunks))
+                            offsets[nrOffsets++] = pos;
+                    } else if (matches(buffer, i, limit, QUERY_END, false)) {
+
+                        lastQueryEnd = bufferOffset + i + QUERY_END.length;
+                    } else if (matches(buffer, i, limit, RUN_SUMMARY_START, true)) {
+
+                        nrRunSummaries++;
+                    }
+                }
+
+                nrKept = limit - scanEnd;
+                System.arraycopy(buffer, scanEnd, buffer, 0, nrKept);
+                bufferOffset += scanEnd;
+            }
+        }
+
+        if (nrRunSummaries > 1 || nrOffsets == 0 || lastQueryEnd < offsets[nrOffsets - 1]) return null;
+
+        offsets[nrOffsets++] = lastQueryEnd;
+
+        return Arrays.copyOf(offsets, nrOffsets);
+    }
+
+    private static boolean matches(byte[] buffer, int pos, int limit, byte[] pattern, boolean isElementName) {
+
+        if (pos + pattern.length + ((isElementName) ? 1 : 0) > limit) return false;
+
+        for (int i = 0; i < pattern.length; i++) {
+            if (buffer[pos + i] != pattern[i]) return false;
+        }
+
+        if (!isElementName) return true;
+
+        byte next = buffer[pos + pattern.length];
+        return next == ' ' || next == '\t' || next == '\n' || next == '\r' || next == '>' || next == '/';
+    }
+}
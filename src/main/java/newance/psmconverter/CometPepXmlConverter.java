@@ -19,7 +19,7 @@ import newance.util.PsmPredicate;
 
 import java.io.File;
 import java.util.*;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 
 /**
  * @author Markus Müller
@@ -28,13 +28,25 @@ import java.util.concurrent.CountDownLatch;
 public class CometPepXmlConverter extends SinglePsmFileConverter {
 
     private final GroupedFDRCalculator groupedFDRCalculator;
+    private final Executor chunkExecutor;
 
     public CometPepXmlConverter(File msmsFile, Map<String,List<PeptideSpectrumMatch>> psms,
-                                GroupedFDRCalculator groupedFDRCalculator, CountDownLatch latch) {
+                                GroupedFDRCalculator groupedFDRCalculator) {
 
-        super(msmsFile, psms, latch);
+        this(msmsFile, psms, groupedFDRCalculator, null);
+    }
+
+    /**
+     * @param chunkExecutor pool whose idle threads help parsing the chunks of a large file, usually the pool that
+     *                      runs this converter. If null, the chunks are parsed by the thread running this converter.
+     */
+    public CometPepXmlConverter(File msmsFile, Map<String,List<PeptideSpectrumMatch>> psms,
+                                GroupedFDRCalculator groupedFDRCalculator, Executor chunkExecutor) {
+
+        super(msmsFile, psms);
 
         this.groupedFDRCalculator = groupedFDRCalculator;
+        this.chunkExecutor = chunkExecutor;
     }
 
     @Override
@@ -48,16 +60,30 @@ public class CometPepXmlConverter extends SinglePsmFileConverter {
 
         PeptideSpectrumMatchList peptideSpectrumMatchList = new PeptideSpectrumMatchList(new SpectrumKeyFunctionImpl(), psmPredicate, psmMap);
 
-        Collection<Modification> modifications = params.getModifications();
-        ModListModMatchResolver modMatchResolver = new ModListModMatchResolver(new AbsoluteTolerance(params.getModifMatchMassTol()), modifications);
+        PsmFileCache psmCache = PsmFileCache.create(params);
+        String signature = (psmCache == null) ? "" :
+                PsmFileCache.makeSignature("comet", psmFile, Collections.<File>emptyList(), params);
+
+        if (psmCache == null || !psmCache.read(psmFile, signature, psmMap)) {
+
+            Collection<Modification> modifications = params.getModifications();
+            ModListModMatchResolver modMatchResolver = new ModListModMatchResolver(new AbsoluteTolerance(params.getModifMatchMassTol()), modifications);
+
+            CometPEFFPepXmlReader psmReader;
+            if (params.getCometPepXmlParser().equals("jaxb"))
+                psmReader = new CometPEFFPepXmlReader( groupedFDRCalculator, true, modMatchResolver);
+            else if (params.isParallelPepXmlParsing())
+                psmReader = new CometPepXmlChunkedReader( groupedFDRCalculator, true, modMatchResolver,
+                        4*params.getNrThreads(), CometPepXmlChunkedReader.DEFAULT_MIN_SPLIT_SIZE, chunkExecutor);
+            else
+                psmReader = new CometPepXmlStaxReader( groupedFDRCalculator, true, modMatchResolver);
+            psmReader.parse(psmFile, peptideSpectrumMatchList);
 
-        CometPEFFPepXmlReader psmReader =
-                new CometPEFFPepXmlReader( groupedFDRCalculator, true, modMatchResolver);
-        psmReader.parse(psmFile, peptideSpectrumMatchList);
+            if (psmCache != null) psmCache.write(psmFile, signature, psmMap);
+        }
 
         addPsms(psmMap);
 
-        if (latch!=null) latch.countDown();
-        System.out.println("Finished reading " + psmFile+". Latch count: "+((latch!=null)?latch.getCount():-1));
+        System.out.println("Finished reading " + psmFile);
     }
 }
@@ -0,0 +1,279 @@
+/*
+Copyright (C) SIB - Swiss Institute of Bioinformatics, Lausanne, Switzerland
+Copyright (C) LICR - Ludwig Institute of Cancer Research, Lausanne, Switzerland
+This program is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation, either version 2 of the License, or (at your option) any later version.
+This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+You should have received a copy of the GNU General Public License along with this program. If not, see https://www.gnu.org/licenses/.
+*/
+
+package newance.psmconverter;
+
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import newance.mzjava.mol.modification.ModAttachment;
+import newance.mzjava.mol.modification.ModificationMatchResolver;
+import newance.psmcombiner.GroupedFDRCalculator;
+import newance.util.NewAnceParams;
+import newance.util.PsmPredicate;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming pepXML reader that copies the spectrum_query and search_hit attributes directly into SpectrumInfo and
+ * PeptideMatchDataWrapper objects without building the JAXB object graph. Produces the same PSMs as
+ * CometPEFFPepXmlReader, which remains available as fallback.
+ *
+ * @author Markus Müller
+ */
+public class CometPepXmlStaxReader extends CometPEFFPepXmlReader {
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newFactory();
+
+    static {
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_COALESCING, false);
+    }
+
+    public CometPepXmlStaxReader(GroupedFDRCalculator groupedFDRCalculator, boolean discardAmbiguousSequences,
+                                 ModificationMatchResolver modMatchResolver) {
+
+        super(groupedFDRCalculator, discardAmbiguousSequences, modMatchResolver);
+    }
+
+    @Override
+    public void parse(File file, PeptideSpectrumMatchList peptideSpectrumMatchList) {
+
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(file), 1 << 16)) {
+
+            parse(inputStream, peptideSpectrumMatchList);
+        } catch (IOException e) {
+
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public void parse(InputStream inputStream, PeptideSpectrumMatchList peptideSpectrumMatchList) {
+
+        try {
+
+            XMLStreamReader xsr = XML_INPUT_FACTORY.createXMLStreamReader(inputStream, "UTF-8");
+            parse(xsr, peptideSpectrumMatchList);
+        } catch (XMLStreamException e) {
+
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void parse(XMLStreamReader xsr, PeptideSpectrumMatchList peptideSpectrumMatchList) throws XMLStreamException {
+
+        final boolean nativeID = NewAnceParams.getInstance().isSpectrumNativeID();
+        final SearchHitData hit = new SearchHitData();
+        final PsmPredicate psmPredicate = peptideSpectrumMatchList.getPsmPredicate();
+
+        SpectrumInfo spectrumInfo = null;
+        boolean inSearchHit = false;
+
+        while (xsr.hasNext()) {
+
+            int event = xsr.next();
+
+            if (event == XMLStreamConstants.START_ELEMENT) {
+
+                switch (xsr.getLocalName()) {
+
+                    case "spectrum_query":
+                        // hits of spectra with rejected charge are skipped
+                        int charge = Integer.parseInt(xsr.getAttributeValue(null, "assumed_charge"));
+                        spectrumInfo = psmPredicate.checkCharge(charge) ? readSpectrumInfo(xsr, nativeID) : null;
+                        break;
+                    case "search_hit":
+                        inSearchHit = spectrumInfo != null && hit.read(xsr, psmPredicate, spectrumInfo.getCharge());
+                        break;
+                    case "alternative_protein":
+                        if (inSearchHit) hit.proteins.add(xsr.getAttributeValue(null, "protein"));
+                        break;
+                    case "modification_info":
+                        if (inSearchHit) hit.readModificationInfo(xsr);
+                        break;
+                    case "mod_aminoacid_mass":
+                        if (inSearchHit) {
+                            hit.modPositions.add(Integer.parseInt(xsr.getAttributeValue(null, "position")) - 1);
+                            hit.modMasses.add(Double.parseDouble(xsr.getAttributeValue(null, "mass")));
+                        }
+                        break;
+                    case "aminoacid_substitution":
+                        if (inSearchHit) hit.hasSubstitution = true;
+                        break;
+                    case "search_score":
+                        if (inSearchHit) {
+                            hit.scoreSlots.add(ScoreSchema.register(xsr.getAttributeValue(null, "name")));
+                            hit.scoreValues.add(parseDouble(xsr.getAttributeValue(null, "value")));
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+
+                String name = xsr.getLocalName();
+                if ("search_hit".equals(name)) {
+
+                    if (inSearchHit && hit.checkScores(psmPredicate)) {
+                        if (debug) System.out.println(spectrumInfo.getSpectrum() + " : " + hit.peptide);
+                        processSearchHit(peptideSpectrumMatchList, spectrumInfo, hit);
+                    }
+                    inSearchHit = false;
+                } else if ("spectrum_query".equals(name)) {
+
+                    spectrumInfo = null;
+                } else if ("msms_pipeline_analysis".equals(name)) {
+
+                    break;
+                }
+            }
+        }
+
+        xsr.close();
+    }
+
+    private SpectrumInfo readSpectrumInfo(XMLStreamReader xsr, boolean nativeID) {
+
+        String spectrumID = (nativeID) ? xsr.getAttributeValue(null, "spectrumNativeID") : xsr.getAttributeValue(null, "spectrum");
+
+        SpectrumInfo spectrumInfo = new SpectrumInfo(spectrumID);
+        spectrumInfo.setScanNumber((int) Long.parseLong(xsr.getAttributeValue(null, "start_scan")));
+        spectrumInfo.setPrecursorNeutralMass(Double.parseDouble(xsr.getAttributeValue(null, "precursor_neutral_mass")));
+        spectrumInfo.setCharge(Integer.parseInt(xsr.getAttributeValue(null, "assumed_charge")));
+        spectrumInfo.setIndex((int) Long.parseLong(xsr.getAttributeValue(null, "index")));
+
+        String rt = xsr.getAttributeValue(null, "retention_time_sec");
+        if (rt != null) spectrumInfo.setRetentionTime(Double.parseDouble(rt) / 60.0);
+        spectrumInfo.setPrecursorIntensity(0.0);
+
+        return spectrumInfo;
+    }
+
+    private void processSearchHit(PeptideSpectrumMatchList peptideSpectrumMatchList, SpectrumInfo spectrumInfo, SearchHitData hit) {
+
+        PeptideMatchDataWrapper peptideMatch = newPeptideMatch(peptideSpectrumMatchList, spectrumInfo,
+                hit.peptide, hit.proteins, hit.rank);
+        if (peptideMatch == null) return;
+
+        if (hit.numMissedCleavages >= 0) peptideMatch.setNumMissedCleavages(hit.numMissedCleavages);
+
+        for (int i = 0; i < hit.modPositions.size(); i++) {
+            addModification(peptideMatch, hit.modPositions.get(i), hit.modMasses.get(i));
+        }
+
+        if (hit.hasNtermMass) addModification(peptideMatch, ModAttachment.N_TERM, hit.ntermMass);
+        if (hit.hasCtermMass) addModification(peptideMatch, ModAttachment.C_TERM, hit.ctermMass);
+
+        if (hit.hasSubstitution && !peptideMatch.isDecoy()) peptideMatch.setVariant(true);
+
+        for (int i = 0; i < hit.scoreSlots.size(); i++) {
+            peptideMatch.addScore(hit.scoreSlots.get(i), hit.scoreValues.get(i));
+        }
+
+        peptideMatch.addScore(ScoreSchema.MASS_DIFF, hit.massDiff);
+        peptideMatch.addScore(ScoreSchema.TOT_NUM_IONS, hit.totNumIons);
+        peptideMatch.addScore(ScoreSchema.MATCHED_NUM_IONS, hit.numMatchedIons);
+
+        peptideSpectrumMatchList.resultRead(spectrumInfo, peptideMatch);
+    }
+
+    /**
+     * Attribute values of the current search_hit element and its children. The instance is reused for all hits of
+     * a file, only the protein list is handed over to the PeptideMatchDataWrapper and therefore newly created.
+     */
+    private static class SearchHitData {
+
+        private String peptide;
+        private List<String> proteins;
+        private int rank;
+        private int numMissedCleavages;
+        private double massDiff;
+        private double totNumIons;
+        private double numMatchedIons;
+        private boolean hasNtermMass;
+        private double ntermMass;
+        private boolean hasCtermMass;
+        private double ctermMass;
+        private boolean hasSubstitution;
+        private final TIntArrayList modPositions = new TIntArrayList();
+        private final TDoubleArrayList modMasses = new TDoubleArrayList();
+        private final TIntArrayList scoreSlots = new TIntArrayList();
+        private final TDoubleArrayList scoreValues = new TDoubleArrayList();
+
+        /**
+         * Reads the search_hit attributes if the hit passes the precheck of psmPredicate.
+         *
+         * @return false if the hit is rejected. Its children are ignored in this case.
+         */
+        private boolean read(XMLStreamReader xsr, PsmPredicate psmPredicate, int charge) {
+
+            rank = (int) Long.parseLong(xsr.getAttributeValue(null, "hit_rank"));
+            peptide = xsr.getAttributeValue(null, "peptide");
+            if (!psmPredicate.precheck(rank, charge, peptide.length())) return false;
+
+            proteins = new ArrayList<>();
+            proteins.add(xsr.getAttributeValue(null, "protein"));
+
+            String value = xsr.getAttributeValue(null, "num_missed_cleavages");
+            numMissedCleavages = (value != null) ? Integer.parseInt(value) : -1;
+            massDiff = Double.parseDouble(xsr.getAttributeValue(null, "massdiff"));
+            totNumIons = parseOptionalInt(xsr.getAttributeValue(null, "tot_num_ions"));
+            numMatchedIons = parseOptionalInt(xsr.getAttributeValue(null, "num_matched_ions"));
+
+            hasNtermMass = false;
+            hasCtermMass = false;
+            hasSubstitution = false;
+            modPositions.resetQuick();
+            modMasses.resetQuick();
+            scoreSlots.resetQuick();
+            scoreValues.resetQuick();
+
+            return true;
+        }
+
+        /**
+         * @return false if a search_score of the hit is rejected by psmPredicate
+         */
+        private boolean checkScores(PsmPredicate psmPredicate) {
+
+            for (int i = 0; i < scoreSlots.size(); i++) {
+                if (!psmPredicate.checkScore(scoreSlots.get(i), scoreValues.get(i))) return false;
+            }
+
+            return true;
+        }
+
+        private void readModificationInfo(XMLStreamReader xsr) {
+
+            String value = xsr.getAttributeValue(null, "mod_nterm_mass");
+            if (value != null) {
+                hasNtermMass = true;
+                ntermMass = Double.parseDouble(value);
+            }
+
+            value = xsr.getAttributeValue(null, "mod_cterm_mass");
+            if (value != null) {
+                hasCtermMass = true;
+                ctermMass = Double.parseDouble(value);
+            }
+        }
+
+        private static double parseOptionalInt(String value) {
+
+            return (value != null) ? Long.parseLong(value) : 0;
+        }
+    }
+}
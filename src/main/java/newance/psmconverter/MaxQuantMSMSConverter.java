@@ -15,7 +15,6 @@ import newance.util.PsmPredicate;
 
 import java.io.File;
 import java.util.*;
-import java.util.concurrent.CountDownLatch;
 
 /**
  * @author Markus Müller
@@ -26,9 +25,9 @@ public class MaxQuantMSMSConverter extends SinglePsmFileConverter {
     private final GroupedFDRCalculator groupedFDRCalculator;
 
     public MaxQuantMSMSConverter(File msmsFile, Map<String,List<PeptideSpectrumMatch>> psms,
-                                 GroupedFDRCalculator groupedFDRCalculator, CountDownLatch latch) {
+                                 GroupedFDRCalculator groupedFDRCalculator) {
 
-        super(msmsFile, psms, latch);
+        super(msmsFile, psms);
 
         this.groupedFDRCalculator = groupedFDRCalculator;
     }
@@ -43,12 +42,24 @@ public class MaxQuantMSMSConverter extends SinglePsmFileConverter {
 
         PeptideSpectrumMatchList peptideSpectrumMatchList = new PeptideSpectrumMatchList(new SpectrumKeyFunctionImpl(), psmPredicate, psmMap);
 
-        MaxQuantPsmReader psmReader = new MaxQuantPsmReader(groupedFDRCalculator);
-        psmReader.parse(psmFile, peptideSpectrumMatchList);
+        PsmFileCache psmCache = PsmFileCache.create(params);
+        String signature = "";
+        if (psmCache != null) {
+            File peptidesFile = new File(psmFile.getParent(), "peptides.txt");
+            signature = PsmFileCache.makeSignature("maxquant", psmFile,
+                    peptidesFile.exists() ? Collections.singletonList(peptidesFile) : Collections.<File>emptyList(), params);
+        }
+
+        if (psmCache == null || !psmCache.read(psmFile, signature, psmMap)) {
+
+            MaxQuantPsmReader psmReader = new MaxQuantPsmReader(groupedFDRCalculator);
+            psmReader.parse(psmFile, peptideSpectrumMatchList);
+
+            if (psmCache != null) psmCache.write(psmFile, signature, psmMap);
+        }
 
         addPsms(psmMap);
 
-        latch.countDown();
-        System.out.println("Finished reading " + psmFile+". Latch count: "+latch.getCount());
+        System.out.println("Finished reading " + psmFile);
     }
 }
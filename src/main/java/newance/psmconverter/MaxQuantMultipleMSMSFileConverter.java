@@ -11,18 +11,13 @@ You should have received a copy of the GNU General Public License along with thi
 package newance.psmconverter;
 
 import newance.psmcombiner.GroupedFDRCalculator;
-import newance.util.NewAnceParams;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.*;
+import java.util.concurrent.Executor;
 import java.util.regex.Pattern;
 
 import static com.google.common.base.Preconditions.checkState;
@@ -54,6 +49,13 @@ public class MaxQuantMultipleMSMSFileConverter extends MultiplePsmFileConverter
         this.reportHistosOnly = reportHistosOnly;
     }
 
+    @Override
+    protected SinglePsmFileConverter createConverter(File psmFile, Map<String,List<PeptideSpectrumMatch>> psmBuffer,
+                                                     Executor exe) {
+
+        return new MaxQuantMSMSConverter(psmFile, psmBuffer, groupedFDRCalculator);
+    }
+
     public void run() throws IOException{
 
         long start = System.currentTimeMillis();
@@ -68,36 +70,7 @@ public class MaxQuantMultipleMSMSFileConverter extends MultiplePsmFileConverter
 
         checkState(!psmFileList.isEmpty());
 
-        int nrTasks = psmFileList.size();
-        int maxNrThreads = NewAnceParams.getInstance().getNrThreads();
-
-        int nrIter = nrTasks/maxNrThreads;
-        int threadCnt = 0;
-        for (int i=0;i<=nrIter;i++) {
-
-            final ConcurrentHashMap<String,List<PeptideSpectrumMatch>> psmBuffer = new ConcurrentHashMap<>();
-            int nrThreads = (nrTasks-threadCnt>maxNrThreads)?maxNrThreads:nrTasks-threadCnt;
-            if (nrThreads<=0) break;
-
-            ExecutorService exe = Executors.newFixedThreadPool(nrThreads);
-
-            CountDownLatch latch = new CountDownLatch(nrThreads);
-            for (int j =0;j<nrThreads;j++) {
-                exe.submit(new MaxQuantMSMSConverter(psmFileList.get(threadCnt), psmBuffer, groupedFDRCalculator, latch));
-                threadCnt++;
-            }
-
-            try {
-                latch.await();
-
-                if (groupedFDRCalculator!=null) groupedFDRCalculator.addAll(psmBuffer);
-                if (!reportHistosOnly) psms.putAll(psmBuffer);
-
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-            exe.shutdown();
-        }
+        convertFiles(psmFileList, groupedFDRCalculator, reportHistosOnly);
 
         System.out.println("Number of MaxQuant spectra converted: " + psms.size());
         System.out.println("MaxQuant msms.txt conversion ran in " + (System.currentTimeMillis() - start) / 1000d + "s");
@@ -0,0 +1,167 @@
+/*
+Copyright (C) SIB - Swiss Institute of Bioinformatics, Lausanne, Switzerland
+Copyright (C) LICR - Ludwig Institute of Cancer Research, Lausanne, Switzerland
+This program is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation, either version 2 of the License, or (at your option) any later version.
+This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+You should have received a copy of the GNU General Public License along with this program. If not, see https://www.gnu.org/licenses/.
+*/
+
+package newance.psmconverter;
+
+import gnu.trove.map.hash.TObjectIntHashMap;
+import newance.util.TsvReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Leading razor proteins and mutation names of the peptides in a MaxQuant peptides.txt file. Each protein is
+ * stored once and the peptide sequences point to it by an integer id. Indexes are cached for the whole process,
+ * keyed by the canonical path of the file, so msms.txt files sharing a txt folder read peptides.txt only once. An
+ * index is reloaded if the modification time or size of the file has changed.
+ *
+ * @author Markus Müller
+ */
+public class MaxQuantPeptidesIndex {
+
+    public static final MaxQuantPeptidesIndex EMPTY = new MaxQuantPeptidesIndex();
+
+    private static final ConcurrentHashMap<String, MaxQuantPeptidesIndex> cache = new ConcurrentHashMap<>();
+
+    private final long lastModified;
+    private final long length;
+    private final TObjectIntHashMap<String> peptideProteinIdMap;
+    private final String[] proteins;
+    private final Map<String, String> peptideMutationMap;
+
+    private MaxQuantPeptidesIndex() {
+
+        this.lastModified = -1;
+        this.length = -1;
+        this.peptideProteinIdMap = new TObjectIntHashMap<>(0, 0.5f, -1);
+        this.proteins = new String[0];
+        this.peptideMutationMap = Collections.emptyMap();
+    }
+
+    protected MaxQuantPeptidesIndex(File peptidesFile) {
+
+        this.lastModified = peptidesFile.lastModified();
+        this.length = peptidesFile.length();
+        this.peptideProteinIdMap = new TObjectIntHashMap<>(10000, 0.5f, -1);
+        this.peptideMutationMap = new HashMap<>();
+
+        Map<String, Integer> proteinIdMap = new HashMap<>();
+        List<String> proteinList = new ArrayList<>();
+
+        try (TsvReader reader = new TsvReader(peptidesFile)) {
+
+            int sequenceCol = reader.getRequiredColumnIndex("Sequence");
+            int leadingProteinCol = reader.getRequiredColumnIndex("Leading razor protein");
+            int mutatedCol = reader.getColumnIndex("Mutated");
+            int mutationNamesCol = reader.getColumnIndex("Mutation names");
+
+            boolean hasMutations = mutatedCol >= 0;
+            if (!hasMutations) System.out.println("No mutations were used in this MaxQuant search.");
+
+            while (reader.next()) {
+
+                String leadingProteinStr = reader.getString(leadingProteinCol);
+                if (leadingProteinStr.startsWith("REV__")) {
+                    leadingProteinStr = leadingProteinStr.replace("REV__", "DECOY_");
+                }
+
+                Integer proteinId = proteinIdMap.get(leadingProteinStr);
+                if (proteinId == null) {
+                    proteinId = proteinList.size();
+                    proteinIdMap.put(leadingProteinStr, proteinId);
+                    proteinList.add(leadingProteinStr);
+                }
+
+                String peptideSeq = reader.getString(sequenceCol);
+                peptideProteinIdMap.put(peptideSeq, proteinId);
+
+                if (hasMutations && reader.fieldEquals(mutatedCol, "Yes")) {
+                    peptideMutationMap.put(peptideSeq, reader.getString(mutationNamesCol));
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        this.proteins = proteinList.toArray(new String[proteinList.size()]);
+    }
+
+    /**
+     * Returns the cached index of peptidesFile and reads the file if it is not cached or has changed since it
+     * was read. Concurrent calls for the same file read it only once.
+     */
+    public static MaxQuantPeptidesIndex get(File peptidesFile) {
+
+        String key;
+        try {
+            key = peptidesFile.getCanonicalPath();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        return cache.compute(key, (k, index) -> (index != null && index.isCurrent(peptidesFile)) ? index : load(peptidesFile));
+    }
+
+    public static void clearCache() {
+
+        cache.clear();
+    }
+
+    private static MaxQuantPeptidesIndex load(File peptidesFile) {
+
+        System.out.println("Reading MaxQuant peptides file " + peptidesFile.getAbsolutePath());
+        return new MaxQuantPeptidesIndex(peptidesFile);
+    }
+
+    protected boolean isCurrent(File peptidesFile) {
+
+        return lastModified == peptidesFile.lastModified() && length == peptidesFile.length();
+    }
+
+    public boolean containsPeptide(String peptideSeq) {
+
+        return peptideProteinIdMap.containsKey(peptideSeq);
+    }
+
+    /**
+     * @return the leading razor protein of the peptide or null if the peptide is not in peptides.txt
+     */
+    public String getLeadingProtein(String peptideSeq) {
+
+        int proteinId = peptideProteinIdMap.get(peptideSeq);
+
+        return (proteinId < 0) ? null : proteins[proteinId];
+    }
+
+    public boolean isMutated(String peptideSeq) {
+
+        return peptideMutationMap.containsKey(peptideSeq);
+    }
+
+    /**
+     * @return the MaxQuant mutation names of the peptide or null if the peptide is not mutated
+     */
+    public String getMutationNames(String peptideSeq) {
+
+        return peptideMutationMap.get(peptideSeq);
+    }
+
+    public int getPeptideCount() {
+
+        return peptideProteinIdMap.size();
+    }
+
+    public int getProteinCount() {
+
+        return proteins.length;
+    }
+}
@@ -22,14 +22,13 @@ import newance.mzjava.mol.modification.unimod.UnimodModificationResolver;
 import newance.proteinmatch.SequenceVariant;
 import newance.proteinmatch.VariantProtDB;
 import newance.psmcombiner.GroupedFDRCalculator;
-import org.apache.commons.io.FilenameUtils;
-
+import newance.util.PsmPredicate;
+import newance.util.TsvReader;
 
 import java.io.File;
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
-import java.sql.*;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -39,25 +38,31 @@ import java.util.regex.Pattern;
 
 public class MaxQuantPsmReader {
 
+    // bounds the memory of the modified sequence cache for very large msms.txt files
+    private static final int MAX_CACHED_SEQUENCES = 1000000;
+
     private final GroupedFDRCalculator groupedFDRCalculator;
     private final ModificationResolver modResolver;
-    private final Map<String,String> peptidesLeadingProteinMap; // for decoys
-    private final Map<String,String> peptidesMutationMap; // for decoys
+    private final ConcurrentHashMap<String, Optional<Modification>> modTokenCache;
+    private final ConcurrentHashMap<String, ModifiedSequence> modifiedSequenceCache;
+    private MaxQuantPeptidesIndex peptidesIndex; // for decoys
 
     public MaxQuantPsmReader() {
 
         this.groupedFDRCalculator = null;
         this.modResolver = makeDefaultModResolver();
-        this.peptidesLeadingProteinMap = new HashMap<>();
-        this.peptidesMutationMap = new HashMap<>();
+        this.modTokenCache = new ConcurrentHashMap<>();
+        this.modifiedSequenceCache = new ConcurrentHashMap<>();
+        this.peptidesIndex = MaxQuantPeptidesIndex.EMPTY;
     }
 
     public MaxQuantPsmReader(GroupedFDRCalculator groupedFDRCalculator) {
 
         this.groupedFDRCalculator = groupedFDRCalculator;
         this.modResolver = makeDefaultModResolver();
-        this.peptidesLeadingProteinMap = new HashMap<>();
-        this.peptidesMutationMap = new HashMap<>();
+        this.modTokenCache = new ConcurrentHashMap<>();
+        this.modifiedSequenceCache = new ConcurrentHashMap<>();
+        this.peptidesIndex = MaxQuantPeptidesIndex.EMPTY;
     }
 
     private static UnimodModificationResolver makeDefaultModResolver() {
@@ -70,71 +75,15 @@ public class MaxQuantPsmReader {
         return modResolver;
     }
 
-    private void extractPeptideProteinMap(File peptidesFile) {
-
-        peptidesLeadingProteinMap.clear();
-        peptidesMutationMap.clear();
-
-        try {
-            // load the driver into memory
-            Class.forName("org.relique.jdbc.csv.CsvDriver");
-
-            Properties props = new Properties();
-            props.put("fileExtension", "." + FilenameUtils.getExtension(peptidesFile.getName()));
-            // create a connection. The first command line parameter is assumed to
-            //  be the directory in which the .csv files are held
-            Connection conn = DriverManager.getConnection("jdbc:relique:csv:" + peptidesFile.getParent() + "?separator=" + URLEncoder.encode("\t", "UTF-8"), props);
-
-            // create a Statement object to execute the query with
-            Statement stmt = conn.createStatement();
-
-            // Select the ID and NAME columns from sample.csv
-            ResultSet results = stmt.executeQuery("SELECT * FROM " + FilenameUtils.removeExtension(peptidesFile.getName()));
-            boolean hasMutations = false;
-            try {
-                hasMutations = results.findColumn("Mutated")>0;
-            } catch (SQLException e) {
-                System.out.println("No mutations were used in this MaxQuant search.");
-            }
-
-            while (results.next()) {
-                String leadingProteinStr = results.getString("Leading razor protein");
-                if (leadingProteinStr.startsWith("REV__")) {
-                    leadingProteinStr = leadingProteinStr.replace("REV__","DECOY_");
-                }
-
-                String peptideSeq = results.getString("Sequence");
-                peptidesLeadingProteinMap.put(peptideSeq,leadingProteinStr);
-
-                if (hasMutations) {
-                    String isVariant = results.getString("Mutated");
-
-                    if (isVariant.equals("Yes")) {
-                        peptidesMutationMap.put(peptideSeq, results.getString("Mutation names"));
-                    }
-                }
-            }
-
-            // clean up
-            results.close();
-            stmt.close();
-            conn.close();
-        } catch (ClassNotFoundException | SQLException | UnsupportedEncodingException e) {
-            throw new IllegalStateException(e);
-        }
-    }
-
     public void parse(File file, PeptideSpectrumMatchList callback) {
 
-        if (peptidesLeadingProteinMap.isEmpty()) {
-
-            File peptidesFile = new File(file.getParent()+File.separator+"peptides.txt");
-            if (peptidesFile.exists()) {
-                extractPeptideProteinMap(peptidesFile);
-            }
-            else {
-                System.out.println("WARNING: peptides file "+peptidesFile.getAbsolutePath()+" not found !");
-            }
+        File peptidesFile = new File(file.getParent()+File.separator+"peptides.txt");
+        if (peptidesFile.exists()) {
+            peptidesIndex = MaxQuantPeptidesIndex.get(peptidesFile);
+        }
+        else {
+            peptidesIndex = MaxQuantPeptidesIndex.EMPTY;
+            System.out.println("WARNING: peptides file "+peptidesFile.getAbsolutePath()+" not found !");
         }
 
         parse(file, "\t", callback);
@@ -142,44 +91,45 @@ public class MaxQuantPsmReader {
 
     public void parse(File file, String delimiter, PeptideSpectrumMatchList peptideSpectrumMatchList) {
 
-        try {
-            // load the driver into memory
-            Class.forName("org.relique.jdbc.csv.CsvDriver");
+        if (delimiter.length() != 1) throw new IllegalArgumentException("Delimiter has to be a single character: " + delimiter);
 
-            Properties props = new Properties();
-            props.put("fileExtension", "." + FilenameUtils.getExtension(file.getName()));
-            // create a connection. The first command line parameter is assumed to
-            //  be the directory in which the .csv files are held
-            Connection conn = DriverManager.getConnection("jdbc:relique:csv:" + file.getParent() + "?separator="
-                    + URLEncoder.encode(delimiter, "UTF-8"), props);
+        try (TsvReader reader = new TsvReader(file, delimiter.charAt(0))) {
 
-            // create a Statement object to execute the query with
-            Statement stmt = conn.createStatement();
+            MsmsColumns columns = new MsmsColumns(reader);
+            PsmPredicate psmPredicate = peptideSpectrumMatchList.getPsmPredicate();
 
-            // Select the ID and NAME columns from sample.csv
-            ResultSet results = stmt.executeQuery("SELECT * FROM " + FilenameUtils.removeExtension(file.getName()));
+            while (reader.next()) {
 
-            while (results.next()) {
+                if (!precheck(reader, columns, psmPredicate)) continue;
 
-                SpectrumInfo spectrumInfo = getSpectrumInfo(results);
+                SpectrumInfo spectrumInfo = getSpectrumInfo(reader, columns);
                 if (!peptideSpectrumMatchList.isValidSpectrum(spectrumInfo)) continue;
 
-                List<PeptideMatchDataWrapper> psms = makePeptideMatches(results);
+                List<PeptideMatchDataWrapper> psms = makePeptideMatches(reader, columns);
                 for (PeptideMatchDataWrapper psm : psms) {
 
                     if (peptideSpectrumMatchList.isValidProtein(psm.getProteins())) peptideSpectrumMatchList.resultRead(spectrumInfo, psm);
                 }
             }
-
-            // clean up
-            results.close();
-            stmt.close();
-            conn.close();
-        } catch (ClassNotFoundException | SQLException | UnsupportedEncodingException e) {
+        } catch (IOException e) {
             throw new IllegalStateException(e);
         }
     }
 
+    /**
+     * Applies the precheck of psmPredicate to the row fields, so that rejected rows are skipped before any object is
+     * created. Each msms.txt row holds the best hit of the spectrum, which has rank 1.
+     */
+    protected boolean precheck(TsvReader row, MsmsColumns columns, PsmPredicate psmPredicate) {
+
+        if (!psmPredicate.precheck(1, row.getInt(columns.charge), row.getFieldLength(columns.sequence))) return false;
+
+        if (!row.isEmpty(columns.score) && !psmPredicate.checkScore(ScoreSchema.SCORE, row.getDouble(columns.score))) return false;
+        if (!row.isEmpty(columns.deltaScore) && !psmPredicate.checkScore(ScoreSchema.DELTA_SCORE, row.getDouble(columns.deltaScore))) return false;
+        if (!row.isEmpty(columns.pep) && !psmPredicate.checkScore(ScoreSchema.PEP, row.getDouble(columns.pep))) return false;
+
+        return true;
+    }
 
     protected int parseModification(int idx, int pos, char[] chars, ListMultimap<Object, Modification> modMatchMap) {
 
@@ -197,7 +147,7 @@ public class MaxQuantPsmReader {
             j++;
         }
 
-        Optional<Modification> modOpt = modResolver.resolve(new String(chars,idx+1,modifNameEndIdx-idx-1));
+        Optional<Modification> modOpt = resolveModification(new String(chars,idx+1,modifNameEndIdx-idx-1));
         if ('_'==chars[idx-1]) {
 
             if (modOpt.isPresent()) {
@@ -213,7 +163,35 @@ public class MaxQuantPsmReader {
         return j;
     }
 
-    protected PeptideMatchDataWrapper makeModifiedPeptideMatch(String modifiedSequence) throws SQLException {
+    /**
+     * Resolves the modification token (e.g. "ox" or "Oxidation (M)"). The resolution only depends on the token,
+     * therefore each distinct token is resolved once.
+     */
+    protected Optional<Modification> resolveModification(String token) {
+
+        Optional<Modification> modOpt = modTokenCache.get(token);
+        if (modOpt != null) return modOpt;
+
+        synchronized (modResolver) {
+            modOpt = modResolver.resolve(token);
+        }
+        modTokenCache.putIfAbsent(token, modOpt);
+
+        return modOpt;
+    }
+
+    protected PeptideMatchDataWrapper makeModifiedPeptideMatch(String modifiedSequence) {
+
+        ModifiedSequence template = modifiedSequenceCache.get(modifiedSequence);
+        if (template == null) {
+            template = parseModifiedSequence(modifiedSequence);
+            if (modifiedSequenceCache.size() < MAX_CACHED_SEQUENCES) modifiedSequenceCache.putIfAbsent(modifiedSequence, template);
+        }
+
+        return template.newPeptideMatch();
+    }
+
+    protected ModifiedSequence parseModifiedSequence(String modifiedSequence) {
 
         List<AminoAcid> sequence = new ArrayList<>();
         ListMultimap<Object, Modification> modMatchMap = ArrayListMultimap.create();
@@ -236,48 +214,31 @@ public class MaxQuantPsmReader {
             }
         }
 
-        PeptideMatchDataWrapper peptideMatch = new PeptideMatchDataWrapper(sequence);
-        for (Object key : modMatchMap.keySet()) {
-
-            for (Modification mod : modMatchMap.get(key)) {
-
-                if (key instanceof Integer) {
-
-                    int position = (Integer) key;
-                    peptideMatch.addModificationMatch(position, mod);
-                } else if (key instanceof ModAttachment) {
-
-                    ModAttachment modAttachment = (ModAttachment) key;
-                    peptideMatch.addModificationMatch(modAttachment, mod);
-                }
-            }
-        }
-
-        return peptideMatch;
+        return new ModifiedSequence(sequence, modMatchMap);
     }
 
-    public PeptideMatchDataWrapper makeFirstModifiedPeptideMatch(ResultSet results) throws SQLException {
+    public PeptideMatchDataWrapper makeFirstModifiedPeptideMatch(TsvReader row, MsmsColumns columns) {
 
-        String peptide = results.getString("Modified sequence");
+        String peptide = row.getString(columns.modifiedSequence);
         PeptideMatchDataWrapper psm = makeModifiedPeptideMatch(peptide);
-        String peptideSeq = results.getString("Sequence");
+        String peptideSeq = row.getString(columns.sequence);
         boolean isDecoy = true;
-        boolean isVariant = peptidesMutationMap.containsKey(peptideSeq);
+        boolean isVariant = peptidesIndex.isMutated(peptideSeq);
 
         psm.setVariant(isVariant);
 
         List<String> proteins = new ArrayList<>();
-        for (String ac : getAccessionCode(results)) {
+        for (String ac : getAccessionCode(row, columns)) {
 
             boolean decoy =  ac.equals("DECOY");
 
             // other protein ids than uniprot
-            String leadingProtein = peptidesLeadingProteinMap.get(peptideSeq);
+            String leadingProtein = peptidesIndex.getLeadingProtein(peptideSeq);
             psm.setLeadingProtein(leadingProtein);
 
             if (decoy) {
-                if (peptidesLeadingProteinMap.containsKey(peptideSeq))
-                    proteins.add(peptidesLeadingProteinMap.get(peptideSeq));
+                if (leadingProtein != null)
+                    proteins.add(leadingProtein);
                 else
                     System.out.println("WARNING: peptide seq "+peptideSeq+" not found in peptides.txt.");
             } else {
@@ -290,14 +251,14 @@ public class MaxQuantPsmReader {
         psm.setProteins(proteins);
         psm.setDecoy(isDecoy);
 
-        setValuesFirst(psm, results);
+        setValuesFirst(psm, row, columns);
 
         return psm;
     }
 
-    protected PeptideMatchDataWrapper makeSecondModifiedPeptideMatch(ResultSet results) throws SQLException {
+    protected PeptideMatchDataWrapper makeSecondModifiedPeptideMatch(TsvReader row, MsmsColumns columns) {
 
-        String[] allSequences = results.getString("All modified sequences").split(";");
+        String[] allSequences = row.getString(columns.allModifiedSequences).split(";");
 
         if (allSequences.length<=1) return null;
 
@@ -307,50 +268,46 @@ public class MaxQuantPsmReader {
         Set<String> proteins = new HashSet<>();
         proteins.add("unknown second hit");
 
-        setValuesSecond(psm, results);
+        setValuesSecond(psm, row, columns);
 
         return psm;
     }
 
 
-    protected List<PeptideMatchDataWrapper> makePeptideMatches(ResultSet results) throws SQLException {
+    protected List<PeptideMatchDataWrapper> makePeptideMatches(TsvReader row, MsmsColumns columns) {
 
         List<PeptideMatchDataWrapper> psms = new ArrayList<>();
-        psms.add(makeFirstModifiedPeptideMatch(results));
-//        PeptideMatchDataWrapper psm = makeSecondModifiedPeptideMatch(results);
+        psms.add(makeFirstModifiedPeptideMatch(row, columns));
+//        PeptideMatchDataWrapper psm = makeSecondModifiedPeptideMatch(row, columns);
 //        if (psm!=null) psms.add(psm);
 
         return psms;
     }
 
-    protected SpectrumInfo getSpectrumInfo(ResultSet results) throws SQLException {
+    protected SpectrumInfo getSpectrumInfo(TsvReader row, MsmsColumns columns) {
 
-        int charge = results.getInt("Charge");
-        int scanNumber = results.getInt("Scan number");
-        int scanIndex = results.getInt("Scan index");
-        String rawFile = results.getString("Raw file");
+        int charge = row.getInt(columns.charge);
+        int scanNumber = row.getInt(columns.scanNumber);
+        int scanIndex = row.getInt(columns.scanIndex);
+        String rawFile = row.getString(columns.rawFile);
 
-        SpectrumInfo spectrumInfo = new SpectrumInfo(rawFile + "." + scanNumber + "." + scanNumber + "." + charge);
-        spectrumInfo.setCharge(charge);
+        SpectrumInfo spectrumInfo = new SpectrumInfo(rawFile, scanNumber, charge);
         spectrumInfo.setIndex(scanIndex);
-        spectrumInfo.setScanNumber(scanNumber);
-        spectrumInfo.setPrecursorNeutralMass(results.getDouble("Mass"));
-        spectrumInfo.setRetentionTime(results.getDouble("Retention time"));
+        spectrumInfo.setPrecursorNeutralMass(row.getDouble(columns.mass));
+        spectrumInfo.setRetentionTime(row.getDouble(columns.retentionTime));
 
         return spectrumInfo;
     }
 
-    protected Collection<String> getAccessionCode(ResultSet results) throws SQLException {
+    protected Collection<String> getAccessionCode(TsvReader row, MsmsColumns columns) {
 
-        String proteins = results.getString("Proteins");
-        String reverse = results.getString("Reverse");
-        if (proteins != null) {
+        if (!row.isEmpty(columns.proteins)) {
 
-            if (reverse.equals("+")) {
+            if (row.fieldEquals(columns.reverse, "+")) {
                 return Lists.newArrayList("DECOY");
             }
 
-            String[] accessions = proteins.split(";");
+            String[] accessions = row.getString(columns.proteins).split(";");
             return Lists.newArrayList(accessions);
         } else {
 
@@ -358,22 +315,22 @@ public class MaxQuantPsmReader {
         }
     }
 
-    protected void setValuesFirst(PeptideMatchDataWrapper peptideMatch, ResultSet results) throws SQLException {
+    protected void setValuesFirst(PeptideMatchDataWrapper peptideMatch, TsvReader row, MsmsColumns columns) {
 
-        peptideMatch.setNumMissedCleavages(results.getInt("Missed cleavages"));
-        peptideMatch.addScore("Number of Matches", results.getDouble("Number of Matches"));
-        peptideMatch.addScore("Score", results.getDouble("Score"));
-        peptideMatch.addScore("Delta score", results.getDouble("Delta score"));
-        peptideMatch.addScore("Mass Error [ppm]", results.getDouble("Mass Error [ppm]"));
-        peptideMatch.addScore("Intensity coverage", results.getDouble("Intensity coverage"));
-        peptideMatch.addScore("Localization prob", results.getDouble("Localization prob"));
-        peptideMatch.addScore("PEP", results.getDouble("PEP"));
+        peptideMatch.setNumMissedCleavages(row.getInt(columns.missedCleavages));
+        peptideMatch.addScore(ScoreSchema.NUMBER_OF_MATCHES, row.getDouble(columns.nrMatches));
+        peptideMatch.addScore(ScoreSchema.SCORE, row.getDouble(columns.score));
+        peptideMatch.addScore(ScoreSchema.DELTA_SCORE, row.getDouble(columns.deltaScore));
+        peptideMatch.addScore(ScoreSchema.MASS_ERROR_PPM, row.getDouble(columns.massError));
+        peptideMatch.addScore(ScoreSchema.INTENSITY_COVERAGE, row.getDouble(columns.intensityCoverage));
+        peptideMatch.addScore(ScoreSchema.LOCALIZATION_PROB, row.getDouble(columns.localizationProb));
+        peptideMatch.addScore(ScoreSchema.PEP, row.getDouble(columns.pep));
         peptideMatch.setRank(1);
     }
 
-    protected void setValuesSecond(PeptideMatchDataWrapper peptideMatch, ResultSet results) throws SQLException {
+    protected void setValuesSecond(PeptideMatchDataWrapper peptideMatch, TsvReader row, MsmsColumns columns) {
 
-        String[] allScores = results.getString("All scores").split(";");
+        String[] allScores = row.getString(columns.allScores).split(";");
 
         double score = Double.parseDouble(allScores[1]);
 
@@ -381,8 +338,100 @@ public class MaxQuantPsmReader {
         if (allScores.length==3)
             deltaScore = score - Double.parseDouble(allScores[2]);
 
-        peptideMatch.addScore("Score", score);
-        peptideMatch.addScore("Delta score", deltaScore);
+        peptideMatch.addScore(ScoreSchema.SCORE, score);
+        peptideMatch.addScore(ScoreSchema.DELTA_SCORE, deltaScore);
         peptideMatch.setRank(2);
     }
+
+    /**
+     * Indices of the msms.txt columns, resolved once from the header.
+     */
+    protected static class MsmsColumns {
+
+        protected final int charge;
+        protected final int scanNumber;
+        protected final int scanIndex;
+        protected final int rawFile;
+        protected final int mass;
+        protected final int retentionTime;
+        protected final int modifiedSequence;
+        protected final int sequence;
+        protected final int proteins;
+        protected final int reverse;
+        protected final int missedCleavages;
+        protected final int nrMatches;
+        protected final int score;
+        protected final int deltaScore;
+        protected final int massError;
+        protected final int intensityCoverage;
+        protected final int localizationProb;
+        protected final int pep;
+        protected final int allModifiedSequences;
+        protected final int allScores;
+
+        protected MsmsColumns(TsvReader reader) {
+
+            charge = reader.getRequiredColumnIndex("Charge");
+            scanNumber = reader.getRequiredColumnIndex("Scan number");
+            scanIndex = reader.getRequiredColumnIndex("Scan index");
+            rawFile = reader.getRequiredColumnIndex("Raw file");
+            mass = reader.getRequiredColumnIndex("Mass");
+            retentionTime = reader.getRequiredColumnIndex("Retention time");
+            modifiedSequence = reader.getRequiredColumnIndex("Modified sequence");
+            sequence = reader.getRequiredColumnIndex("Sequence");
+            proteins = reader.getRequiredColumnIndex("Proteins");
+            reverse = reader.getRequiredColumnIndex("Reverse");
+            missedCleavages = reader.getRequiredColumnIndex("Missed cleavages");
+            nrMatches = reader.getRequiredColumnIndex("Number of Matches");
+            score = reader.getRequiredColumnIndex("Score");
+            deltaScore = reader.getRequiredColumnIndex("Delta score");
+            massError = reader.getRequiredColumnIndex("Mass Error [ppm]");
+            intensityCoverage = reader.getRequiredColumnIndex("Intensity coverage");
+            localizationProb = reader.getRequiredColumnIndex("Localization prob");
+            pep = reader.getRequiredColumnIndex("PEP");
+            allModifiedSequences = reader.getColumnIndex("All modified sequences");
+            allScores = reader.getColumnIndex("All scores");
+        }
+    }
+
+    /**
+     * Parsed "Modified sequence" of msms.txt. PeptideMatchDataWrapper is mutable, therefore a new instance is created
+     * from the template for each PSM.
+     */
+    protected static final class ModifiedSequence {
+
+        private final List<AminoAcid> sequence;
+        private final Object[] modKeys; // Integer positions or ModAttachment
+        private final Modification[] mods;
+
+        private ModifiedSequence(List<AminoAcid> sequence, ListMultimap<Object, Modification> modMatchMap) {
+
+            this.sequence = Collections.unmodifiableList(sequence);
+            this.modKeys = new Object[modMatchMap.size()];
+            this.mods = new Modification[modMatchMap.size()];
+
+            int i = 0;
+            for (Map.Entry<Object, Modification> entry : modMatchMap.entries()) {
+                modKeys[i] = entry.getKey();
+                mods[i++] = entry.getValue();
+            }
+        }
+
+        protected PeptideMatchDataWrapper newPeptideMatch() {
+
+            PeptideMatchDataWrapper peptideMatch = new PeptideMatchDataWrapper(sequence);
+            for (int i = 0; i < mods.length; i++) {
+
+                if (modKeys[i] instanceof Integer) {
+
+                    peptideMatch.addModificationMatch((Integer) modKeys[i], mods[i]);
+                } else if (modKeys[i] instanceof ModAttachment) {
+
+                    peptideMatch.addModificationMatch((ModAttachment) modKeys[i], mods[i]);
+                }
+            }
+
+            return peptideMatch;
+        }
+    }
 }
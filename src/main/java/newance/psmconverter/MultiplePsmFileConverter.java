@@ -11,10 +11,14 @@ You should have received a copy of the GNU General Public License along with thi
 package newance.psmconverter;
 
 import newance.proteinmatch.UniProtDB;
+import newance.psmcombiner.GroupedFDRCalculator;
+import newance.psmcombiner.HistogramShard;
+import newance.util.NewAnceParams;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.*;
+import java.util.concurrent.*;
 import java.util.regex.Pattern;
 
 /**
@@ -37,6 +41,68 @@ public abstract class MultiplePsmFileConverter {
 
     public abstract void run() throws IOException;
 
+    /**
+     * @param exe pool of the file conversion, whose idle threads a converter can use to split up a large file
+     */
+    protected abstract SinglePsmFileConverter createConverter(File psmFile, Map<String,List<PeptideSpectrumMatch>> psmBuffer,
+                                                              Executor exe);
+
+    /**
+     * Converts all files in one thread pool that lives for the whole conversion. Files are submitted largest first, so
+     * that big files do not end up running alone at the end. Each worker thread adds the PSMs of its files to its own
+     * HistogramShard, and the shards are merged into the histograms of groupedFDRCalculator when all files are
+     * converted. The PSMs of each file are added to the global PSM map as soon as the file is finished.
+     */
+    protected void convertFiles(List<File> psmFileList, GroupedFDRCalculator groupedFDRCalculator, boolean reportHistosOnly) {
+
+        List<File> sortedFiles = new ArrayList<>(psmFileList);
+        sortedFiles.sort(Comparator.comparingLong(File::length).reversed());
+
+        int nrThreads = Math.min(NewAnceParams.getInstance().getNrThreads(), sortedFiles.size());
+        ExecutorService exe = Executors.newFixedThreadPool(nrThreads);
+        CompletionService<ConcurrentHashMap<String,List<PeptideSpectrumMatch>>> completionService = new ExecutorCompletionService<>(exe);
+
+        final List<HistogramShard> shards = Collections.synchronizedList(new ArrayList<>());
+        final ThreadLocal<HistogramShard> threadShard = ThreadLocal.withInitial(() -> {
+            HistogramShard shard = groupedFDRCalculator.newShard();
+            shards.add(shard);
+            return shard;
+        });
+
+        try {
+            for (File psmFile : sortedFiles) {
+
+                ConcurrentHashMap<String,List<PeptideSpectrumMatch>> psmBuffer = new ConcurrentHashMap<>();
+                SinglePsmFileConverter converter = createConverter(psmFile, psmBuffer, exe);
+                completionService.submit(() -> {
+                    converter.run();
+                    if (groupedFDRCalculator!=null) threadShard.get().addAll(psmBuffer);
+                }, psmBuffer);
+            }
+
+            for (int i = 0; i < sortedFiles.size(); i++) {
+
+                ConcurrentHashMap<String,List<PeptideSpectrumMatch>> psmBuffer = completionService.take().get();
+
+                if (!reportHistosOnly) addPsms(psmBuffer);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            exe.shutdownNow();
+        }
+
+        if (groupedFDRCalculator!=null) groupedFDRCalculator.merge(shards);
+    }
+
+    protected void addPsms(Map<String,List<PeptideSpectrumMatch>> psmBuffer) {
+
+        psmBuffer.forEach((spectrumID, matches) -> psms.merge(spectrumID, matches, (l1, l2) -> {l1.addAll(l2); return l1;}));
+    }
+
     public void addDBProteins(UniProtDB uniProtDB) {
 
         if (uniProtDB==null) return;
@@ -0,0 +1,125 @@
+/*
+Copyright (C) SIB - Swiss Institute of Bioinformatics, Lausanne, Switzerland
+Copyright (C) LICR - Ludwig Institute of Cancer Research, Lausanne, Switzerland
+This program is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation, either version 2 of the License, or (at your option) any later version.
+This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+You should have received a copy of the GNU General Public License along with this program. If not, see https://www.gnu.org/licenses/.
+*/
+
+package newance.psmconverter;
+
+import newance.util.SymbolTable;
+
+/**
+ * Encodes the identity of a spectrum (spectrum file, scan number, charge) in a long. The spectrum file is replaced by
+ * its id in the SPECTRUM_FILES dictionary. Bits 40-62 hold the file id, bits 8-39 the scan number and bits 0-7 the
+ * charge, so valid keys are positive and -1 can be used for spectra without key. The spectrum id
+ * "file.scan.scan.charge" written by Comet and MaxQuant is rebuilt with toSpectrumId().
+ *
+ * @author Markus Müller
+ */
+public final class PackedSpectrumKey {
+
+    public static final SymbolTable SPECTRUM_FILES = new SymbolTable();
+
+    private static final int CHARGE_BITS = 8;
+    private static final int SCAN_BITS = 32;
+    private static final int FILE_BITS = 23;
+
+    private static final long CHARGE_MASK = (1L << CHARGE_BITS) - 1;
+    private static final long SCAN_MASK = (1L << SCAN_BITS) - 1;
+    private static final long FILE_MASK = (1L << FILE_BITS) - 1;
+
+    private PackedSpectrumKey() {
+    }
+
+    public static long pack(int fileId, int scanNr, int charge) {
+
+        if (fileId < 0 || fileId > FILE_MASK) throw new IllegalArgumentException("File id out of range: "+fileId);
+        if (scanNr < 0) throw new IllegalArgumentException("Negative scan number: "+scanNr);
+        if (charge < 0 || charge > CHARGE_MASK) throw new IllegalArgumentException("Charge out of range: "+charge);
+
+        return ((long) fileId << (SCAN_BITS + CHARGE_BITS)) | ((long) scanNr << CHARGE_BITS) | charge;
+    }
+
+    public static long pack(String spectrumFile, int scanNr, int charge) {
+
+        return pack(SPECTRUM_FILES.getId(spectrumFile), scanNr, charge);
+    }
+
+    public static int getFileId(long key) {
+
+        return (int) ((key >>> (SCAN_BITS + CHARGE_BITS)) & FILE_MASK);
+    }
+
+    public static int getScanNr(long key) {
+
+        return (int) ((key >>> CHARGE_BITS) & SCAN_MASK);
+    }
+
+    public static int getCharge(long key) {
+
+        return (int) (key & CHARGE_MASK);
+    }
+
+    public static String getSpectrumFile(long key) {
+
+        return SPECTRUM_FILES.getSymbol(getFileId(key));
+    }
+
+    /**
+     * @return spectrum id of the form file.scan.scan.charge
+     */
+    public static String toSpectrumId(long key) {
+
+        int scanNr = getScanNr(key);
+
+        return getSpectrumFile(key) + "." + scanNr + "." + scanNr + "." + getCharge(key);
+    }
+
+    /**
+     * Parses a spectrum id of the form file.scan.scan.charge, where both scan numbers are equal and the numbers have
+     * no leading zeros. For these ids parse() is the inverse of toSpectrumId(), so equal keys mean equal ids.
+     *
+     * @return the key of spectrumId or -1 if spectrumId is not of this form
+     */
+    public static long parse(String spectrumId) {
+
+        int chargeStart = spectrumId.lastIndexOf('.') + 1;
+        if (chargeStart <= 0) return -1;
+        int endScanStart = spectrumId.lastIndexOf('.', chargeStart - 2) + 1;
+        if (endScanStart <= 0) return -1;
+        int startScanStart = spectrumId.lastIndexOf('.', endScanStart - 2) + 1;
+        if (startScanStart <= 1) return -1;
+
+        long charge = parseNumber(spectrumId, chargeStart, spectrumId.length());
+        long startScan = parseNumber(spectrumId, startScanStart, endScanStart - 1);
+        long endScan = parseNumber(spectrumId, endScanStart, chargeStart - 1);
+
+        if (charge < 0 || charge > CHARGE_MASK || startScan < 0 || startScan > Integer.MAX_VALUE || startScan != endScan)
+            return -1;
+
+        int fileId = SPECTRUM_FILES.getId(spectrumId.substring(0, startScanStart - 1));
+        if (fileId > FILE_MASK) return -1;
+
+        return pack(fileId, (int) startScan, (int) charge);
+    }
+
+    private static long parseNumber(String str, int start, int end) {
+
+        int len = end - start;
+        if (len <= 0 || len > 10) return -1;
+        if (len > 1 && str.charAt(start) == '0') return -1;
+
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            char c = str.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            value = 10 * value + (c - '0');
+        }
+
+        return value;
+    }
+}
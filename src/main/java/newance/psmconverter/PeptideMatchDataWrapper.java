@@ -15,7 +15,6 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Multimap;
 import gnu.trove.map.TObjectDoubleMap;
-import gnu.trove.map.hash.TObjectDoubleHashMap;
 import newance.mzjava.mol.AminoAcid;
 import newance.mzjava.mol.Peptide;
 import newance.mzjava.mol.modification.*;
@@ -43,7 +42,7 @@ public class PeptideMatchDataWrapper  {
     private List<String> proteins;
     private String leadingProtein;
 
-    private final TObjectDoubleMap<String> scoreMap = new TObjectDoubleHashMap<>();
+    private double[] scores = ScoreSchema.newScores(); // indexed by ScoreSchema slot
 
     private transient final ModificationMatchResolver modificationMatchResolver = new ModificationMatchResolver() {
         @Override
@@ -105,19 +104,46 @@ public class PeptideMatchDataWrapper  {
 
         Preconditions.checkNotNull(name);
 
-        scoreMap.put(name, value);
+        addScore(ScoreSchema.register(name), value);
     }
 
+    public void addScore(int slot, double value) {
+
+        scores = ScoreSchema.setScore(scores, slot, value);
+    }
+
+    /**
+     * @return a copy of the scores as map from score name to value
+     */
     public TObjectDoubleMap<String> getScoreMap() {
 
-        return scoreMap;
+        return ScoreSchema.toScoreMap(scores);
+    }
+
+    /**
+     * @return a copy of the scores indexed by ScoreSchema slot
+     */
+    public double[] getScores() {
+
+        return scores.clone();
     }
 
     public double getScore(String scoreName) {
 
-        Preconditions.checkArgument(scoreMap.containsKey(scoreName));
+        int slot = ScoreSchema.getSlot(scoreName);
+        Preconditions.checkArgument(hasScore(slot));
+
+        return scores[slot];
+    }
+
+    public double getScore(int slot) {
+
+        return ScoreSchema.getScore(scores, slot);
+    }
+
+    public boolean hasScore(int slot) {
 
-        return scoreMap.get(scoreName);
+        return ScoreSchema.hasScore(scores, slot);
     }
 
     public int getRank() {
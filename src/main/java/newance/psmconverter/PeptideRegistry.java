@@ -0,0 +1,118 @@
+/*
+Copyright (C) SIB - Swiss Institute of Bioinformatics, Lausanne, Switzerland
+Copyright (C) LICR - Ludwig Institute of Cancer Research, Lausanne, Switzerland
+This program is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation, either version 2 of the License, or (at your option) any later version.
+This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+You should have received a copy of the GNU General Public License along with this program. If not, see https://www.gnu.org/licenses/.
+*/
+
+package newance.psmconverter;
+
+import newance.mzjava.mol.Peptide;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns peptides. Each distinct modified peptide is mapped to one canonical Peptide instance with a stable int id.
+ * The sequence string (toSymbolString()) and the modified peptide string (toString()) of the canonical peptide are
+ * built once and cached. Two PSMs match the same modified peptide if and only if their peptide ids are equal.
+ *
+ * @author Markus Müller
+ */
+public class PeptideRegistry {
+
+    private static final PeptideRegistry instance = new PeptideRegistry();
+
+    private final ConcurrentHashMap<Peptide, Integer> idMap;
+    private volatile Peptide[] peptides;
+    private volatile String[] symbolStrings;
+    private volatile String[] strings;
+    private int size;
+
+    private PeptideRegistry() {
+
+        idMap = new ConcurrentHashMap<>();
+        peptides = new Peptide[1024];
+        symbolStrings = new String[1024];
+        strings = new String[1024];
+        size = 0;
+    }
+
+    public static PeptideRegistry getInstance() {
+
+        return instance;
+    }
+
+    /**
+     * @return the id of the canonical peptide equal to peptide. peptide becomes the canonical peptide if no equal
+     * peptide was registered before.
+     */
+    public int intern(Peptide peptide) {
+
+        Integer id = idMap.get(peptide);
+        if (id != null) return id;
+
+        synchronized (this) {
+
+            id = idMap.get(peptide);
+            if (id != null) return id;
+
+            id = size;
+            if (size == peptides.length) {
+                strings = Arrays.copyOf(strings, 2 * size);
+                symbolStrings = Arrays.copyOf(symbolStrings, 2 * size);
+                peptides = Arrays.copyOf(peptides, 2 * size);
+            }
+            strings[size] = peptide.toString();
+            symbolStrings[size] = peptide.toSymbolString();
+            peptides[size] = peptide;
+            size++;
+
+            idMap.put(peptide, id);
+
+            return id;
+        }
+    }
+
+    /**
+     * @return the canonical peptide equal to peptide
+     */
+    public Peptide getCanonical(Peptide peptide) {
+
+        return getPeptide(intern(peptide));
+    }
+
+    public Peptide getPeptide(int id) {
+
+        return peptides[id];
+    }
+
+    /**
+     * @return the amino acid sequence of the peptide without modifications
+     */
+    public String getSymbolString(int id) {
+
+        return symbolStrings[id];
+    }
+
+    /**
+     * @return the peptide string with modifications
+     */
+    public String getString(int id) {
+
+        return strings[id];
+    }
+
+    public double getMass(int id) {
+
+        return peptides[id].getMolecularMass();
+    }
+
+    public int size() {
+
+        return idMap.size();
+    }
+}
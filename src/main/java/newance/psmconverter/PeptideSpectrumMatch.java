@@ -14,41 +14,50 @@ import gnu.trove.map.TObjectDoubleMap;
 import newance.mzjava.mol.Peptide;
 import newance.proteinmatch.SequenceVariant;
 import newance.proteinmatch.VariantInfo;
+import newance.util.SymbolTable;
 
 import java.util.*;
 
 /**
+ * Protein accessions, spectrum files and groups are repeated in many PSMs. They are stored as ids of the global
+ * symbol tables PROTEIN_ACS, PackedSpectrumKey.SPECTRUM_FILES and GROUPS and only decoded by the getters.
+ *
  * @author Markus Müller
  */
 
 public class PeptideSpectrumMatch {
 
-    private final String spectrumFile;
-    private final Peptide peptide;
-    private final List<String> proteinIDs;
-    private final TObjectDoubleMap<String> scoreMap;
+    public static final SymbolTable PROTEIN_ACS = new SymbolTable();
+    public static final SymbolTable GROUPS = new SymbolTable();
+
+    private static final int[] NO_PROTEINS = new int[0];
+
+    private final int spectrumFileId; // id in PackedSpectrumKey.SPECTRUM_FILES, -1 if no file
+    private final int peptideId; // id in PeptideRegistry
+    private int[] proteinIds; // ids in PROTEIN_ACS
+    private double[] scores; // indexed by ScoreSchema slot
     private final int charge;
     private final int rank;
     private final boolean isDecoy;
     private final float retentionTime;
     private final double neutralPrecMass;
     private final int scanNr;
-    private final String firstProteinAC;
+    private final int firstProteinId; // id in PROTEIN_ACS, -1 if no protein
     private boolean isVariant;
     private final List<SequenceVariant> variants;
     private int peptideStart;
     private String wtSequence;
-    private String group;
+    private int groupId; // id in GROUPS
 
     public PeptideSpectrumMatch(String spectrumFile, Peptide peptide, List<String> proteinIDs,
                                 TObjectDoubleMap<String> scoreMap, int charge, int rank, float retentionTime,
                                 int scanNr, double neutralPrecMass, boolean isDecoy, boolean isVariant,
                                 List<SequenceVariant> variants) {
 
-        this.spectrumFile = spectrumFile;
-        this.peptide = peptide;
-        this.proteinIDs = proteinIDs;
-        this.scoreMap = scoreMap;
+        this.spectrumFileId = (spectrumFile == null) ? -1 : PackedSpectrumKey.SPECTRUM_FILES.getId(spectrumFile);
+        this.peptideId = PeptideRegistry.getInstance().intern(peptide);
+        this.proteinIds = toProteinIds(proteinIDs);
+        this.scores = ScoreSchema.toScores(scoreMap);
         this.charge = charge;
         this.isDecoy = isDecoy;
         this.rank = rank;
@@ -56,10 +65,7 @@ public class PeptideSpectrumMatch {
         this.scanNr = scanNr;
         this.neutralPrecMass = neutralPrecMass;
 
-        if (proteinIDs != null && !proteinIDs.isEmpty())
-            this.firstProteinAC = proteinIDs.get(0);
-        else
-            this.firstProteinAC = "";
+        this.firstProteinId = (proteinIds.length > 0) ? proteinIds[0] : -1;
 
         this.isVariant = isVariant;
         if (isVariant && variants==null) this.variants = new ArrayList<>();
@@ -68,17 +74,28 @@ public class PeptideSpectrumMatch {
 
         this.peptideStart = -1;
         this.wtSequence = "";
-        this.group = "";
+        this.groupId = GROUPS.getId("");
     }
 
     public PeptideSpectrumMatch(String spectrumFile, Peptide peptide, List<String> proteinIDs,
                                 TObjectDoubleMap<String> scoreMap, int charge, int rank, float retentionTime,
                                 int scanNr, double neutralPrecMass, boolean isDecoy, boolean isVariant) {
 
-        this.spectrumFile = spectrumFile;
-        this.peptide = peptide;
-        this.proteinIDs = proteinIDs;
-        this.scoreMap = scoreMap;
+        this(spectrumFile, peptide, proteinIDs, ScoreSchema.toScores(scoreMap), charge, rank, retentionTime, scanNr,
+                neutralPrecMass, isDecoy, isVariant);
+    }
+
+    /**
+     * @param scores scores indexed by ScoreSchema slot, NaN for missing scores. The array is not copied.
+     */
+    public PeptideSpectrumMatch(String spectrumFile, Peptide peptide, List<String> proteinIDs,
+                                double[] scores, int charge, int rank, float retentionTime,
+                                int scanNr, double neutralPrecMass, boolean isDecoy, boolean isVariant) {
+
+        this.spectrumFileId = (spectrumFile == null) ? -1 : PackedSpectrumKey.SPECTRUM_FILES.getId(spectrumFile);
+        this.peptideId = PeptideRegistry.getInstance().intern(peptide);
+        this.proteinIds = toProteinIds(proteinIDs);
+        this.scores = scores;
         this.charge = charge;
         this.isDecoy = isDecoy;
         this.rank = rank;
@@ -86,10 +103,7 @@ public class PeptideSpectrumMatch {
         this.scanNr = scanNr;
         this.neutralPrecMass = neutralPrecMass;
 
-        if (proteinIDs != null && !proteinIDs.isEmpty())
-            this.firstProteinAC = proteinIDs.get(0);
-        else
-            this.firstProteinAC = "";
+        this.firstProteinId = (proteinIds.length > 0) ? proteinIds[0] : -1;
 
         this.isVariant = isVariant;
         if (isVariant) this.variants = new ArrayList<>();
@@ -97,27 +111,88 @@ public class PeptideSpectrumMatch {
 
         this.peptideStart = -1;
         this.wtSequence = "";
-        this.group = "";
+        this.groupId = GROUPS.getId("");
     }
 
+    /**
+     * @return the canonical peptide of the PeptideRegistry
+     */
     public Peptide getPeptide() {
 
-        return peptide;
+        return PeptideRegistry.getInstance().getPeptide(peptideId);
+    }
+
+    public int getPeptideId() {
+
+        return peptideId;
     }
 
+    /**
+     * @return unmodifiable view of the protein accessions
+     */
     public List<String> getProteinIDs() {
 
-        return Collections.unmodifiableList(proteinIDs);
+        final int[] ids = proteinIds;
+
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return PROTEIN_ACS.getSymbol(ids[index]);
+            }
+
+            @Override
+            public int size() {
+                return ids.length;
+            }
+        };
+    }
+
+    /**
+     * @return the PROTEIN_ACS ids of the proteins. The array must not be modified.
+     */
+    public int[] getProteinIds() {
+
+        return proteinIds;
+    }
+
+    private static int[] toProteinIds(Collection<String> proteinACs) {
+
+        if (proteinACs == null || proteinACs.isEmpty()) return NO_PROTEINS;
+
+        int[] ids = new int[proteinACs.size()];
+        int i = 0;
+        for (String proteinAC : proteinACs) ids[i++] = PROTEIN_ACS.getId(proteinAC);
+
+        return ids;
     }
 
+    /**
+     * @return a copy of the scores as map from score name to value
+     */
     public TObjectDoubleMap<String> getScoreMap() {
 
-        return scoreMap;
+        return ScoreSchema.toScoreMap(scores);
     }
 
+    /**
+     * @return the score or 0 if the PSM has no such score
+     */
     public double getScore(String score) {
 
-        return scoreMap.get(score);
+        return ScoreSchema.getScore(scores, ScoreSchema.getSlot(score));
+    }
+
+    /**
+     * @return the score of the ScoreSchema slot or 0 if the PSM has no such score
+     */
+    public double getScore(int slot) {
+
+        return ScoreSchema.getScore(scores, slot);
+    }
+
+    public boolean hasScore(int slot) {
+
+        return ScoreSchema.hasScore(scores, slot);
     }
 
     public int getCharge() {
@@ -127,7 +202,15 @@ public class PeptideSpectrumMatch {
 
     public String toSymbolString() {
 
-        return peptide.toSymbolString();
+        return PeptideRegistry.getInstance().getSymbolString(peptideId);
+    }
+
+    /**
+     * @return the peptide string with modifications
+     */
+    public String toPeptideString() {
+
+        return PeptideRegistry.getInstance().getString(peptideId);
     }
 
     public boolean isDecoy() {
@@ -136,15 +219,38 @@ public class PeptideSpectrumMatch {
     }
 
     public void addScores(TObjectDoubleMap<String> scoreMap) {
-        this.scoreMap.putAll(scoreMap);
+        for (String name : scoreMap.keySet()) scores = ScoreSchema.setScore(scores, ScoreSchema.register(name), scoreMap.get(name));
+    }
+
+    public void addScores(PeptideSpectrumMatch psm) {
+        for (int slot = 0; slot < psm.scores.length; slot++) {
+            if (psm.hasScore(slot)) scores = ScoreSchema.setScore(scores, slot, psm.scores[slot]);
+        }
     }
 
     public void addProteinAcc(Set<String> newProteinAccs) {
-        this.proteinIDs.addAll(newProteinAccs);
+
+        int[] newIds = toProteinIds(newProteinAccs);
+        if (newIds.length == 0) return;
+
+        int[] ids = Arrays.copyOf(proteinIds, proteinIds.length + newIds.length);
+        System.arraycopy(newIds, 0, ids, proteinIds.length, newIds.length);
+        this.proteinIds = ids;
     }
 
     public String getSpectrumFile() {
-        return spectrumFile;
+        return (spectrumFileId < 0) ? null : PackedSpectrumKey.SPECTRUM_FILES.getSymbol(spectrumFileId);
+    }
+
+    public int getSpectrumFileId() {
+        return spectrumFileId;
+    }
+
+    /**
+     * @return PackedSpectrumKey of spectrum file, scan number and charge
+     */
+    public long getSpectrumKey() {
+        return PackedSpectrumKey.pack(spectrumFileId, scanNr, charge);
     }
 
     public int getRank() {
@@ -172,15 +278,15 @@ public class PeptideSpectrumMatch {
     }
 
     public String getGroup() {
-        return group;
+        return GROUPS.getSymbol(groupId);
     }
 
     public void setGroup(String group) {
-        this.group = group;
+        this.groupId = GROUPS.getId(group);
     }
 
     public String getFirstProteinAC() {
-        return firstProteinAC;
+        return (firstProteinId < 0) ? "" : PROTEIN_ACS.getSymbol(firstProteinId);
     }
 
     public void setSequenceVariants(List<SequenceVariant> variants) {
@@ -67,6 +67,8 @@ public class PeptideSpectrumMatchList {
         String key = spectrumKeyFunction.apply(spectrumInfo);
         if (spectrumFilter != null && !spectrumFilter.apply(key)) return;
 
+        if (!psmPredicate.check(searchResult, spectrumInfo.getCharge())) return;
+
         boolean isDecoy = searchResult.isDecoy();
 
         List<String> protACs = searchResult.getProteins();
@@ -78,8 +80,6 @@ public class PeptideSpectrumMatchList {
 
         if (protACs.isEmpty()) return;
 
-        if (!psmPredicate.check(searchResult, spectrumInfo.getCharge())) return;
-
         String spectrumFile = spectrumInfo.getSpectrumFile();
         float rt = (float) spectrumInfo.getRetentionTime();
         int scanNr = spectrumInfo.getScanNumber();
@@ -91,7 +91,7 @@ public class PeptideSpectrumMatchList {
             Peptide peptide = searchResult.toPeptide();
 
             PeptideSpectrumMatch psm = new PeptideSpectrumMatch(spectrumFile, peptide, protACs,
-                    searchResult.getScoreMap(),spectrumInfo.getCharge(),rank, rt,
+                    searchResult.getScores(),spectrumInfo.getCharge(),rank, rt,
                     scanNr, precMass, isDecoy, isVariant);
 
 
@@ -104,6 +104,36 @@ public class PeptideSpectrumMatchList {
         }
     }
 
+    /**
+     * Creates a PeptideSpectrumMatchList with the same key function, filters and predicate that writes to psmMap.
+     * Used to collect the PSMs of file chunks that are parsed concurrently.
+     */
+    public PeptideSpectrumMatchList newBuffer(Map<String, List<PeptideSpectrumMatch>> psmMap) {
+
+        return new PeptideSpectrumMatchList(spectrumKeyFunction, psmPredicate, psmMap);
+    }
+
+    /**
+     * Adds the PSMs of a buffer created by newBuffer(). PSMs of a spectrum already present are appended in order.
+     */
+    public void addAll(Map<String, List<PeptideSpectrumMatch>> psms) {
+
+        for (Map.Entry<String, List<PeptideSpectrumMatch>> entry : psms.entrySet()) {
+
+            psmMap.putIfAbsent(entry.getKey(),new ArrayList<>());
+
+            psmMap.get(entry.getKey()).addAll(entry.getValue());
+        }
+    }
+
+    /**
+     * @return the predicate of resultRead(). Readers use its precheck methods to skip hits before creating objects.
+     */
+    public PsmPredicate getPsmPredicate() {
+
+        return psmPredicate;
+    }
+
     public boolean isValidProtein(List<String> proteins) {
 
         if (proteins==null || proteins.isEmpty()) return false;
@@ -0,0 +1,439 @@
+/*
+Copyright (C) SIB - Swiss Institute of Bioinformatics, Lausanne, Switzerland
+Copyright (C) LICR - Ludwig Institute of Cancer Research, Lausanne, Switzerland
+This program is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation, either version 2 of the License, or (at your option) any later version.
+This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+You should have received a copy of the GNU General Public License along with this program. If not, see https://www.gnu.org/licenses/.
+*/
+
+package newance.psmconverter;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.hash.Hashing;
+import gnu.trove.list.array.TByteArrayList;
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TFloatArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import newance.mzjava.mol.AminoAcid;
+import newance.mzjava.mol.Composition;
+import newance.mzjava.mol.NumericMass;
+import newance.mzjava.mol.Peptide;
+import newance.mzjava.mol.modification.ModAttachment;
+import newance.mzjava.mol.modification.Modification;
+import newance.util.NewAnceParams;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * On-disk cache of the PSMs parsed from a Comet or MaxQuant file, after filtering by the PsmPredicate. Each psm file
+ * has one cache file in the cache directory. The cache file starts with a signature made of path, size and
+ * modification time of the input files and of the parameters used for parsing. If the signature does not match,
+ * the entry is stale and is rewritten after parsing.
+ * <p>
+ * The PSMs are stored column by column: a string dictionary (spectrum keys, file names, sequences, proteins and
+ * score names), a modification dictionary, fixed width columns with one value per PSM and offset columns for the
+ * proteins, modifications and scores of each PSM. The file is memory mapped for reading.
+ *
+ * @author Markus Müller
+ */
+public class PsmFileCache {
+
+    private static final int MAGIC = 0x4E415043;
+    private static final int VERSION = 1;
+
+    private static final byte DECOY_FLAG = 1;
+    private static final byte VARIANT_FLAG = 2;
+
+    private static final int N_TERM_POSITION = -1;
+    private static final int C_TERM_POSITION = -2;
+
+    private static final byte COMPOSITION_MASS = 0;
+    private static final byte NUMERIC_MASS = 1;
+
+    private final File cacheDir;
+
+    public PsmFileCache(File cacheDir) {
+
+        this.cacheDir = cacheDir;
+    }
+
+    /**
+     * @return the cache in the psmCacheDir directory or null if psmCacheDir is not set
+     */
+    public static PsmFileCache create(NewAnceParams params) {
+
+        if (params.getPsmCacheDir().isEmpty()) return null;
+
+        return new PsmFileCache(new File(params.getPsmCacheDir()));
+    }
+
+    /**
+     * Makes the signature of a psm file from the file itself, the files read together with it (e.g. peptides.txt)
+     * and all parameters that change which PSMs are kept or how they are built.
+     */
+    public static String makeSignature(String reader, File psmFile, List<File> dependentFiles, NewAnceParams params) {
+
+        StringBuilder signature = new StringBuilder(reader);
+
+        List<File> files = new ArrayList<>();
+        files.add(psmFile);
+        files.addAll(dependentFiles);
+        for (File file : files) {
+            signature.append('|').append(getCanonicalPath(file)).append('|').append(file.length())
+                    .append('|').append(file.lastModified());
+        }
+
+        signature.append("|modifications=").append(params.getModificationStr());
+        signature.append("|modifMatchMassTol=").append(params.getModifMatchMassTol());
+        signature.append("|decoyProtPrefix=").append(params.getCometDecoyProtPrefix());
+        signature.append("|excludedProtPattern=").append(params.getExcludedProtPattern());
+        signature.append("|spectrumRegExp=").append(params.getSpectrumRegExp());
+        signature.append("|spectrumNativeID=").append(params.isSpectrumNativeID());
+        signature.append("|charge=").append(params.getMinCharge()).append('-').append(params.getMaxCharge());
+        signature.append("|length=").append(params.getMinPeptideLength()).append('-').append(params.getMaxPeptideLength());
+        signature.append("|maxRank=").append(params.getMaxRank());
+        signature.append("|minXCorrPSM=").append(params.getMinXCorrPSM());
+        signature.append("|minDeltaCnPSM=").append(params.getMinDeltaCnPSM());
+        signature.append("|minSpScorePSM=").append(params.getMinSpScorePSM());
+        signature.append("|minScorePSM=").append(params.getMinScorePSM());
+        signature.append("|minDeltaScorePSM=").append(params.getMinDeltaScorePSM());
+        signature.append("|minPEPPSM=").append(params.getMinPEPPSM());
+
+        return signature.toString();
+    }
+
+    public File getCacheFile(File psmFile) {
+
+        String pathHash = Hashing.sha1().hashString(getCanonicalPath(psmFile), StandardCharsets.UTF_8).toString().substring(0, 16);
+
+        return new File(cacheDir, psmFile.getName() + "." + pathHash + ".psmcache");
+    }
+
+    /**
+     * Adds the cached PSMs of psmFile to psmMap.
+     *
+     * @return true if the cache entry exists and matches the signature, false if psmFile has to be parsed
+     */
+    public boolean read(File psmFile, String signature, Map<String, List<PeptideSpectrumMatch>> psmMap) {
+
+        File cacheFile = getCacheFile(psmFile);
+        if (!cacheFile.exists()) return false;
+
+        try (FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ)) {
+
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.remaining() < 8 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION || !signature.equals(readString(buffer))) {
+
+                System.out.println("PSM cache " + cacheFile + " of " + psmFile + " is stale. Rebuilding.");
+                return false;
+            }
+
+            readPsms(buffer, psmMap);
+        } catch (IOException | RuntimeException e) {
+
+            System.out.println("WARNING: cannot read PSM cache " + cacheFile + " (" + e + "). Rebuilding.");
+            psmMap.clear();
+            return false;
+        }
+
+        System.out.println("Read PSMs of " + psmFile + " from cache " + cacheFile);
+
+        return true;
+    }
+
+    /**
+     * Writes the PSMs of psmFile to its cache file. The file is written to a temporary file first and then moved,
+     * so readers never see partial files. Errors are reported but do not stop the run.
+     */
+    public void write(File psmFile, String signature, Map<String, List<PeptideSpectrumMatch>> psmMap) {
+
+        File cacheFile = getCacheFile(psmFile);
+
+        try {
+
+            File tmpFile = File.createTempFile(cacheFile.getName(), ".tmp", cacheDir);
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16))) {
+
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                writeString(out, signature);
+                writePsms(out, psmMap);
+            }
+
+            Files.move(tmpFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+
+            System.out.println("WARNING: cannot write PSM cache " + cacheFile + " (" + e + ").");
+        }
+    }
+
+    private void writePsms(DataOutputStream out, Map<String, List<PeptideSpectrumMatch>> psmMap) throws IOException {
+
+        Map<String, Integer> stringIds = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        Map<Modification, Integer> modIds = new HashMap<>();
+        List<Modification> mods = new ArrayList<>();
+
+        TIntArrayList keyCol = new TIntArrayList();
+        TIntArrayList fileCol = new TIntArrayList();
+        TIntArrayList sequenceCol = new TIntArrayList();
+        TIntArrayList chargeCol = new TIntArrayList();
+        TIntArrayList rankCol = new TIntArrayList();
+        TIntArrayList scanNrCol = new TIntArrayList();
+        TFloatArrayList rtCol = new TFloatArrayList();
+        TDoubleArrayList precMassCol = new TDoubleArrayList();
+        TByteArrayList flagCol = new TByteArrayList();
+
+        TIntArrayList proteinOffsets = new TIntArrayList();
+        TIntArrayList proteinCol = new TIntArrayList();
+        TIntArrayList modOffsets = new TIntArrayList();
+        TIntArrayList modPositionCol = new TIntArrayList();
+        TIntArrayList modCol = new TIntArrayList();
+        TIntArrayList scoreOffsets = new TIntArrayList();
+        TIntArrayList scoreNameCol = new TIntArrayList();
+        TDoubleArrayList scoreCol = new TDoubleArrayList();
+
+        for (Map.Entry<String, List<PeptideSpectrumMatch>> entry : psmMap.entrySet()) {
+
+            int keyId = getId(entry.getKey(), stringIds, strings);
+
+            for (PeptideSpectrumMatch psm : entry.getValue()) {
+
+                keyCol.add(keyId);
+                fileCol.add(getId(psm.getSpectrumFile(), stringIds, strings));
+                sequenceCol.add(getId(psm.toSymbolString(), stringIds, strings));
+                chargeCol.add(psm.getCharge());
+                rankCol.add(psm.getRank());
+                scanNrCol.add(psm.getScanNr());
+                rtCol.add(psm.getRetentionTime());
+                precMassCol.add(psm.getNeutralPrecMass());
+                flagCol.add((byte) ((psm.isDecoy() ? DECOY_FLAG : 0) | (psm.isVariant() ? VARIANT_FLAG : 0)));
+
+                proteinOffsets.add(proteinCol.size());
+                for (String protein : psm.getProteinIDs()) proteinCol.add(getId(protein, stringIds, strings));
+
+                modOffsets.add(modCol.size());
+                Peptide peptide = psm.getPeptide();
+                if (peptide.hasModifications()) {
+
+                    addMods(peptide.getModificationsAt(0, ModAttachment.nTermSet), N_TERM_POSITION, modPositionCol, modCol, modIds, mods);
+                    for (int i = 0; i < peptide.size(); i++) {
+                        addMods(peptide.getModificationsAt(i, ModAttachment.sideChainSet), i, modPositionCol, modCol, modIds, mods);
+                    }
+                    addMods(peptide.getModificationsAt(peptide.size() - 1, ModAttachment.cTermSet), C_TERM_POSITION, modPositionCol, modCol, modIds, mods);
+                }
+
+                scoreOffsets.add(scoreCol.size());
+                for (int slot = 0; slot < ScoreSchema.size(); slot++) {
+                    if (psm.hasScore(slot)) {
+                        scoreNameCol.add(getId(ScoreSchema.getName(slot), stringIds, strings));
+                        scoreCol.add(psm.getScore(slot));
+                    }
+                }
+            }
+        }
+
+        proteinOffsets.add(proteinCol.size());
+        modOffsets.add(modCol.size());
+        scoreOffsets.add(scoreCol.size());
+
+        for (Modification mod : mods) getId(mod.getLabel(), stringIds, strings);
+
+        out.writeInt(strings.size());
+        for (String string : strings) writeString(out, string);
+
+        out.writeInt(mods.size());
+        for (Modification mod : mods) {
+
+            out.writeInt(stringIds.get(mod.getLabel()));
+            if (mod.getMass() instanceof Composition) {
+                out.writeByte(COMPOSITION_MASS);
+                writeString(out, ((Composition) mod.getMass()).getFormula());
+            } else {
+                out.writeByte(NUMERIC_MASS);
+                out.writeDouble(mod.getMolecularMass());
+            }
+        }
+
+        out.writeInt(keyCol.size());
+        writeColumn(out, keyCol);
+        writeColumn(out, fileCol);
+        writeColumn(out, sequenceCol);
+        writeColumn(out, chargeCol);
+        writeColumn(out, rankCol);
+        writeColumn(out, scanNrCol);
+        for (int i = 0; i < rtCol.size(); i++) out.writeFloat(rtCol.getQuick(i));
+        for (int i = 0; i < precMassCol.size(); i++) out.writeDouble(precMassCol.getQuick(i));
+        out.write(flagCol.toArray());
+
+        writeColumn(out, proteinOffsets);
+        writeColumn(out, proteinCol);
+        writeColumn(out, modOffsets);
+        writeColumn(out, modPositionCol);
+        writeColumn(out, modCol);
+        writeColumn(out, scoreOffsets);
+        writeColumn(out, scoreNameCol);
+        for (int i = 0; i < scoreCol.size(); i++) out.writeDouble(scoreCol.getQuick(i));
+    }
+
+    private void readPsms(ByteBuffer buffer, Map<String, List<PeptideSpectrumMatch>> psmMap) {
+
+        String[] strings = new String[buffer.getInt()];
+        for (int i = 0; i < strings.length; i++) strings[i] = readString(buffer);
+
+        Modification[] mods = new Modification[buffer.getInt()];
+        for (int i = 0; i < mods.length; i++) {
+
+            String label = strings[buffer.getInt()];
+            if (buffer.get() == COMPOSITION_MASS)
+                mods[i] = new Modification(label, Composition.parseComposition(readString(buffer)));
+            else
+                mods[i] = new Modification(label, new NumericMass(buffer.getDouble()));
+        }
+
+        int nrPsms = buffer.getInt();
+        int[] scoreSlots = new int[strings.length];
+        IntBuffer keyCol = intColumn(buffer, nrPsms);
+        IntBuffer fileCol = intColumn(buffer, nrPsms);
+        IntBuffer sequenceCol = intColumn(buffer, nrPsms);
+        IntBuffer chargeCol = intColumn(buffer, nrPsms);
+        IntBuffer rankCol = intColumn(buffer, nrPsms);
+        IntBuffer scanNrCol = intColumn(buffer, nrPsms);
+        FloatBuffer rtCol = slice(buffer, 4 * nrPsms).asFloatBuffer();
+        DoubleBuffer precMassCol = slice(buffer, 8 * nrPsms).asDoubleBuffer();
+        ByteBuffer flagCol = slice(buffer, nrPsms);
+
+        IntBuffer proteinOffsets = intColumn(buffer, nrPsms + 1);
+        IntBuffer proteinCol = intColumn(buffer, proteinOffsets.get(nrPsms));
+        IntBuffer modOffsets = intColumn(buffer, nrPsms + 1);
+        IntBuffer modPositionCol = intColumn(buffer, modOffsets.get(nrPsms));
+        IntBuffer modCol = intColumn(buffer, modOffsets.get(nrPsms));
+        IntBuffer scoreOffsets = intColumn(buffer, nrPsms + 1);
+        IntBuffer scoreNameCol = intColumn(buffer, scoreOffsets.get(nrPsms));
+        DoubleBuffer scoreCol = slice(buffer, 8 * scoreOffsets.get(nrPsms)).asDoubleBuffer();
+        for (int j = 0; j < scoreNameCol.limit(); j++) scoreSlots[scoreNameCol.get(j)] = ScoreSchema.register(strings[scoreNameCol.get(j)]);
+
+        for (int i = 0; i < nrPsms; i++) {
+
+            String sequence = strings[sequenceCol.get(i)];
+            List<AminoAcid> residues = new ArrayList<>(sequence.length());
+            for (int j = 0; j < sequence.length(); j++) residues.add(AminoAcid.valueOf(sequence.charAt(j)));
+
+            ListMultimap<Integer, Modification> sideChainModMap = ArrayListMultimap.create();
+            ListMultimap<ModAttachment, Modification> termModMap = ArrayListMultimap.create();
+            for (int j = modOffsets.get(i); j < modOffsets.get(i + 1); j++) {
+
+                int position = modPositionCol.get(j);
+                Modification mod = mods[modCol.get(j)];
+                if (position == N_TERM_POSITION) termModMap.put(ModAttachment.N_TERM, mod);
+                else if (position == C_TERM_POSITION) termModMap.put(ModAttachment.C_TERM, mod);
+                else sideChainModMap.put(position, mod);
+            }
+
+            List<String> proteins = new ArrayList<>(proteinOffsets.get(i + 1) - proteinOffsets.get(i));
+            for (int j = proteinOffsets.get(i); j < proteinOffsets.get(i + 1); j++) proteins.add(strings[proteinCol.get(j)]);
+
+            double[] scores = ScoreSchema.newScores();
+            for (int j = scoreOffsets.get(i); j < scoreOffsets.get(i + 1); j++) scores = ScoreSchema.setScore(scores, scoreSlots[scoreNameCol.get(j)], scoreCol.get(j));
+
+            byte flags = flagCol.get(i);
+
+            PeptideSpectrumMatch psm = new PeptideSpectrumMatch(strings[fileCol.get(i)],
+                    new Peptide(residues, sideChainModMap, termModMap), proteins, scores, chargeCol.get(i),
+                    rankCol.get(i), rtCol.get(i), scanNrCol.get(i), precMassCol.get(i),
+                    (flags & DECOY_FLAG) != 0, (flags & VARIANT_FLAG) != 0);
+
+            String key = strings[keyCol.get(i)];
+            psmMap.putIfAbsent(key, new ArrayList<>());
+            psmMap.get(key).add(psm);
+        }
+    }
+
+    private static void addMods(List<Modification> modList, int position, TIntArrayList modPositionCol, TIntArrayList modCol,
+                                Map<Modification, Integer> modIds, List<Modification> mods) {
+
+        for (Modification mod : modList) {
+
+            Integer id = modIds.get(mod);
+            if (id == null) {
+                id = mods.size();
+                modIds.put(mod, id);
+                mods.add(mod);
+            }
+
+            modPositionCol.add(position);
+            modCol.add(id);
+        }
+    }
+
+    private static int getId(String string, Map<String, Integer> stringIds, List<String> strings) {
+
+        Integer id = stringIds.get(string);
+        if (id == null) {
+            id = strings.size();
+            stringIds.put(string, id);
+            strings.add(string);
+        }
+
+        return id;
+    }
+
+    private static void writeColumn(DataOutputStream out, TIntArrayList column) throws IOException {
+
+        for (int i = 0; i < column.size(); i++) out.writeInt(column.getQuick(i));
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+
+        int length = buffer.getInt();
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static IntBuffer intColumn(ByteBuffer buffer, int length) {
+
+        return slice(buffer, 4 * length).asIntBuffer();
+    }
+
+    /**
+     * @return a view of the next nrBytes bytes of buffer, which is advanced past them
+     */
+    private static ByteBuffer slice(ByteBuffer buffer, int nrBytes) {
+
+        ByteBuffer slice = buffer.slice();
+        ((Buffer) slice).limit(nrBytes);
+        ((Buffer) buffer).position(buffer.position() + nrBytes);
+
+        return slice;
+    }
+
+    private static String getCanonicalPath(File file) {
+
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
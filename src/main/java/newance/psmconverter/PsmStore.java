@@ -0,0 +1,415 @@
+/*
+Copyright (C) SIB - Swiss Institute of Bioinformatics, Lausanne, Switzerland
+Copyright (C) LICR - Ludwig Institute of Cancer Research, Lausanne, Switzerland
+This program is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation, either version 2 of the License, or (at your option) any later version.
+This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+You should have received a copy of the GNU General Public License along with this program. If not, see https://www.gnu.org/licenses/.
+*/
+
+package newance.psmconverter;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import newance.util.PsmGrouper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+/**
+ * Index of the PSMs of a spectrum map for selection and counting. The PSMs of a spectrum occupy consecutive indexes and
+ * the attributes used by the filters (group, local FDR, decoy flag, peptide) are held in primitive columns. Filters
+ * return a BitSet of PSM indexes, which can be combined with the BitSet operations, instead of copying the spectrum map
+ * for each group and threshold.
+ *
+ * The store does not replace the spectrum map: it references the same PSM objects, which the writers, the spectrum
+ * accumulator and the Comet/MaxQuant merger still need, and toMap() converts a selection back to a map for them. The
+ * store therefore adds about 25 bytes per PSM to the memory of the map and does not reduce the peak memory. It saves
+ * the map copies and the repeated group and local FDR lookups of the former filterPsms() calls.
+ *
+ * @author Markus Müller
+ */
+public class PsmStore {
+
+    // number of PSMs processed by one task of selectGroups()
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private final String[] spectrumIds;
+    private final int[] spectrumStarts;
+    private final PeptideSpectrumMatch[] psms;
+    private final int[] spectrumIndexes;
+    private final BitSet decoys;
+    private final int[] peptideIds;
+    private final int nrPeptides;
+    private final int[] groupIds;
+    private final TObjectIntMap<String> groupIdMap;
+    private float[] localFDRs;
+
+    public PsmStore(Map<String, List<PeptideSpectrumMatch>> psmMap) {
+
+        this(psmMap, null);
+    }
+
+    /**
+     * @param psmMap map from spectrum id to the PSMs of the spectrum
+     * @param psmGrouper grouper used to fill the group id column. Group ids are -1 if psmGrouper is null.
+     */
+    public PsmStore(Map<String, List<PeptideSpectrumMatch>> psmMap, PsmGrouper psmGrouper) {
+
+        int nrSpectra = psmMap.size();
+        List<String> specIDs = new ArrayList<>(nrSpectra);
+        List<PeptideSpectrumMatch> psmList = new ArrayList<>();
+        spectrumStarts = new int[nrSpectra + 1];
+
+        for (Map.Entry<String, List<PeptideSpectrumMatch>> entry : psmMap.entrySet()) {
+
+            spectrumStarts[specIDs.size()] = psmList.size();
+            specIDs.add(entry.getKey());
+            psmList.addAll(entry.getValue());
+        }
+        spectrumStarts[specIDs.size()] = psmList.size();
+
+        spectrumIds = specIDs.toArray(new String[0]);
+        psms = psmList.toArray(new PeptideSpectrumMatch[0]);
+
+        int size = psms.length;
+        spectrumIndexes = new int[size];
+        decoys = new BitSet(size);
+        peptideIds = new int[size];
+        groupIds = new int[size];
+        groupIdMap = new TObjectIntHashMap<>(16, 0.5f, -1);
+
+        TObjectIntMap<String> peptideIdMap = new TObjectIntHashMap<>(size, 0.5f, -1);
+
+        for (int s = 0; s < spectrumIds.length; s++) {
+            for (int i = spectrumStarts[s]; i < spectrumStarts[s + 1]; i++) {
+
+                PeptideSpectrumMatch psm = psms[i];
+
+                spectrumIndexes[i] = s;
+                if (psm.isDecoy()) decoys.set(i);
+
+                String sequence = psm.toSymbolString();
+                int peptideId = peptideIdMap.get(sequence);
+                if (peptideId < 0) {
+                    peptideId = peptideIdMap.size();
+                    peptideIdMap.put(sequence, peptideId);
+                }
+                peptideIds[i] = peptideId;
+
+                if (psmGrouper == null) {
+                    groupIds[i] = -1;
+                } else {
+                    String group = psmGrouper.apply(spectrumIds[s], psm);
+                    int groupId = groupIdMap.get(group);
+                    if (groupId < 0) {
+                        groupId = groupIdMap.size();
+                        groupIdMap.put(group, groupId);
+                    }
+                    groupIds[i] = groupId;
+                }
+            }
+        }
+
+        nrPeptides = peptideIdMap.size();
+        localFDRs = null;
+    }
+
+    public int size() {
+
+        return psms.length;
+    }
+
+    public int getNrSpectra() {
+
+        return spectrumIds.length;
+    }
+
+    public PeptideSpectrumMatch getPsm(int index) {
+
+        return psms[index];
+    }
+
+    public String getSpectrumId(int index) {
+
+        return spectrumIds[spectrumIndexes[index]];
+    }
+
+    public int getCharge(int index) {
+
+        return psms[index].getCharge();
+    }
+
+    public int getRank(int index) {
+
+        return psms[index].getRank();
+    }
+
+    public boolean isDecoy(int index) {
+
+        return decoys.get(index);
+    }
+
+    /**
+     * @return id of the peptide sequence (without modifications). Ids run from 0 to getNrPeptides()-1.
+     */
+    public int getPeptideId(int index) {
+
+        return peptideIds[index];
+    }
+
+    public int getNrPeptides() {
+
+        return nrPeptides;
+    }
+
+    /**
+     * @return group id of the PSM or -1 if the store was built without grouper
+     */
+    public int getGroupId(int index) {
+
+        return groupIds[index];
+    }
+
+    /**
+     * @return group id of the group or -1 if no PSM belongs to the group
+     */
+    public int getGroupId(String group) {
+
+        return groupIdMap.get(group);
+    }
+
+    /**
+     * Sets the local FDR column, which is used by selectLocalFDR(). The array is indexed by PSM index.
+     */
+    public void setLocalFDRs(float[] localFDRs) {
+
+        if (localFDRs.length != psms.length)
+            throw new IllegalArgumentException("Local FDR array has length "+localFDRs.length+" instead of "+psms.length);
+
+        this.localFDRs = localFDRs;
+    }
+
+    public float getLocalFDR(int index) {
+
+        return localFDRs[index];
+    }
+
+    public BitSet selectAll() {
+
+        BitSet selection = new BitSet(psms.length);
+        selection.set(0, psms.length);
+
+        return selection;
+    }
+
+    public BitSet selectDecoys() {
+
+        return (BitSet) decoys.clone();
+    }
+
+    public BitSet selectTargets() {
+
+        BitSet selection = selectAll();
+        selection.andNot(decoys);
+
+        return selection;
+    }
+
+    public BitSet selectGroup(String group) {
+
+        BitSet selection = new BitSet(psms.length);
+
+        int groupId = getGroupId(group);
+        if (groupId < 0) return selection;
+
+        for (int i = 0; i < groupIds.length; i++) {
+            if (groupIds[i] == groupId) selection.set(i);
+        }
+
+        return selection;
+    }
+
+    /**
+     * @return PSMs with local FDR less or equal to lFDRThreshold
+     */
+    public BitSet selectLocalFDR(float lFDRThreshold) {
+
+        if (localFDRs == null) throw new IllegalStateException("Local FDRs are not set");
+
+        BitSet selection = new BitSet(psms.length);
+        for (int i = 0; i < localFDRs.length; i++) {
+            if (localFDRs[i] <= lFDRThreshold) selection.set(i);
+        }
+
+        return selection;
+    }
+
+    /**
+     * @return PSMs of group with local FDR less or equal to lFDRThreshold
+     */
+    public BitSet select(String group, float lFDRThreshold) {
+
+        BitSet selection = selectGroup(group);
+        selection.and(selectLocalFDR(lFDRThreshold));
+
+        return selection;
+    }
+
+    /**
+     * Selects the PSMs of all groups in one parallel pass over the store. A PSM is routed to the bucket of its group if
+     * its local FDR is less or equal to the threshold of the group. The store is split into chunks, each chunk first
+     * counts its PSMs per group and then writes their indexes to the chunk's region of the group buckets, so that the
+     * indexes of a group remain sorted.
+     *
+     * @param grpThresholdMap local FDR threshold of each group. No PSM is selected for groups without threshold.
+     * @return selected PSMs of all groups
+     */
+    public GroupSelection selectGroups(Map<String, Float> grpThresholdMap) {
+
+        if (localFDRs == null) throw new IllegalStateException("Local FDRs are not set");
+
+        final int nrGroups = groupIdMap.size();
+        // NaN thresholds select nothing
+        final float[] thresholds = new float[nrGroups];
+        Arrays.fill(thresholds, Float.NaN);
+        for (String group : groupIdMap.keySet()) {
+            Float threshold = grpThresholdMap.get(group);
+            if (threshold != null) thresholds[groupIdMap.get(group)] = threshold;
+        }
+
+        final int nrChunks = (psms.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        final int[][] chunkOffsets = new int[nrChunks][];
+
+        IntStream.range(0, nrChunks).parallel().forEach(c -> {
+
+            int[] counts = new int[nrGroups];
+            for (int i = c * CHUNK_SIZE, end = Math.min(psms.length, i + CHUNK_SIZE); i < end; i++) {
+                int groupId = groupIds[i];
+                if (groupId >= 0 && localFDRs[i] <= thresholds[groupId]) counts[groupId]++;
+            }
+            chunkOffsets[c] = counts;
+        });
+
+        // replace the chunk counts by the start of the chunk's region in the buckets
+        int[] groupStarts = new int[nrGroups + 1];
+        for (int g = 0; g < nrGroups; g++) {
+
+            int start = groupStarts[g];
+            for (int c = 0; c < nrChunks; c++) {
+                int cnt = chunkOffsets[c][g];
+                chunkOffsets[c][g] = start;
+                start += cnt;
+            }
+            groupStarts[g + 1] = start;
+        }
+
+        final int[] indexes = new int[groupStarts[nrGroups]];
+        IntStream.range(0, nrChunks).parallel().forEach(c -> {
+
+            int[] offsets = chunkOffsets[c];
+            for (int i = c * CHUNK_SIZE, end = Math.min(psms.length, i + CHUNK_SIZE); i < end; i++) {
+                int groupId = groupIds[i];
+                if (groupId >= 0 && localFDRs[i] <= thresholds[groupId]) indexes[offsets[groupId]++] = i;
+            }
+        });
+
+        return new GroupSelection(groupStarts, indexes);
+    }
+
+    public int countSpectra(BitSet selection) {
+
+        int cnt = 0;
+        int lastSpectrum = -1;
+        for (int i = selection.nextSetBit(0); i >= 0; i = selection.nextSetBit(i + 1)) {
+            if (spectrumIndexes[i] != lastSpectrum) {
+                lastSpectrum = spectrumIndexes[i];
+                cnt++;
+            }
+        }
+
+        return cnt;
+    }
+
+    public int countUniquePeptides(BitSet selection) {
+
+        BitSet peptides = new BitSet(nrPeptides);
+        for (int i = selection.nextSetBit(0); i >= 0; i = selection.nextSetBit(i + 1)) {
+            peptides.set(peptideIds[i]);
+        }
+
+        return peptides.cardinality();
+    }
+
+    /**
+     * @return map from spectrum id to the selected PSMs of the spectrum. Spectra without selected PSM are omitted.
+     */
+    public ConcurrentHashMap<String, List<PeptideSpectrumMatch>> toMap(BitSet selection) {
+
+        ConcurrentHashMap<String, List<PeptideSpectrumMatch>> psmMap = new ConcurrentHashMap<>();
+
+        int i = selection.nextSetBit(0);
+        while (i >= 0) {
+
+            int s = spectrumIndexes[i];
+            List<PeptideSpectrumMatch> spectrumPsms = new ArrayList<>();
+            while (i >= 0 && spectrumIndexes[i] == s) {
+                spectrumPsms.add(psms[i]);
+                i = selection.nextSetBit(i + 1);
+            }
+
+            psmMap.put(spectrumIds[s], Collections.synchronizedList(spectrumPsms));
+        }
+
+        return psmMap;
+    }
+
+    /**
+     * PSM indexes selected for each group of the store by selectGroups(). The indexes of group id g are stored in
+     * indexes[groupStarts[g]] to indexes[groupStarts[g+1]-1].
+     */
+    public class GroupSelection {
+
+        private final int[] groupStarts;
+        private final int[] indexes;
+
+        private GroupSelection(int[] groupStarts, int[] indexes) {
+
+            this.groupStarts = groupStarts;
+            this.indexes = indexes;
+        }
+
+        /**
+         * @return number of selected PSMs of group
+         */
+        public int size(String group) {
+
+            int groupId = getGroupId(group);
+            if (groupId < 0) return 0;
+
+            return groupStarts[groupId + 1] - groupStarts[groupId];
+        }
+
+        /**
+         * @return selected PSMs of group. The BitSet can be used with the other methods of the store.
+         */
+        public BitSet get(String group) {
+
+            BitSet selection = new BitSet(psms.length);
+
+            int groupId = getGroupId(group);
+            if (groupId < 0) return selection;
+
+            for (int i = groupStarts[groupId]; i < groupStarts[groupId + 1]; i++) selection.set(indexes[i]);
+
+            return selection;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+Copyright (C) SIB - Swiss Institute of Bioinformatics, Lausanne, Switzerland
+Copyright (C) LICR - Ludwig Institute of Cancer Research, Lausanne, Switzerland
+This program is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation, either version 2 of the License, or (at your option) any later version.
+This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+You should have received a copy of the GNU General Public License along with this program. If not, see https://www.gnu.org/licenses/.
+*/
+
+package newance.psmconverter;
+
+import gnu.trove.map.TObjectDoubleMap;
+import gnu.trove.map.hash.TObjectDoubleHashMap;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns an integer slot to each score name. PSMs store their scores in a double array indexed by slot, so hot code
+ * paths look up the slot once and then read scores without hashing. The Comet scores occupy the first slots,
+ * followed by the MaxQuant scores. Other names get the next free slot when first used. There is one schema for
+ * all search tools, because merged PSMs carry both Comet and MaxQuant scores. Missing scores are stored as NaN.
+ *
+ * @author Markus Müller
+ */
+public final class ScoreSchema {
+
+    private static final ConcurrentHashMap<String, Integer> slotMap = new ConcurrentHashMap<>();
+    private static volatile String[] names = new String[0];
+
+    // Comet
+    public static final int XCORR = register("xcorr");
+    public static final int DELTACN = register("deltacn");
+    public static final int SPSCORE = register("spscore");
+    public static final int EXPECT = register("expect");
+    public static final int MASS_DIFF = register("mass_diff");
+    public static final int TOT_NUM_IONS = register("tot_num_ions");
+    public static final int MATCHED_NUM_IONS = register("matched_num_ions");
+
+    // MaxQuant
+    public static final int SCORE = register("Score");
+    public static final int DELTA_SCORE = register("Delta score");
+    public static final int PEP = register("PEP");
+    public static final int MASS_ERROR_PPM = register("Mass Error [ppm]");
+    public static final int INTENSITY_COVERAGE = register("Intensity coverage");
+    public static final int LOCALIZATION_PROB = register("Localization prob");
+    public static final int NUMBER_OF_MATCHES = register("Number of Matches");
+
+    private ScoreSchema() {
+    }
+
+    /**
+     * @return the slot of the score name. A new slot is assigned if the name is not yet registered.
+     */
+    public static int register(String name) {
+
+        Integer slot = slotMap.get(name);
+        if (slot != null) return slot;
+
+        synchronized (slotMap) {
+
+            slot = slotMap.get(name);
+            if (slot != null) return slot;
+
+            slot = names.length;
+            String[] newNames = Arrays.copyOf(names, slot + 1);
+            newNames[slot] = name;
+            names = newNames;
+            slotMap.put(name, slot);
+
+            return slot;
+        }
+    }
+
+    /**
+     * @return the slot of the score name or -1 if the name is not registered
+     */
+    public static int getSlot(String name) {
+
+        Integer slot = slotMap.get(name);
+
+        return (slot == null) ? -1 : slot;
+    }
+
+    public static String getName(int slot) {
+
+        return names[slot];
+    }
+
+    /**
+     * @return the number of registered score names
+     */
+    public static int size() {
+
+        return names.length;
+    }
+
+    /**
+     * @return a score array for the registered names with all scores missing
+     */
+    public static double[] newScores() {
+
+        double[] scores = new double[size()];
+        Arrays.fill(scores, Double.NaN);
+
+        return scores;
+    }
+
+    /**
+     * Sets the score of a slot, growing the array if the slot was registered after the array was created.
+     *
+     * @return scores or the grown copy of scores
+     */
+    public static double[] setScore(double[] scores, int slot, double value) {
+
+        if (slot >= scores.length) {
+            int length = scores.length;
+            scores = Arrays.copyOf(scores, Math.max(slot + 1, size()));
+            Arrays.fill(scores, length, scores.length, Double.NaN);
+        }
+
+        scores[slot] = value;
+
+        return scores;
+    }
+
+    public static boolean hasScore(double[] scores, int slot) {
+
+        return slot >= 0 && slot < scores.length && !Double.isNaN(scores[slot]);
+    }
+
+    /**
+     * @return the score of the slot or 0 if the score is missing
+     */
+    public static double getScore(double[] scores, int slot) {
+
+        return hasScore(scores, slot) ? scores[slot] : 0.0;
+    }
+
+    public static double[] toScores(TObjectDoubleMap<String> scoreMap) {
+
+        double[] scores = newScores();
+        if (scoreMap == null) return scores;
+
+        for (String name : scoreMap.keySet()) scores = setScore(scores, register(name), scoreMap.get(name));
+
+        return scores;
+    }
+
+    public static TObjectDoubleMap<String> toScoreMap(double[] scores) {
+
+        TObjectDoubleMap<String> scoreMap = new TObjectDoubleHashMap<>();
+        for (int slot = 0; slot < scores.length; slot++) {
+            if (!Double.isNaN(scores[slot])) scoreMap.put(getName(slot), scores[slot]);
+        }
+
+        return scoreMap;
+    }
+}
@@ -16,7 +16,6 @@ import java.io.File;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CountDownLatch;
 
 /**
  * @author Markus Müller
@@ -27,14 +26,12 @@ public abstract class SinglePsmFileConverter implements Runnable {
     protected final File psmFile;
     protected final NewAnceParams params;
     protected final Map<String,List<PeptideSpectrumMatch>> psms;
-    protected final CountDownLatch latch;
 
-    public SinglePsmFileConverter(File psmFile, Map<String,List<PeptideSpectrumMatch>> psms, CountDownLatch latch) {
+    public SinglePsmFileConverter(File psmFile, Map<String,List<PeptideSpectrumMatch>> psms) {
 
         this.params = NewAnceParams.getInstance();
         this.psmFile = psmFile;
         this.psms = psms;
-        this.latch = latch;
     }
 
     public abstract void run();
@@ -18,7 +18,7 @@ package newance.psmconverter;
 public class SpectrumInfo {
 
     private final String spectrumFile;
-    private final String spectrum;
+    private String spectrum;
     private int scanNumber;
     private double retentionTime;
     private double precursorNeutralMass;
@@ -32,7 +32,19 @@ public class SpectrumInfo {
         this.spectrumFile = spectrum.substring(0,spectrum.indexOf("."));
     }
 
+    /**
+     * Creates the SpectrumInfo of spectrum file.scanNumber.scanNumber.charge. The spectrum string is only built when
+     * getSpectrum() is called.
+     */
+    public SpectrumInfo(String spectrumFile, int scanNumber, int charge) {
+        this.spectrum = null;
+        this.spectrumFile = spectrumFile;
+        this.scanNumber = scanNumber;
+        this.charge = charge;
+    }
+
     public String getSpectrum() {
+        if (spectrum == null) spectrum = spectrumFile + "." + scanNumber + "." + scanNumber + "." + charge;
         return spectrum;
     }
 
@@ -12,28 +12,92 @@ package newance.psmconverter;
 
 import newance.util.SpectrumKeyFunction;
 
-import java.util.regex.Pattern;
-
 /**
+ * Converts the pepXML spectrum attribute to the spectrum key. The key is the attribute up to the first space with the
+ * leading zeros of the numbers removed ("file.01234.01234.2" becomes "file.1234.1234.2"). Every '.' followed by zeros
+ * is replaced by '.', exactly like replaceAll("\\.[0]+", "."), but in one char scan with a reusable per thread
+ * buffer. The part before the first such '.' is usually the file name, which is the same for all spectra of a file.
+ * It is remembered so that it does not need to be scanned again for the next spectrum.
+ *
  * @author Markus Müller
  */
 
 public class SpectrumKeyFunctionImpl implements SpectrumKeyFunction {
 
-    private Pattern regEx = Pattern.compile("\\.[0]+");
+    private transient ThreadLocal<KeyBuilder> keyBuilders;
 
     @Override
     public String apply(SpectrumInfo spectrumInfo) {
 
-        String comment = spectrumInfo.getSpectrum();
+        String spectrum = spectrumInfo.getSpectrum();
+
+        int end = spectrum.indexOf(' ');
+        if (end < 1) end = spectrum.length();
 
-        int firstSpace = comment.indexOf(' ');
+        return getKeyBuilder().build(spectrum, end);
+    }
 
-        if (firstSpace>=1) comment = comment.substring(0,firstSpace);
+    private KeyBuilder getKeyBuilder() {
 
-        comment = regEx.matcher(comment).replaceAll(".");
+        // not initialized in field declaration, since the function is Serializable
+        if (keyBuilders == null) keyBuilders = ThreadLocal.withInitial(KeyBuilder::new);
 
-        return comment;
+        return keyBuilders.get();
     }
 
+    private static class KeyBuilder {
+
+        private char[] buffer = new char[64];
+        private String prefixSource = null;
+        private int prefixLength = 0;
+
+        private String build(String spectrum, int end) {
+
+            int start = findFirstDotZero(spectrum, end);
+            if (start < 0) return (end == spectrum.length()) ? spectrum : spectrum.substring(0, end);
+
+            if (buffer.length < end) buffer = new char[Math.max(end, 2 * buffer.length)];
+
+            spectrum.getChars(0, start, buffer, 0);
+            int len = start;
+
+            int i = start;
+            while (i < end) {
+
+                char c = spectrum.charAt(i++);
+                buffer[len++] = c;
+
+                if (c == '.') {
+                    while (i < end && spectrum.charAt(i) == '0') i++;
+                }
+            }
+
+            return new String(buffer, 0, len);
+        }
+
+        /**
+         * @return the index of the first '.' followed by '0' before end or -1 if there is none
+         */
+        private int findFirstDotZero(String spectrum, int end) {
+
+            // the remembered prefix has no '.' followed by '0', except maybe a '.' as last char
+            int from = 0;
+            if (prefixSource != null && prefixLength < end && spectrum.regionMatches(0, prefixSource, 0, prefixLength))
+                from = Math.max(prefixLength - 1, 0);
+
+            int idx = spectrum.indexOf('.', from);
+            while (idx >= 0 && idx + 1 < end) {
+
+                if (spectrum.charAt(idx + 1) == '0') {
+                    prefixSource = spectrum;
+                    prefixLength = idx;
+                    return idx;
+                }
+
+                idx = spectrum.indexOf('.', idx + 1);
+            }
+
+            return -1;
+        }
+    }
 }
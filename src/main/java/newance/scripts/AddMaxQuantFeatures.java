@@ -12,14 +12,12 @@ package newance.scripts;
 
 import newance.util.ExecutableOptions;
 import newance.util.NewAnceParams;
+import newance.util.TsvReader;
 import org.apache.commons.cli.*;
-import org.apache.commons.io.FilenameUtils;
 
 import java.io.*;
-import java.net.URLEncoder;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.sql.*;
 import java.util.*;
 import java.util.regex.Pattern;
 
@@ -95,55 +93,42 @@ public class AddMaxQuantFeatures extends ExecutableOptions {
 
         maxQuantLines = new HashMap<>();
 
-        try {
-            // load the driver into memory
-            Class.forName("org.relique.jdbc.csv.CsvDriver");
-
-            Properties props = new Properties();
-            props.put("fileExtension", "." + FilenameUtils.getExtension(file.getName()));
-            // create a connection. The first command line parameter is assumed to
-            //  be the directory in which the .csv files are held
-            Connection conn = DriverManager.getConnection("jdbc:relique:csv:" + file.getParent() + "?separator=" + URLEncoder.encode("\t", "UTF-8"), props);
-
-            // create a Statement object to execute the query with
-            Statement stmt = conn.createStatement();
-
-            // Select the ID and NAME columns from sample.csv
-            ResultSet results = stmt.executeQuery("SELECT * FROM " + FilenameUtils.removeExtension(file.getName()));
-
+        try (TsvReader reader = new TsvReader(file)) {
 
             Set<String> invalidFeatures = new HashSet<>();
             for (String feature : maxQuantFeatures) {
-                if (results.findColumn(feature)==0) {
+                if (!reader.hasColumn(feature)) {
                     invalidFeatures.add(feature);
                     System.out.println("WARNING: feature "+feature+" is not a valid msms.txt column name. This feature is ignored.");
                 }
             }
             maxQuantFeatures.removeAll(invalidFeatures);
 
-            while (results.next()) {
+            int chargeCol = reader.getRequiredColumnIndex("Charge");
+            int scanNumberCol = reader.getRequiredColumnIndex("Scan number");
+            int rawFileCol = reader.getRequiredColumnIndex("Raw file");
+            int[] featureCols = new int[maxQuantFeatures.size()];
+            int featureIdx = 0;
+            for (String feature : maxQuantFeatures) featureCols[featureIdx++] = reader.getColumnIndex(feature);
+
+            while (reader.next()) {
 
-                int charge = results.getInt("Charge");
-                int scanNumber = results.getInt("Scan number");
-                String rawFile = results.getString("Raw file");
+                int charge = reader.getInt(chargeCol);
+                int scanNumber = reader.getInt(scanNumberCol);
+                String rawFile = reader.getString(rawFileCol);
 
                 String specID = rawFile + "." + scanNumber + "." + scanNumber + "." + charge;
 
                 if (newAnceLines.containsKey(specID)) {
 
-                    String values = "";
-                    for (String feature : maxQuantFeatures) {
-                        values += "\t"+results.getString(feature);
+                    StringBuilder values = new StringBuilder();
+                    for (int featureCol : featureCols) {
+                        values.append("\t").append(reader.getString(featureCol));
                     }
-                    maxQuantLines.put(specID,values);
+                    maxQuantLines.put(specID,values.toString());
                 }
             }
-
-            // clean up
-            results.close();
-            stmt.close();
-            conn.close();
-        } catch (ClassNotFoundException | SQLException | UnsupportedEncodingException e) {
+        } catch (IOException e) {
             throw new IllegalStateException(e);
         }
     }
@@ -16,6 +16,7 @@ import newance.proteinmatch.VariantProtDB;
 import newance.psmcombiner.*;
 import newance.psmconverter.CometMultiplePepXMLFileConverter;
 import newance.psmconverter.PeptideSpectrumMatch;
+import newance.psmconverter.PsmStore;
 import newance.util.*;
 import org.apache.commons.cli.*;
 
@@ -23,6 +24,7 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -113,10 +115,14 @@ public class CometGroupFDRFilter extends ExecutableOptions {
         SummaryReportWriter summaryReportWriter =
                 new SummaryReportWriter(sumFileName, false);
 
+        PsmStore cometStore = groupedFDRCalculator.makePsmStore(cometPSMs);
+
+        PsmStore.GroupSelection cometSelections = cometStore.selectGroups(grplFDRThresholdMap);
+
         for (String group : groupedFDRCalculator.getGroups()) {
 
-            ConcurrentHashMap<String, List<PeptideSpectrumMatch>> filteredCometPsms =
-                    groupedFDRCalculator.filterPsms(cometPSMs, lFDRThreshold, group);
+            BitSet cometSelection = cometSelections.get(group);
+            ConcurrentHashMap<String, List<PeptideSpectrumMatch>> filteredCometPsms = cometStore.toMap(cometSelection);
 
             filteredCometPsms.forEach(10000,spectrumAccumulator);
 
@@ -124,7 +130,7 @@ public class CometGroupFDRFilter extends ExecutableOptions {
             writePSMTabFile(filteredCometPsms, groupedFDRCalculator, grplFDRThresholdMap, filename);
             System.out.println(filteredCometPsms.size()+" spectra for group " + group);
 
-            summaryReportWriter.write(group, filteredCometPsms);
+            summaryReportWriter.write(group, cometStore, cometSelection);
         }
 
         summaryReportWriter.close();
@@ -141,10 +147,14 @@ public class CometGroupFDRFilter extends ExecutableOptions {
                 new SummaryReportWriter(sumFileName, false);
 
 
+        PsmStore cometStore = groupedFDRCalculator.makePsmStore(cometPSMs);
+
+        PsmStore.GroupSelection cometSelections = cometStore.selectGroups(grplFDRThresholdMap);
+
         for (String group : groupedFDRCalculator.getGroups()) {
 
-            ConcurrentHashMap<String, List<PeptideSpectrumMatch>> filteredCometPsms =
-                    groupedFDRCalculator.filterPsms(cometPSMs, grplFDRThresholdMap.get(group), group);
+            BitSet cometSelection = cometSelections.get(group);
+            ConcurrentHashMap<String, List<PeptideSpectrumMatch>> filteredCometPsms = cometStore.toMap(cometSelection);
 
             filteredCometPsms.forEach(10000,spectrumAccumulator);
 
@@ -152,7 +162,7 @@ public class CometGroupFDRFilter extends ExecutableOptions {
             writePSMTabFile(filteredCometPsms, groupedFDRCalculator, grplFDRThresholdMap, filename);
             System.out.println(filteredCometPsms.size()+" spectra combined for group " + group);
 
-            summaryReportWriter.write(group, filteredCometPsms);
+            summaryReportWriter.write(group, cometStore, cometSelection);
         }
 
         summaryReportWriter.close();
@@ -176,6 +186,9 @@ public class CometGroupFDRFilter extends ExecutableOptions {
         if (params.isReportHistos())
             groupedFDRCalculator.writeHistograms(params.getOutputDir()+File.separator+"cometHistos", params.getOutputTag());
 
+        if (params.isWriteFDRCurves())
+            groupedFDRCalculator.writeFDRCurves(params.getOutputDir(), params.getOutputTag());
+
     }
 
     protected void reportPSMs() {
@@ -282,6 +295,7 @@ public class CometGroupFDRFilter extends ExecutableOptions {
         cmdLineOpts.addOption(Option.builder("outD").required().hasArg().longOpt("outputDir").desc("Output directory for results (required)").build());
         cmdLineOpts.addOption(Option.builder("outPsql").required(false).hasArg(false).longOpt("outputPsql").desc("Output format (table) that supports direct import into PostgreSQL.").build());
         cmdLineOpts.addOption(Option.builder("repH").required(false).hasArg(false).longOpt("reportHistogram").desc("Report histograms to text files").build());
+        cmdLineOpts.addOption(Option.builder("wFDRC").required(false).hasArg(false).longOpt("writeFDRCurves").desc("Write the global FDR, target and decoy counts as function of the lFDR threshold for each histogram to a text file").build());
         cmdLineOpts.addOption(Option.builder("rCoH").required(false).hasArg().longOpt("readCometHistograms").desc("Directory where Comet histograms files are placed.").build());
         cmdLineOpts.addOption(Option.builder("alpha").required(false).hasArg().longOpt("combineHistoWeight").desc("Histograms are alpha*data_histo + (1-alpha)*prior_histo. 0 <0 alpha <= 1. Only used if rCoH option is set.").build());
         cmdLineOpts.addOption(Option.builder("fH").required(false).hasArg(false).longOpt("forceHistograms").desc("Histograms are imported even if enough PSMs are available.").build());
@@ -303,6 +317,10 @@ public class CometGroupFDRFilter extends ExecutableOptions {
         cmdLineOpts.addOption(Option.builder("maxL").required(false).hasArg().longOpt("maxLength").desc("Maximal length of peptide (default value: 25)").build());
         cmdLineOpts.addOption(Option.builder("nrTh").required(false).hasArg().longOpt("nrThreads").desc("Number of threads used by NewAnce (default value: nr of available processors - 2)").build());
         cmdLineOpts.addOption(Option.builder("smD").required(false).hasArg().longOpt("smoothDegree").desc("Degree of smoothing (0: no smoothing, n: n x smoothing) (default value 1)").build());
+        cmdLineOpts.addOption(Option.builder("smKW").required(false).hasArg().longOpt("smoothKernelWidth").desc("Half width of smoothing kernel along each score axis (default value 1)").build());
+        cmdLineOpts.addOption(Option.builder("lFDRE").required(false).hasArg().longOpt("lFDREstimator").desc("Estimator of target and decoy densities for lFDR: histogram or kde (default value histogram)").build());
+        cmdLineOpts.addOption(Option.builder("kdeBW").required(false).hasArg().longOpt("kdeBandwidth").desc("Standard deviation of Gaussian kernel in histogram bins for lFDREstimator kde (default value 1.0)").build());
+        cmdLineOpts.addOption(Option.builder("hFmt").required(false).hasArg().longOpt("histogramFormat").desc("Format of written histogram files: text or binary (default value text)").build());
         cmdLineOpts.addOption(Option.builder("outT").required(false).hasArg().longOpt("outputTag").desc("Tag inserted into output file names after prefix.").build());
         cmdLineOpts.addOption(Option.builder("minPH").required(false).hasArg().longOpt("minPsm4Histo").desc("Minimal number of psms to calculate local FDR in histogram (default value: 100000).").build());
         cmdLineOpts.addOption(Option.builder("fdrM").required(false).hasArg().longOpt("fdrControlMethod").desc("Method to control pFDR: combined or separate (default combined).").build());
@@ -343,6 +361,7 @@ public class CometGroupFDRFilter extends ExecutableOptions {
         params.add("debug", getOptionString(line, "d"));
         params.add("forceHistos", getOptionString(line, "fH"));
         params.add("reportHistos", getOptionString(line, "repH"));
+        params.add("writeFDRCurves", getOptionString(line, "wFDRC"));
         params.add("readCometHistos", getOptionString(line, "rCoH"));
         params.add("alpha", getOptionString(line, "alpha"));
         params.add("outputDir", getOptionString(line, "outD"));
@@ -380,6 +399,10 @@ public class CometGroupFDRFilter extends ExecutableOptions {
         params.add("minPEPPSM", getOptionString(line, "minPEPPSM"));
         params.add("nrSpScoreBins", getOptionString(line, "nrSPB"));
         params.add("smoothDegree", getOptionString(line, "smD"));
+        params.add("smoothKernelWidth", getOptionString(line, "smKW"));
+        params.add("lFDREstimator", getOptionString(line, "lFDRE"));
+        params.add("kdeBandwidth", getOptionString(line, "kdeBW"));
+        params.add("histogramFormat", getOptionString(line, "hFmt"));
         params.add("fdrControlMethod", getOptionString(line, "fdrM"));
         params.add("groupingMethod", getOptionString(line, "groupM"));
         params.add("groupNames", getOptionString(line, "groupN"));
@@ -85,6 +85,7 @@ public class CometHistogramCalculator extends ExecutableOptions {
         cmdLineOpts.addOption(Option.builder("minL").required(false).hasArg().longOpt("minLength").desc("Minimal length of peptide (default value: 8)").build());
         cmdLineOpts.addOption(Option.builder("maxL").required(false).hasArg().longOpt("maxLength").desc("Maximal length of peptide (default value: 25)").build());
         cmdLineOpts.addOption(Option.builder("nrTh").required(false).hasArg().longOpt("nrThreads").desc("Number of threads used by NewAnce (default value: nr of available processors - 2)").build());
+        cmdLineOpts.addOption(Option.builder("hFmt").required(false).hasArg().longOpt("histogramFormat").desc("Format of written histogram files: text or binary (default value text)").build());
         cmdLineOpts.addOption(Option.builder("outT").required(false).hasArg().longOpt("outputTag").desc("Tag inserted into output file names after prefix.").build());
         cmdLineOpts.addOption(Option.builder("minXC").required(false).hasArg().longOpt("minXCorr").desc("Minimal Comet XCorr in histogram (default value 0)").build());
         cmdLineOpts.addOption(Option.builder("maxXC").required(false).hasArg().longOpt("maxXCorr").desc("Maximal Comet XCorr in histogram (default value 5)").build());
@@ -132,6 +133,7 @@ public class CometHistogramCalculator extends ExecutableOptions {
         params.add("maxSpScore", getOptionString(line, "maxSP"));
         params.add("nrSpScoreBins", getOptionString(line, "nrSPB"));
         params.add("nrThreads", getOptionString(line, "nrTh"));
+        params.add("histogramFormat", getOptionString(line, "hFmt"));
 
         params.finalize();
 
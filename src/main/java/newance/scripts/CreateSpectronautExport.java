@@ -16,6 +16,7 @@ import newance.mzjava.ms.spectrum.MsnSpectrum;
 import newance.mzjava.ms.spectrum.ScanNumberList;
 import newance.util.ExecutableOptions;
 import newance.util.NewAnceParams;
+import newance.util.TsvReader;
 import org.apache.commons.cli.*;
 import org.apache.commons.io.FilenameUtils;
 
@@ -237,55 +238,42 @@ public class CreateSpectronautExport extends ExecutableOptions {
 
         psmLines = new HashMap<>();
 
-        try {
-            // load the driver into memory
-            Class.forName("org.relique.jdbc.csv.CsvDriver");
-
-            Properties props = new Properties();
-            props.put("fileExtension", "." + FilenameUtils.getExtension(file.getName()));
-            // create a connection. The first command line parameter is assumed to
-            //  be the directory in which the .csv files are held
-            Connection conn = DriverManager.getConnection("jdbc:relique:csv:" + file.getParent() + "?separator=" + URLEncoder.encode("\t", "UTF-8"), props);
-
-            // create a Statement object to execute the query with
-            Statement stmt = conn.createStatement();
-
-            // Select the ID and NAME columns from sample.csv
-            ResultSet results = stmt.executeQuery("SELECT * FROM " + FilenameUtils.removeExtension(file.getName()));
+        try (TsvReader reader = new TsvReader(file)) {
 
-
-            for (String feature : psmFeatures) {
-                if (results.findColumn(feature)==0) {
-                    System.out.println("ERROR: feature "+feature+" is not a valid msms.txt column name. This feature is ignored.");
+            int[] featureCols = new int[psmFeatures.size()];
+            for (int i = 0; i < featureCols.length; i++) {
+                featureCols[i] = reader.getColumnIndex(psmFeatures.get(i));
+                if (featureCols[i] < 0) {
+                    System.out.println("ERROR: feature "+psmFeatures.get(i)+" is not a valid msms.txt column name. This feature is ignored.");
                 }
             }
 
-            while (results.next()) {
+            int chargeCol = reader.getRequiredColumnIndex("Charge");
+            int scanNumberCol = reader.getRequiredColumnIndex("Scan number");
+            int rawFileCol = reader.getRequiredColumnIndex("Raw file");
+
+            while (reader.next()) {
 
-                int charge = results.getInt("Charge");
-                int scanNumber = results.getInt("Scan number");
-                String rawFile = results.getString("Raw file");
+                int charge = reader.getInt(chargeCol);
+                int scanNumber = reader.getInt(scanNumberCol);
+                String rawFile = reader.getString(rawFileCol);
 
                 String specID = rawFile + "." + scanNumber + "." + scanNumber + "." + charge;
 
                 if (newAnceSpectra.contains(specID)) {
 
-                    String values = "";
-                    for (String feature : psmFeatures) {
-                        if (results.findColumn(feature) != 0)
-                            values += values.isEmpty()?results.getString(feature):"\t"+results.getString(feature);
-                        else
-                            values += "\tNA";
+                    StringBuilder values = new StringBuilder();
+                    for (int featureCol : featureCols) {
+                        if (featureCol >= 0) {
+                            if (values.length() > 0) values.append("\t");
+                            values.append(reader.getString(featureCol));
+                        } else
+                            values.append("\tNA");
                     }
-                    psmLines.put(specID,values);
+                    psmLines.put(specID,values.toString());
                 }
             }
-
-            // clean up
-            results.close();
-            stmt.close();
-            conn.close();
-        } catch (ClassNotFoundException | SQLException | UnsupportedEncodingException e) {
+        } catch (IOException e) {
             throw new IllegalStateException(e);
         }
     }
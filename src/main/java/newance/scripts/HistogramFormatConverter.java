@@ -0,0 +1,124 @@
+/*
+Copyright (C) SIB - Swiss Institute of Bioinformatics, Lausanne, Switzerland
+Copyright (C) LICR - Ludwig Institute of Cancer Research, Lausanne, Switzerland
+This program is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation, either version 2 of the License, or (at your option) any later version.
+This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+You should have received a copy of the GNU General Public License along with this program. If not, see https://www.gnu.org/licenses/.
+*/
+
+package newance.scripts;
+
+import newance.psmcombiner.ScoreHistogram3D;
+import newance.util.ExecutableOptions;
+import newance.util.NewAnceParams;
+import org.apache.commons.cli.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts histogram files (e.g. prior_histo_{id}.txt) from the text format to the binary format (.bin) or back. The
+ * input is a histogram file or a directory, in which all histogram files are converted. Files which are not histograms
+ * are skipped.
+ *
+ * @author Markus Müller
+ */
+
+public class HistogramFormatConverter extends ExecutableOptions {
+
+    protected String input;
+    protected String outputDir;
+    protected boolean toText;
+
+    public HistogramFormatConverter() {
+
+        version = NewAnceParams.getInstance().getVersion();
+        input = "";
+        outputDir = "";
+        toText = false;
+        createOptions();
+    }
+
+    public static void main(String[] args) {
+
+        HistogramFormatConverter converter =  new HistogramFormatConverter();
+        try {
+            converter.init(args).parseOptions(args).run();
+        } catch (MissingOptionException e) {
+        } catch (ParseException e) {
+            converter.printOptions(args, e.getMessage());
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    public int run() throws IOException {
+
+        String inExt = toText ? ".bin" : ".txt";
+        String outExt = toText ? ".txt" : ".bin";
+
+        File inputFile = new File(input);
+        List<File> files = new ArrayList<>();
+        if (inputFile.isDirectory()) {
+            File[] dirFiles = inputFile.listFiles();
+            if (dirFiles != null) {
+                for (File file : dirFiles) {
+                    if (file.isFile() && file.getName().endsWith(inExt)) files.add(file);
+                }
+            }
+        } else {
+            files.add(inputFile);
+        }
+
+        File outDir;
+        if (!outputDir.isEmpty()) outDir = new File(outputDir);
+        else if (inputFile.isDirectory()) outDir = inputFile;
+        else outDir = inputFile.getAbsoluteFile().getParentFile();
+        if (!outDir.exists()) outDir.mkdirs();
+
+        int cnt = 0;
+        for (File file : files) {
+
+            if (ScoreHistogram3D.isBinary(file) == toText) {
+
+                ScoreHistogram3D histogram = ScoreHistogram3D.read(file);
+                if (histogram == null) continue;
+
+                String name = file.getName();
+                if (name.endsWith(inExt)) name = name.substring(0, name.length()-inExt.length());
+
+                histogram.write(new File(outDir, name+outExt), !toText);
+                cnt++;
+            } else if (!inputFile.isDirectory()) {
+                System.out.println("File "+file+" is not a "+(toText ? "binary" : "text")+" histogram file.");
+            }
+        }
+
+        System.out.println("Converted "+cnt+" histogram files to "+outDir);
+
+        return 0;
+    }
+
+    protected void createOptions() {
+
+        this.cmdLineOpts = new Options();
+
+        cmdLineOpts.addOption(Option.builder("i").required().hasArg().longOpt("input").desc("Histogram file or directory with histogram files (required)").build());
+        cmdLineOpts.addOption(Option.builder("outD").required(false).hasArg().longOpt("outputDir").desc("Output directory (default value: directory of input)").build());
+        cmdLineOpts.addOption(Option.builder("toT").required(false).hasArg(false).longOpt("toText").desc("Convert binary histograms to text format. If not set, text histograms are converted to binary format.").build());
+        cmdLineOpts.addOption(Option.builder("h").required(false).hasArg(false).longOpt("help").desc("Help option for command line help").build());
+        cmdLineOpts.addOption(Option.builder("v").required(false).hasArg(false).longOpt("version").desc("Version of NewAnce software").build());
+    }
+
+    @Override
+    protected void check(CommandLine line) throws ParseException {
+
+        input = getOptionString(line, "i");
+        outputDir = getOptionString(line, "outD");
+        toText = line.hasOption("toT");
+    }
+}
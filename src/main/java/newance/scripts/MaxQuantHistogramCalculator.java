@@ -80,6 +80,7 @@ public class MaxQuantHistogramCalculator extends ExecutableOptions {
         cmdLineOpts.addOption(Option.builder("minL").required(false).hasArg().longOpt("minLength").desc("Minimal length of peptide (default value: 8)").build());
         cmdLineOpts.addOption(Option.builder("maxL").required(false).hasArg().longOpt("maxLength").desc("Maximal length of peptide (default value: 25)").build());
         cmdLineOpts.addOption(Option.builder("nrTh").required(false).hasArg().longOpt("nrThreads").desc("Number of threads used by NewAnce (default value: nr of available processors - 2)").build());
+        cmdLineOpts.addOption(Option.builder("hFmt").required(false).hasArg().longOpt("histogramFormat").desc("Format of written histogram files: text or binary (default value text)").build());
         cmdLineOpts.addOption(Option.builder("outT").required(false).hasArg().longOpt("outputTag").desc("Tag inserted into output file names after prefix.").build());
         cmdLineOpts.addOption(Option.builder("minScore").required(false).hasArg().longOpt("minScore").desc("Minimal MaxQuant Score in histogram (default value 0)").build());
         cmdLineOpts.addOption(Option.builder("maxScore").required(false).hasArg().longOpt("maxScore").desc("Maximal MaxQuant Score in histogram (default value 5)").build());
@@ -126,6 +127,7 @@ public class MaxQuantHistogramCalculator extends ExecutableOptions {
         params.add("maxPEP", getOptionString(line, "maxPEP"));
         params.add("nrPEPBins", getOptionString(line, "nrPEPB"));
         params.add("nrThreads", getOptionString(line, "nrTh"));
+        params.add("histogramFormat", getOptionString(line, "hFmt"));
 
         params.finalize();
     }
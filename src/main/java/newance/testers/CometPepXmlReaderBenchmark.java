@@ -0,0 +1,127 @@
+/*
+Copyright (C) SIB - Swiss Institute of Bioinformatics, Lausanne, Switzerland
+Copyright (C) LICR - Ludwig Institute of Cancer Research, Lausanne, Switzerland
+This program is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation, either version 2 of the License, or (at your option) any later version.
+This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+You should have received a copy of the GNU General Public License along with this program. If not, see https://www.gnu.org/licenses/.
+*/
+
+package newance.testers;
+
+import newance.mzjava.mol.modification.AbsoluteTolerance;
+import newance.mzjava.mol.modification.ModListModMatchResolver;
+import newance.psmconverter.*;
+import newance.util.ExecutableOptions;
+import newance.util.NewAnceParams;
+import newance.util.PsmPredicate;
+import org.apache.commons.cli.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses a pep.xml file with the JAXB and the StAX reader and reports the number of PSMs read per second.
+ *
+ * @author Markus Müller
+ */
+
+public class CometPepXmlReaderBenchmark extends ExecutableOptions {
+
+    protected NewAnceParams params;
+    protected File pepXmlFile;
+    protected int nrRepeats;
+
+    public CometPepXmlReaderBenchmark() {
+
+        nrRepeats = 3;
+        createOptions();
+    }
+
+    public static void main(String[] args) {
+
+        CometPepXmlReaderBenchmark benchmark =  new CometPepXmlReaderBenchmark();
+        try {
+            benchmark.init(args).parseOptions(args).run();
+        } catch (MissingOptionException e) {
+        } catch (ParseException e) {
+            benchmark.printOptions(args, e.getMessage());
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    public CometPepXmlReaderBenchmark init() throws IOException {
+
+        return this;
+    }
+
+    public int run() throws IOException {
+
+        ModListModMatchResolver modMatchResolver =
+                new ModListModMatchResolver(new AbsoluteTolerance(params.getModifMatchMassTol()), params.getModifications());
+
+        // warm up both parsers before timing
+        runParser("jaxb", new CometPEFFPepXmlReader(null, true, modMatchResolver), 1);
+        runParser("stax", new CometPepXmlStaxReader(null, true, modMatchResolver), 1);
+
+        runParser("jaxb", new CometPEFFPepXmlReader(null, true, modMatchResolver), nrRepeats);
+        runParser("stax", new CometPepXmlStaxReader(null, true, modMatchResolver), nrRepeats);
+
+        return 0;
+    }
+
+    protected void runParser(String name, CometPEFFPepXmlReader reader, int repeats) {
+
+        long nrPsms = 0;
+        long start = System.nanoTime();
+
+        try {
+            for (int i = 0; i < repeats; i++) {
+
+                Map<String, List<PeptideSpectrumMatch>> psmMap = new HashMap<>();
+                PeptideSpectrumMatchList psmList = new PeptideSpectrumMatchList(new SpectrumKeyFunctionImpl(), new PsmPredicate(params), psmMap);
+
+                reader.parse(pepXmlFile, psmList);
+
+                for (List<PeptideSpectrumMatch> psms : psmMap.values()) nrPsms += psms.size();
+            }
+        } catch (IllegalStateException | LinkageError e) {
+
+            System.out.println(name + ": parser not available (" + e + ")");
+            return;
+        }
+
+        double seconds = (System.nanoTime() - start) / 1.0e9;
+        System.out.println(String.format("%s: %d PSMs in %.3f s, %.0f PSMs/s", name, nrPsms, seconds, nrPsms / seconds));
+    }
+
+    protected void createOptions() {
+
+        this.cmdLineOpts = new Options();
+
+        cmdLineOpts.addOption(Option.builder("pepXml").required().hasArg().longOpt("pepXmlFile").desc("Comet pep.xml file (required)").build());
+        cmdLineOpts.addOption(Option.builder("rep").required(false).hasArg().longOpt("repeats").desc("Number of timed parsing runs per parser (default value: 3)").build());
+        cmdLineOpts.addOption(Option.builder("mod").required(false).hasArg().longOpt("modifications").desc("Comma separated list of peptide modifications used in search (e.g. Cysteinyl:C3H5NO2S,Oxidation:O)").build());
+        cmdLineOpts.addOption(Option.builder("h").required(false).hasArg(false).longOpt("help").desc("Help option for command line help").build());
+        cmdLineOpts.addOption(Option.builder("v").required(false).hasArg(false).longOpt("version").desc("Version of NewAnce software").build());
+    }
+
+    @Override
+    protected void check(CommandLine line) throws ParseException {
+
+        this.params = NewAnceParams.getInstance();
+
+        pepXmlFile = new File(NewAnceParams.getFileValue("pepXmlFile", getOptionString(line, "pepXml")));
+
+        String repStr = getOptionString(line, "rep");
+        if (!repStr.isEmpty()) nrRepeats = Integer.parseInt(repStr);
+
+        params.add("modifications", getOptionString(line, "mod"));
+        params.finalize();
+    }
+}
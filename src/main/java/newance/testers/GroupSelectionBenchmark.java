@@ -0,0 +1,163 @@
+/*
+Copyright (C) SIB - Swiss Institute of Bioinformatics, Lausanne, Switzerland
+Copyright (C) LICR - Ludwig Institute of Cancer Research, Lausanne, Switzerland
+This program is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation, either version 2 of the License, or (at your option) any later version.
+This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+You should have received a copy of the GNU General Public License along with this program. If not, see https://www.gnu.org/licenses/.
+*/
+
+package newance.testers;
+
+import newance.mzjava.mol.Peptide;
+import newance.psmconverter.PeptideSpectrumMatch;
+import newance.psmconverter.PsmStore;
+import newance.psmconverter.ScoreSchema;
+import newance.util.ExecutableOptions;
+import newance.util.PsmGrouper;
+import org.apache.commons.cli.*;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Selects the PSMs of a synthetic dataset with 1, 10, 100 and 1000 groups. The selection with one PsmStore.select()
+ * call per group, which scans all PSMs for each group, is compared with the single pass of PsmStore.selectGroups().
+ *
+ * @author Markus Müller
+ */
+
+public class GroupSelectionBenchmark extends ExecutableOptions {
+
+    protected int nrPsms;
+    protected int maxNrGroups;
+
+    public GroupSelectionBenchmark() {
+
+        nrPsms = 2000000;
+        maxNrGroups = 1000;
+        createOptions();
+    }
+
+    public static void main(String[] args) {
+
+        GroupSelectionBenchmark benchmark =  new GroupSelectionBenchmark();
+        try {
+            benchmark.init(args).parseOptions(args).run();
+        } catch (MissingOptionException e) {
+        } catch (ParseException e) {
+            benchmark.printOptions(args, e.getMessage());
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    public GroupSelectionBenchmark init() throws IOException {
+
+        return this;
+    }
+
+    public int run() throws IOException {
+
+        Random random = new Random(17);
+        Peptide[] peptides = new Peptide[1000];
+        String aas = "ACDEFGHIKLMNPQRSTVWY";
+        for (int i = 0; i < peptides.length; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int j = 0, k = i; j < 9; j++, k /= 20) sb.append(aas.charAt(k % 20));
+            peptides[i] = Peptide.parse(sb.toString());
+        }
+
+        ConcurrentHashMap<String, List<PeptideSpectrumMatch>> psmMap = new ConcurrentHashMap<>();
+        for (int i = 0; i < nrPsms; i++) {
+
+            double[] scores = ScoreSchema.newScores();
+            scores[ScoreSchema.XCORR] = random.nextDouble() * 5;
+            PeptideSpectrumMatch psm = new PeptideSpectrumMatch("file", peptides[random.nextInt(peptides.length)],
+                    new ArrayList<>(Collections.singletonList("P1")), scores, 2, 1, 10.0f, i, 1000.0, false, false);
+            psmMap.put("spec" + i, new ArrayList<>(Collections.singletonList(psm)));
+        }
+
+        for (int nrGroups = 1; nrGroups <= maxNrGroups; nrGroups *= 10) {
+
+            ModuloGrouper psmGrouper = new ModuloGrouper(nrGroups);
+            PsmStore psmStore = new PsmStore(psmMap, psmGrouper);
+            float[] localFDRs = new float[psmStore.size()];
+            for (int i = 0; i < localFDRs.length; i++) localFDRs[i] = random.nextFloat();
+            psmStore.setLocalFDRs(localFDRs);
+
+            Map<String, Float> grpThresholdMap = new HashMap<>();
+            for (String group : psmGrouper.getGroups()) grpThresholdMap.put(group, 0.1f);
+
+            for (int r = 0; r < 2; r++) {  // the first round warms up
+
+                long start = System.nanoTime();
+                long nrSelected = 0;
+                for (String group : grpThresholdMap.keySet()) nrSelected += psmStore.select(group, 0.1f).cardinality();
+                report(nrGroups, "select per group", start, nrSelected);
+
+                start = System.nanoTime();
+                PsmStore.GroupSelection selections = psmStore.selectGroups(grpThresholdMap);
+                nrSelected = 0;
+                for (String group : grpThresholdMap.keySet()) nrSelected += selections.get(group).cardinality();
+                report(nrGroups, "selectGroups", start, nrSelected);
+            }
+        }
+
+        return 0;
+    }
+
+    private void report(int nrGroups, String name, long start, long nrSelected) {
+
+        double seconds = (System.nanoTime() - start) / 1.0e9;
+        System.out.println(String.format("%d groups, %s: %.3f s, %.0f PSMs/s (%d selected)", nrGroups, name, seconds, nrPsms / seconds, nrSelected));
+    }
+
+    protected void createOptions() {
+
+        this.cmdLineOpts = new Options();
+
+        cmdLineOpts.addOption(Option.builder("n").required(false).hasArg().longOpt("nrPsms").desc("Number of PSMs (default value: 2000000)").build());
+        cmdLineOpts.addOption(Option.builder("g").required(false).hasArg().longOpt("maxNrGroups").desc("Maximal number of groups (default value: 1000)").build());
+        cmdLineOpts.addOption(Option.builder("h").required(false).hasArg(false).longOpt("help").desc("Help option for command line help").build());
+        cmdLineOpts.addOption(Option.builder("v").required(false).hasArg(false).longOpt("version").desc("Version of NewAnce software").build());
+    }
+
+    @Override
+    protected void check(CommandLine line) throws ParseException {
+
+        String str = getOptionString(line, "n");
+        if (!str.isEmpty()) nrPsms = Integer.parseInt(str);
+
+        str = getOptionString(line, "g");
+        if (!str.isEmpty()) maxNrGroups = Integer.parseInt(str);
+    }
+
+    private static class ModuloGrouper extends PsmGrouper {
+
+        private final int nrGroups;
+
+        private ModuloGrouper(int nrGroups) {
+            this.nrGroups = nrGroups;
+        }
+
+        @Override
+        public String apply(String specID, PeptideSpectrumMatch psm) {
+            return "G" + (psm.getScanNr() % nrGroups);
+        }
+
+        @Override
+        public String getMasterGroup() {
+            return "G0";
+        }
+
+        @Override
+        public Set<String> getGroups() {
+            Set<String> groups = new HashSet<>();
+            for (int g = 0; g < nrGroups; g++) groups.add("G" + g);
+            return groups;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+Copyright (C) SIB - Swiss Institute of Bioinformatics, Lausanne, Switzerland
+Copyright (C) LICR - Ludwig Institute of Cancer Research, Lausanne, Switzerland
+This program is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation, either version 2 of the License, or (at your option) any later version.
+This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+You should have received a copy of the GNU General Public License along with this program. If not, see https://www.gnu.org/licenses/.
+*/
+
+package newance.testers;
+
+import newance.mzjava.mol.Peptide;
+import newance.psmconverter.PeptideSpectrumMatch;
+import newance.psmconverter.ScoreSchema;
+import newance.util.ExecutableOptions;
+import org.apache.commons.cli.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the heap used by the protein accessions, spectrum file names and groups of a synthetic PSM dataset. The
+ * former representation, where each PSM holds its own strings parsed from the input, is compared with the symbol
+ * table ids stored by PeptideSpectrumMatch. Finally the heap of complete PeptideSpectrumMatch objects is reported.
+ * Run with a large heap (e.g. -Xmx16g) for the default of 10M PSMs.
+ *
+ * @author Markus Müller
+ */
+
+public class PsmHeapBenchmark extends ExecutableOptions {
+
+    protected int nrPsms;
+    protected int nrProteins;
+    protected int nrFiles;
+    protected int nrPeptides;
+
+    public PsmHeapBenchmark() {
+
+        nrPsms = 10000000;
+        nrProteins = 5000;
+        nrFiles = 200;
+        nrPeptides = 100000;
+        createOptions();
+    }
+
+    public static void main(String[] args) {
+
+        PsmHeapBenchmark benchmark =  new PsmHeapBenchmark();
+        try {
+            benchmark.init(args).parseOptions(args).run();
+        } catch (MissingOptionException e) {
+        } catch (ParseException e) {
+            benchmark.printOptions(args, e.getMessage());
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    public PsmHeapBenchmark init() throws IOException {
+
+        return this;
+    }
+
+    public int run() throws IOException {
+
+        String[] proteins = new String[nrProteins];
+        for (int i = 0; i < nrProteins; i++) proteins[i] = String.format("sp|P%05d|PROT%d_HUMAN", i, i);
+        String[] files = new String[nrFiles];
+        for (int i = 0; i < nrFiles; i++) files[i] = String.format("20180101_HLA_sample%03d_run%d", i, i % 3);
+        String[] groups = {"prot", "noncanonical", "modif"};
+
+        long base = usedHeap();
+        Object[] legacy = new Object[nrPsms];
+        Random random = new Random(17);
+        for (int i = 0; i < nrPsms; i++) {
+            // new String() simulates the copies created by the parsers
+            List<String> proteinIDs = new ArrayList<>();
+            int nrProts = 1 + random.nextInt(3);
+            for (int j = 0; j < nrProts; j++) proteinIDs.add(new String(proteins[random.nextInt(nrProteins)]));
+            legacy[i] = new LegacyFields(proteinIDs, new String(files[random.nextInt(nrFiles)]), groups[random.nextInt(groups.length)]);
+        }
+        long legacyHeap = usedHeap() - base;
+        report("strings per PSM", legacyHeap);
+        // keeps the array reachable until the heap is measured
+        System.out.println(legacy.length + " PSMs");
+        legacy = null;
+
+        base = usedHeap();
+        Object[] dictionary = new Object[nrPsms];
+        random = new Random(17);
+        for (int i = 0; i < nrPsms; i++) {
+            int nrProts = 1 + random.nextInt(3);
+            int[] proteinIds = new int[nrProts];
+            for (int j = 0; j < nrProts; j++) proteinIds[j] = PeptideSpectrumMatch.PROTEIN_ACS.getId(proteins[random.nextInt(nrProteins)]);
+            dictionary[i] = new DictionaryFields(proteinIds, random.nextInt(nrFiles), PeptideSpectrumMatch.GROUPS.getId(groups[random.nextInt(groups.length)]));
+        }
+        long dictionaryHeap = usedHeap() - base;
+        report("symbol table ids", dictionaryHeap);
+        System.out.println(dictionary.length + " PSMs");
+        System.out.println(String.format("ratio: %.2f", legacyHeap / (double) dictionaryHeap));
+        dictionary = null;
+
+        String aas = "ACDEFGHIKLMNPQRSTVWY";
+        Peptide[] peptides = new Peptide[nrPeptides];
+        for (int i = 0; i < nrPeptides; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int j = 0, k = i; j < 9; j++, k /= 20) sb.append(aas.charAt(k % 20));
+            peptides[i] = Peptide.parse(sb.toString());
+        }
+
+        base = usedHeap();
+        PeptideSpectrumMatch[] psms = new PeptideSpectrumMatch[nrPsms];
+        random = new Random(17);
+        for (int i = 0; i < nrPsms; i++) {
+
+            List<String> proteinIDs = new ArrayList<>();
+            int nrProts = 1 + random.nextInt(3);
+            for (int j = 0; j < nrProts; j++) proteinIDs.add(new String(proteins[random.nextInt(nrProteins)]));
+
+            double[] scores = ScoreSchema.newScores();
+            scores[ScoreSchema.XCORR] = random.nextDouble() * 5;
+            scores[ScoreSchema.DELTACN] = random.nextDouble();
+            scores[ScoreSchema.SPSCORE] = random.nextDouble() * 1000;
+
+            psms[i] = new PeptideSpectrumMatch(new String(files[random.nextInt(nrFiles)]), peptides[random.nextInt(nrPeptides)],
+                    proteinIDs, scores, 2 + random.nextInt(3), 1, 10.0f, i, 1000.0, false, false);
+            psms[i].setGroup(groups[random.nextInt(groups.length)]);
+        }
+        report("PeptideSpectrumMatch", usedHeap() - base);
+        System.out.println(psms.length + " PSMs, " + PeptideSpectrumMatch.PROTEIN_ACS.size() + " proteins");
+
+        return 0;
+    }
+
+    private void report(String name, long bytes) {
+
+        System.out.println(String.format("%s: %.1f MB, %.1f bytes/PSM", name, bytes / 1048576.0, bytes / (double) nrPsms));
+    }
+
+    private static long usedHeap() {
+
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    protected void createOptions() {
+
+        this.cmdLineOpts = new Options();
+
+        cmdLineOpts.addOption(Option.builder("n").required(false).hasArg().longOpt("nrPsms").desc("Number of PSMs (default value: 10000000)").build());
+        cmdLineOpts.addOption(Option.builder("p").required(false).hasArg().longOpt("nrProteins").desc("Number of protein accessions (default value: 5000)").build());
+        cmdLineOpts.addOption(Option.builder("f").required(false).hasArg().longOpt("nrFiles").desc("Number of spectrum files (default value: 200)").build());
+        cmdLineOpts.addOption(Option.builder("h").required(false).hasArg(false).longOpt("help").desc("Help option for command line help").build());
+        cmdLineOpts.addOption(Option.builder("v").required(false).hasArg(false).longOpt("version").desc("Version of NewAnce software").build());
+    }
+
+    @Override
+    protected void check(CommandLine line) throws ParseException {
+
+        String str = getOptionString(line, "n");
+        if (!str.isEmpty()) nrPsms = Integer.parseInt(str);
+
+        str = getOptionString(line, "p");
+        if (!str.isEmpty()) nrProteins = Integer.parseInt(str);
+
+        str = getOptionString(line, "f");
+        if (!str.isEmpty()) nrFiles = Integer.parseInt(str);
+    }
+
+    private static class LegacyFields {
+
+        private final List<String> proteinIDs;
+        private final String firstProteinAC;
+        private final String spectrumFile;
+        private final String group;
+
+        private LegacyFields(List<String> proteinIDs, String spectrumFile, String group) {
+            this.proteinIDs = proteinIDs;
+            this.firstProteinAC = proteinIDs.get(0);
+            this.spectrumFile = spectrumFile;
+            this.group = group;
+        }
+    }
+
+    private static class DictionaryFields {
+
+        private final int[] proteinIds;
+        private final int firstProteinId;
+        private final int spectrumFileId;
+        private final int groupId;
+
+        private DictionaryFields(int[] proteinIds, int spectrumFileId, int groupId) {
+            this.proteinIds = proteinIds;
+            this.firstProteinId = proteinIds[0];
+            this.spectrumFileId = spectrumFileId;
+            this.groupId = groupId;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+Copyright (C) SIB - Swiss Institute of Bioinformatics, Lausanne, Switzerland
+Copyright (C) LICR - Ludwig Institute of Cancer Research, Lausanne, Switzerland
+This program is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation, either version 2 of the License, or (at your option) any later version.
+This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+You should have received a copy of the GNU General Public License along with this program. If not, see https://www.gnu.org/licenses/.
+*/
+
+package newance.testers;
+
+import newance.psmconverter.SpectrumInfo;
+import newance.psmconverter.SpectrumKeyFunctionImpl;
+import newance.util.ExecutableOptions;
+import newance.util.SpectrumKeyFunction;
+import org.apache.commons.cli.*;
+
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the spectrum keys of SpectrumKeyFunctionImpl with the former regular expression implementation and
+ * reports the number of keys built per second by both.
+ *
+ * @author Markus Müller
+ */
+
+public class SpectrumKeyFunctionBenchmark extends ExecutableOptions {
+
+    protected int nrSpectra;
+    protected int nrFiles;
+    protected int nrRepeats;
+
+    public SpectrumKeyFunctionBenchmark() {
+
+        nrSpectra = 1000000;
+        nrFiles = 10;
+        nrRepeats = 5;
+        createOptions();
+    }
+
+    public static void main(String[] args) {
+
+        SpectrumKeyFunctionBenchmark benchmark =  new SpectrumKeyFunctionBenchmark();
+        try {
+            benchmark.init(args).parseOptions(args).run();
+        } catch (MissingOptionException e) {
+        } catch (ParseException e) {
+            benchmark.printOptions(args, e.getMessage());
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    public SpectrumKeyFunctionBenchmark init() throws IOException {
+
+        return this;
+    }
+
+    public int run() throws IOException {
+
+        // consecutive spectra come from the same file, as in a pep.xml file
+        SpectrumInfo[] spectrumInfos = new SpectrumInfo[nrSpectra];
+        int spectraPerFile = Math.max(1, nrSpectra / nrFiles);
+        for (int i = 0; i < nrSpectra; i++) {
+            int scanNr = i % spectraPerFile + 1;
+            String spectrum = String.format("20180101_HLA_run%d.%05d.%05d.%d", i / spectraPerFile, scanNr, scanNr, 2 + i % 3);
+            spectrumInfos[i] = new SpectrumInfo(spectrum);
+        }
+
+        SpectrumKeyFunction regExFunction = new RegExSpectrumKeyFunction();
+        SpectrumKeyFunction keyFunction = new SpectrumKeyFunctionImpl();
+
+        for (SpectrumInfo spectrumInfo : spectrumInfos) {
+            if (!regExFunction.apply(spectrumInfo).equals(keyFunction.apply(spectrumInfo)))
+                throw new IllegalStateException("Keys differ for spectrum " + spectrumInfo.getSpectrum());
+        }
+        System.out.println("Keys of " + nrSpectra + " spectra are identical.");
+
+        // warm up
+        runKeyFunction("regex", regExFunction, spectrumInfos, 1);
+        runKeyFunction("scan", keyFunction, spectrumInfos, 1);
+
+        runKeyFunction("regex", regExFunction, spectrumInfos, nrRepeats);
+        runKeyFunction("scan", keyFunction, spectrumInfos, nrRepeats);
+
+        return 0;
+    }
+
+    protected void runKeyFunction(String name, SpectrumKeyFunction keyFunction, SpectrumInfo[] spectrumInfos, int repeats) {
+
+        long totLength = 0;
+        long start = System.nanoTime();
+
+        for (int i = 0; i < repeats; i++) {
+            for (SpectrumInfo spectrumInfo : spectrumInfos) totLength += keyFunction.apply(spectrumInfo).length();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1.0e9;
+        long nrKeys = (long) repeats * spectrumInfos.length;
+        System.out.println(String.format("%s: %d keys in %.3f s, %.0f keys/s (checksum %d)", name, nrKeys, seconds, nrKeys / seconds, totLength));
+    }
+
+    protected void createOptions() {
+
+        this.cmdLineOpts = new Options();
+
+        cmdLineOpts.addOption(Option.builder("n").required(false).hasArg().longOpt("nrSpectra").desc("Number of spectrum ids (default value: 1000000)").build());
+        cmdLineOpts.addOption(Option.builder("f").required(false).hasArg().longOpt("nrFiles").desc("Number of spectrum files (default value: 10)").build());
+        cmdLineOpts.addOption(Option.builder("rep").required(false).hasArg().longOpt("repeats").desc("Number of timed runs per key function (default value: 5)").build());
+        cmdLineOpts.addOption(Option.builder("h").required(false).hasArg(false).longOpt("help").desc("Help option for command line help").build());
+        cmdLineOpts.addOption(Option.builder("v").required(false).hasArg(false).longOpt("version").desc("Version of NewAnce software").build());
+    }
+
+    @Override
+    protected void check(CommandLine line) throws ParseException {
+
+        String str = getOptionString(line, "n");
+        if (!str.isEmpty()) nrSpectra = Integer.parseInt(str);
+
+        str = getOptionString(line, "f");
+        if (!str.isEmpty()) nrFiles = Integer.parseInt(str);
+
+        str = getOptionString(line, "rep");
+        if (!str.isEmpty()) nrRepeats = Integer.parseInt(str);
+    }
+
+    /**
+     * Former SpectrumKeyFunctionImpl based on a regular expression
+     */
+    private static class RegExSpectrumKeyFunction implements SpectrumKeyFunction {
+
+        private static final long serialVersionUID = 1L;
+
+        private Pattern regEx = Pattern.compile("\\.[0]+");
+
+        @Override
+        public String apply(SpectrumInfo spectrumInfo) {
+
+            String comment = spectrumInfo.getSpectrum();
+
+            int firstSpace = comment.indexOf(' ');
+
+            if (firstSpace>=1) comment = comment.substring(0,firstSpace);
+
+            comment = regEx.matcher(comment).replaceAll(".");
+
+            return comment;
+        }
+    }
+}
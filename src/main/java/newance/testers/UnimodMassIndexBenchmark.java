@@ -0,0 +1,229 @@
+/*
+Copyright (C) SIB - Swiss Institute of Bioinformatics, Lausanne, Switzerland
+Copyright (C) LICR - Ludwig Institute of Cancer Research, Lausanne, Switzerland
+This program is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation, either version 2 of the License, or (at your option) any later version.
+This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+You should have received a copy of the GNU General Public License along with this program. If not, see https://www.gnu.org/licenses/.
+*/
+
+package newance.testers;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import newance.mzjava.mol.Atom;
+import newance.mzjava.mol.PeriodicTable;
+import newance.mzjava.mol.Weighable;
+import newance.mzjava.mol.modification.AbsoluteTolerance;
+import newance.mzjava.mol.modification.Modification;
+import newance.mzjava.mol.modification.Tolerance;
+import newance.mzjava.mol.modification.unimod.UnimodManager;
+import newance.mzjava.mol.modification.unimod.UnimodMassIndex;
+import newance.mzjava.mol.modification.unimod.UnimodMod;
+import newance.util.ExecutableOptions;
+import org.apache.commons.cli.*;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Runs random mass queries with and without amino acid specificity against the Unimod modifications. The
+ * UnimodMassIndex is compared with the former lookup of UnimodManager, which searched the mass sorted modification list
+ * by binary search and filtered the mass matches by their sites. With the -syn option synthetic modifications are used
+ * instead of unimod.xml.
+ *
+ * @author Markus Müller
+ */
+
+public class UnimodMassIndexBenchmark extends ExecutableOptions {
+
+    private static final String[] SITES = {"A", "C", "D", "E", "F", "G", "H", "I", "K", "L", "M", "N", "P", "Q", "R",
+            "S", "T", "V", "W", "Y", "N-term", "C-term"};
+
+    protected int nrQueries;
+    protected int nrSyntheticMods;
+    protected double massTol;
+
+    public UnimodMassIndexBenchmark() {
+
+        nrQueries = 1000000;
+        nrSyntheticMods = 0;
+        massTol = 0.02;
+        createOptions();
+    }
+
+    public static void main(String[] args) {
+
+        UnimodMassIndexBenchmark benchmark =  new UnimodMassIndexBenchmark();
+        try {
+            benchmark.init(args).parseOptions(args).run();
+        } catch (MissingOptionException e) {
+        } catch (ParseException e) {
+            benchmark.printOptions(args, e.getMessage());
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    public UnimodMassIndexBenchmark init() throws IOException {
+
+        return this;
+    }
+
+    public int run() throws IOException {
+
+        Random random = new Random(17);
+        List<UnimodMod> mods = (nrSyntheticMods > 0) ? makeSyntheticMods(random) : UnimodManager.getInstance().getModificationList();
+        UnimodMassIndex index = new UnimodMassIndex(mods);
+        List<UnimodMod> sortedMods = new ArrayList<>(mods);
+        sortedMods.sort(Comparator.comparingDouble(UnimodMod::getMolecularMass));
+        System.out.println(index.size() + " modifications");
+
+        double[] masses = new double[nrQueries];
+        List<Set<String>> sites = new ArrayList<>(nrQueries);
+        for (int i = 0; i < nrQueries; i++) {
+            // half of the queries hit a modification
+            masses[i] = (i % 2 == 0) ? mods.get(random.nextInt(mods.size())).getMolecularMass() + (random.nextDouble() - 0.5) * massTol
+                    : random.nextDouble() * 500 - 100;
+            sites.add(Collections.singleton(SITES[random.nextInt(SITES.length)]));
+        }
+        Tolerance tolerance = new AbsoluteTolerance(massTol);
+
+        for (int r = 0; r < 2; r++) {  // the first round warms up
+
+            long start = System.nanoTime();
+            long nrMatches = 0;
+            for (int i = 0; i < nrQueries; i++) nrMatches += binarySearch(sortedMods, masses[i], tolerance).size();
+            report("binary search", start, nrMatches);
+
+            start = System.nanoTime();
+            nrMatches = 0;
+            for (int i = 0; i < nrQueries; i++) nrMatches += index.getModifications(masses[i], tolerance).size();
+            report("index", start, nrMatches);
+
+            start = System.nanoTime();
+            nrMatches = 0;
+            for (int i = 0; i < nrQueries; i++) nrMatches += binarySearch(sortedMods, masses[i], tolerance, sites.get(i)).size();
+            report("binary search with site", start, nrMatches);
+
+            start = System.nanoTime();
+            nrMatches = 0;
+            for (int i = 0; i < nrQueries; i++) nrMatches += index.getModifications(masses[i], tolerance, sites.get(i)).size();
+            report("index with site", start, nrMatches);
+        }
+
+        return 0;
+    }
+
+    /**
+     * Former UnimodManager.doGetModifications(): binary search of the lower mass limit, then a walk up to the upper limit
+     */
+    private static List<Modification> binarySearch(List<UnimodMod> sortedMods, final double mass, final Tolerance tolerance) {
+
+        List<Modification> modifications = new ArrayList<>();
+
+        Weighable key = new Weighable(){
+            @Override
+            public double getMolecularMass() {
+
+                return tolerance.getMin(mass);
+            }
+        };
+
+        int index = Collections.binarySearch(sortedMods, key, new Comparator<Weighable>() {
+            @Override
+            public int compare(Weighable o1, Weighable o2) {
+
+                return Double.compare(o1.getMolecularMass(), o2.getMolecularMass());
+            }
+        });
+
+        if (index < 0) index = -1 * (index + 1);
+
+        for(; index < sortedMods.size(); index++) {
+
+            Modification mod = sortedMods.get(index);
+
+            Tolerance.Location location = tolerance.check(mass, mod.getMolecularMass());
+            if(location == Tolerance.Location.WITHIN) {
+                modifications.add(mod);
+            }
+            else if(location == Tolerance.Location.LARGER) break;
+            else throw new IllegalStateException("Have bug in code");
+        }
+
+        return modifications;
+    }
+
+    /**
+     * Former UnimodManager.getModifications(mass, tolerance, aminoAcids): the mass matches filtered by their sites
+     */
+    private static List<Modification> binarySearch(List<UnimodMod> sortedMods, double mass, Tolerance tolerance, Set<String> aminoAcids) {
+
+        List<Modification> matchedModifs = new ArrayList<>();
+        for (Modification modif : binarySearch(sortedMods, mass, tolerance)) {
+            UnimodMod uniMod = (UnimodMod) modif;
+
+            for (String aa : aminoAcids) {
+                if (uniMod.getSites().contains(aa)) {
+                    matchedModifs.add(modif);
+                    break;
+                }
+            }
+        }
+
+        return matchedModifs;
+    }
+
+    private void report(String name, long start, long nrMatches) {
+
+        double seconds = (System.nanoTime() - start) / 1.0e9;
+        System.out.println(String.format("%s: %d queries in %.3f s, %.0f queries/s (%d matches)", name, nrQueries, seconds, nrQueries / seconds, nrMatches));
+    }
+
+    private List<UnimodMod> makeSyntheticMods(Random random) {
+
+        List<UnimodMod> mods = new ArrayList<>();
+        for (int i = 0; i < nrSyntheticMods; i++) {
+
+            TObjectIntMap<Atom> atomCountMap = new TObjectIntHashMap<>();
+            atomCountMap.put(PeriodicTable.C, random.nextInt(20));
+            atomCountMap.put(PeriodicTable.H, random.nextInt(30));
+            atomCountMap.put(PeriodicTable.O, random.nextInt(8));
+            atomCountMap.put(PeriodicTable.N, random.nextInt(4));
+
+            List<String> sites = new ArrayList<>();
+            for (int j = 0, n = 1 + random.nextInt(4); j < n; j++) sites.add(SITES[random.nextInt(SITES.length)]);
+
+            mods.add(new UnimodMod.Builder().setRecordId(i).setPsiMsName("mod" + i).setInterimName("mod" + i)
+                    .setFullName("mod" + i).setComposition(atomCountMap).setSites(sites).build());
+        }
+
+        return mods;
+    }
+
+    protected void createOptions() {
+
+        this.cmdLineOpts = new Options();
+
+        cmdLineOpts.addOption(Option.builder("n").required(false).hasArg().longOpt("nrQueries").desc("Number of mass queries (default value: 1000000)").build());
+        cmdLineOpts.addOption(Option.builder("syn").required(false).hasArg().longOpt("syntheticMods").desc("Number of synthetic modifications used instead of unimod.xml (default value: 0)").build());
+        cmdLineOpts.addOption(Option.builder("tol").required(false).hasArg().longOpt("massTolerance").desc("Absolute mass tolerance in Da (default value: 0.02)").build());
+        cmdLineOpts.addOption(Option.builder("h").required(false).hasArg(false).longOpt("help").desc("Help option for command line help").build());
+        cmdLineOpts.addOption(Option.builder("v").required(false).hasArg(false).longOpt("version").desc("Version of NewAnce software").build());
+    }
+
+    @Override
+    protected void check(CommandLine line) throws ParseException {
+
+        String str = getOptionString(line, "n");
+        if (!str.isEmpty()) nrQueries = Integer.parseInt(str);
+
+        str = getOptionString(line, "syn");
+        if (!str.isEmpty()) nrSyntheticMods = Integer.parseInt(str);
+
+        str = getOptionString(line, "tol");
+        if (!str.isEmpty()) massTol = Double.parseDouble(str);
+    }
+}
@@ -135,6 +135,31 @@ public class NewAnceParams implements Serializable {
     private double maxQuantMainScoreMinValue = 10f;
     private double cometMainScoreMinValue = 1f;
 
+    // Parser used for Comet pep.xml files: stax (streaming) or jaxb
+    private String cometPepXmlParser = "stax";
+
+    // Split large pep.xml files into chunks that are parsed in parallel (stax parser only)
+    private boolean parallelPepXmlParsing = false;
+
+    // Directory for binary caches of parsed PSM files. No caching if empty.
+    private String psmCacheDir = "";
+
+    // Write the lFDR threshold versus global FDR, target and decoy count curve of each histogram node
+    private boolean writeFDRCurves = false;
+
+    // Half width of the smoothing kernel: bins up to this distance along each score axis are averaged
+    private int smoothKernelWidth = 1;
+
+    // Estimator of the target and decoy densities for the lFDR: histogram (smoothed counts) or kde (Gaussian kernel
+    // density estimate on the histogram grid)
+    private String lFDREstimator = "histogram";
+
+    // Standard deviation of the Gaussian kernel in histogram bins (lFDREstimator=kde only)
+    private double kdeBandwidth = 1.0;
+
+    // Format of written histogram files: text (.txt) or binary (.bin). Prior histograms are read in both formats.
+    private String histogramFormat = "text";
+
     private final Map<String,String> variableValueMap;
 
     public static NewAnceParams getInstance() {
@@ -227,6 +252,14 @@ public class NewAnceParams implements Serializable {
         res +=  "writeParamsFile="+writeParamsFile+"\n";
         res +=  "spectrumNativeID="+spectrumNativeID+"\n";
 
+        res +=  "cometPepXmlParser="+cometPepXmlParser+"\n";
+        res +=  "parallelPepXmlParsing="+parallelPepXmlParsing+"\n";
+        res +=  "psmCacheDir="+psmCacheDir+"\n";
+        res +=  "writeFDRCurves="+writeFDRCurves+"\n";
+        res +=  "smoothKernelWidth="+smoothKernelWidth+"\n";
+        res +=  "lFDREstimator="+lFDREstimator+"\n";
+        res +=  "kdeBandwidth="+kdeBandwidth+"\n";
+        res +=  "histogramFormat="+histogramFormat+"\n";
         return res;
     }
 
@@ -599,6 +632,46 @@ public class NewAnceParams implements Serializable {
             spectrumNativeID = getBooleanValue("spectrumNativeID",variableValueMap.get("spectrumNativeID"));
         }
 
+        if (variableValueMap.containsKey("cometPepXmlParser")) {
+            cometPepXmlParser = getStringValue("cometPepXmlParser",
+                    variableValueMap.get("cometPepXmlParser").trim().toLowerCase(),
+                    new HashSet<>(Arrays.asList(new String[]{"stax","jaxb"})));
+        }
+
+        if (variableValueMap.containsKey("parallelPepXmlParsing")) {
+            parallelPepXmlParsing = getBooleanValue("parallelPepXmlParsing",variableValueMap.get("parallelPepXmlParsing"));
+        }
+
+        if (variableValueMap.containsKey("psmCacheDir")) {
+            psmCacheDir = getNewDirectoryValue("psmCacheDir",variableValueMap.get("psmCacheDir"));
+        }
+
+        if (variableValueMap.containsKey("writeFDRCurves")) {
+            writeFDRCurves = getBooleanValue("writeFDRCurves",variableValueMap.get("writeFDRCurves"));
+        }
+
+        if (variableValueMap.containsKey("smoothKernelWidth")) {
+            smoothKernelWidth = getIntegerValue("smoothKernelWidth",
+                    variableValueMap.get("smoothKernelWidth"), 1, 10);
+        }
+
+        if (variableValueMap.containsKey("lFDREstimator")) {
+            lFDREstimator = getStringValue("lFDREstimator",
+                    variableValueMap.get("lFDREstimator").trim().toLowerCase(),
+                    new HashSet<>(Arrays.asList(new String[]{"histogram","kde"})));
+        }
+
+        if (variableValueMap.containsKey("kdeBandwidth")) {
+            kdeBandwidth = getDoubleValue("kdeBandwidth",
+                    variableValueMap.get("kdeBandwidth"), 0.1, 20.0);
+        }
+
+        if (variableValueMap.containsKey("histogramFormat")) {
+            histogramFormat = getStringValue("histogramFormat",
+                    variableValueMap.get("histogramFormat").trim().toLowerCase(),
+                    new HashSet<>(Arrays.asList(new String[]{"text","binary"})));
+        }
+
         checkVariableValues();
     }
 
@@ -1204,4 +1277,36 @@ public class NewAnceParams implements Serializable {
     public boolean isSpectrumNativeID() {
         return spectrumNativeID;
     }
+
+    public String getCometPepXmlParser() {
+        return cometPepXmlParser;
+    }
+
+    public boolean isParallelPepXmlParsing() {
+        return parallelPepXmlParsing;
+    }
+
+    public String getPsmCacheDir() {
+        return psmCacheDir;
+    }
+
+    public boolean isWriteFDRCurves() {
+        return writeFDRCurves;
+    }
+
+    public int getSmoothKernelWidth() {
+        return smoothKernelWidth;
+    }
+
+    public String getlFDREstimator() {
+        return lFDREstimator;
+    }
+
+    public double getKdeBandwidth() {
+        return kdeBandwidth;
+    }
+
+    public String getHistogramFormat() {
+        return histogramFormat;
+    }
 }
@@ -10,13 +10,15 @@ You should have received a copy of the GNU General Public License along with thi
 
 package newance.util;
 
-import com.google.common.base.Preconditions;
-import gnu.trove.map.TObjectDoubleMap;
 import newance.psmconverter.PeptideMatchDataWrapper;
+import newance.psmconverter.ScoreSchema;
 
 import java.io.Serializable;
 
 /**
+ * Decides whether a search hit is kept. The precheck methods work on primitive values and are called by the readers
+ * before any object is created for a hit. check() tests the complete PeptideMatchDataWrapper.
+ *
  * @author Markus Müller
  */
 
@@ -30,29 +32,53 @@ public class PsmPredicate implements Serializable {
 
     public boolean check(PeptideMatchDataWrapper psm, int charge) {
 
-        TObjectDoubleMap<String> scoreMap = psm.getScoreMap();
-
-        if (psm.getSequence().equals("LSSSSQHGPSY")){
-            System.out.println(psm.toPeptide());
-        }
-        if (psm.getRank() > params.getMaxRank()) return false;
-
-        if (charge<params.getMinCharge()) return false;
-        if (charge>params.getMaxCharge()) return false;
-
-        if (scoreMap.containsKey("spscore") && scoreMap.get("spscore")<params.getMinSpScorePSM()) return false;
-        if (scoreMap.containsKey("xcorr") && scoreMap.get("xcorr")<params.getMinXCorrPSM()) return false;
-        if (scoreMap.containsKey("deltacn") && scoreMap.get("deltacn")<params.getMinDeltaCnPSM()) return false;
-        if (scoreMap.containsKey("Score") && scoreMap.get("Score")<params.getMinScorePSM()) return false;
-        if (scoreMap.containsKey("Delta score") && scoreMap.get("Delta score")<params.getMinDeltaScorePSM()) return false;
-        if (scoreMap.containsKey("PEP") && scoreMap.get("PEP")>params.getMinPEPPSM()) return false;
-
-        String peptide = psm.getSequence();
-        if (peptide.length() < params.getMinPeptideLength()) {
-            return false;
-        } else if (peptide.length() > params.getMaxPeptideLength()) {
-            return false;
-        }
+        if (!precheck(psm.getRank(), charge, psm.getSequence().length())) return false;
+
+        if (psm.hasScore(ScoreSchema.SPSCORE) && !checkScore(ScoreSchema.SPSCORE, psm.getScore(ScoreSchema.SPSCORE))) return false;
+        if (psm.hasScore(ScoreSchema.XCORR) && !checkScore(ScoreSchema.XCORR, psm.getScore(ScoreSchema.XCORR))) return false;
+        if (psm.hasScore(ScoreSchema.DELTACN) && !checkScore(ScoreSchema.DELTACN, psm.getScore(ScoreSchema.DELTACN))) return false;
+        if (psm.hasScore(ScoreSchema.SCORE) && !checkScore(ScoreSchema.SCORE, psm.getScore(ScoreSchema.SCORE))) return false;
+        if (psm.hasScore(ScoreSchema.DELTA_SCORE) && !checkScore(ScoreSchema.DELTA_SCORE, psm.getScore(ScoreSchema.DELTA_SCORE))) return false;
+        if (psm.hasScore(ScoreSchema.PEP) && !checkScore(ScoreSchema.PEP, psm.getScore(ScoreSchema.PEP))) return false;
+
+        return true;
+    }
+
+    /**
+     * @return false if a hit with this rank, precursor charge and peptide sequence length is rejected by check()
+     */
+    public boolean precheck(int rank, int charge, int peptideLength) {
+
+        return checkRank(rank) && checkCharge(charge) && checkLength(peptideLength);
+    }
+
+    public boolean checkRank(int rank) {
+
+        return rank <= params.getMaxRank();
+    }
+
+    public boolean checkCharge(int charge) {
+
+        return charge >= params.getMinCharge() && charge <= params.getMaxCharge();
+    }
+
+    public boolean checkLength(int peptideLength) {
+
+        return peptideLength >= params.getMinPeptideLength() && peptideLength <= params.getMaxPeptideLength();
+    }
+
+    /**
+     * @return false if a hit with this score in the ScoreSchema slot is rejected by check(). Slots without threshold
+     * are always accepted.
+     */
+    public boolean checkScore(int slot, double score) {
+
+        if (slot == ScoreSchema.SPSCORE) return !(score < params.getMinSpScorePSM());
+        if (slot == ScoreSchema.XCORR) return !(score < params.getMinXCorrPSM());
+        if (slot == ScoreSchema.DELTACN) return !(score < params.getMinDeltaCnPSM());
+        if (slot == ScoreSchema.SCORE) return !(score < params.getMinScorePSM());
+        if (slot == ScoreSchema.DELTA_SCORE) return !(score < params.getMinDeltaScorePSM());
+        if (slot == ScoreSchema.PEP) return !(score > params.getMinPEPPSM());
 
         return true;
     }
@@ -0,0 +1,76 @@
+/*
+Copyright (C) SIB - Swiss Institute of Bioinformatics, Lausanne, Switzerland
+Copyright (C) LICR - Ludwig Institute of Cancer Research, Lausanne, Switzerland
+This program is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation, either version 2 of the License, or (at your option) any later version.
+This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+You should have received a copy of the GNU General Public License along with this program. If not, see https://www.gnu.org/licenses/.
+*/
+
+package newance.util;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread safe dictionary that assigns consecutive int ids to strings. Objects that repeat the same strings many times
+ * (file names, protein accessions, ...) can store the id instead of their own copy of the string.
+ *
+ * @author Markus Müller
+ */
+public class SymbolTable {
+
+    private final ConcurrentHashMap<String, Integer> idMap;
+    private volatile String[] symbols;
+    private int size;
+
+    public SymbolTable() {
+
+        idMap = new ConcurrentHashMap<>();
+        symbols = new String[16];
+        size = 0;
+    }
+
+    /**
+     * @return the id of symbol. A new id is assigned if symbol is not yet in the table.
+     */
+    public int getId(String symbol) {
+
+        Integer id = idMap.get(symbol);
+        if (id != null) return id;
+
+        synchronized (this) {
+
+            id = idMap.get(symbol);
+            if (id != null) return id;
+
+            id = size;
+            if (size == symbols.length) symbols = Arrays.copyOf(symbols, 2 * size);
+            symbols[size++] = symbol;
+            idMap.put(symbol, id);
+
+            return id;
+        }
+    }
+
+    /**
+     * @return the id of symbol or -1 if symbol is not in the table
+     */
+    public int findId(String symbol) {
+
+        Integer id = idMap.get(symbol);
+
+        return (id == null) ? -1 : id;
+    }
+
+    public String getSymbol(int id) {
+
+        return symbols[id];
+    }
+
+    public int size() {
+
+        return idMap.size();
+    }
+}
@@ -0,0 +1,359 @@
+/*
+Copyright (C) SIB - Swiss Institute of Bioinformatics, Lausanne, Switzerland
+Copyright (C) LICR - Ludwig Institute of Cancer Research, Lausanne, Switzerland
+This program is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation, either version 2 of the License, or (at your option) any later version.
+This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+You should have received a copy of the GNU General Public License along with this program. If not, see https://www.gnu.org/licenses/.
+*/
+
+package newance.util;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Streaming reader for tab separated files with a header line such as MaxQuant msms.txt or peptides.txt. Column
+ * indices are resolved once from the header with getColumnIndex(). Lines are read into a char buffer and only the
+ * field offsets are recorded, so numeric fields are parsed without creating Strings. Fields are not unquoted.
+ *
+ * @author Markus Müller
+ */
+public class TsvReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1.0;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10.0;
+    }
+
+    private final Reader reader;
+    private final char separator;
+    private final List<String> columnNames;
+    private final Map<String, Integer> columnIndexMap;
+
+    private char[] buffer;
+    private int bufferPos;
+    private int bufferLength;
+    private boolean eof;
+
+    private int[] fieldStarts;
+    private int[] fieldEnds;
+    private int nrFields;
+    private long lineNr;
+
+    public TsvReader(File file) throws IOException {
+
+        this(file, '\t');
+    }
+
+    public TsvReader(File file, char separator) throws IOException {
+
+        this(new InputStreamReader(Files.newInputStream(file.toPath()), StandardCharsets.UTF_8), separator);
+    }
+
+    public TsvReader(Reader reader, char separator) throws IOException {
+
+        this.reader = reader;
+        this.separator = separator;
+        this.buffer = new char[BUFFER_SIZE];
+        this.bufferPos = 0;
+        this.bufferLength = 0;
+        this.eof = false;
+        this.fieldStarts = new int[64];
+        this.fieldEnds = new int[64];
+        this.nrFields = 0;
+        this.lineNr = 0;
+
+        this.columnNames = new ArrayList<>();
+        this.columnIndexMap = new HashMap<>();
+
+        if (next()) {
+            for (int i = 0; i < nrFields; i++) {
+                String name = getString(i).trim();
+                columnNames.add(name);
+                columnIndexMap.putIfAbsent(name, i);
+            }
+        }
+        lineNr = 0;
+    }
+
+    /**
+     * @return the index of the column with this name (ignoring case if there is no exact match) or -1 if the
+     * column does not exist
+     */
+    public int getColumnIndex(String columnName) {
+
+        Integer index = columnIndexMap.get(columnName);
+        if (index != null) return index;
+
+        for (int i = 0; i < columnNames.size(); i++) {
+            if (columnNames.get(i).equalsIgnoreCase(columnName)) return i;
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return the index of the column with this name
+     * @throws IllegalStateException if the column does not exist
+     */
+    public int getRequiredColumnIndex(String columnName) {
+
+        int index = getColumnIndex(columnName);
+        if (index < 0) throw new IllegalStateException("Column '" + columnName + "' not found in header.");
+
+        return index;
+    }
+
+    public boolean hasColumn(String columnName) {
+
+        return getColumnIndex(columnName) >= 0;
+    }
+
+    public List<String> getColumnNames() {
+
+        return Collections.unmodifiableList(columnNames);
+    }
+
+    /**
+     * Advances to the next non empty line.
+     *
+     * @return false if the end of the file is reached
+     */
+    public boolean next() throws IOException {
+
+        while (true) {
+
+            int lineEnd = findLineEnd();
+            if (lineEnd < 0) {
+                nrFields = 0;
+                return false;
+            }
+
+            int lineStart = bufferPos;
+            bufferPos = lineEnd + 1;
+
+            int end = lineEnd;
+            if (end > lineStart && buffer[end - 1] == '\r') end--;
+            if (end == lineStart) continue;
+
+            tokenize(lineStart, end);
+            lineNr++;
+            return true;
+        }
+    }
+
+    /**
+     * @return the number of data lines read so far
+     */
+    public long getLineNr() {
+
+        return lineNr;
+    }
+
+    public int getNrFields() {
+
+        return nrFields;
+    }
+
+    /**
+     * @return the field as String or an empty String if the field is missing
+     */
+    public String getString(int column) {
+
+        if (column < 0 || column >= nrFields) return "";
+
+        return new String(buffer, fieldStarts[column], fieldEnds[column] - fieldStarts[column]);
+    }
+
+    /**
+     * @return true if the field is equal to value, without creating a String for the field
+     */
+    public boolean fieldEquals(int column, String value) {
+
+        if (column < 0 || column >= nrFields) return value.isEmpty();
+
+        int start = fieldStarts[column];
+        int length = fieldEnds[column] - start;
+        if (length != value.length()) return false;
+
+        for (int i = 0; i < length; i++) {
+            if (buffer[start + i] != value.charAt(i)) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the number of chars of the field or 0 if the field is missing
+     */
+    public int getFieldLength(int column) {
+
+        if (column < 0 || column >= nrFields) return 0;
+
+        return fieldEnds[column] - fieldStarts[column];
+    }
+
+    public boolean isEmpty(int column) {
+
+        return column < 0 || column >= nrFields || fieldEnds[column] == fieldStarts[column];
+    }
+
+    /**
+     * @return the field as int or 0 if the field is empty
+     * @throws NumberFormatException if the field is not an int
+     */
+    public int getInt(int column) {
+
+        if (isEmpty(column)) return 0;
+
+        int start = fieldStarts[column];
+        int end = fieldEnds[column];
+
+        boolean negative = false;
+        int i = start;
+        if (buffer[i] == '-' || buffer[i] == '+') {
+            negative = buffer[i] == '-';
+            i++;
+        }
+
+        if (i == end || end - i > 9) return Integer.parseInt(getString(column).trim());
+
+        int value = 0;
+        for (; i < end; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) return Integer.parseInt(getString(column).trim());
+            value = 10 * value + digit;
+        }
+
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses plain decimal numbers with up to 15 significant digits directly from the buffer. Since mantissa and
+     * power of ten are both exact doubles in this case, the single division gives the same result as
+     * Double.parseDouble. All other formats (exponents, NaN, long mantissas) are passed to Double.parseDouble.
+     *
+     * @return the field as double or 0 if the field is empty
+     * @throws NumberFormatException if the field is not a number
+     */
+    public double getDouble(int column) {
+
+        if (isEmpty(column)) return 0.0;
+
+        int start = fieldStarts[column];
+        int end = fieldEnds[column];
+
+        boolean negative = false;
+        int i = start;
+        if (buffer[i] == '-' || buffer[i] == '+') {
+            negative = buffer[i] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int nrDigits = 0;
+        int nrFractionDigits = 0;
+        boolean hasDigits = false;
+        boolean inFraction = false;
+        for (; i < end; i++) {
+
+            char c = buffer[i];
+            if (c >= '0' && c <= '9') {
+                hasDigits = true;
+                if (mantissa > 0 || c != '0') nrDigits++;
+                if (nrDigits > 15) return Double.parseDouble(getString(column));
+                mantissa = 10 * mantissa + (c - '0');
+                if (inFraction) nrFractionDigits++;
+            } else if (c == '.' && !inFraction) {
+                inFraction = true;
+            } else {
+                return Double.parseDouble(getString(column));
+            }
+        }
+
+        if (!hasDigits || nrFractionDigits >= POWERS_OF_TEN.length) return Double.parseDouble(getString(column));
+
+        double value = mantissa / POWERS_OF_TEN[nrFractionDigits];
+
+        return negative ? -value : value;
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        reader.close();
+    }
+
+    private int findLineEnd() throws IOException {
+
+        int scanPos = bufferPos;
+        while (true) {
+
+            for (int i = scanPos; i < bufferLength; i++) {
+                if (buffer[i] == '\n') return i;
+            }
+
+            if (eof) {
+                if (bufferPos < bufferLength) {
+                    // last line without newline
+                    ensureCapacity(bufferLength + 1);
+                    buffer[bufferLength] = '\n';
+                    return bufferLength++;
+                }
+                return -1;
+            }
+
+            scanPos = bufferLength - bufferPos;
+            fill();
+        }
+    }
+
+    private void fill() throws IOException {
+
+        int remaining = bufferLength - bufferPos;
+        if (bufferPos > 0) {
+            System.arraycopy(buffer, bufferPos, buffer, 0, remaining);
+            bufferPos = 0;
+            bufferLength = remaining;
+        }
+
+        if (bufferLength == buffer.length) ensureCapacity(2 * buffer.length);
+
+        int nrRead = reader.read(buffer, bufferLength, buffer.length - bufferLength);
+        if (nrRead < 0) eof = true;
+        else bufferLength += nrRead;
+    }
+
+    private void ensureCapacity(int capacity) {
+
+        if (capacity > buffer.length) buffer = Arrays.copyOf(buffer, Math.max(capacity, 2 * buffer.length));
+    }
+
+    private void tokenize(int start, int end) {
+
+        nrFields = 0;
+        int fieldStart = start;
+        for (int i = start; i <= end; i++) {
+
+            if (i == end || buffer[i] == separator) {
+
+                if (nrFields == fieldStarts.length) {
+                    fieldStarts = Arrays.copyOf(fieldStarts, 2 * nrFields);
+                    fieldEnds = Arrays.copyOf(fieldEnds, 2 * nrFields);
+                }
+
+                fieldStarts[nrFields] = fieldStart;
+                fieldEnds[nrFields] = i;
+                nrFields++;
+                fieldStart = i + 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+Copyright (C) SIB - Swiss Institute of Bioinformatics, Lausanne, Switzerland
+Copyright (C) LICR - Ludwig Institute of Cancer Research, Lausanne, Switzerland
+This program is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation, either version 2 of the License, or (at your option) any later version.
+This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+You should have received a copy of the GNU General Public License along with this program. If not, see https://www.gnu.org/licenses/.
+*/
+
+package newance.mzjava.mol.modification.unimod;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import newance.mzjava.mol.Atom;
+import newance.mzjava.mol.PeriodicTable;
+import newance.mzjava.mol.modification.AbsoluteTolerance;
+import newance.mzjava.mol.modification.Modification;
+import newance.mzjava.mol.modification.Tolerance;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+
+/**
+ * @author Markus Müller
+ */
+public class UnimodMassIndexTest {
+
+    private static final String[] SITES = {"M", "W", "S", "T", "Y", "K", "N-term", "C-term"};
+
+    @Test
+    public void testGetModifications() {
+
+        UnimodMod oxidation = newMod(1, "Oxidation", 0, 0, 1, 0, "M", "W");
+        UnimodMod phospho = newMod(2, "Phospho", 0, 1, 3, 1, "S", "T", "Y");
+        UnimodMod methyl = newMod(3, "Methyl", 1, 2, 0, 0, "K", "N-term");
+
+        UnimodMassIndex index = new UnimodMassIndex(Arrays.asList(phospho, methyl, oxidation));
+        Tolerance tolerance = new AbsoluteTolerance(0.01);
+
+        Assert.assertEquals(3, index.size());
+        Assert.assertEquals(Collections.<Modification>singletonList(oxidation), index.getModifications(15.995, tolerance));
+        Assert.assertTrue(index.getModifications(20.0, tolerance).isEmpty());
+        Assert.assertEquals(Arrays.<Modification>asList(methyl, oxidation, phospho), index.getModifications(40.0, new AbsoluteTolerance(50.0)));
+
+        Assert.assertEquals(Collections.<Modification>singletonList(phospho), index.getModifications(79.966, tolerance, new HashSet<>(Arrays.asList("S", "T"))));
+        Assert.assertTrue(index.getModifications(79.966, tolerance, Collections.singleton("M")).isEmpty());
+        Assert.assertTrue(index.getModifications(79.966, tolerance, Collections.singleton("X")).isEmpty());
+    }
+
+    @Test
+    public void testRandomQueries() {
+
+        Random random = new Random(17);
+        List<UnimodMod> mods = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            String[] sites = new String[1 + random.nextInt(3)];
+            for (int j = 0; j < sites.length; j++) sites[j] = SITES[random.nextInt(SITES.length)];
+            mods.add(newMod(i, "mod" + i, random.nextInt(20), random.nextInt(30), random.nextInt(8), random.nextInt(2), sites));
+        }
+
+        UnimodMassIndex index = new UnimodMassIndex(mods);
+
+        List<UnimodMod> sorted = new ArrayList<>(mods);
+        Collections.sort(sorted, new Comparator<Modification>() {
+            @Override
+            public int compare(Modification o1, Modification o2) {
+                return Double.compare(o1.getMolecularMass(), o2.getMolecularMass());
+            }
+        });
+
+        for (int i = 0; i < 2000; i++) {
+
+            double mass = random.nextDouble() * 400;
+            Tolerance tolerance = new AbsoluteTolerance(random.nextDouble() * 2);
+            Set<String> sites = new HashSet<>(Arrays.asList(SITES[random.nextInt(SITES.length)], SITES[random.nextInt(SITES.length)]));
+
+            List<Modification> expected = new ArrayList<>();
+            List<Modification> expectedSites = new ArrayList<>();
+            for (UnimodMod mod : sorted) {
+                if (!tolerance.withinTolerance(mass, mod.getMolecularMass())) continue;
+
+                expected.add(mod);
+                if (!Collections.disjoint(mod.getSites(), sites)) expectedSites.add(mod);
+            }
+
+            Assert.assertEquals(expected, index.getModifications(mass, tolerance));
+            Assert.assertEquals(expectedSites, index.getModifications(mass, tolerance, sites));
+        }
+    }
+
+    private static UnimodMod newMod(int id, String name, int c, int h, int o, int p, String... sites) {
+
+        TObjectIntMap<Atom> atomCountMap = new TObjectIntHashMap<>();
+        if (c > 0) atomCountMap.put(PeriodicTable.C, c);
+        if (h > 0) atomCountMap.put(PeriodicTable.H, h);
+        if (o > 0) atomCountMap.put(PeriodicTable.O, o);
+        if (p > 0) atomCountMap.put(PeriodicTable.P, p);
+
+        return new UnimodMod.Builder().setRecordId(id).setPsiMsName(name).setInterimName(name).setFullName(name)
+                .setComposition(atomCountMap).setSites(Arrays.asList(sites)).build();
+    }
+}
@@ -12,6 +12,7 @@ import org.junit.Test;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.stream.IntStream;
 
 /**
  * Created by markusmueller on 14.05.20.
@@ -167,6 +168,56 @@ public class AddVariantIDs2PsmTest {
     }
 
 
+    @Test
+    public void test_acceptConcurrent() {
+
+        String[] fastaLines = fastaStr.split("\n");
+
+        VariantProtDB variantProtDB = new VariantProtDB(fastaLines);
+
+        AddVariantIDs2Psm addVariantIDs2Psm = new AddVariantIDs2Psm(variantProtDB);
+
+        // both peptides are matched against the same VariantProtein instance
+        String[] sequences = new String[]{"QSEDGSHTIQIMY", "QSEDGSHTLQIMY"};
+        List<List<String>> expectedVariants = new ArrayList<>();
+        List<Integer> expectedStarts = new ArrayList<>();
+        for (String sequence : sequences) {
+            PeptideSpectrumMatch psm = newVariantPsm(sequence);
+            addVariantIDs2Psm.add(psm);
+            expectedVariants.add(getVariantInfos(psm));
+            expectedStarts.add(psm.getPeptideStart());
+        }
+
+        List<PeptideSpectrumMatch> psms = new ArrayList<>();
+        for (int i=0;i<20000;i++) psms.add(newVariantPsm(sequences[i%2]));
+
+        IntStream.range(0, psms.size()).parallel().forEach(i -> addVariantIDs2Psm.add(psms.get(i)));
+
+        for (int i=0;i<psms.size();i++) {
+            Assert.assertEquals(expectedVariants.get(i%2), getVariantInfos(psms.get(i)));
+            Assert.assertEquals(expectedStarts.get(i%2).intValue(), psms.get(i).getPeptideStart());
+        }
+    }
+
+    private static PeptideSpectrumMatch newVariantPsm(String sequence) {
+
+        List<String> proteins = new ArrayList<>();
+        proteins.add("ENSP00000379873.1");
+
+        return new PeptideSpectrumMatch("Spectrum_file", Peptide.parse(sequence), proteins,
+                new TObjectDoubleHashMap<>(), 2, 1, 100, 100, 1507.661308,
+                false, true);
+    }
+
+    private static List<String> getVariantInfos(PeptideSpectrumMatch psm) {
+
+        List<String> infos = new ArrayList<>();
+        for (SequenceVariant variant : psm.getVariants()) infos.add(variant.getInfo());
+
+        return infos;
+    }
+
+
     @Test
     public void test_accept3() {
 
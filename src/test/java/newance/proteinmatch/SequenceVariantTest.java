@@ -103,42 +103,28 @@ public class SequenceVariantTest {
         String mutation = "(141|A|rs75062661_0)";
         SequenceVariant sequenceVariant = SequenceVariant.parseSimpleVariantString("ENSP00000334393.3", 305, mutation);
 
-        Assert.assertTrue(sequenceVariant.match("ACDCACDC", 4));
-        Assert.assertEquals(5, sequenceVariant.getPosAfterVariant());
-        Assert.assertTrue(sequenceVariant.match("ACDCACDC", 0));
-        Assert.assertEquals(1, sequenceVariant.getPosAfterVariant());
-        Assert.assertFalse(sequenceVariant.match("ACDCCDC", 4));
-        Assert.assertEquals(-1, sequenceVariant.getPosAfterVariant());
+        Assert.assertEquals(5, sequenceVariant.matchEnd("ACDCACDC", 4));
+        Assert.assertEquals(1, sequenceVariant.matchEnd("ACDCACDC", 0));
+        Assert.assertEquals(-1, sequenceVariant.matchEnd("ACDCCDC", 4));
 
         mutation = "(117|119|GL|rs10578519_3)";
         sequenceVariant = SequenceVariant.parseComplexVariantString("ENSP00000483131.1", 387, mutation);
 
-        Assert.assertTrue(sequenceVariant.match("ACDCGLACDC", 4));
-        Assert.assertEquals(6, sequenceVariant.getPosAfterVariant());
-        Assert.assertTrue(sequenceVariant.match("LACDC", 0));
-        Assert.assertEquals(1, sequenceVariant.getPosAfterVariant());
-        Assert.assertFalse(sequenceVariant.match("ACDCGCDC", 4));
-        Assert.assertEquals(-1, sequenceVariant.getPosAfterVariant());
-        Assert.assertFalse(sequenceVariant.match("ACDCLCDC", 4));
-        Assert.assertEquals(-1, sequenceVariant.getPosAfterVariant());
+        Assert.assertEquals(6, sequenceVariant.matchEnd("ACDCGLACDC", 4));
+        Assert.assertEquals(1, sequenceVariant.matchEnd("LACDC", 0));
+        Assert.assertEquals(-1, sequenceVariant.matchEnd("ACDCGCDC", 4));
+        Assert.assertEquals(-1, sequenceVariant.matchEnd("ACDCLCDC", 4));
 
         mutation = "(342|342|QWHLSMRTPTAWAGGSRMRWPSATPRLPTRQRP*|rs10709483_0)";
         sequenceVariant = SequenceVariant.parseComplexVariantString("ENSP00000483125.1", 694, mutation);
 
-        Assert.assertTrue(sequenceVariant.match("QWHLSMRTPTAWAGGSRMRWPSATPRLPTRQRP", 0));
-        Assert.assertEquals(33, sequenceVariant.getPosAfterVariant());
-        Assert.assertTrue(sequenceVariant.match("QWHLSMRTPTAWAGGSRMRWPSATPRL", 0));
-        Assert.assertEquals(27, sequenceVariant.getPosAfterVariant());
-        Assert.assertTrue(sequenceVariant.match("SMRTPTAWAGGSRMRWPSAT", 0));
-        Assert.assertEquals(20, sequenceVariant.getPosAfterVariant());
-        Assert.assertTrue(sequenceVariant.match("ABCDQWHLSMRTPTAWAGGSRMRWPSAT", 4));
-        Assert.assertEquals(28, sequenceVariant.getPosAfterVariant());
-        Assert.assertFalse(sequenceVariant.match("ABCDQWHLSMRTPTAWAGGSRMRWPSAT", 2));
-        Assert.assertEquals(-1, sequenceVariant.getPosAfterVariant());
-        Assert.assertFalse(sequenceVariant.match("ABCDQWHLSMRTPTAWAGGSRMRWPSAT", 0));
-        Assert.assertEquals(-1, sequenceVariant.getPosAfterVariant());
-        Assert.assertFalse(sequenceVariant.match("QWHLSMRTPTAWAGGSRMRWPSATPRLPTRQRPABC", 0));
-        Assert.assertEquals(-1, sequenceVariant.getPosAfterVariant());
+        Assert.assertEquals(33, sequenceVariant.matchEnd("QWHLSMRTPTAWAGGSRMRWPSATPRLPTRQRP", 0));
+        Assert.assertEquals(27, sequenceVariant.matchEnd("QWHLSMRTPTAWAGGSRMRWPSATPRL", 0));
+        Assert.assertEquals(20, sequenceVariant.matchEnd("SMRTPTAWAGGSRMRWPSAT", 0));
+        Assert.assertEquals(28, sequenceVariant.matchEnd("ABCDQWHLSMRTPTAWAGGSRMRWPSAT", 4));
+        Assert.assertEquals(-1, sequenceVariant.matchEnd("ABCDQWHLSMRTPTAWAGGSRMRWPSAT", 2));
+        Assert.assertEquals(-1, sequenceVariant.matchEnd("ABCDQWHLSMRTPTAWAGGSRMRWPSAT", 0));
+        Assert.assertEquals(-1, sequenceVariant.matchEnd("QWHLSMRTPTAWAGGSRMRWPSATPRLPTRQRPABC", 0));
 
     }
 }
@@ -276,10 +276,11 @@ public class VariantProteinTest {
 
         VariantProtein variantProtein = (VariantProtein) variantProtDB.getProtein("ENST00000495449.1.38-256");
 
-        List<SequenceVariant> variants = variantProtein.matchWithVariant("VYIYFFLI");
+        VariantMatch match = variantProtein.matchVariant("VYIYFFLI");
+        List<SequenceVariant> variants = match.getVariants();
         Assert.assertEquals(1, variants.size());
         Assert.assertEquals("rs1079_1", variants.get(0).getInfo());
-        Assert.assertEquals("GIYIYVYIYIFLIPQMIP", variantProtein.getWTSequence(variantProtein.getPeptideStart(), "VYIYFFLI".length(), 5));
+        Assert.assertEquals("GIYIYVYIYIFLIPQMIP", variantProtein.getWTSequence(match.getPeptideStart(), "VYIYFFLI".length(), 5));
     }
 
     //AAASGRRGL: ENSP00000475352.2 STOP:163,163,GLAGRPRRGGRGARARP,rs78783575_0
@@ -328,11 +329,12 @@ public class VariantProteinTest {
 //                 -----------------------------------AAASGRRGL-----------------
 //                "RGGPVLARDDHERVMGRQPRASLRA\n";
 
-        List<SequenceVariant> variants = variantProtein.matchWithVariant("AAASGRRGL");
+        VariantMatch match = variantProtein.matchVariant("AAASGRRGL");
+        List<SequenceVariant> variants = match.getVariants();
         Assert.assertEquals(1, variants.size());
         Assert.assertEquals("rs78783575_0", variants.get(0).getInfo());
-        Assert.assertEquals("AAASGRRGW", variantProtein.getWTSequence(variantProtein.getPeptideStart(), "AAASGRRGL".length(), 0));
-        Assert.assertEquals("AAASGRRG", variantProtein.getWTSequence());
+        Assert.assertEquals("AAASGRRGW", variantProtein.getWTSequence(match.getPeptideStart(), "AAASGRRGL".length(), 0));
+        Assert.assertEquals("AAASGRRG", variantProtein.getWTSequence(match));
     }
 
 
@@ -14,12 +14,13 @@ import gnu.trove.map.TObjectDoubleMap;
 import gnu.trove.map.hash.TObjectDoubleHashMap;
 import newance.mzjava.mol.Peptide;
 import newance.psmconverter.PeptideSpectrumMatch;
+import newance.psmconverter.PsmStore;
 import newance.util.NewAnceParams;
 import org.junit.Assert;
 import org.junit.Test;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 /**
@@ -76,6 +77,148 @@ public class GroupedFDRCalculatorTest {
         }
     }
 
+    @Test
+    public void test_mergeShards() {
+
+        List<Pattern> regex = new ArrayList<>();
+        regex.add(Pattern.compile("^sp"));
+        List<String> groups = new ArrayList<>();
+        groups.add("canonical");
+        groups.add("cryptic");
+
+        ProteinModifGrouper psmGrouper = new ProteinModifGrouper(regex,groups);
+        GroupedFDRCalculator calculator = new GroupedFDRCalculator(psmGrouper, NewAnceParams.SearchTool.COMET);
+        GroupedFDRCalculator shardedCalculator = new GroupedFDRCalculator(psmGrouper, NewAnceParams.SearchTool.COMET);
+
+        Random random = new Random(17);
+        List<Map<String,List<PeptideSpectrumMatch>>> buffers = new ArrayList<>();
+        ConcurrentHashMap<String,List<PeptideSpectrumMatch>> allPsms = new ConcurrentHashMap<>();
+        for (int i = 0; i < 3; i++) {
+
+            Map<String,List<PeptideSpectrumMatch>> buffer = newRandomPsms(random, "run"+i, 1000);
+            allPsms.putAll(buffer);
+            buffers.add(buffer);
+        }
+
+        calculator.addAll(allPsms);
+
+        HistogramShard shard1 = shardedCalculator.newShard();
+        HistogramShard shard2 = shardedCalculator.newShard();
+        shard1.addAll(buffers.get(0));
+        shard2.addAll(buffers.get(1));
+        shard1.addAll(buffers.get(2));
+        shardedCalculator.merge(Arrays.asList(shard1, shard2));
+
+        for (String label : calculator.histogramMap.keySet()) {
+
+            ScoreHistogram expected = calculator.histogramMap.get(label).getScoreHistogram();
+            ScoreHistogram merged = shardedCalculator.histogramMap.get(label).getScoreHistogram();
+
+            Assert.assertEquals(label, expected.getTotTargetCnt(), merged.getTotTargetCnt(), 0.0);
+            Assert.assertEquals(label, expected.getTotDecoyCnt(), merged.getTotDecoyCnt(), 0.0);
+            Assert.assertEquals(label, expected.getPsmBins().size(), merged.getPsmBins().size());
+
+            for (int bin : expected.getPsmBins().toArray()) {
+                int idx = expected.getIndexMap().get(bin);
+                int mergedIdx = merged.getIndexMap().get(bin);
+                Assert.assertEquals(expected.getTargetCnts().get(idx), merged.getTargetCnts().get(mergedIdx), 0.0);
+                Assert.assertEquals(expected.getDecoyCnts().get(idx), merged.getDecoyCnts().get(mergedIdx), 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void test_makePsmStore() {
+
+        List<Pattern> regex = new ArrayList<>();
+        regex.add(Pattern.compile("^sp"));
+        List<String> groups = new ArrayList<>();
+        groups.add("canonical");
+        groups.add("cryptic");
+
+        ProteinModifGrouper psmGrouper = new ProteinModifGrouper(regex,groups);
+        GroupedFDRCalculator calculator = new GroupedFDRCalculator(psmGrouper, NewAnceParams.SearchTool.COMET);
+
+        ConcurrentHashMap<String,List<PeptideSpectrumMatch>> psms = new ConcurrentHashMap<>(newRandomPsms(new Random(17), "run", 3000));
+        calculator.addAll(psms);
+        calculator.setCanCalculateFDR(1);
+        calculator.calcClassProbs();
+        calculator.calcLocalFDR();
+
+        PsmStore psmStore = calculator.makePsmStore(psms);
+
+        Assert.assertEquals(3000, psmStore.size());
+        for (int i = 0; i < psmStore.size(); i++) {
+            Assert.assertEquals(calculator.getLocalFDR(psmStore.getPsm(i)), psmStore.getLocalFDR(i), 0f);
+        }
+    }
+
+    @Test
+    public void test_localFDRsOfMergedPsms() {
+
+        List<Pattern> regex = new ArrayList<>();
+        regex.add(Pattern.compile("^sp"));
+        List<String> groups = new ArrayList<>();
+        groups.add("canonical");
+        groups.add("cryptic");
+
+        ProteinModifGrouper psmGrouper = new ProteinModifGrouper(regex,groups);
+        GroupedFDRCalculator cometCalculator = new GroupedFDRCalculator(psmGrouper, NewAnceParams.SearchTool.COMET);
+        GroupedFDRCalculator maxQuantCalculator = new GroupedFDRCalculator(psmGrouper, NewAnceParams.SearchTool.MAXQUANT);
+
+        // same seed: the Comet and MaxQuant PSMs of a spectrum have the same charge, protein and peptide
+        ConcurrentHashMap<String,List<PeptideSpectrumMatch>> cometPsms =
+                new ConcurrentHashMap<>(newRandomPsms(new Random(17), "run", 3000, NewAnceParams.SearchTool.COMET));
+        ConcurrentHashMap<String,List<PeptideSpectrumMatch>> maxQuantPsms =
+                new ConcurrentHashMap<>(newRandomPsms(new Random(17), "run", 3000, NewAnceParams.SearchTool.MAXQUANT));
+
+        // draw the MaxQuant scores independently of the Comet scores, so that the two calculators differ
+        NewAnceParams params = NewAnceParams.getInstance();
+        Random random = new Random(23);
+        for (List<PeptideSpectrumMatch> specPsms : maxQuantPsms.values()) {
+
+            TObjectDoubleMap<String> scoreMap = new TObjectDoubleHashMap<>();
+            scoreMap.put("Score", params.getMinScore()+random.nextDouble()*(params.getMaxScore()-params.getMinScore()));
+            specPsms.get(0).addScores(scoreMap);
+        }
+
+        for (GroupedFDRCalculator calculator : Arrays.asList(cometCalculator, maxQuantCalculator)) {
+            calculator.addAll((calculator == cometCalculator) ? cometPsms : maxQuantPsms);
+            calculator.setCanCalculateFDR(1);
+            calculator.calcClassProbs();
+            calculator.calcLocalFDR();
+        }
+
+        PsmStore cometStore = cometCalculator.makePsmStore(cometPsms);
+        PsmStore maxQuantStore = maxQuantCalculator.makePsmStore(maxQuantPsms);
+
+        Map<String,Float> cometlFDRs = new HashMap<>();
+        for (int i = 0; i < cometStore.size(); i++) cometlFDRs.put(cometStore.getSpectrumId(i), cometStore.getLocalFDR(i));
+        Map<String,Float> maxQuantlFDRs = new HashMap<>();
+        for (int i = 0; i < maxQuantStore.size(); i++) maxQuantlFDRs.put(maxQuantStore.getSpectrumId(i), maxQuantStore.getLocalFDR(i));
+
+        ConcurrentHashMap<String,List<PeptideSpectrumMatch>> combinedPsms = new ConcurrentHashMap<>();
+        cometPsms.forEach(1000, new CometMaxQuantPsmMerger(maxQuantPsms, combinedPsms));
+
+        Assert.assertEquals(3000, combinedPsms.size());
+
+        int nrDifferent = 0;
+        for (Map.Entry<String,List<PeptideSpectrumMatch>> entry : combinedPsms.entrySet()) {
+
+            // the merged PSM is the Comet PSM with the MaxQuant scores added
+            PeptideSpectrumMatch mergedPsm = entry.getValue().get(0);
+            float cometlFDR = cometlFDRs.get(entry.getKey());
+            float maxQuantlFDR = maxQuantlFDRs.get(entry.getKey());
+
+            Assert.assertEquals(cometlFDR, cometCalculator.getLocalFDR(mergedPsm), 0f);
+            Assert.assertEquals(maxQuantlFDR, maxQuantCalculator.getLocalFDR(mergedPsm), 0f);
+
+            if (cometlFDR != maxQuantlFDR) nrDifferent++;
+        }
+
+        Assert.assertTrue(nrDifferent > 0);
+    }
+
     @Test
     public void test_add2() {
 
@@ -312,6 +455,43 @@ public class GroupedFDRCalculatorTest {
     }
 
 
+    private static Map<String,List<PeptideSpectrumMatch>> newRandomPsms(Random random, String run, int nrSpectra) {
+
+        return newRandomPsms(random, run, nrSpectra, NewAnceParams.SearchTool.COMET);
+    }
+
+    private static Map<String,List<PeptideSpectrumMatch>> newRandomPsms(Random random, String run, int nrSpectra,
+                                                                        NewAnceParams.SearchTool searchTool) {
+
+        NewAnceParams params = NewAnceParams.getInstance();
+        Map<String,List<PeptideSpectrumMatch>> psms = new HashMap<>();
+        for (int j = 0; j < nrSpectra; j++) {
+
+            TObjectDoubleMap<String> scoreMap = new TObjectDoubleHashMap<>();
+            if (searchTool == NewAnceParams.SearchTool.COMET) {
+                scoreMap.put("xcorr", params.getMinXCorr()+random.nextDouble()*(params.getMaxXCorr()-params.getMinXCorr()));
+                scoreMap.put("deltacn", params.getMinDeltaCn()+random.nextDouble()*(params.getMaxDeltaCn()-params.getMinDeltaCn()));
+                scoreMap.put("spscore", params.getMinSpScore()+random.nextDouble()*(params.getMaxSpScore()-params.getMinSpScore()));
+            } else {
+                scoreMap.put("Score", params.getMinScore()+random.nextDouble()*(params.getMaxScore()-params.getMinScore()));
+                scoreMap.put("Delta score", params.getMinDeltaScore()+random.nextDouble()*(params.getMaxDeltaScore()-params.getMinDeltaScore()));
+                scoreMap.put("PEP", params.getMinPEP()+random.nextDouble()*(params.getMaxPEP()-params.getMinPEP()));
+            }
+
+            List<String> prots = new ArrayList<>();
+            prots.add(random.nextBoolean()?"sp|protein1":"protein2");
+
+            int charge = params.getMinCharge()+random.nextInt(params.getMaxCharge()-params.getMinCharge()+1);
+            String specID = run+"."+j+"."+j+"."+charge;
+            PeptideSpectrumMatch psm = new PeptideSpectrumMatch(run, Peptide.parse("PEPTIDE"), prots, scoreMap, charge, 1,
+                    100, j, 1001.1, random.nextInt(3)==0, false, null);
+
+            psms.put(specID, new ArrayList<>(Collections.singletonList(psm)));
+        }
+
+        return psms;
+    }
+
     public static void addPsms(int xcorrIdx, int deltacnIdx, int spscoreIdx, GroupedFDRCalculator groupedFDRCalculator, List<String> prots, int freq, boolean isDecoy)
     {
         NewAnceParams params = NewAnceParams.getInstance();
@@ -0,0 +1,120 @@
+/*
+Copyright (C) SIB - Swiss Institute of Bioinformatics, Lausanne, Switzerland
+Copyright (C) LICR - Ludwig Institute of Cancer Research, Lausanne, Switzerland
+This program is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation, either version 2 of the License, or (at your option) any later version.
+This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+You should have received a copy of the GNU General Public License along with this program. If not, see https://www.gnu.org/licenses/.
+*/
+
+package newance.psmcombiner;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * @author Markus Müller
+ */
+public class KernelDensityEstimatorTest {
+
+    @Test
+    public void test_fft() {
+
+        Random random = new Random(11);
+        double[] re = new double[16];
+        double[] im = new double[16];
+        for (int i = 0; i < re.length; i++) re[i] = random.nextDouble();
+        double[] orig = re.clone();
+
+        KernelDensityEstimator.fft(re, im, false);
+
+        double sum = 0;
+        for (double v : orig) sum += v;
+        Assert.assertEquals(sum, re[0], 0.000001);
+        Assert.assertEquals(0, im[0], 0.000001);
+
+        KernelDensityEstimator.fft(re, im, true);
+
+        Assert.assertArrayEquals(orig, re, 0.000001);
+        for (double v : im) Assert.assertEquals(0, v, 0.000001);
+    }
+
+    @Test
+    public void test_smooth() {
+
+        int[] nrBins = new int[]{7, 5, 6};
+        double bandwidth = 0.8;
+        KernelDensityEstimator kde = new KernelDensityEstimator(nrBins, bandwidth);
+        Assert.assertEquals(4, kde.getRadius());
+
+        Random random = new Random(13);
+        float[] grid = new float[7*5*6];
+        float total = 0;
+        for (int i = 0; i < 20; i++) {
+            int bin = random.nextInt(grid.length);
+            grid[bin] += 1+random.nextInt(5);
+        }
+        for (float v : grid) total += v;
+
+        float[] smoothed = kde.smooth(grid);
+
+        // direct convolution with the product kernel, normalized by the kernel weight inside the grid
+        int radius = kde.getRadius();
+        double norm = 0;
+        for (int d = -radius; d <= radius; d++) norm += Math.exp(-0.5*d*d/(bandwidth*bandwidth));
+
+        for (int bin = 0; bin < grid.length; bin++) {
+
+            int[] idx = {bin%7, (bin/7)%5, bin/35};
+            double sum = 0;
+            double weight = 1;
+            for (int a = 0; a < 3; a++) {
+                double w = 0;
+                for (int d = -radius; d <= radius; d++) {
+                    if (idx[a]+d >= 0 && idx[a]+d < nrBins[a]) w += Math.exp(-0.5*d*d/(bandwidth*bandwidth))/norm;
+                }
+                weight *= w;
+            }
+
+            for (int other = 0; other < grid.length; other++) {
+                if (grid[other] == 0) continue;
+                int[] oIdx = {other%7, (other/7)%5, other/35};
+                double k = 1;
+                for (int a = 0; a < 3; a++) {
+                    int d = oIdx[a]-idx[a];
+                    k *= (Math.abs(d) <= radius) ? Math.exp(-0.5*d*d/(bandwidth*bandwidth))/norm : 0;
+                }
+                sum += k*grid[other];
+            }
+
+            Assert.assertEquals(sum/weight, smoothed[bin], 0.0001);
+        }
+
+        // the border normalization preserves the total only approximately, the grid is smaller than the kernel
+        float smoothedTotal = 0;
+        for (float v : smoothed) smoothedTotal += v;
+        Assert.assertEquals(total, smoothedTotal, 0.2*total);
+    }
+
+    @Test
+    public void test_constant() {
+
+        KernelDensityEstimator kde = new KernelDensityEstimator(new int[]{40, 40, 40}, 2.5);
+
+        float[] grid = new float[40*40*40];
+        for (int i = 0; i < grid.length; i++) grid[i] = 3f;
+
+        float[] smoothed = kde.smooth(grid);
+
+        for (float v : smoothed) Assert.assertEquals(3f, v, 0.0001);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_wrongSize() {
+
+        new KernelDensityEstimator(new int[]{4, 4}, 1.0).smooth(new float[15]);
+    }
+}
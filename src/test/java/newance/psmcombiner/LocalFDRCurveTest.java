@@ -0,0 +1,123 @@
+/*
+Copyright (C) SIB - Swiss Institute of Bioinformatics, Lausanne, Switzerland
+Copyright (C) LICR - Ludwig Institute of Cancer Research, Lausanne, Switzerland
+This program is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation, either version 2 of the License, or (at your option) any later version.
+This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+You should have received a copy of the GNU General Public License along with this program. If not, see https://www.gnu.org/licenses/.
+*/
+
+package newance.psmcombiner;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author Markus Müller
+ */
+public class LocalFDRCurveTest {
+
+    @Test
+    public void test_counts() {
+
+        LocalFDRCurve curve = new LocalFDRCurve(new float[]{0.0f, 0.1f, 0.1f, 0.5f}, new float[]{0, 1, 2, 5},
+                new float[]{10, 5, 3, 1});
+
+        Assert.assertArrayEquals(new float[]{0, 0}, new LocalFDRCurve(new float[0], new float[0], new float[0]).getTargetDecoyCounts(1f), 0f);
+        Assert.assertArrayEquals(new float[]{0, 10}, curve.getTargetDecoyCounts(0f), 0f);
+        Assert.assertArrayEquals(new float[]{0, 10}, curve.getTargetDecoyCounts(0.09f), 0f);
+        Assert.assertArrayEquals(new float[]{3, 18}, curve.getTargetDecoyCounts(0.1f), 0f);
+        Assert.assertArrayEquals(new float[]{8, 19}, curve.getTargetDecoyCounts(1f), 0f);
+        Assert.assertEquals(6f/21, curve.calcGlobalFDR(0.2f), 0.000001);
+
+        Assert.assertEquals(0.1f, curve.calcLocalFDRThreshold(0.3f), 0f);
+        Assert.assertEquals(0.0f, curve.calcLocalFDRThreshold(0.1f), 0f);
+        Assert.assertEquals(1f, curve.calcLocalFDRThreshold(0.6f), 0f);
+    }
+
+    @Test
+    public void test_write() throws IOException {
+
+        LocalFDRCurve curve = new LocalFDRCurve(new float[]{0.0f, 0.1f, 0.1f, 0.5f}, new float[]{0, 1, 2, 5},
+                new float[]{10, 5, 3, 1});
+
+        StringWriter writer = new StringWriter();
+        curve.write(writer, "Z2\t");
+
+        String[] lines = writer.toString().split("\n");
+        Assert.assertEquals(3, lines.length);
+        Assert.assertEquals("Z2\t0.000000\t0.000000\t10.000\t0.000", lines[0]);
+        Assert.assertEquals("Z2\t0.100000\t0.285714\t18.000\t3.000", lines[1]);
+        Assert.assertEquals("Z2\t0.500000\t0.592593\t19.000\t8.000", lines[2]);
+    }
+
+    @Test
+    public void test_calcLocalFDRThreshold() {
+
+        Random random = new Random(17);
+
+        for (int r = 0; r < 100; r++) {
+
+            List<LocalFDRCurve> curves = new ArrayList<>();
+            for (int c = 0; c < 3; c++) {
+
+                int n = random.nextInt(50);
+                float[] lFDRs = new float[n];
+                float[] decoys = new float[n];
+                float[] targets = new float[n];
+                for (int i = 0; i < n; i++) {
+                    lFDRs[i] = random.nextInt(20) / 20f;
+                    decoys[i] = random.nextInt(3);
+                    targets[i] = random.nextInt(10);
+                }
+                Arrays.sort(lFDRs);
+                curves.add(new LocalFDRCurve(lFDRs, decoys, targets));
+            }
+
+            LocalFDRCurve merged = LocalFDRCurve.merge(curves);
+
+            for (int k = 0; k <= 20; k++) {
+                float lFDR = k / 20f;
+                float decoySum = 0;
+                float targetSum = 0;
+                for (LocalFDRCurve curve : curves) {
+                    float[] cnts = curve.getTargetDecoyCounts(lFDR);
+                    decoySum += cnts[0];
+                    targetSum += cnts[1];
+                }
+                Assert.assertArrayEquals(new float[]{decoySum, targetSum}, merged.getTargetDecoyCounts(lFDR), 0.0001f);
+            }
+
+            float pFDR = 0.05f + 0.3f * random.nextFloat();
+            // thresholds between two bins select the same PSMs
+            float expected = scanLocalFDRThreshold(merged, pFDR);
+            float threshold = merged.calcLocalFDRThreshold(pFDR);
+            if (expected < 0) {
+                Assert.assertEquals(0f, threshold, 0f);
+            } else {
+                Assert.assertArrayEquals(merged.getTargetDecoyCounts(expected), merged.getTargetDecoyCounts(threshold), 0f);
+                Assert.assertTrue(merged.calcGlobalFDR(threshold) <= pFDR);
+            }
+        }
+    }
+
+    // tries all thresholds in increasing order and stops at the first one that exceeds pFDR
+    private static float scanLocalFDRThreshold(LocalFDRCurve curve, float pFDR) {
+
+        for (int k = 0; k <= 20; k++) {
+
+            float lFDR = k / 20f;
+            if (curve.calcGlobalFDR(lFDR) > pFDR) return (k == 0) ? -1f : (k - 1) / 20f;
+        }
+
+        return 1f;
+    }
+}
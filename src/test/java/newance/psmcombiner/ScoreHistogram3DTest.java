@@ -18,9 +18,14 @@ import newance.util.NewAnceParams;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
 
 /**
@@ -365,6 +370,271 @@ public class ScoreHistogram3DTest {
         }
     }
 
+    @Test
+    public void test_SmoothKernelWidth() {
+
+        ScoreHistogram3D cometScoreHistogram = buildScoreHisto();
+        NewAnceParams params = NewAnceParams.getInstance();
+
+        int nrXCorrBins = params.getNrXCorrBins();
+        int nrDeltaCnBins = params.getNrDeltaCnBins();
+        double xcorr = params.getMinXCorr()+(nrXCorrBins/2+0.5)*(params.getMaxXCorr()-params.getMinXCorr())/nrXCorrBins;
+        double deltacn = params.getMinDeltaCn()+(nrDeltaCnBins/2+0.5)*(params.getMaxDeltaCn()-params.getMinDeltaCn())/nrDeltaCnBins;
+        double spscore = params.getMinSpScore()+(params.getNrSpScoreBins()/2+0.5)*(params.getMaxSpScore()-params.getMinSpScore())/params.getNrSpScoreBins();
+
+        TObjectDoubleMap<String> scoreMap = new TObjectDoubleHashMap<>();
+        scoreMap.put("xcorr", xcorr);
+        scoreMap.put("deltacn", deltacn);
+        scoreMap.put("spscore", spscore);
+        List<String> prots = new ArrayList<>();
+        prots.add("protein1");
+        PeptideSpectrumMatch psm = new PeptideSpectrumMatch("spectrumFile", Peptide.parse("PEPTIDE"), prots, scoreMap, 2, 1,
+                100, 101, 1001.1, false, false, null);
+        for (int i=0;i<13;i++) cometScoreHistogram.add(psm);
+
+        int bin = cometScoreHistogram.index(psm);
+        Assert.assertEquals(13, cometScoreHistogram.kernelSize(bin, 2));
+        Assert.assertEquals(4, cometScoreHistogram.kernelSize(0, 1));
+
+        cometScoreHistogram.smooth(false, 2);
+
+        // the counts are spread over the bin and the 12 bins at distance 1 and 2 along the axes
+        Assert.assertEquals(13, cometScoreHistogram.psmBins.size());
+        Assert.assertEquals(13f, cometScoreHistogram.targetCnts.sum(), 0.0001);
+        Assert.assertEquals(1f, cometScoreHistogram.targetCnts.get(cometScoreHistogram.indexMap.get(bin)), 0.0001);
+        Assert.assertEquals(1f, cometScoreHistogram.targetCnts.get(cometScoreHistogram.indexMap.get(bin+2)), 0.0001);
+        Assert.assertEquals(1f, cometScoreHistogram.targetCnts.get(cometScoreHistogram.indexMap.get(bin-2*nrXCorrBins)), 0.0001);
+        Assert.assertEquals(1f, cometScoreHistogram.targetCnts.get(cometScoreHistogram.indexMap.get(bin+2*nrXCorrBins*nrDeltaCnBins)), 0.0001);
+        Assert.assertEquals(-1, cometScoreHistogram.indexMap.get(bin+1+nrXCorrBins));
+    }
+
+    @Test
+    public void test_BinaryFormat() throws IOException {
+
+        ScoreHistogram3D histogram = buildScoreHisto();
+        Random random = new Random(5);
+        for (int i=0;i<1000;i++) {
+            histogram.add(random.nextDouble()*5, random.nextDouble(), random.nextDouble()*1000, 1f+random.nextInt(3), random.nextBoolean());
+        }
+        histogram.calcClassProb();
+        histogram.calcLocalFDR();
+
+        File binaryFile = File.createTempFile("histo", ".bin");
+        File textFile = File.createTempFile("histo", ".txt");
+        binaryFile.deleteOnExit();
+        textFile.deleteOnExit();
+
+        histogram.write(binaryFile, true);
+        histogram.write(textFile, false);
+
+        Assert.assertTrue(ScoreHistogram3D.isBinary(binaryFile));
+        Assert.assertFalse(ScoreHistogram3D.isBinary(textFile));
+        Assert.assertTrue(binaryFile.length()<textFile.length()/10);
+
+        ScoreHistogram3D fromBinary = ScoreHistogram3D.read(binaryFile);
+        ScoreHistogram3D fromText = ScoreHistogram3D.read(textFile);
+
+        Assert.assertTrue(fromBinary.hasSameLayout(histogram));
+        Assert.assertEquals(histogram.psmBins, fromBinary.psmBins);
+        Assert.assertEquals(histogram.totTargetCnt, fromBinary.totTargetCnt, 0.0001);
+        Assert.assertEquals(histogram.totDecoyCnt, fromBinary.totDecoyCnt, 0.0001);
+        Assert.assertEquals(fromText.psmBins.size(), fromBinary.psmBins.size());
+
+        for (int bin : histogram.psmBins.toArray()) {
+            Assert.assertEquals(histogram.targetCnts.get(histogram.indexMap.get(bin)), fromBinary.targetCnts.get(fromBinary.indexMap.get(bin)), 0f);
+            Assert.assertEquals(histogram.decoyCnts.get(histogram.indexMap.get(bin)), fromBinary.decoyCnts.get(fromBinary.indexMap.get(bin)), 0f);
+        }
+
+        // the text format stores rounded bin centers, which are binned again, therefore only the totals are compared
+        Assert.assertEquals(fromText.totTargetCnt, fromBinary.totTargetCnt, 0.01);
+        Assert.assertEquals(fromText.totDecoyCnt, fromBinary.totDecoyCnt, 0.01);
+
+        // binary histograms are preferred over text histograms
+        String name = textFile.getName().substring(0, textFile.getName().length()-4);
+        Assert.assertEquals(textFile, ScoreHistogram3D.getHistogramFile(textFile.getParent(), name));
+        File copy = new File(textFile.getParent(), name+".bin");
+        copy.deleteOnExit();
+        fromText.write(copy, true);
+        Assert.assertEquals(copy, ScoreHistogram3D.getHistogramFile(textFile.getParent(), name));
+    }
+
+    @Test
+    public void test_ReadPriorHistogram() throws Exception {
+
+        // prior histogram written by ScoreHistogram3D.write() after calcLocalFDR(): 147 target and 53 decoy counts and
+        // an lFDR row for each bin, whose values sum to 20.95
+        File histoDir = new File(getClass().getResource("/histograms/prior_histo_Z2.txt").toURI()).getParentFile();
+        File histoFile = ScoreHistogram3D.getHistogramFile(histoDir.getPath(), "prior_histo_Z2");
+
+        ScoreHistogram3D histogram = ScoreHistogram3D.read(histoFile);
+
+        Assert.assertEquals(147f, histogram.getTotTargetCnt(), 0.0001);
+        Assert.assertEquals(53f, histogram.getTotDecoyCnt(), 0.0001);
+        Assert.assertEquals(147f, histogram.targetCnts.sum(), 0.0001);
+        Assert.assertEquals(53f, histogram.decoyCnts.sum(), 0.0001);
+
+        // bin with 5 decoys, no target and lFDR 1
+        int idx = histogram.indexMap.get(histogram.index(0.5, 0.125, 166.667));
+        Assert.assertEquals(0f, histogram.targetCnts.get(idx), 0f);
+        Assert.assertEquals(5f, histogram.decoyCnts.get(idx), 0f);
+        // bin with 1 target, 2 decoys and lFDR 0.862
+        idx = histogram.indexMap.get(histogram.index(1.5, 0.125, 166.667));
+        Assert.assertEquals(1f, histogram.targetCnts.get(idx), 0f);
+        Assert.assertEquals(2f, histogram.decoyCnts.get(idx), 0f);
+    }
+
+    @Test
+    public void test_BinaryFormatVersion1() throws IOException {
+
+        ScoreHistogram3D histogram = buildScoreHisto();
+        Random random = new Random(5);
+        for (int i=0;i<1000;i++) {
+            histogram.add(random.nextDouble()*5, random.nextDouble(), random.nextDouble()*1000, 1f+random.nextInt(3), random.nextBoolean());
+        }
+        histogram.calcClassProb();
+        histogram.calcLocalFDR();
+
+        File binaryFile = File.createTempFile("histo", ".bin");
+        binaryFile.deleteOnExit();
+        histogram.write(binaryFile, true);
+
+        // the cells hold bin index, target and decoy counts only, the lFDR is not stored
+        int nrCells = histogram.psmBins.size();
+        byte[] content = Files.readAllBytes(binaryFile.toPath());
+        ByteBuffer buffer = ByteBuffer.wrap(content);
+        Assert.assertEquals(ScoreHistogram3D.BINARY_VERSION, buffer.getInt(4));
+        Assert.assertEquals(nrCells, buffer.getInt(content.length-12*nrCells-4));
+
+        // version 1 files have an lFDR array after the decoy counts
+        ByteBuffer version1 = ByteBuffer.allocate(content.length+4*nrCells);
+        version1.put(content);
+        for (int i=0;i<nrCells;i++) version1.putFloat(0.5f);
+        version1.putInt(4, 1);
+
+        File version1File = File.createTempFile("histo", ".bin");
+        version1File.deleteOnExit();
+        Files.write(version1File.toPath(), version1.array());
+
+        ScoreHistogram3D fromVersion1 = ScoreHistogram3D.read(version1File);
+
+        Assert.assertEquals(histogram.psmBins, fromVersion1.psmBins);
+        Assert.assertEquals(histogram.totTargetCnt, fromVersion1.totTargetCnt, 0.0001);
+        Assert.assertEquals(histogram.totDecoyCnt, fromVersion1.totDecoyCnt, 0.0001);
+    }
+
+    @Test
+    public void test_SparseHighResolution() {
+
+        ScoreHistogram3D histogram = new ScoreHistogram3D(new int[]{200,200,200}, 0, 5, 200, 0, 1, 200, 0, 1000, 200,
+                "xcorr", "deltacn", "spscore");
+
+        histogram.add(2.51, 0.51, 501, 3f, false);
+        histogram.add(2.51, 0.51, 501, 1f, true);
+        histogram.add(0.01, 0.001, 1, 2f, false);
+
+        Assert.assertEquals(8000000, histogram.getTotNrBins());
+        Assert.assertEquals(2, histogram.getIndexMap().size());
+        Assert.assertEquals(-1, histogram.getIndexMap().get(1));
+
+        ScoreHistogram3D copy = new ScoreHistogram3D(histogram);
+        Assert.assertEquals(2, copy.getIndexMap().size());
+        Assert.assertEquals(-1, copy.getIndexMap().get(1));
+
+        histogram.smooth(false, 1);
+
+        // 6 neighbours of the inner bin and 3 neighbours of the corner bin are added
+        Assert.assertEquals(11, histogram.psmBins.size());
+        Assert.assertEquals(11, histogram.getIndexMap().size());
+        // the corner bin averages over 4 bins, its neighbours over 5 bins
+        Assert.assertEquals(3f+0.5f+3*0.4f, histogram.targetCnts.sum(), 0.0001);
+        Assert.assertEquals(1f, histogram.decoyCnts.sum(), 0.0001);
+        Assert.assertEquals(0.5f, histogram.targetCnts.get(histogram.indexMap.get(0)), 0.0001);
+        Assert.assertEquals(0.4f, histogram.targetCnts.get(histogram.indexMap.get(200*200)), 0.0001);
+
+        histogram.clear();
+        Assert.assertEquals(0, histogram.getIndexMap().size());
+    }
+
+    @Test
+    public void test_EstimateDensity() {
+
+        ScoreHistogram3D cometScoreHistogram = buildScoreHisto();
+        NewAnceParams params = NewAnceParams.getInstance();
+
+        int nrXCorrBins = params.getNrXCorrBins();
+        int nrDeltaCnBins = params.getNrDeltaCnBins();
+        double xcorr = params.getMinXCorr()+(nrXCorrBins/2+0.5)*(params.getMaxXCorr()-params.getMinXCorr())/nrXCorrBins;
+        double deltacn = params.getMinDeltaCn()+(nrDeltaCnBins/2+0.5)*(params.getMaxDeltaCn()-params.getMinDeltaCn())/nrDeltaCnBins;
+        double spscore = params.getMinSpScore()+(params.getNrSpScoreBins()/2+0.5)*(params.getMaxSpScore()-params.getMinSpScore())/params.getNrSpScoreBins();
+
+        TObjectDoubleMap<String> scoreMap = new TObjectDoubleHashMap<>();
+        scoreMap.put("xcorr", xcorr);
+        scoreMap.put("deltacn", deltacn);
+        scoreMap.put("spscore", spscore);
+        List<String> prots = new ArrayList<>();
+        prots.add("protein1");
+        PeptideSpectrumMatch psm = new PeptideSpectrumMatch("spectrumFile", Peptide.parse("PEPTIDE"), prots, scoreMap, 2, 1,
+                100, 101, 1001.1, false, false, null);
+        for (int i=0;i<10;i++) cometScoreHistogram.add(psm);
+
+        scoreMap.put("xcorr", xcorr+(params.getMaxXCorr()-params.getMinXCorr())/nrXCorrBins);
+        PeptideSpectrumMatch neighbour = new PeptideSpectrumMatch("spectrumFile", Peptide.parse("PEPTIDE"), prots, scoreMap, 2, 1,
+                100, 102, 1001.1, false, false, null);
+        cometScoreHistogram.add(neighbour);
+
+        int bin = cometScoreHistogram.index(psm);
+        cometScoreHistogram.estimateDensity(1.0);
+
+        // only the occupied bins are kept, each gets the kernel weights of its own and the neighbouring counts,
+        // rescaled to the 11 target counts
+        double k0 = 1;
+        double k1 = Math.exp(-0.5);
+        double norm = 0;
+        for (int d=-4;d<=4;d++) norm += Math.exp(-0.5*d*d);
+        double center = Math.pow(k0/norm, 3);
+        double side = k1/norm*Math.pow(k0/norm, 2);
+        double scale = 11/(11*center+11*side);
+
+        Assert.assertEquals(2, cometScoreHistogram.psmBins.size());
+        Assert.assertEquals((10*center+side)*scale, cometScoreHistogram.targetCnts.get(cometScoreHistogram.indexMap.get(bin)), 0.0001);
+        Assert.assertEquals((center+10*side)*scale, cometScoreHistogram.targetCnts.get(cometScoreHistogram.indexMap.get(bin+1)), 0.0001);
+        Assert.assertEquals(0f, cometScoreHistogram.decoyCnts.sum(), 0.0001);
+        Assert.assertEquals(-1, cometScoreHistogram.indexMap.get(bin+nrXCorrBins));
+    }
+
+    @Test
+    public void test_EstimateDensityTotals() {
+
+        ScoreHistogram3D cometScoreHistogram = buildScoreHisto();
+        NewAnceParams params = NewAnceParams.getInstance();
+
+        // sparse PSMs spread over the grid including its border, where the kernel is cut off
+        Random random = new Random(5);
+        List<String> prots = new ArrayList<>();
+        prots.add("protein1");
+        for (int i=0;i<500;i++) {
+
+            TObjectDoubleMap<String> scoreMap = new TObjectDoubleHashMap<>();
+            scoreMap.put("xcorr", params.getMinXCorr()+random.nextDouble()*(params.getMaxXCorr()-params.getMinXCorr()));
+            scoreMap.put("deltacn", (i%5==0)?params.getMinDeltaCn():params.getMinDeltaCn()+random.nextDouble()*(params.getMaxDeltaCn()-params.getMinDeltaCn()));
+            scoreMap.put("spscore", params.getMinSpScore()+random.nextDouble()*(params.getMaxSpScore()-params.getMinSpScore()));
+
+            cometScoreHistogram.add(new PeptideSpectrumMatch("spectrumFile", Peptide.parse("PEPTIDE"), prots, scoreMap, 2, 1,
+                    100, i, 1001.1, random.nextInt(3)==0, false, null));
+        }
+
+        float totTargetCnt = cometScoreHistogram.getTotTargetCnt();
+        float totDecoyCnt = cometScoreHistogram.getTotDecoyCnt();
+        Assert.assertTrue(totDecoyCnt > 0);
+
+        cometScoreHistogram.estimateDensity(2.0);
+
+        Assert.assertEquals(totTargetCnt, cometScoreHistogram.getTotTargetCnt(), 0.0);
+        Assert.assertEquals(totDecoyCnt, cometScoreHistogram.getTotDecoyCnt(), 0.0);
+        Assert.assertEquals(totTargetCnt, cometScoreHistogram.targetCnts.sum(), 0.01);
+        Assert.assertEquals(totDecoyCnt, cometScoreHistogram.decoyCnts.sum(), 0.01);
+    }
+
     @Test
     public void test_Smooth2() {
         smooth2(true);
@@ -762,7 +1032,7 @@ public class ScoreHistogram3DTest {
 
         scoreHistogram1.add(scoreHistogram2,0.5f);
 
-        for (Integer bin : scoreHistogram1.psmBins) {
+        for (int bin : scoreHistogram1.psmBins.toArray()) {
             Integer idx = scoreHistogram1.indexMap.get(bin);
             Assert.assertEquals(scoreHistogram1.targetCnts.get(idx),scoreHistogram2.targetCnts.get(idx), 0.0001);
             Assert.assertEquals(scoreHistogram1.decoyCnts.get(idx),scoreHistogram2.decoyCnts.get(idx), 0.0001);
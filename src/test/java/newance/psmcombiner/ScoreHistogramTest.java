@@ -10,6 +10,7 @@ You should have received a copy of the GNU General Public License along with thi
 
 package newance.psmcombiner;
 
+import gnu.trove.list.array.TFloatArrayList;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -44,4 +45,25 @@ public class ScoreHistogramTest {
         }
     }
 
+    @Test
+    public void sortIndexesPrimitiveTest() {
+
+        TFloatArrayList array = new TFloatArrayList(new float[]{5f,2f,1f,4f,2f,-0f,0f,-3f});
+        int[] sorted = ScoreHistogram.sortIndexes(array);
+
+        Assert.assertArrayEquals(new int[]{7,5,6,2,1,4,3,0}, sorted);
+
+        List<Float> list = new ArrayList<>();
+        array = new TFloatArrayList();
+        for (int i=0;i<1000;i++) {
+            float value = (float) Math.floor(Math.random()*100)/10;
+            list.add(value);
+            array.add(value);
+        }
+
+        List<Integer> expected = ScoreHistogram.sortIndexes(list, false);
+        sorted = ScoreHistogram.sortIndexes(array);
+        for (int i=0;i<1000;i++) Assert.assertEquals(expected.get(i).intValue(), sorted[i]);
+    }
+
 }
@@ -0,0 +1,70 @@
+/*
+Copyright (C) SIB - Swiss Institute of Bioinformatics, Lausanne, Switzerland
+Copyright (C) LICR - Ludwig Institute of Cancer Research, Lausanne, Switzerland
+This program is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation, either version 2 of the License, or (at your option) any later version.
+This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+You should have received a copy of the GNU General Public License along with this program. If not, see https://www.gnu.org/licenses/.
+*/
+
+package newance.psmconverter;
+
+import com.google.common.base.Optional;
+import newance.mzjava.mol.AminoAcid;
+import newance.mzjava.mol.modification.*;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Markus Müller
+ */
+public class CachedModMatchResolverTest {
+
+    @Test
+    public void testResolve() {
+
+        final Modification oxidation = Modification.parseModification("Oxidation:O");
+        final ModListModMatchResolver modListResolver = new ModListModMatchResolver(new AbsoluteTolerance(0.01), oxidation);
+        final AtomicInteger calls = new AtomicInteger();
+
+        CachedModMatchResolver resolver = new CachedModMatchResolver(new ModificationMatchResolver() {
+            @Override
+            public Optional<Modification> resolve(ModificationMatch modMatch) {
+                calls.incrementAndGet();
+                return modListResolver.resolve(modMatch);
+            }
+        });
+
+        for (int i = 0; i < 10; i++) {
+            Optional<Modification> modOpt = resolver.resolve(new ModificationMatch(oxidation.getMolecularMass(), AminoAcid.M, i, ModAttachment.SIDE_CHAIN));
+            Assert.assertSame(oxidation, modOpt.get());
+            Assert.assertFalse(resolver.resolve(new ModificationMatch(42.0, AminoAcid.M, i, ModAttachment.SIDE_CHAIN)).isPresent());
+        }
+        Assert.assertEquals(2, calls.get());
+
+        resolver.resolve(new ModificationMatch(oxidation.getMolecularMass(), AminoAcid.W, 1, ModAttachment.SIDE_CHAIN));
+        Assert.assertEquals(3, calls.get());
+        Assert.assertEquals(3, resolver.size());
+
+        Assert.assertSame(resolver, CachedModMatchResolver.wrap(resolver));
+    }
+
+    @Test
+    public void testModifiedSequenceCache() {
+
+        MaxQuantPsmReader reader = new MaxQuantPsmReader();
+
+        PeptideMatchDataWrapper psm1 = reader.makeModifiedPeptideMatch("_PEPTIDEK_");
+        PeptideMatchDataWrapper psm2 = reader.makeModifiedPeptideMatch("_PEPTIDEK_");
+
+        Assert.assertNotSame(psm1, psm2);
+        Assert.assertEquals("PEPTIDEK", psm1.getSequence());
+        Assert.assertEquals(psm1.toPeptide(), psm2.toPeptide());
+
+        psm1.setDecoy(true);
+        Assert.assertFalse(psm2.isDecoy());
+    }
+}
@@ -0,0 +1,57 @@
+/*
+Copyright (C) SIB - Swiss Institute of Bioinformatics, Lausanne, Switzerland
+Copyright (C) LICR - Ludwig Institute of Cancer Research, Lausanne, Switzerland
+This program is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation, either version 2 of the License, or (at your option) any later version.
+This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+You should have received a copy of the GNU General Public License along with this program. If not, see https://www.gnu.org/licenses/.
+*/
+
+package newance.psmconverter;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * @author Markus Müller
+ */
+public class CometMultiplePepXMLFileConverterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRun() throws IOException {
+
+        for (int i = 1; i <= 5; i++) {
+
+            File file = new File(folder.getRoot(), "run" + i + ".pep.xml");
+            String pepXml = CometPepXmlStaxReaderTest.PEPXML.replace("run1", "run" + i);
+            Files.write(file.toPath(), pepXml.getBytes(StandardCharsets.UTF_8));
+        }
+
+        CometMultiplePepXMLFileConverter converter =
+                new CometMultiplePepXMLFileConverter(folder.getRoot().getAbsolutePath(), Pattern.compile("\\.pep\\.xml$"));
+        converter.run();
+
+        ConcurrentHashMap<String, List<PeptideSpectrumMatch>> psms = converter.getPsms();
+
+        Assert.assertEquals(10, psms.size());
+        for (int i = 1; i <= 5; i++) {
+            Assert.assertEquals(1, psms.get("run" + i + ".10.10.2").size());
+            Assert.assertEquals("PEPMTIDEK", psms.get("run" + i + ".10.10.2").get(0).toSymbolString());
+            Assert.assertTrue(psms.get("run" + i + ".12.12.3").get(0).isDecoy());
+        }
+    }
+}
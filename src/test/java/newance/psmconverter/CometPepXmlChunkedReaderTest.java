@@ -0,0 +1,169 @@
+/*
+Copyright (C) SIB - Swiss Institute of Bioinformatics, Lausanne, Switzerland
+Copyright (C) LICR - Ludwig Institute of Cancer Research, Lausanne, Switzerland
+This program is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation, either version 2 of the License, or (at your option) any later version.
+This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+You should have received a copy of the GNU General Public License along with this program. If not, see https://www.gnu.org/licenses/.
+*/
+
+package newance.psmconverter;
+
+import newance.mzjava.mol.modification.AbsoluteTolerance;
+import newance.mzjava.mol.modification.ModListModMatchResolver;
+import newance.util.NewAnceParams;
+import newance.util.PsmPredicate;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Markus Müller
+ */
+public class CometPepXmlChunkedReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File writePepXml(int nrQueries) throws IOException {
+
+        String[] peptides = new String[]{"PEPMTIDEK", "LSSSSQHGPSY", "KEDITPEPLL", "AMNPQRSTVW"};
+
+        StringBuilder pepXml = new StringBuilder();
+        pepXml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        pepXml.append("<msms_pipeline_analysis xmlns=\"http://regis-web.systemsbiology.net/pepXML\">\n");
+        pepXml.append("<msms_run_summary base_name=\"run1\">\n");
+        pepXml.append("<search_summary base_name=\"run1\" search_engine=\"Comet\"/>\n");
+
+        for (int i = 0; i < nrQueries; i++) {
+
+            String peptide = peptides[i % peptides.length];
+            String protein = (i % 3 == 0) ? "DECOY_P" + i : "sp|P" + i + "|PROT";
+            int charge = 2 + i % 2;
+
+            pepXml.append(String.format("<spectrum_query spectrum=\"run1.%05d.%05d.%d\" start_scan=\"%d\" end_scan=\"%d\" " +
+                    "precursor_neutral_mass=\"%.4f\" assumed_charge=\"%d\" index=\"%d\" retention_time_sec=\"%.1f\">\n",
+                    i, i, charge, i, i, 1000.0 + i, charge, i + 1, 10.0 * i));
+            pepXml.append(" <search_result>\n");
+            pepXml.append(String.format("  <search_hit hit_rank=\"1\" peptide=\"%s\" protein=\"%s\" num_matched_ions=\"%d\" " +
+                    "tot_num_ions=\"20\" massdiff=\"0.00%d\" num_missed_cleavages=\"0\">\n", peptide, protein, i % 20, i % 10));
+            if (peptide.contains("M"))
+                pepXml.append("   <modification_info><mod_aminoacid_mass position=\"" + (peptide.indexOf('M') + 1) + "\" mass=\"147.035385\"/></modification_info>\n");
+            pepXml.append(String.format("   <search_score name=\"xcorr\" value=\"%.3f\"/>\n", 1.1 + (i % 50) * 0.05));
+            pepXml.append(String.format("   <search_score name=\"deltacn\" value=\"%.3f\"/>\n", (i % 10) * 0.05));
+            pepXml.append(String.format("   <search_score name=\"spscore\" value=\"%.1f\"/>\n", 60.0 + i));
+            pepXml.append("  </search_hit>\n");
+            pepXml.append(" </search_result>\n");
+            pepXml.append("</spectrum_query>\n");
+        }
+
+        pepXml.append("</msms_run_summary>\n");
+        pepXml.append("</msms_pipeline_analysis>\n");
+
+        File file = folder.newFile("run1.pep.xml");
+        Files.write(file.toPath(), pepXml.toString().getBytes(StandardCharsets.UTF_8));
+
+        return file;
+    }
+
+    private Map<String, List<PeptideSpectrumMatch>> parse(CometPEFFPepXmlReader reader, File file) {
+
+        Map<String, List<PeptideSpectrumMatch>> psmMap = new HashMap<>();
+        reader.parse(file, new PeptideSpectrumMatchList(new SpectrumKeyFunctionImpl(), new PsmPredicate(NewAnceParams.getInstance()), psmMap));
+
+        return psmMap;
+    }
+
+    @Test
+    public void testScanChunkOffsets() throws IOException {
+
+        File file = writePepXml(100);
+
+        long[] offsets = CometPepXmlChunkedReader.scanChunkOffsets(file, 7);
+
+        Assert.assertEquals(8, offsets.length);
+
+        byte[] content = Files.readAllBytes(file.toPath());
+        for (int i = 0; i < offsets.length - 1; i++) {
+            Assert.assertTrue(new String(content, (int) offsets[i], 15, StandardCharsets.UTF_8).equals("<spectrum_query"));
+            Assert.assertTrue(offsets[i] < offsets[i + 1]);
+        }
+        Assert.assertEquals("</spectrum_query>", new String(content, (int) offsets[7] - 17, 17, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testParse() throws IOException {
+
+        File file = writePepXml(500);
+
+        NewAnceParams params = NewAnceParams.getInstance();
+        ModListModMatchResolver modMatchResolver =
+                new ModListModMatchResolver(new AbsoluteTolerance(params.getModifMatchMassTol()), params.getModifications());
+
+        Map<String, List<PeptideSpectrumMatch>> sequential = parse(new CometPepXmlStaxReader(null, true, modMatchResolver), file);
+        Map<String, List<PeptideSpectrumMatch>> chunked = parse(new CometPepXmlChunkedReader(null, true, modMatchResolver, 9, 0), file);
+
+        assertSamePsms(sequential, chunked);
+    }
+
+    @Test
+    public void testParseInFilePool() throws Exception {
+
+        File file = writePepXml(500);
+
+        NewAnceParams params = NewAnceParams.getInstance();
+        ModListModMatchResolver modMatchResolver =
+                new ModListModMatchResolver(new AbsoluteTolerance(params.getModifMatchMassTol()), params.getModifications());
+
+        Map<String, List<PeptideSpectrumMatch>> sequential = parse(new CometPepXmlStaxReader(null, true, modMatchResolver), file);
+
+        // the file is parsed by a task of the pool that also runs the chunk helpers. With one thread the helpers can
+        // only run after the file task, so the file task has to parse all chunks itself.
+        for (int nrThreads : new int[]{1, 3}) {
+
+            ExecutorService exe = Executors.newFixedThreadPool(nrThreads);
+            try {
+                CometPepXmlChunkedReader reader = new CometPepXmlChunkedReader(null, true, modMatchResolver, 9, 0, exe);
+                Map<String, List<PeptideSpectrumMatch>> chunked = exe.submit(() -> parse(reader, file)).get(60, TimeUnit.SECONDS);
+
+                assertSamePsms(sequential, chunked);
+            } finally {
+                exe.shutdownNow();
+            }
+        }
+    }
+
+    private static void assertSamePsms(Map<String, List<PeptideSpectrumMatch>> sequential, Map<String, List<PeptideSpectrumMatch>> chunked) {
+
+        Assert.assertFalse(sequential.isEmpty());
+        Assert.assertEquals(sequential.keySet(), chunked.keySet());
+
+        for (String key : sequential.keySet()) {
+
+            List<PeptideSpectrumMatch> psms1 = sequential.get(key);
+            List<PeptideSpectrumMatch> psms2 = chunked.get(key);
+
+            Assert.assertEquals(psms1.size(), psms2.size());
+            for (int i = 0; i < psms1.size(); i++) {
+                Assert.assertEquals(psms1.get(i).getPeptide(), psms2.get(i).getPeptide());
+                Assert.assertEquals(psms1.get(i).getProteinIDs(), psms2.get(i).getProteinIDs());
+                Assert.assertEquals(psms1.get(i).getScoreMap(), psms2.get(i).getScoreMap());
+                Assert.assertEquals(psms1.get(i).isDecoy(), psms2.get(i).isDecoy());
+                Assert.assertEquals(psms1.get(i).getNeutralPrecMass(), psms2.get(i).getNeutralPrecMass(), 0.0);
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+Copyright (C) SIB - Swiss Institute of Bioinformatics, Lausanne, Switzerland
+Copyright (C) LICR - Ludwig Institute of Cancer Research, Lausanne, Switzerland
+This program is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation, either version 2 of the License, or (at your option) any later version.
+This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+You should have received a copy of the GNU General Public License along with this program. If not, see https://www.gnu.org/licenses/.
+*/
+
+package newance.psmconverter;
+
+import newance.mzjava.mol.modification.AbsoluteTolerance;
+import newance.mzjava.mol.modification.ModListModMatchResolver;
+import newance.util.NewAnceParams;
+import newance.util.PsmPredicate;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Markus Müller
+ */
+public class CometPepXmlStaxReaderTest {
+
+    public static final String PEPXML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<msms_pipeline_analysis xmlns=\"http://regis-web.systemsbiology.net/pepXML\">\n" +
+            "<msms_run_summary base_name=\"run1\">\n" +
+            "<search_summary base_name=\"run1\" search_engine=\"Comet\"/>\n" +
+            "<spectrum_query spectrum=\"run1.00010.00010.2\" start_scan=\"10\" end_scan=\"10\" precursor_neutral_mass=\"1000.5\" assumed_charge=\"2\" index=\"1\" retention_time_sec=\"120.0\">\n" +
+            " <search_result>\n" +
+            "  <search_hit hit_rank=\"1\" peptide=\"PEPMTIDEK\" peptide_prev_aa=\"K\" peptide_next_aa=\"A\" protein=\"sp|P1|PROT1\" num_tot_proteins=\"2\" num_matched_ions=\"12\" tot_num_ions=\"16\" calc_neutral_pep_mass=\"1000.4\" massdiff=\"+0.0012\" num_tol_term=\"2\" num_missed_cleavages=\"1\">\n" +
+            "   <alternative_protein protein=\"sp|P2|PROT2\"/>\n" +
+            "   <modification_info modified_peptide=\"PEPM[147]TIDEK\">\n" +
+            "    <mod_aminoacid_mass position=\"4\" mass=\"147.035385\"/>\n" +
+            "   </modification_info>\n" +
+            "   <search_score name=\"xcorr\" value=\"2.5\"/>\n" +
+            "   <search_score name=\"deltacn\" value=\"0.3\"/>\n" +
+            "   <search_score name=\"spscore\" value=\"300.0\"/>\n" +
+            "   <search_score name=\"expect\" value=\"+-1.2e-04\"/>\n" +
+            "  </search_hit>\n" +
+            "  <search_hit hit_rank=\"2\" peptide=\"PEPTIDEKR\" protein=\"sp|P1|PROT1\" num_matched_ions=\"8\" tot_num_ions=\"16\" massdiff=\"-0.5\" num_missed_cleavages=\"0\">\n" +
+            "   <search_score name=\"xcorr\" value=\"2.0\"/>\n" +
+            "   <search_score name=\"deltacn\" value=\"0.1\"/>\n" +
+            "   <search_score name=\"spscore\" value=\"200.0\"/>\n" +
+            "  </search_hit>\n" +
+            " </search_result>\n" +
+            "</spectrum_query>\n" +
+            "<spectrum_query spectrum=\"run1.00012.00012.3\" start_scan=\"12\" end_scan=\"12\" precursor_neutral_mass=\"1500.7\" assumed_charge=\"3\" index=\"2\" retention_time_sec=\"180.0\">\n" +
+            " <search_result>\n" +
+            "  <search_hit hit_rank=\"1\" peptide=\"KEDITPEPLL\" protein=\"DECOY_P1\" num_matched_ions=\"10\" tot_num_ions=\"18\" massdiff=\"0.002\" num_missed_cleavages=\"0\">\n" +
+            "   <modification_info>\n" +
+            "    <aminoacid_substitution position=\"3\" orig_aa=\"E\"/>\n" +
+            "   </modification_info>\n" +
+            "   <search_score name=\"xcorr\" value=\"1.5\"/>\n" +
+            "   <search_score name=\"deltacn\" value=\"0.2\"/>\n" +
+            "   <search_score name=\"spscore\" value=\"150.0\"/>\n" +
+            "  </search_hit>\n" +
+            " </search_result>\n" +
+            "</spectrum_query>\n" +
+            "</msms_run_summary>\n" +
+            "</msms_pipeline_analysis>\n";
+
+    public static Map<String, List<PeptideSpectrumMatch>> parse(String pepXml) {
+
+        NewAnceParams params = NewAnceParams.getInstance();
+
+        Map<String, List<PeptideSpectrumMatch>> psmMap = new HashMap<>();
+        PeptideSpectrumMatchList psmList = new PeptideSpectrumMatchList(new SpectrumKeyFunctionImpl(), new PsmPredicate(params), psmMap);
+
+        ModListModMatchResolver modMatchResolver =
+                new ModListModMatchResolver(new AbsoluteTolerance(params.getModifMatchMassTol()), params.getModifications());
+
+        new CometPepXmlStaxReader(null, true, modMatchResolver)
+                .parse(new ByteArrayInputStream(pepXml.getBytes(StandardCharsets.UTF_8)), psmList);
+
+        return psmMap;
+    }
+
+    @Test
+    public void testParse() {
+
+        Map<String, List<PeptideSpectrumMatch>> psmMap = parse(PEPXML);
+
+        Assert.assertEquals(2, psmMap.size());
+
+        List<PeptideSpectrumMatch> psms = psmMap.get("run1.10.10.2");
+        Assert.assertEquals(1, psms.size()); // rank 2 is removed by maxRank = 1
+
+        PeptideSpectrumMatch psm = psms.get(0);
+        Assert.assertEquals("PEPMTIDEK", psm.toSymbolString());
+        Assert.assertEquals(1, psm.getPeptide().getModificationCount());
+        Assert.assertTrue(psm.getPeptide().hasModificationAt(3));
+        Assert.assertEquals("run1", psm.getSpectrumFile());
+        Assert.assertEquals(2, psm.getCharge());
+        Assert.assertEquals(1, psm.getRank());
+        Assert.assertEquals(10, psm.getScanNr());
+        Assert.assertEquals(2.0f, psm.getRetentionTime(), 0.00001f);
+        Assert.assertEquals(1000.5, psm.getNeutralPrecMass(), 0.00001);
+        Assert.assertEquals(2, psm.getProteinIDs().size());
+        Assert.assertEquals("sp|P2|PROT2", psm.getProteinIDs().get(1));
+        Assert.assertFalse(psm.isDecoy());
+        Assert.assertFalse(psm.isVariant());
+        Assert.assertEquals(2.5, psm.getScore("xcorr"), 0.00001);
+        Assert.assertEquals(0.3, psm.getScore("deltacn"), 0.00001);
+        Assert.assertEquals(300.0, psm.getScore("spscore"), 0.00001);
+        Assert.assertEquals(1.2e-04, psm.getScore("expect"), 0.0000001);
+        Assert.assertEquals(0.0012, psm.getScore("mass_diff"), 0.0000001);
+        Assert.assertEquals(16, psm.getScore("tot_num_ions"), 0.00001);
+        Assert.assertEquals(12, psm.getScore("matched_num_ions"), 0.00001);
+
+        psm = psmMap.get("run1.12.12.3").get(0);
+        Assert.assertEquals("KEDITPEPLL", psm.toSymbolString());
+        Assert.assertTrue(psm.isDecoy());
+        Assert.assertFalse(psm.isVariant()); // substitutions are ignored for decoys
+        Assert.assertEquals(3, psm.getCharge());
+        Assert.assertEquals(3.0f, psm.getRetentionTime(), 0.00001f);
+    }
+}
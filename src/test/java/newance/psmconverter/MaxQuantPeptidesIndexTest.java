@@ -0,0 +1,60 @@
+/*
+Copyright (C) SIB - Swiss Institute of Bioinformatics, Lausanne, Switzerland
+Copyright (C) LICR - Ludwig Institute of Cancer Research, Lausanne, Switzerland
+This program is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation, either version 2 of the License, or (at your option) any later version.
+This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+You should have received a copy of the GNU General Public License along with this program. If not, see https://www.gnu.org/licenses/.
+*/
+
+package newance.psmconverter;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * @author Markus Müller
+ */
+public class MaxQuantPeptidesIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testGet() throws IOException {
+
+        File peptidesFile = folder.newFile("peptides.txt");
+        String peptides = "Sequence\tLength\tLeading razor protein\tMutated\tMutation names\n" +
+                "PEPTIDEK\t8\tsp|P1|PROT1\tNo\t\n" +
+                "LSSSSQHGPSY\t11\tsp|P1|PROT1\tYes\tS5T\n" +
+                "KEDITPEPLL\t10\tREV__sp|P2|PROT2\tNo\t\n";
+        Files.write(peptidesFile.toPath(), peptides.getBytes(StandardCharsets.UTF_8));
+
+        MaxQuantPeptidesIndex index = MaxQuantPeptidesIndex.get(peptidesFile);
+
+        Assert.assertEquals(3, index.getPeptideCount());
+        Assert.assertEquals(2, index.getProteinCount());
+        Assert.assertEquals("sp|P1|PROT1", index.getLeadingProtein("PEPTIDEK"));
+        Assert.assertEquals("DECOY_sp|P2|PROT2", index.getLeadingProtein("KEDITPEPLL"));
+        Assert.assertNull(index.getLeadingProtein("AMNPQRSTVW"));
+        Assert.assertTrue(index.isMutated("LSSSSQHGPSY"));
+        Assert.assertEquals("S5T", index.getMutationNames("LSSSSQHGPSY"));
+        Assert.assertFalse(index.isMutated("PEPTIDEK"));
+
+        Assert.assertSame(index, MaxQuantPeptidesIndex.get(new File(folder.getRoot(), "./peptides.txt")));
+
+        Files.write(peptidesFile.toPath(), (peptides + "AMNPQRSTVW\t10\tsp|P3|PROT3\tNo\t\n").getBytes(StandardCharsets.UTF_8));
+
+        MaxQuantPeptidesIndex updated = MaxQuantPeptidesIndex.get(peptidesFile);
+        Assert.assertNotSame(index, updated);
+        Assert.assertEquals("sp|P3|PROT3", updated.getLeadingProtein("AMNPQRSTVW"));
+    }
+}
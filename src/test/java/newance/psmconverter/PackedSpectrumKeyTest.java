@@ -0,0 +1,67 @@
+/*
+Copyright (C) SIB - Swiss Institute of Bioinformatics, Lausanne, Switzerland
+Copyright (C) LICR - Ludwig Institute of Cancer Research, Lausanne, Switzerland
+This program is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation, either version 2 of the License, or (at your option) any later version.
+This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+You should have received a copy of the GNU General Public License along with this program. If not, see https://www.gnu.org/licenses/.
+*/
+
+package newance.psmconverter;
+
+import newance.mzjava.mol.Peptide;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * @author Markus Müller
+ */
+public class PackedSpectrumKeyTest {
+
+    @Test
+    public void testPack() {
+
+        long key = PackedSpectrumKey.pack("20180101_run1", 123456, 3);
+
+        Assert.assertTrue(key >= 0);
+        Assert.assertEquals("20180101_run1", PackedSpectrumKey.getSpectrumFile(key));
+        Assert.assertEquals(123456, PackedSpectrumKey.getScanNr(key));
+        Assert.assertEquals(3, PackedSpectrumKey.getCharge(key));
+        Assert.assertEquals("20180101_run1.123456.123456.3", PackedSpectrumKey.toSpectrumId(key));
+
+        long maxKey = PackedSpectrumKey.pack(PackedSpectrumKey.getFileId(key), Integer.MAX_VALUE, 255);
+        Assert.assertEquals(Integer.MAX_VALUE, PackedSpectrumKey.getScanNr(maxKey));
+        Assert.assertEquals(255, PackedSpectrumKey.getCharge(maxKey));
+    }
+
+    @Test
+    public void testParse() {
+
+        long key = PackedSpectrumKey.parse("run.1.2.3.1234.1234.2");
+        Assert.assertEquals("run.1.2.3", PackedSpectrumKey.getSpectrumFile(key));
+        Assert.assertEquals("run.1.2.3.1234.1234.2", PackedSpectrumKey.toSpectrumId(key));
+        Assert.assertEquals(PackedSpectrumKey.pack("run.1.2.3", 1234, 2), key);
+
+        Assert.assertEquals(-1, PackedSpectrumKey.parse("spec1"));
+        Assert.assertEquals(-1, PackedSpectrumKey.parse(".1234.1234.2"));
+        Assert.assertEquals(-1, PackedSpectrumKey.parse("run.1234.1235.2"));
+        Assert.assertEquals(-1, PackedSpectrumKey.parse("run.01234.01234.2"));
+        Assert.assertEquals(-1, PackedSpectrumKey.parse("run.1234.1234."));
+        Assert.assertEquals(-1, PackedSpectrumKey.parse("run.1234.1234.2a"));
+        Assert.assertEquals(-1, PackedSpectrumKey.parse("run.99999999999.99999999999.2"));
+    }
+
+    @Test
+    public void testPsmSpectrumKey() {
+
+        PeptideSpectrumMatch psm = new PeptideSpectrumMatch("run", Peptide.parse("PEPTIDE"),
+                new ArrayList<>(Arrays.asList("P1")), ScoreSchema.newScores(), 2, 1, 10.0f, 100, 1000.0, false, false);
+
+        Assert.assertEquals("run", psm.getSpectrumFile());
+        Assert.assertEquals(PackedSpectrumKey.parse("run.100.100.2"), psm.getSpectrumKey());
+    }
+}
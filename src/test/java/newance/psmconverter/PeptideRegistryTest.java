@@ -0,0 +1,75 @@
+/*
+Copyright (C) SIB - Swiss Institute of Bioinformatics, Lausanne, Switzerland
+Copyright (C) LICR - Ludwig Institute of Cancer Research, Lausanne, Switzerland
+This program is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation, either version 2 of the License, or (at your option) any later version.
+This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+You should have received a copy of the GNU General Public License along with this program. If not, see https://www.gnu.org/licenses/.
+*/
+
+package newance.psmconverter;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Multimap;
+import newance.mzjava.mol.AminoAcid;
+import newance.mzjava.mol.Peptide;
+import newance.mzjava.mol.modification.ModAttachment;
+import newance.mzjava.mol.modification.Modification;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * @author Markus Müller
+ */
+public class PeptideRegistryTest {
+
+    @Test
+    public void testIntern() {
+
+        PeptideRegistry registry = PeptideRegistry.getInstance();
+
+        Peptide peptide = newOxidizedPeptide();
+        int id = registry.intern(peptide);
+
+        Assert.assertEquals(id, registry.intern(newOxidizedPeptide()));
+        Assert.assertSame(peptide, registry.getCanonical(newOxidizedPeptide()));
+        Assert.assertNotEquals(id, registry.intern(Peptide.parse("PEPMTIDE")));
+
+        Assert.assertEquals("PEPMTIDE", registry.getSymbolString(id));
+        Assert.assertEquals(peptide.toString(), registry.getString(id));
+        Assert.assertEquals(peptide.getMolecularMass(), registry.getMass(id), 0.0);
+
+        int size = registry.size();
+        String aas = "ACDEFGHIKLMNPQRSTVWY";
+        for (int i = 0; i < 2000; i++)
+            registry.intern(Peptide.parse("PEPTIDE" + aas.charAt(i % 20) + aas.charAt((i / 20) % 20) + aas.charAt(i / 400)));
+        Assert.assertTrue(registry.size() > size);
+        Assert.assertSame(peptide, registry.getPeptide(id));
+    }
+
+    private static Peptide newOxidizedPeptide() {
+
+        Multimap<Integer, Modification> sideChainModMap = ArrayListMultimap.create();
+        sideChainModMap.put(3, Modification.parseModification("Oxidation:O"));
+
+        return new Peptide(Arrays.asList(AminoAcid.P, AminoAcid.E, AminoAcid.P, AminoAcid.M, AminoAcid.T, AminoAcid.I, AminoAcid.D, AminoAcid.E), sideChainModMap, ArrayListMultimap.<ModAttachment, Modification>create());
+    }
+
+    @Test
+    public void testPsmPeptide() {
+
+        PeptideSpectrumMatch psm1 = new PeptideSpectrumMatch("run", Peptide.parse("PEPTIDEK"),
+                new ArrayList<>(Arrays.asList("P1")), ScoreSchema.newScores(), 2, 1, 10.0f, 100, 1000.0, false, false);
+        PeptideSpectrumMatch psm2 = new PeptideSpectrumMatch("run", Peptide.parse("PEPTIDEK"),
+                new ArrayList<>(Arrays.asList("P1")), ScoreSchema.newScores(), 2, 1, 10.0f, 101, 1000.0, false, false);
+
+        Assert.assertEquals(psm1.getPeptideId(), psm2.getPeptideId());
+        Assert.assertSame(psm1.getPeptide(), psm2.getPeptide());
+        Assert.assertSame(psm1.toSymbolString(), psm2.toSymbolString());
+        Assert.assertEquals("PEPTIDEK", psm1.toPeptideString());
+    }
+}
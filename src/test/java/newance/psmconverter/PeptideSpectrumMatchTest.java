@@ -0,0 +1,57 @@
+/*
+Copyright (C) SIB - Swiss Institute of Bioinformatics, Lausanne, Switzerland
+Copyright (C) LICR - Ludwig Institute of Cancer Research, Lausanne, Switzerland
+This program is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation, either version 2 of the License, or (at your option) any later version.
+This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+You should have received a copy of the GNU General Public License along with this program. If not, see https://www.gnu.org/licenses/.
+*/
+
+package newance.psmconverter;
+
+import newance.mzjava.mol.Peptide;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+
+/**
+ * @author Markus Müller
+ */
+public class PeptideSpectrumMatchTest {
+
+    @Test
+    public void testProteinIds() {
+
+        PeptideSpectrumMatch psm1 = new PeptideSpectrumMatch("run", Peptide.parse("PEPTIDEK"),
+                new ArrayList<>(Arrays.asList("sp|P12345|A_HUMAN", "sp|P23456|B_HUMAN")), ScoreSchema.newScores(), 2, 1, 10.0f, 100, 1000.0, false, false);
+        PeptideSpectrumMatch psm2 = new PeptideSpectrumMatch("run", Peptide.parse("PEPTIDEK"),
+                new ArrayList<>(Arrays.asList(new String("sp|P12345|A_HUMAN"))), ScoreSchema.newScores(), 2, 1, 10.0f, 101, 1000.0, false, false);
+
+        Assert.assertEquals(Arrays.asList("sp|P12345|A_HUMAN", "sp|P23456|B_HUMAN"), psm1.getProteinIDs());
+        Assert.assertEquals(psm1.getProteinIds()[0], psm2.getProteinIds()[0]);
+        Assert.assertSame(psm1.getFirstProteinAC(), psm2.getFirstProteinAC());
+
+        psm2.addProteinAcc(new HashSet<>(Collections.singletonList("sp|P23456|B_HUMAN")));
+        Assert.assertArrayEquals(psm1.getProteinIds(), psm2.getProteinIds());
+        Assert.assertEquals("sp|P12345|A_HUMAN", psm2.getFirstProteinAC());
+
+        PeptideSpectrumMatch psm3 = new PeptideSpectrumMatch("run", Peptide.parse("PEPTIDEK"),
+                new ArrayList<String>(), ScoreSchema.newScores(), 2, 1, 10.0f, 102, 1000.0, false, false);
+        Assert.assertTrue(psm3.getProteinIDs().isEmpty());
+        Assert.assertEquals("", psm3.getFirstProteinAC());
+    }
+
+    @Test
+    public void testGroup() {
+
+        PeptideSpectrumMatch psm = new PeptideSpectrumMatch("run", Peptide.parse("PEPTIDEK"),
+                new ArrayList<>(Arrays.asList("P1")), ScoreSchema.newScores(), 2, 1, 10.0f, 100, 1000.0, false, false);
+
+        Assert.assertEquals("", psm.getGroup());
+        psm.setGroup("prot");
+        Assert.assertEquals("prot", psm.getGroup());
+        Assert.assertEquals("run", psm.getSpectrumFile());
+    }
+}
@@ -0,0 +1,83 @@
+/*
+Copyright (C) SIB - Swiss Institute of Bioinformatics, Lausanne, Switzerland
+Copyright (C) LICR - Ludwig Institute of Cancer Research, Lausanne, Switzerland
+This program is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation, either version 2 of the License, or (at your option) any later version.
+This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+You should have received a copy of the GNU General Public License along with this program. If not, see https://www.gnu.org/licenses/.
+*/
+
+package newance.psmconverter;
+
+import newance.util.NewAnceParams;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Markus Müller
+ */
+public class PsmFileCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWriteRead() throws IOException {
+
+        File psmFile = folder.newFile("run1.pep.xml");
+        Files.write(psmFile.toPath(), CometPepXmlStaxReaderTest.PEPXML.getBytes(StandardCharsets.UTF_8));
+
+        Map<String, List<PeptideSpectrumMatch>> psmMap = CometPepXmlStaxReaderTest.parse(CometPepXmlStaxReaderTest.PEPXML);
+
+        PsmFileCache psmCache = new PsmFileCache(folder.newFolder("cache"));
+        String signature = PsmFileCache.makeSignature("comet", psmFile, Collections.<File>emptyList(), NewAnceParams.getInstance());
+
+        Map<String, List<PeptideSpectrumMatch>> cachedMap = new HashMap<>();
+        Assert.assertFalse(psmCache.read(psmFile, signature, cachedMap));
+
+        psmCache.write(psmFile, signature, psmMap);
+        Assert.assertTrue(psmCache.getCacheFile(psmFile).exists());
+
+        Assert.assertTrue(psmCache.read(psmFile, signature, cachedMap));
+        Assert.assertEquals(psmMap.keySet(), cachedMap.keySet());
+
+        for (String key : psmMap.keySet()) {
+
+            List<PeptideSpectrumMatch> psms = psmMap.get(key);
+            List<PeptideSpectrumMatch> cachedPsms = cachedMap.get(key);
+            Assert.assertEquals(psms.size(), cachedPsms.size());
+
+            for (int i = 0; i < psms.size(); i++) {
+
+                PeptideSpectrumMatch psm = psms.get(i);
+                PeptideSpectrumMatch cachedPsm = cachedPsms.get(i);
+
+                Assert.assertEquals(psm.getPeptide(), cachedPsm.getPeptide());
+                Assert.assertEquals(psm.getSpectrumFile(), cachedPsm.getSpectrumFile());
+                Assert.assertEquals(psm.getProteinIDs(), cachedPsm.getProteinIDs());
+                Assert.assertEquals(psm.getScoreMap(), cachedPsm.getScoreMap());
+                Assert.assertEquals(psm.getCharge(), cachedPsm.getCharge());
+                Assert.assertEquals(psm.getRank(), cachedPsm.getRank());
+                Assert.assertEquals(psm.getScanNr(), cachedPsm.getScanNr());
+                Assert.assertEquals(psm.getRetentionTime(), cachedPsm.getRetentionTime(), 0.0f);
+                Assert.assertEquals(psm.getNeutralPrecMass(), cachedPsm.getNeutralPrecMass(), 0.0);
+                Assert.assertEquals(psm.isDecoy(), cachedPsm.isDecoy());
+                Assert.assertEquals(psm.isVariant(), cachedPsm.isVariant());
+            }
+        }
+
+        Assert.assertFalse(psmCache.read(psmFile, signature + "|maxRank=2", new HashMap<>()));
+    }
+}
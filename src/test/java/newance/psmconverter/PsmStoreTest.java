@@ -0,0 +1,165 @@
+/*
+Copyright (C) SIB - Swiss Institute of Bioinformatics, Lausanne, Switzerland
+Copyright (C) LICR - Ludwig Institute of Cancer Research, Lausanne, Switzerland
+This program is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation, either version 2 of the License, or (at your option) any later version.
+This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+You should have received a copy of the GNU General Public License along with this program. If not, see https://www.gnu.org/licenses/.
+*/
+
+package newance.psmconverter;
+
+import gnu.trove.map.TObjectDoubleMap;
+import gnu.trove.map.hash.TObjectDoubleHashMap;
+import newance.mzjava.mol.Peptide;
+import newance.util.PsmGrouper;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author Markus Müller
+ */
+public class PsmStoreTest {
+
+    @Test
+    public void testSelect() {
+
+        ConcurrentHashMap<String, List<PeptideSpectrumMatch>> psmMap = new ConcurrentHashMap<>();
+        psmMap.put("spec1", Collections.synchronizedList(new ArrayList<>(Arrays.asList(
+                newPsm("PEPTIDEK", 2.5, 1, false), newPsm("KEDITPEPLL", 1.0, 2, true)))));
+        psmMap.put("spec2", Collections.synchronizedList(new ArrayList<>(Arrays.asList(
+                newPsm("PEPTIDEK", 2.0, 1, false)))));
+        psmMap.put("spec3", Collections.synchronizedList(new ArrayList<>(Arrays.asList(
+                newPsm("LSSSSQHGPSY", 1.5, 1, false)))));
+
+        PsmGrouper psmGrouper = new PsmGrouper() {
+            @Override
+            public String getMasterGroup() {
+                return "short";
+            }
+
+            @Override
+            public Set<String> getGroups() {
+                return new HashSet<>(Arrays.asList("short", "long"));
+            }
+
+            @Override
+            public String apply(String specID, PeptideSpectrumMatch psm) {
+                return psm.getPeptide().size() < 10 ? "short" : "long";
+            }
+        };
+
+        PsmStore psmStore = new PsmStore(psmMap, psmGrouper);
+
+        Assert.assertEquals(4, psmStore.size());
+        Assert.assertEquals(3, psmStore.getNrSpectra());
+        Assert.assertEquals(3, psmStore.getNrPeptides());
+
+        float[] localFDRs = new float[psmStore.size()];
+        for (int i = 0; i < psmStore.size(); i++) {
+            Assert.assertEquals(psmStore.getPsm(i).getRank(), psmStore.getRank(i));
+            localFDRs[i] = (float) (1.0 / psmStore.getPsm(i).getScore(ScoreSchema.XCORR));
+        }
+        psmStore.setLocalFDRs(localFDRs);
+
+        BitSet targets = psmStore.selectTargets();
+        Assert.assertEquals(3, targets.cardinality());
+        Assert.assertEquals(1, psmStore.selectDecoys().cardinality());
+        Assert.assertEquals(3, psmStore.countSpectra(targets));
+        Assert.assertEquals(2, psmStore.countUniquePeptides(targets));
+
+        BitSet selection = psmStore.select("short", 0.6f);
+        Assert.assertEquals(2, selection.cardinality());
+        Assert.assertEquals(1, psmStore.countUniquePeptides(selection));
+        Assert.assertEquals(0, psmStore.selectGroup("unknown").cardinality());
+
+        Map<String, Float> grpThresholdMap = new HashMap<>();
+        grpThresholdMap.put("short", 0.6f);
+        PsmStore.GroupSelection selections = psmStore.selectGroups(grpThresholdMap);
+        Assert.assertEquals(selection, selections.get("short"));
+        Assert.assertEquals(2, selections.size("short"));
+        Assert.assertEquals(0, selections.get("long").cardinality());
+        Assert.assertEquals(0, selections.size("unknown"));
+
+        ConcurrentHashMap<String, List<PeptideSpectrumMatch>> selectedMap = psmStore.toMap(selection);
+        Assert.assertEquals(new HashSet<>(Arrays.asList("spec1", "spec2")), selectedMap.keySet());
+        Assert.assertEquals(1, selectedMap.get("spec1").size());
+        Assert.assertSame(psmMap.get("spec1").get(0), selectedMap.get("spec1").get(0));
+
+        selectedMap = psmStore.toMap(psmStore.selectAll());
+        Assert.assertEquals(psmMap, selectedMap);
+    }
+
+    @Test
+    public void testSelectGroups() {
+
+        final int nrGroups = 7;
+        Peptide[] peptides = {Peptide.parse("PEPTIDEK"), Peptide.parse("KEDITPEPLL"), Peptide.parse("LSSSSQHGPSY")};
+        Random random = new Random(17);
+
+        // more PSMs than one chunk of selectGroups
+        ConcurrentHashMap<String, List<PeptideSpectrumMatch>> psmMap = new ConcurrentHashMap<>();
+        for (int i = 0; i < 100000; i++) {
+
+            double[] scores = ScoreSchema.newScores();
+            scores[ScoreSchema.XCORR] = random.nextDouble();
+            List<PeptideSpectrumMatch> psms = new ArrayList<>();
+            for (int rank = 1; rank <= 2; rank++) {
+                psms.add(new PeptideSpectrumMatch("file", peptides[random.nextInt(peptides.length)], new ArrayList<>(Arrays.asList("P1")),
+                        scores, 2, rank, 10.0f, i, 1000.0, false, false));
+            }
+            psmMap.put("spec" + i, psms);
+        }
+
+        PsmGrouper psmGrouper = new PsmGrouper() {
+            @Override
+            public String getMasterGroup() {
+                return "G0";
+            }
+
+            @Override
+            public Set<String> getGroups() {
+                Set<String> groups = new HashSet<>();
+                for (int g = 0; g < nrGroups; g++) groups.add("G" + g);
+                return groups;
+            }
+
+            @Override
+            public String apply(String specID, PeptideSpectrumMatch psm) {
+                return "G" + (psm.getScanNr() % nrGroups);
+            }
+        };
+
+        PsmStore psmStore = new PsmStore(psmMap, psmGrouper);
+        float[] localFDRs = new float[psmStore.size()];
+        for (int i = 0; i < localFDRs.length; i++) localFDRs[i] = random.nextFloat();
+        psmStore.setLocalFDRs(localFDRs);
+
+        Map<String, Float> grpThresholdMap = new HashMap<>();
+        for (int g = 1; g < nrGroups; g++) grpThresholdMap.put("G" + g, g / (float) nrGroups);
+
+        PsmStore.GroupSelection selections = psmStore.selectGroups(grpThresholdMap);
+
+        Assert.assertEquals(0, selections.size("G0"));
+        for (int g = 1; g < nrGroups; g++) {
+
+            BitSet expected = psmStore.select("G" + g, g / (float) nrGroups);
+            Assert.assertTrue(expected.cardinality() > 0);
+            Assert.assertEquals(expected, selections.get("G" + g));
+            Assert.assertEquals(expected.cardinality(), selections.size("G" + g));
+        }
+    }
+
+    private static PeptideSpectrumMatch newPsm(String sequence, double xcorr, int rank, boolean isDecoy) {
+
+        TObjectDoubleMap<String> scoreMap = new TObjectDoubleHashMap<>();
+        scoreMap.put("xcorr", xcorr);
+
+        return new PeptideSpectrumMatch("file", Peptide.parse(sequence), new ArrayList<>(Arrays.asList("P1")),
+                scoreMap, 2, rank, 10.0f, 100, 1000.0, isDecoy, false);
+    }
+}
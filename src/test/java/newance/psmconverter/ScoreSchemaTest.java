@@ -0,0 +1,69 @@
+/*
+Copyright (C) SIB - Swiss Institute of Bioinformatics, Lausanne, Switzerland
+Copyright (C) LICR - Ludwig Institute of Cancer Research, Lausanne, Switzerland
+This program is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation, either version 2 of the License, or (at your option) any later version.
+This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+You should have received a copy of the GNU General Public License along with this program. If not, see https://www.gnu.org/licenses/.
+*/
+
+package newance.psmconverter;
+
+import gnu.trove.map.TObjectDoubleMap;
+import gnu.trove.map.hash.TObjectDoubleHashMap;
+import newance.mzjava.mol.Peptide;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * @author Markus Müller
+ */
+public class ScoreSchemaTest {
+
+    @Test
+    public void testRegister() {
+
+        Assert.assertEquals(ScoreSchema.XCORR, ScoreSchema.getSlot("xcorr"));
+        Assert.assertEquals(ScoreSchema.SCORE, ScoreSchema.register("Score"));
+        Assert.assertEquals("Delta score", ScoreSchema.getName(ScoreSchema.DELTA_SCORE));
+        Assert.assertEquals(-1, ScoreSchema.getSlot("ScoreSchemaTest.unknown"));
+
+        double[] scores = ScoreSchema.newScores();
+        int slot = ScoreSchema.register("ScoreSchemaTest.new");
+        Assert.assertFalse(ScoreSchema.hasScore(scores, slot));
+
+        scores = ScoreSchema.setScore(scores, slot, 2.5);
+        Assert.assertEquals(2.5, ScoreSchema.getScore(scores, slot), 0.0);
+        Assert.assertEquals(0.0, ScoreSchema.getScore(scores, ScoreSchema.XCORR), 0.0);
+    }
+
+    @Test
+    public void testPsmScores() {
+
+        TObjectDoubleMap<String> scoreMap = new TObjectDoubleHashMap<>();
+        scoreMap.put("xcorr", 2.0);
+        scoreMap.put("deltacn", 0.2);
+
+        PeptideSpectrumMatch cometPsm = new PeptideSpectrumMatch("file", Peptide.parse("PEPTIDE"),
+                new ArrayList<>(Arrays.asList("P1")), scoreMap, 2, 1, 10.0f, 100, 1000.0, false, false);
+
+        Assert.assertEquals(2.0, cometPsm.getScore("xcorr"), 0.0);
+        Assert.assertEquals(2.0, cometPsm.getScore(ScoreSchema.XCORR), 0.0);
+        Assert.assertFalse(cometPsm.hasScore(ScoreSchema.SPSCORE));
+        Assert.assertEquals(0.0, cometPsm.getScore("spscore"), 0.0);
+        Assert.assertEquals(scoreMap, cometPsm.getScoreMap());
+
+        scoreMap = new TObjectDoubleHashMap<>();
+        scoreMap.put("Score", 120.0);
+        PeptideSpectrumMatch maxQuantPsm = new PeptideSpectrumMatch("file", Peptide.parse("PEPTIDE"),
+                new ArrayList<>(Arrays.asList("P1")), scoreMap, 2, 1, 10.0f, 100, 1000.0, false, false);
+
+        cometPsm.addScores(maxQuantPsm);
+        Assert.assertEquals(120.0, cometPsm.getScore(ScoreSchema.SCORE), 0.0);
+        Assert.assertEquals(3, cometPsm.getScoreMap().size());
+    }
+}
@@ -0,0 +1,57 @@
+/*
+Copyright (C) SIB - Swiss Institute of Bioinformatics, Lausanne, Switzerland
+Copyright (C) LICR - Ludwig Institute of Cancer Research, Lausanne, Switzerland
+This program is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation, either version 2 of the License, or (at your option) any later version.
+This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+You should have received a copy of the GNU General Public License along with this program. If not, see https://www.gnu.org/licenses/.
+*/
+
+package newance.psmconverter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * @author Markus Müller
+ */
+public class SpectrumKeyFunctionImplTest {
+
+    private static String regExKey(String spectrum) {
+
+        int firstSpace = spectrum.indexOf(' ');
+        if (firstSpace>=1) spectrum = spectrum.substring(0,firstSpace);
+
+        return spectrum.replaceAll("\\.[0]+", ".");
+    }
+
+    @Test
+    public void testApply() {
+
+        SpectrumKeyFunctionImpl keyFunction = new SpectrumKeyFunctionImpl();
+
+        String[] spectra = {"20180101_run1.01234.01234.2", "20180101_run1.01235.01235.3", "20180101_run2.1234.1234.2",
+                "run.10000.10000.2", "run.0.0.2", "run.00100.00100.2 RTINSECONDS=123", " run.0001.0001.2",
+                "a..0", "a.0x", "a.", "run.v1.00012.00012.1", "run.v1.0.0.1"};
+
+        for (String spectrum : spectra) {
+            Assert.assertEquals(spectrum, regExKey(spectrum), keyFunction.apply(new SpectrumInfo(spectrum)));
+        }
+
+        Random random = new Random(17);
+        char[] chars = {'.', '0', '1', 'a', ' '};
+        for (int i = 0; i < 10000; i++) {
+
+            StringBuilder sb = new StringBuilder("f");
+            int len = random.nextInt(12);
+            for (int j = 0; j < len; j++) sb.append(chars[random.nextInt(chars.length)]);
+
+            String spectrum = sb.toString();
+            if (spectrum.indexOf('.') < 0) continue;
+            Assert.assertEquals(spectrum, regExKey(spectrum), keyFunction.apply(new SpectrumInfo(spectrum)));
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+Copyright (C) SIB - Swiss Institute of Bioinformatics, Lausanne, Switzerland
+Copyright (C) LICR - Ludwig Institute of Cancer Research, Lausanne, Switzerland
+This program is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation, either version 2 of the License, or (at your option) any later version.
+This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+You should have received a copy of the GNU General Public License along with this program. If not, see https://www.gnu.org/licenses/.
+*/
+
+package newance.util;
+
+import newance.psmconverter.PeptideMatchDataWrapper;
+import newance.psmconverter.ScoreSchema;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Markus Müller
+ */
+public class PsmPredicateTest {
+
+    @Test
+    public void testPrecheck() {
+
+        NewAnceParams params = NewAnceParams.getInstance();
+        PsmPredicate psmPredicate = new PsmPredicate(params);
+
+        String peptide = "PEPTIDEKLMN".substring(0, Math.min(11, params.getMaxPeptideLength()));
+        int charge = params.getMinCharge();
+
+        for (int rank = 1; rank <= params.getMaxRank() + 1; rank++) {
+
+            PeptideMatchDataWrapper psm = new PeptideMatchDataWrapper(peptide);
+            psm.setRank(rank);
+            Assert.assertEquals(psmPredicate.check(psm, charge), psmPredicate.precheck(rank, charge, peptide.length()));
+        }
+        Assert.assertFalse(psmPredicate.checkRank(params.getMaxRank() + 1));
+
+        Assert.assertFalse(psmPredicate.checkCharge(params.getMinCharge() - 1));
+        Assert.assertFalse(psmPredicate.checkCharge(params.getMaxCharge() + 1));
+        Assert.assertFalse(psmPredicate.checkLength(params.getMinPeptideLength() - 1));
+        Assert.assertFalse(psmPredicate.checkLength(params.getMaxPeptideLength() + 1));
+
+        Assert.assertFalse(psmPredicate.checkScore(ScoreSchema.XCORR, params.getMinXCorrPSM() - 0.1));
+        Assert.assertTrue(psmPredicate.checkScore(ScoreSchema.XCORR, params.getMinXCorrPSM()));
+        Assert.assertFalse(psmPredicate.checkScore(ScoreSchema.PEP, params.getMinPEPPSM() + 0.1));
+        Assert.assertTrue(psmPredicate.checkScore(ScoreSchema.EXPECT, -1.0));
+
+        PeptideMatchDataWrapper psm = new PeptideMatchDataWrapper(peptide);
+        psm.setRank(1);
+        psm.addScore(ScoreSchema.XCORR, params.getMinXCorrPSM() - 0.1);
+        Assert.assertFalse(psmPredicate.check(psm, charge));
+    }
+}
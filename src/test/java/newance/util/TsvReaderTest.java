@@ -0,0 +1,99 @@
+/*
+Copyright (C) SIB - Swiss Institute of Bioinformatics, Lausanne, Switzerland
+Copyright (C) LICR - Ludwig Institute of Cancer Research, Lausanne, Switzerland
+This program is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License
+as published by the Free Software Foundation, either version 2 of the License, or (at your option) any later version.
+This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+You should have received a copy of the GNU General Public License along with this program. If not, see https://www.gnu.org/licenses/.
+*/
+
+package newance.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+/**
+ * @author Markus Müller
+ */
+public class TsvReaderTest {
+
+    @Test
+    public void testRead() throws IOException {
+
+        String tsv = "Raw file\tScan number\tCharge\tMass\tReverse\r\n" +
+                "run1\t1234\t2\t1001.4973\t\r\n" +
+                "\r\n" +
+                "run2\t-12\t3\t-1.5e3\t+\n" +
+                "run3\t7";
+
+        TsvReader reader = new TsvReader(new StringReader(tsv), '\t');
+
+        Assert.assertEquals(5, reader.getColumnNames().size());
+        Assert.assertEquals(1, reader.getColumnIndex("Scan number"));
+        Assert.assertEquals(1, reader.getColumnIndex("scan Number"));
+        Assert.assertEquals(-1, reader.getColumnIndex("Score"));
+
+        int reverseCol = reader.getColumnIndex("Reverse");
+
+        Assert.assertTrue(reader.next());
+        Assert.assertEquals("run1", reader.getString(0));
+        Assert.assertEquals(1234, reader.getInt(1));
+        Assert.assertEquals(2, reader.getInt(2));
+        Assert.assertEquals(1001.4973, reader.getDouble(3), 0.0);
+        Assert.assertTrue(reader.isEmpty(reverseCol));
+        Assert.assertEquals("", reader.getString(reverseCol));
+
+        Assert.assertTrue(reader.next());
+        Assert.assertEquals("run2", reader.getString(0));
+        Assert.assertEquals(-12, reader.getInt(1));
+        Assert.assertEquals(-1500.0, reader.getDouble(3), 0.0);
+        Assert.assertTrue(reader.fieldEquals(reverseCol, "+"));
+
+        Assert.assertTrue(reader.next());
+        Assert.assertEquals("run3", reader.getString(0));
+        Assert.assertEquals(7, reader.getInt(1));
+        Assert.assertEquals(0, reader.getInt(2));
+        Assert.assertEquals("", reader.getString(reverseCol));
+
+        Assert.assertFalse(reader.next());
+        Assert.assertEquals(3, reader.getLineNr());
+    }
+
+    @Test
+    public void testGetDouble() throws IOException {
+
+        String[] values = new String[]{"0.1", "0.3", "123.456789012345", "-0.0", "1234567890.12345678", "7.",
+                ".25", "3.14159265358979323846", "1E-10", "NaN", "0.000000000000000000000000123", "42"};
+
+        StringBuilder tsv = new StringBuilder("value\n");
+        for (String value : values) tsv.append(value).append("\n");
+
+        TsvReader reader = new TsvReader(new StringReader(tsv.toString()), '\t');
+        for (String value : values) {
+
+            Assert.assertTrue(reader.next());
+            Assert.assertEquals(value, Double.doubleToLongBits(Double.parseDouble(value)), Double.doubleToLongBits(reader.getDouble(0)));
+        }
+    }
+
+    @Test
+    public void testLongLine() throws IOException {
+
+        StringBuilder field = new StringBuilder();
+        for (int i = 0; i < 100000; i++) field.append((char) ('A' + i % 20));
+
+        TsvReader reader = new TsvReader(new StringReader("Sequence\tCharge\n" + field + "\t2\nPEPTIDE\t3\n"), '\t');
+
+        Assert.assertTrue(reader.next());
+        Assert.assertEquals(field.toString(), reader.getString(0));
+        Assert.assertEquals(2, reader.getInt(1));
+        Assert.assertTrue(reader.next());
+        Assert.assertEquals("PEPTIDE", reader.getString(0));
+        Assert.assertEquals(3, reader.getInt(1));
+        Assert.assertFalse(reader.next());
+    }
+}